@@ -0,0 +1,288 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.java.sip.communicator.impl.protocol.jabber.extensions.jingle;
+
+import java.util.function.*;
+
+/**
+ * The providers of the elements of a Jingle IQ (content, description,
+ * payload-type, parameter, rtcp-fb, rtp-hdrext, source, ssrc-info,
+ * ssrc-group, transport, candidate and fingerprint), looked up by element
+ * name and namespace in a perfect hash table.
+ *
+ * The table is generated when the class is loaded : a seed is searched for
+ * which the hash of the (element name, namespace) of each entry falls in a
+ * different slot, so that a lookup is a single hash and a single comparison,
+ * without the lock and the string concatenation of
+ * <tt>ProviderManager.getExtensionProvider</tt>. The providers create the
+ * elements with constructor references instead of reflection.
+ *
+ * The providers are immutable and shared by all the connections.
+ */
+public final class JingleElementTable
+{
+    /**
+     * The namespace of the raw UDP transport, whose candidates are parsed
+     * like the ICE ones.
+     */
+    private static final String RAW_UDP_NAMESPACE
+        = "urn:xmpp:jingle:transports:raw-udp:1";
+
+    /**
+     * The elements of a Jingle IQ and their providers.
+     */
+    private static final Entry[] ENTRIES = {
+        new Entry(
+            NewContentPacketExtension.ELEMENT_NAME,
+            NewContentPacketExtension.NAMESPACE,
+            NewContentPacketExtension::new),
+        new Entry(
+            NewRtpDescriptionPacketExtension.ELEMENT_NAME,
+            NewRtpDescriptionPacketExtension.NAMESPACE,
+            NewRtpDescriptionPacketExtension::new),
+        new Entry(
+            NewPayloadTypePacketExtension.ELEMENT_NAME,
+            NewPayloadTypePacketExtension.NAMESPACE,
+            NewPayloadTypePacketExtension::new),
+        new Entry(
+            NewParameterPacketExtension.ELEMENT_NAME,
+            NewParameterPacketExtension.NAMESPACE,
+            NewParameterPacketExtension::new),
+        new Entry(
+            NewParameterPacketExtension.ELEMENT_NAME,
+            NewSourcePacketExtension.NAMESPACE,
+            NewParameterPacketExtension::new),
+        new Entry(
+            NewRtcpFbPacketExtension.ELEMENT_NAME,
+            NewRtcpFbPacketExtension.NAMESPACE,
+            NewRtcpFbPacketExtension::new),
+        new Entry(
+            NewRTPHdrExtPacketExtension.ELEMENT_NAME,
+            NewRTPHdrExtPacketExtension.NAMESPACE,
+            NewRTPHdrExtPacketExtension::new),
+        new Entry(
+            NewSourcePacketExtension.ELEMENT_NAME,
+            NewSourcePacketExtension.NAMESPACE,
+            NewSourcePacketExtension::new),
+        new Entry(
+            NewSSRCInfoPacketExtension.ELEMENT_NAME,
+            NewSSRCInfoPacketExtension.NAMESPACE,
+            NewSSRCInfoPacketExtension::new),
+        new Entry(
+            NewSourceGroupPacketExtension.ELEMENT_NAME,
+            NewSourceGroupPacketExtension.NAMESPACE,
+            NewSourceGroupPacketExtension::new),
+        new Entry(
+            NewIceUdpTransportPacketExtension.ELEMENT_NAME,
+            NewIceUdpTransportPacketExtension.NAMESPACE,
+            NewIceUdpTransportPacketExtension::new),
+        new Entry(
+            NewCandidatePacketExtension.ELEMENT_NAME,
+            NewIceUdpTransportPacketExtension.NAMESPACE,
+            NewCandidatePacketExtension::new),
+        new Entry(
+            NewCandidatePacketExtension.ELEMENT_NAME,
+            RAW_UDP_NAMESPACE,
+            NewCandidatePacketExtension::new),
+        new Entry(
+            NewDtlsFingerprintPacketExtension.ELEMENT_NAME,
+            NewDtlsFingerprintPacketExtension.NAMESPACE,
+            NewDtlsFingerprintPacketExtension::new)
+    };
+
+    /**
+     * The perfect hash table : each entry is at the slot given by
+     * <tt>slot</tt>, the other slots are null.
+     */
+    private static final Entry[] TABLE;
+
+    /**
+     * The seed of the hash function for which the entries do not collide.
+     */
+    private static final int SEED;
+
+    static
+    {
+        int size = Integer.highestOneBit(ENTRIES.length - 1) << 2;
+        Entry[] table = null;
+        int seed = 0;
+
+        while (table == null)
+        {
+            for (seed = 1; seed < (1 << 16); seed += 2)
+            {
+                table = fill(size, seed);
+                if (table != null)
+                    break;
+            }
+            size <<= 1;
+        }
+        TABLE = table;
+        SEED = seed;
+    }
+
+    /**
+     * Do not instantiate : the table is static.
+     */
+    private JingleElementTable()
+    {
+    }
+
+    /**
+     * Put the entries in a table of <tt>size</tt> slots with the hash
+     * function of <tt>seed</tt>.
+     *
+     * @param size the number of slots (a power of two).
+     * @param seed the seed of the hash function.
+     * @return the table, or null if two entries collide.
+     */
+    private static Entry[] fill(int size, int seed)
+    {
+        Entry[] table = new Entry[size];
+
+        for (Entry entry : ENTRIES)
+        {
+            int slot = slot(entry.elementName, entry.namespace, seed, size);
+            if (table[slot] != null)
+                return null;
+            table[slot] = entry;
+        }
+        return table;
+    }
+
+    /**
+     * Get the slot of an element.
+     *
+     * @param elementName the name of the element.
+     * @param namespace the namespace of the element.
+     * @param seed the seed of the hash function.
+     * @param size the number of slots (a power of two).
+     * @return the slot of the element.
+     */
+    private static int slot(
+        String elementName,
+        String namespace,
+        int seed,
+        int size)
+    {
+        int h = elementName.hashCode() * seed + namespace.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h & (size - 1);
+    }
+
+    /**
+     * Get the provider of an element of a Jingle IQ.
+     *
+     * @param elementName the name of the element.
+     * @param namespace the namespace of the element.
+     * @return the provider of the element, or null if it is not an element
+     * of a Jingle IQ.
+     */
+    public static NewAbstractExtensionElementProvider<?> getProvider(
+        String elementName,
+        String namespace)
+    {
+        if (elementName == null)
+            return null;
+        if (namespace == null)
+            namespace = "";
+
+        Entry entry
+            = TABLE[slot(elementName, namespace, SEED, TABLE.length)];
+        return entry != null
+                && entry.elementName.equals(elementName)
+                && entry.namespace.equals(namespace)
+            ? entry.provider : null;
+    }
+
+    /**
+     * Get the number of elements in the table.
+     *
+     * @return the number of elements in the table.
+     */
+    public static int size()
+    {
+        return ENTRIES.length;
+    }
+
+    /**
+     * Get the name of the element at <tt>index</tt>.
+     *
+     * @param index the index of the element, between 0 and <tt>size()</tt>.
+     * @return the name of the element.
+     */
+    public static String getElementName(int index)
+    {
+        return ENTRIES[index].elementName;
+    }
+
+    /**
+     * Get the namespace of the element at <tt>index</tt>.
+     *
+     * @param index the index of the element, between 0 and <tt>size()</tt>.
+     * @return the namespace of the element.
+     */
+    public static String getNamespace(int index)
+    {
+        return ENTRIES[index].namespace;
+    }
+
+    /**
+     * Get the provider of the element at <tt>index</tt>.
+     *
+     * @param index the index of the element, between 0 and <tt>size()</tt>.
+     * @return the provider of the element.
+     */
+    public static NewAbstractExtensionElementProvider<?> getProvider(
+        int index)
+    {
+        return ENTRIES[index].provider;
+    }
+
+    /**
+     * An element of a Jingle IQ and its provider.
+     */
+    private static class Entry
+    {
+        /**
+         * The name of the element.
+         */
+        private final String elementName;
+
+        /**
+         * The namespace of the element.
+         */
+        private final String namespace;
+
+        /**
+         * The provider of the element.
+         */
+        private final NewAbstractExtensionElementProvider<?> provider;
+
+        <C extends NewAbstractExtensionElement> Entry(
+            String elementName,
+            String namespace,
+            Supplier<C> factory)
+        {
+            this.elementName = elementName;
+            this.namespace = namespace;
+            this.provider = new NewAbstractExtensionElementProvider<>(factory);
+        }
+    }
+}
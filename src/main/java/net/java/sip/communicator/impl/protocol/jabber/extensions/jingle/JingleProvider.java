@@ -18,7 +18,7 @@ package net.java.sip.communicator.impl.protocol.jabber.extensions.jingle;
 
 import org.jivesoftware.smack.packet.Element;
 import org.jivesoftware.smack.provider.ExtensionElementProvider;
-import org.jivesoftware.smack.provider.IntrospectionProvider;
+import org.jivesoftware.smack.provider.IQProvider;
 import org.jivesoftware.smack.provider.ProviderManager;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
@@ -26,18 +26,15 @@ import org.xmlpull.v1.XmlPullParserException;
 import java.io.IOException;
 
 /**
- * A provider for <tt>NewJingleIQ</tt> instances
+ * A provider for <tt>NewJingleIQ</tt> instances. The contents are parsed by
+ * the providers of the <tt>JingleElementTable</tt>, without reflection, and
+ * frozen.
  *
  * @author Brian Baldino
  */
-public class JingleProvider extends IntrospectionProvider.IQIntrospectionProvider<NewJingleIQ>
+public class JingleProvider extends IQProvider<NewJingleIQ>
 {
 
-    public JingleProvider()
-    {
-        super(NewJingleIQ.class);
-    }
-
     @Override
     public NewJingleIQ parse(XmlPullParser parser, int initialDepth)
             throws XmlPullParserException, IOException
@@ -63,13 +60,21 @@ public class JingleProvider extends IntrospectionProvider.IQIntrospectionProvide
                 String namespace = parser.getNamespace();
                 if (eventType == XmlPullParser.START_TAG)
                 {
-                    ExtensionElementProvider provider = ProviderManager.getExtensionProvider(elementName, namespace);
+                    ExtensionElementProvider<?> provider = JingleElementTable.getProvider(elementName, namespace);
+                    if (provider == null)
+                    {
+                        provider = ProviderManager.getExtensionProvider(elementName, namespace);
+                    }
                     if (provider != null)
                     {
                         Element child = provider.parse(parser);
                         if (child instanceof NewContentPacketExtension)
                         {
-                            jingleIQ.addContent((NewContentPacketExtension)child);
+                            // The contents received are only read (by all the
+                            // threads handling the session), so they are frozen.
+                            NewContentPacketExtension content = (NewContentPacketExtension)child;
+                            content.freeze();
+                            jingleIQ.addContent(content);
                         }
                         else
                         {
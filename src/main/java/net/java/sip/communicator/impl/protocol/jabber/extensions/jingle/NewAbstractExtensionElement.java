@@ -2,19 +2,27 @@ package net.java.sip.communicator.impl.protocol.jabber.extensions.jingle;
 
 import org.jivesoftware.smack.packet.Element;
 import org.jivesoftware.smack.packet.ExtensionElement;
-import org.jivesoftware.smack.packet.NamedElement;
 import org.jivesoftware.smack.util.XmlStringBuilder;
 
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
  * An <tt>ExtensionElement</tt> implementation which provides common functionality <tt>ExtensionElement</tt>s
+ * <p>
+ * An element is built, then read many times (by several threads when it is
+ * shared by the users). Once built, it can be frozen with {@link #freeze()}:
+ * its attributes and children are then kept in compact arrays, its children
+ * are indexed by type, and it is read without locking. A frozen element can
+ * no longer be modified.
  *
  * @author Brian baldino
  */
@@ -59,6 +67,48 @@ public abstract class NewAbstractExtensionElement
      */
     private String textContent;
 
+    /**
+     * The number of modifications of this extension, used to invalidate
+     * <tt>cachedXML</tt>.
+     */
+    private volatile int modCount;
+
+    /**
+     * The cached XML representation of this extension, if it is cacheable.
+     */
+    private volatile CachedXML cachedXML;
+
+    /**
+     * Whether this extension is frozen. It is written after the frozen
+     * fields, which it publishes to the other threads.
+     */
+    private volatile boolean frozen;
+
+    /**
+     * The names of the attributes of this extension, once it is frozen.
+     */
+    private String[] frozenAttributeNames;
+
+    /**
+     * The values of the attributes of this extension (indexed like
+     * <tt>frozenAttributeNames</tt>), once it is frozen.
+     */
+    private Object[] frozenAttributeValues;
+
+    /**
+     * The (unmodifiable) list of the children of this extension, once it is
+     * frozen.
+     */
+    private List<Element> frozenChildren;
+
+    /**
+     * The (unmodifiable) lists of the children of this extension of each type
+     * looked up, once it is frozen. It is only created by <tt>freeze()</tt>
+     * for the extensions which have children, so it is null for the mutable
+     * extensions and for the leaves (candidates, parameters, ...).
+     */
+    private Map<Class<?>, List<?>> frozenChildrenByType;
+
     protected NewAbstractExtensionElement(String elementName, String namespace)
     {
         this.namespace = namespace;
@@ -94,7 +144,9 @@ public abstract class NewAbstractExtensionElement
      */
     public void setNamespace(String namespace)
     {
+        checkNotFrozen();
         this.namespace = namespace;
+        modCount++;
     }
 
     /**
@@ -104,23 +156,77 @@ public abstract class NewAbstractExtensionElement
      */
     public CharSequence toXML()
     {
-        XmlStringBuilder xmlBuilder;
-        if (namespaceInherited)
+        XmlStringBuilder xmlBuilder = new XmlStringBuilder();
+
+        appendXML(xmlBuilder);
+        return xmlBuilder;
+    }
+
+    /**
+     * Appends the XML representation of this extension to
+     * <tt>xmlBuilder</tt>. The child elements which are
+     * <tt>NewAbstractExtensionElement</tt>s are appended to the same builder
+     * instead of being serialized on their own, so that a whole tree is
+     * serialized in a single pass.
+     *
+     * If this extension caches its XML (see {@link #isXMLCacheable()}) and
+     * neither it nor its children have been modified since it was last
+     * serialized, its cached XML is appended instead.
+     *
+     * @param xmlBuilder the <tt>XmlStringBuilder</tt> to append to.
+     */
+    public void appendXML(XmlStringBuilder xmlBuilder)
+    {
+        long version = isXMLCacheable() ? getXMLVersion() : -1;
+        if (version < 0)
         {
-            xmlBuilder = new XmlStringBuilder((NamedElement)this);
+            serializeXML(xmlBuilder);
+            return;
         }
-        else
+
+        CachedXML cached = cachedXML;
+        if (cached == null || cached.version != version)
         {
-            xmlBuilder = new XmlStringBuilder(this);
+            XmlStringBuilder ownBuilder = new XmlStringBuilder();
+            serializeXML(ownBuilder);
+            cached = new CachedXML(version, ownBuilder.toString());
+            cachedXML = cached;
+        }
+        xmlBuilder.append(cached.xml);
+    }
 
+    /**
+     * Serializes this extension and its children to <tt>xmlBuilder</tt>.
+     *
+     * @param xmlBuilder the <tt>XmlStringBuilder</tt> to append to.
+     */
+    private void serializeXML(XmlStringBuilder xmlBuilder)
+    {
+        xmlBuilder.halfOpenElement(getElementName());
+        if (!namespaceInherited)
+        {
+            xmlBuilder.xmlnsAttribute(getNamespace());
         }
 
-        for (Map.Entry<String, Object> entry : attributes.entrySet())
+        if (frozen)
         {
-            xmlBuilder.attribute(entry.getKey(), entry.getValue().toString());
+            for (int i = 0; i < frozenAttributeNames.length; i++)
+            {
+                xmlBuilder.attribute(
+                    frozenAttributeNames[i],
+                    frozenAttributeValues[i].toString());
+            }
+        }
+        else
+        {
+            for (Map.Entry<String, Object> entry : attributes.entrySet())
+            {
+                xmlBuilder.attribute(
+                    entry.getKey(), entry.getValue().toString());
+            }
         }
 
-        List<Element> childElements = new ArrayList<>(getChildExtensions());
+        List<Element> childElements = getChildExtensions();
         String text = getText();
 
         if (childElements.isEmpty() && text == null)
@@ -134,16 +240,64 @@ public abstract class NewAbstractExtensionElement
             // Child elements, if any
             for (Element e : childElements)
             {
-                xmlBuilder.element(e);
+                if (e instanceof NewAbstractExtensionElement)
+                {
+                    ((NewAbstractExtensionElement) e).appendXML(xmlBuilder);
+                }
+                else
+                {
+                    xmlBuilder.append(e.toXML());
+                }
             }
 
             // Text, if non-null
-            xmlBuilder.optAppend(getText());
+            xmlBuilder.optAppend(text);
 
-            xmlBuilder.closeElement(this);
+            xmlBuilder.closeElement(getElementName());
         }
+    }
 
-        return xmlBuilder.toString();
+    /**
+     * Returns whether this extension caches its XML representation. It is
+     * meant for the small elements which are built once and serialized in
+     * many stanzas, like the payload types : the others are not worth the
+     * memory.
+     * <p>
+     * The cache is invalidated when this extension or one of its children is
+     * modified through the methods of <tt>NewAbstractExtensionElement</tt>,
+     * but not when the list returned by {@link #getChildExtensions()} is
+     * modified directly.
+     *
+     * @return <tt>true</tt> if this extension caches its XML representation.
+     */
+    protected boolean isXMLCacheable()
+    {
+        return false;
+    }
+
+    /**
+     * Returns a number which increases whenever this extension or one of its
+     * descendants is modified, or <tt>-1</tt> if a descendant is not a
+     * <tt>NewAbstractExtensionElement</tt> (its modifications can not be
+     * detected).
+     *
+     * @return the version of the XML representation of this extension.
+     */
+    private long getXMLVersion()
+    {
+        long version = modCount;
+        for (Element e : getChildExtensions())
+        {
+            if (!(e instanceof NewAbstractExtensionElement))
+                return -1;
+
+            long childVersion
+                = ((NewAbstractExtensionElement) e).getXMLVersion();
+            if (childVersion < 0)
+                return -1;
+            version += childVersion + 1;
+        }
+        return version;
     }
 
     /**
@@ -153,7 +307,9 @@ public abstract class NewAbstractExtensionElement
      */
     public void setText(String text)
     {
+        checkNotFrozen();
         this.textContent = text;
+        modCount++;
     }
 
     /**
@@ -180,7 +336,9 @@ public abstract class NewAbstractExtensionElement
      */
     public void addChildExtension(Element childExtension)
     {
+        checkNotFrozen();
         childExtensions.add(childExtension);
+        modCount++;
     }
 
     /**
@@ -190,11 +348,15 @@ public abstract class NewAbstractExtensionElement
      * Overriding extensions may need to override this method if they would like
      * to have anything more elaborate than just a list of extensions.
      *
+     * Once this extension is frozen, the list is unmodifiable, and overriding
+     * extensions should return it (by calling this method) instead of
+     * building their own.
+     *
      * @return the {@link List} of elements that this packet extension contains.
      */
     public List<Element> getChildExtensions()
     {
-        return childExtensions;
+        return frozen ? frozenChildren : childExtensions;
     }
 
     /**
@@ -207,21 +369,53 @@ public abstract class NewAbstractExtensionElement
      * @param type the <tt>Class</tt> of the extension we are looking for.
      *
      * @return a (possibly empty) list containing all of this packet's direct
-     * child extensions that match the specified <tt>type</tt>
+     * child extensions that match the specified <tt>type</tt> (unmodifiable
+     * once this packet is frozen)
      */
     public <T extends NewAbstractExtensionElement> List<T> getChildExtensionsOfType(
             Class<T> type)
     {
+        if (frozen)
+        {
+            if (frozenChildrenByType == null)
+                return Collections.emptyList();
+
+            List<?> children = frozenChildrenByType.get(type);
+            if (children == null)
+            {
+                children = Collections.unmodifiableList(
+                        filterChildren(frozenChildren, type));
+                frozenChildrenByType.put(type, children);
+            }
+            return (List<T>) children;
+        }
+
         synchronized (childExtensions)
         {
-            return getChildExtensions()
-                    .stream()
-                    .filter(element -> type.isInstance(element))
-                    .map(element -> (T) element)
-                    .collect(Collectors.toList());
+            return filterChildren(getChildExtensions(), type);
         }
     }
 
+    /**
+     * Returns the elements of <tt>children</tt> that match the specified
+     * <tt>type</tt>.
+     *
+     * @param children the children of this packet.
+     * @param type the <tt>Class</tt> of the extensions we are looking for.
+     * @return a (possibly empty) new list of the children that match
+     * <tt>type</tt>.
+     */
+    private static <T extends NewAbstractExtensionElement> List<T> filterChildren(
+            List<Element> children,
+            Class<T> type)
+    {
+        return children
+                .stream()
+                .filter(element -> type.isInstance(element))
+                .map(element -> (T) element)
+                .collect(Collectors.toList());
+    }
+
     /**
      * Returns this packet's first direct child extension that matches the
      * specified <tt>type</tt>.
@@ -235,6 +429,12 @@ public abstract class NewAbstractExtensionElement
      */
     public <T extends NewAbstractExtensionElement> T getFirstChildOfType(Class<T> type)
     {
+        if (frozen)
+        {
+            List<T> children = getChildExtensionsOfType(type);
+            return children.isEmpty() ? null : children.get(0);
+        }
+
         synchronized (childExtensions)
         {
             return getChildExtensions()
@@ -242,7 +442,7 @@ public abstract class NewAbstractExtensionElement
                     .filter(element -> type.isInstance(element))
                     .map(element -> (T) element)
                     .findFirst()
-                    .get();
+                    .orElse(null);
         }
     }
 
@@ -256,6 +456,7 @@ public abstract class NewAbstractExtensionElement
      */
     public void setAttribute(String name, Object value)
     {
+        checkNotFrozen();
         synchronized (attributes)
         {
             if (value != null)
@@ -266,6 +467,7 @@ public abstract class NewAbstractExtensionElement
             {
                 this.attributes.remove(name);
             }
+            modCount++;
         }
     }
 
@@ -280,6 +482,16 @@ public abstract class NewAbstractExtensionElement
      */
     public Object getAttribute(String attribute)
     {
+        if (frozen)
+        {
+            for (int i = 0; i < frozenAttributeNames.length; i++)
+            {
+                if (frozenAttributeNames[i].equals(attribute))
+                    return frozenAttributeValues[i];
+            }
+            return null;
+        }
+
         synchronized(attributes)
         {
             return attributes.get(attribute);
@@ -301,23 +513,20 @@ public abstract class NewAbstractExtensionElement
     public URI getAttributeAsURI(String attribute)
             throws IllegalArgumentException
     {
-        synchronized(attributes)
-        {
-            String attributeVal = getAttributeAsString(attribute);
+        String attributeVal = getAttributeAsString(attribute);
 
-            if (attributeVal == null)
-                return null;
+        if (attributeVal == null)
+            return null;
 
-            try
-            {
-                URI uri = new URI(attributeVal);
+        try
+        {
+            URI uri = new URI(attributeVal);
 
-                return uri;
-            }
-            catch (URISyntaxException e)
-            {
-                throw new IllegalArgumentException(e);
-            }
+            return uri;
+        }
+        catch (URISyntaxException e)
+        {
+            throw new IllegalArgumentException(e);
         }
     }
 
@@ -350,12 +559,9 @@ public abstract class NewAbstractExtensionElement
      */
     public int getAttributeAsInt(String attribute, int defaultValue)
     {
-        synchronized(attributes)
-        {
-            String value = getAttributeAsString(attribute);
+        String value = getAttributeAsString(attribute);
 
-            return (value == null) ? defaultValue : Integer.parseInt(value);
-        }
+        return (value == null) ? defaultValue : Integer.parseInt(value);
     }
 
     /**
@@ -370,12 +576,9 @@ public abstract class NewAbstractExtensionElement
      */
     public String getAttributeAsString(String attribute)
     {
-        synchronized(attributes)
-        {
-            Object attributeVal = attributes.get(attribute);
+        Object attributeVal = getAttribute(attribute);
 
-            return attributeVal == null ? null : attributeVal.toString();
-        }
+        return attributeVal == null ? null : attributeVal.toString();
     }
 
     /**
@@ -387,6 +590,11 @@ public abstract class NewAbstractExtensionElement
      */
     public List<String> getAttributeNames()
     {
+        if (frozen)
+        {
+            return new ArrayList<String>(Arrays.asList(frozenAttributeNames));
+        }
+
         synchronized (attributes)
         {
             return new ArrayList<String>(attributes.keySet());
@@ -401,9 +609,67 @@ public abstract class NewAbstractExtensionElement
      */
     public void removeAttribute(String name)
     {
+        checkNotFrozen();
         synchronized(attributes)
         {
             attributes.remove(name);
+            modCount++;
+        }
+    }
+
+    /**
+     * Freezes this extension and its descendants: they can no longer be
+     * modified, and they are read without locking. Freezing an extension
+     * which is already frozen does nothing.
+     */
+    public void freeze()
+    {
+        if (frozen)
+            return;
+
+        // The children are listed before this extension is frozen, so that
+        // the overriding extensions can build their list.
+        List<Element> children = getChildExtensions();
+        for (Element e : children)
+        {
+            if (e instanceof NewAbstractExtensionElement)
+                ((NewAbstractExtensionElement) e).freeze();
+        }
+
+        synchronized (attributes)
+        {
+            frozenAttributeNames
+                = attributes.keySet().toArray(new String[attributes.size()]);
+            frozenAttributeValues = attributes.values().toArray();
+        }
+        frozenChildren = Collections.unmodifiableList(
+                Arrays.asList(children.toArray(new Element[children.size()])));
+        if (!children.isEmpty())
+            frozenChildrenByType = new ConcurrentHashMap<>();
+        frozen = true;
+    }
+
+    /**
+     * Returns whether this extension is frozen.
+     *
+     * @return <tt>true</tt> if this extension is frozen.
+     */
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    /**
+     * Checks that this extension can be modified.
+     *
+     * @throws IllegalStateException if this extension is frozen.
+     */
+    protected void checkNotFrozen()
+    {
+        if (frozen)
+        {
+            throw new IllegalStateException(
+                    "The " + getElementName() + " element is frozen");
         }
     }
 
@@ -448,4 +714,27 @@ public abstract class NewAbstractExtensionElement
 
         return dst;
     }
+
+    /**
+     * An XML representation of an extension, with the version of the
+     * extension it was made from.
+     */
+    private static class CachedXML
+    {
+        /**
+         * The version of the extension when it was serialized.
+         */
+        private final long version;
+
+        /**
+         * The XML representation of the extension.
+         */
+        private final String xml;
+
+        CachedXML(long version, String xml)
+        {
+            this.version = version;
+            this.xml = xml;
+        }
+    }
 }
@@ -17,6 +17,7 @@
  */
 package net.java.sip.communicator.impl.protocol.jabber.extensions.jingle;
 
+import java.util.function.*;
 import java.util.logging.*;
 
 import org.jivesoftware.smack.packet.*;
@@ -27,11 +28,15 @@ import org.xmlpull.v1.*;
  * A provider that parses incoming packet extensions into instances of the
  * {@link Class} that it has been instantiated for.
  *
+ * The child elements of the Jingle element set are parsed by the providers
+ * of the <tt>JingleElementTable</tt>, the others by the providers registered
+ * in the <tt>ProviderManager</tt>.
+ *
  * @param <C> Class that the packets we will be parsing belong to
  * @author Brian Baldino
  */
 public class NewAbstractExtensionElementProvider<C extends NewAbstractExtensionElement>
-        extends ExtensionElementProvider
+        extends ExtensionElementProvider<C>
 {
     /**
      * The <tt>Logger</tt> used by the <tt>DefaultPacketExtensionProvider</tt>
@@ -41,18 +46,44 @@ public class NewAbstractExtensionElementProvider<C extends NewAbstractExtensionE
             .getLogger(NewAbstractExtensionElementProvider.class.getName());
 
     /**
-     * The {@link Class} that the packets we will be parsing here belong to.
+     * Creates the instances of the packets we will be parsing here.
      */
-    private final Class<C> packetClass;
+    private final Supplier<C> factory;
 
     /**
-     * Creates a new packet provider for the specified packet extensions.
+     * Creates a new packet provider for the specified packet extensions,
+     * instantiated by reflection.
      *
      * @param c the {@link Class} that the packets we will be parsing belong to.
      */
-    public NewAbstractExtensionElementProvider(Class<C> c)
+    public NewAbstractExtensionElementProvider(final Class<C> c)
     {
-        this.packetClass = c;
+        this(new Supplier<C>()
+        {
+            @Override
+            public C get()
+            {
+                try
+                {
+                    return c.newInstance();
+                }
+                catch (InstantiationException | IllegalAccessException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Creates a new packet provider for the packet extensions created by
+     * <tt>factory</tt> (typically a constructor reference).
+     *
+     * @param factory creates the instances of the packets we will be parsing.
+     */
+    public NewAbstractExtensionElementProvider(Supplier<C> factory)
+    {
+        this.factory = factory;
     }
 
     /**
@@ -69,7 +100,7 @@ public class NewAbstractExtensionElementProvider<C extends NewAbstractExtensionE
      */
     public C parse(XmlPullParser parser, int initialDepth) throws Exception
     {
-        C packetExtension = packetClass.newInstance();
+        C packetExtension = factory.get();
 
         // first, set all attributes
         int attrCount = parser.getAttributeCount();
@@ -103,10 +134,14 @@ public class NewAbstractExtensionElementProvider<C extends NewAbstractExtensionE
 
             if (eventType == XmlPullParser.START_TAG)
             {
-                ExtensionElementProvider provider;
-                provider = ProviderManager.getExtensionProvider(elementName, namespace);
+                ExtensionElementProvider<?> provider
+                    = JingleElementTable.getProvider(elementName, namespace);
 
-                ProviderManager.getExtensionProviders();
+                if (provider == null)
+                {
+                    provider = ProviderManager.getExtensionProvider(
+                            elementName, namespace);
+                }
 
                 if (provider == null)
                 {
@@ -141,6 +141,9 @@ public class NewIceUdpTransportPacketExtension
     @Override
     public List<Element> getChildExtensions()
     {
+        if (isFrozen())
+            return super.getChildExtensions();
+
         List<Element> childExtensions
                 = new ArrayList<>();
         List<Element> superChildExtensions
@@ -168,6 +171,7 @@ public class NewIceUdpTransportPacketExtension
      */
     public void addCandidate(NewCandidatePacketExtension candidate)
     {
+        checkNotFrozen();
         synchronized(candidateList)
         {
             candidateList.add(candidate);
@@ -185,6 +189,7 @@ public class NewIceUdpTransportPacketExtension
      */
     public boolean removeCandidate(NewCandidatePacketExtension candidate)
     {
+        checkNotFrozen();
         synchronized (candidateList)
         {
             return candidateList.remove(candidate);
@@ -214,6 +219,7 @@ public class NewIceUdpTransportPacketExtension
      */
     public void setRemoteCandidate(NewRemoteCandidatePacketExtension candidate)
     {
+        checkNotFrozen();
         this.remoteCandidate = candidate;
     }
 
@@ -98,7 +98,7 @@ public class NewJingleIQ extends IQ
         xml.rightAngleBracket();
         for (NewContentPacketExtension cpe : contentList)
         {
-            xml.element(cpe);
+            cpe.appendXML(xml);
         }
         if (reason != null)
         {
@@ -77,6 +77,18 @@ public class NewPayloadTypePacketExtension
         namespaceInherited = true;
     }
 
+    /**
+     * Payload types are built once and serialized in every session-accept,
+     * so they cache their XML.
+     *
+     * @return <tt>true</tt>
+     */
+    @Override
+    protected boolean isXMLCacheable()
+    {
+        return true;
+    }
+
     /**
      * Sets the number of channels in this payload type. If omitted, it will be
      * assumed to contain one channel.
@@ -84,6 +84,18 @@ public class NewRTPHdrExtPacketExtension
         setURI(ext.getURI());
     }
 
+    /**
+     * RTP header extensions are built once and serialized in every
+     * session-accept, so they cache their XML.
+     *
+     * @return <tt>true</tt>
+     */
+    @Override
+    protected boolean isXMLCacheable()
+    {
+        return true;
+    }
+
     /**
      * Set the ID.
      *
@@ -154,6 +154,7 @@ public class NewRtpDescriptionPacketExtension
      */
     public void addPayloadType(NewPayloadTypePacketExtension payloadType)
     {
+        checkNotFrozen();
         this.payloadTypes.add(payloadType);
     }
 
@@ -178,6 +179,9 @@ public class NewRtpDescriptionPacketExtension
     @Override
     public List<Element> getChildExtensions()
     {
+        if (isFrozen())
+            return super.getChildExtensions();
+
         if(children == null)
             children = new ArrayList<Element>();
         else
@@ -212,6 +216,7 @@ public class NewRtpDescriptionPacketExtension
     @Override
     public void addChildExtension(Element childExtension)
     {
+        checkNotFrozen();
         if(childExtension instanceof NewPayloadTypePacketExtension)
             this.addPayloadType((NewPayloadTypePacketExtension)childExtension);
 
@@ -236,6 +241,7 @@ public class NewRtpDescriptionPacketExtension
      */
     public void setEncryption(NewEncryptionPacketExtension encryption)
     {
+        checkNotFrozen();
         this.encryption = encryption;
     }
 
@@ -260,6 +266,7 @@ public class NewRtpDescriptionPacketExtension
      */
     public void setBandwidth(NewBandwidthPacketExtension bandwidth)
     {
+        checkNotFrozen();
         this.bandwidth = bandwidth;
     }
 
@@ -284,6 +291,7 @@ public class NewRtpDescriptionPacketExtension
      */
     public void addExtmap(NewRTPHdrExtPacketExtension extmap)
     {
+        checkNotFrozen();
         this.extmapList.add(extmap);
     }
 
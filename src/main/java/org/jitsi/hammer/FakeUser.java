@@ -16,12 +16,11 @@
 package org.jitsi.hammer;
 
 import net.java.sip.communicator.impl.protocol.jabber.extensions.jingle.*;
-import net.java.sip.communicator.impl.protocol.jabber.extensions.jingle.JingleProvider;
-import net.java.sip.communicator.impl.protocol.jabber.extensions.jingle.NewAbstractExtensionElementProvider;
 import net.java.sip.communicator.impl.protocol.jabber.jinglesdp.HammerJingleUtils;
 import net.java.sip.communicator.service.protocol.media.DynamicPayloadTypeRegistry;
 import net.java.sip.communicator.service.protocol.media.DynamicRTPExtensionsRegistry;
 import org.jitsi.hammer.extension.MediaPacketExtension;
+import org.jitsi.hammer.media.*;
 import org.jitsi.service.neomedia.format.MediaFormat;
 import org.jitsi.impl.neomedia.transform.dtls.DtlsControlImpl;
 import org.jivesoftware.smack.*;
@@ -29,7 +28,6 @@ import org.jivesoftware.smack.bosh.*;
 import org.jivesoftware.smack.iqrequest.AbstractIqRequestHandler;
 import org.jivesoftware.smack.iqrequest.IQRequestHandler;
 import org.jivesoftware.smack.packet.*;
-import org.jivesoftware.smack.provider.ProviderManager;
 import org.jivesoftware.smackx.disco.*;
 import org.jivesoftware.smackx.muc.*;
 import org.jivesoftware.smackx.nick.packet.*;
@@ -48,7 +46,10 @@ import org.jxmpp.stringprep.XmppStringprepException;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.io.*;
+import java.net.DatagramSocket;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 
 
 /**
@@ -70,12 +71,6 @@ public class FakeUser implements StanzaListener
     private static final Logger logger
         = Logger.getLogger(FakeUser.class);
 
-    /**
-     * After this amount of time, we'll give up on waiting for ICE to
-     * connect
-     */
-    private static long ICE_TIMEOUT_MS = 30000;
-
     /**
      * The <tt>Hammer</tt> instance to which this <tt>FakeUser</tt> corresponds
      * This object layout exists in order to make conference initiation 
@@ -162,6 +157,81 @@ public class FakeUser implements StanzaListener
 
     private final DtlsControl dtlsControl = new DtlsControlImpl();
 
+    /**
+     * The <tt>StartupStats</tt> in which this <tt>FakeUser</tt> records the
+     * time spent in each stage of its startup.
+     */
+    private final StartupStats startupStats;
+
+    /**
+     * The value of <tt>System.nanoTime()</tt> when this <tt>FakeUser</tt>
+     * joined the MUC chatroom (0 if it has not joined it yet).
+     */
+    private volatile long mucJoinedNanos = 0;
+
+    /**
+     * The value of <tt>System.nanoTime()</tt> when this <tt>FakeUser</tt>
+     * started its DTLS handshake (0 if it has not started it yet).
+     */
+    private volatile long dtlsStartNanos = 0;
+
+    /**
+     * The future of the ICE connectivity establishment of this
+     * <tt>FakeUser</tt> (null if it has not started yet).
+     */
+    private volatile CompletableFuture<IceProcessingState> iceEstablished;
+
+    /**
+     * The future completed when the DTLS handshake of this <tt>FakeUser</tt>
+     * ends (the <tt>DtlsControl</tt> is shared by the audio and video
+     * streams, so it is completed by the first handshake that ends).
+     */
+    private final CompletableFuture<Void> dtlsEstablished
+        = new CompletableFuture<>();
+
+    /**
+     * The <tt>PacketBlaster</tt> sending the packets of the rtpdump files on
+     * the <tt>MediaStream</tt>s of this <tt>FakeUser</tt>, or null if the
+     * packet blaster mode is disabled.
+     */
+    private PacketBlaster packetBlaster;
+
+    /**
+     * The <tt>EventTrace</tt> in which this <tt>FakeUser</tt> records the
+     * events of its lifecycle.
+     */
+    private final EventTrace eventTrace;
+
+    /**
+     * The index of this <tt>FakeUser</tt> in its <tt>EventTrace</tt>.
+     */
+    private final int traceId;
+
+    /**
+     * The <tt>FirstRtpTransformEngine</tt> recording the first RTP packet
+     * sent and received by this <tt>FakeUser</tt>.
+     */
+    private final FirstRtpTransformEngine firstRtp;
+
+    /**
+     * The <tt>ProtocolTrace</tt> in which this <tt>FakeUser</tt> traces the
+     * stanzas it exchanges.
+     */
+    private final ProtocolTrace protocolTrace;
+
+    /**
+     * The <tt>RtpCountingReceiver</tt> counting the RTP packets received by
+     * this <tt>FakeUser</tt>, or null if the counting-only receive mode is
+     * disabled.
+     */
+    private RtpCountingReceiver rtpReceiver;
+
+    /**
+     * The port reserved by the <tt>IceMediaStreamGenerator</tt> for the
+     * <tt>Agent</tt> of this <tt>FakeUser</tt> (-1 if none is reserved).
+     */
+    private int componentPort = -1;
+
     /**
      * Construct the conference focus JID 
      * (or get one from the server info if provided)
@@ -244,6 +314,11 @@ public class FakeUser implements StanzaListener
         this.nickname = (nickname == null) ? "Anonymous" : nickname;
         this.conferenceInfo = hammer.getConferenceInfo();
         fakeUserStats = statisticsEnabled ? new FakeUserStats(nickname) : null;
+        this.startupStats = hammer.getStartupStats();
+        this.eventTrace = hammer.getEventTrace();
+        this.traceId = eventTrace.registerUser(this.nickname);
+        this.firstRtp = new FirstRtpTransformEngine(eventTrace, traceId);
+        this.protocolTrace = hammer.getProtocolTrace();
 
         try
         {
@@ -263,71 +338,6 @@ public class FakeUser implements StanzaListener
             System.exit(1);
         }
 
-        ProviderManager.addIQProvider(NewJingleIQ.ELEMENT_NAME, NewJingleIQ.NAMESPACE, new JingleProvider());
-        // Note(brian): i don't think the old hammer even parsed the conference iq, and i don't think it's needed,
-        //  but if i leave it unparsed smack seems to choke on it for some reason.  it has a bunch of escaped
-        //  values in the xml and seems to have duplicate </conference> tags, not sure where that's going wrong
-        ProviderManager.addIQProvider(
-                ConferenceInitiationIQ.ELEMENT_NAME,
-                ConferenceInitiationIQ.NAMESPACE,
-                new ConferenceInitiationIQProvider());
-        ProviderManager.addExtensionProvider(
-                NewContentPacketExtension.ELEMENT_NAME,
-                NewContentPacketExtension.NAMESPACE,
-                new NewAbstractExtensionElementProvider<>(NewContentPacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                RtpDescriptionPacketExtension.ELEMENT_NAME,
-                RtpDescriptionPacketExtension.NAMESPACE,
-                new NewAbstractExtensionElementProvider<>(NewRtpDescriptionPacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                NewPayloadTypePacketExtension.ELEMENT_NAME,
-                NewPayloadTypePacketExtension.NAMESPACE,
-                new NewAbstractExtensionElementProvider<>(NewPayloadTypePacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                NewParameterPacketExtension.ELEMENT_NAME,
-                "urn:xmpp:jingle:apps:rtp:1",
-                new NewAbstractExtensionElementProvider<>(NewParameterPacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                NewParameterPacketExtension.ELEMENT_NAME,
-                "urn:xmpp:jingle:apps:rtp:ssma:0",
-                new NewAbstractExtensionElementProvider<>(NewParameterPacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                NewRtcpFbPacketExtension.ELEMENT_NAME,
-                NewRtcpFbPacketExtension.NAMESPACE,
-                new NewAbstractExtensionElementProvider<>(NewRtcpFbPacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                NewRTPHdrExtPacketExtension.ELEMENT_NAME,
-                NewRTPHdrExtPacketExtension.NAMESPACE,
-                new NewAbstractExtensionElementProvider<>(NewRTPHdrExtPacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                NewSourcePacketExtension.ELEMENT_NAME,
-                NewSourcePacketExtension.NAMESPACE,
-                new NewAbstractExtensionElementProvider<>(NewSourcePacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                NewSSRCInfoPacketExtension.ELEMENT_NAME,
-                NewSSRCInfoPacketExtension.NAMESPACE,
-                new NewAbstractExtensionElementProvider<>(NewSSRCInfoPacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                NewIceUdpTransportPacketExtension.ELEMENT_NAME,
-                NewIceUdpTransportPacketExtension.NAMESPACE,
-                new NewAbstractExtensionElementProvider<>(NewIceUdpTransportPacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                NewDtlsFingerprintPacketExtension.ELEMENT_NAME,
-                NewDtlsFingerprintPacketExtension.NAMESPACE,
-                new NewAbstractExtensionElementProvider<>(NewDtlsFingerprintPacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                NewCandidatePacketExtension.ELEMENT_NAME,
-                "urn:xmpp:jingle:transports:ice-udp:1",
-                new NewAbstractExtensionElementProvider<>(NewCandidatePacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                NewCandidatePacketExtension.ELEMENT_NAME,
-                "urn:xmpp:jingle:transports:raw-udp:1",
-                new NewAbstractExtensionElementProvider<>(NewCandidatePacketExtension.class));
-        ProviderManager.addExtensionProvider(
-                NewSourceGroupPacketExtension.ELEMENT_NAME,
-                NewSourceGroupPacketExtension.NAMESPACE,
-                new NewAbstractExtensionElementProvider<>(NewSourceGroupPacketExtension.class));
-
         connection = new XMPPBOSHConnection(config);
 
         connection.registerIQRequestHandler(new AbstractIqRequestHandler(NewJingleIQ.ELEMENT_NAME, NewJingleIQ.NAMESPACE, IQ.Type.set, IQRequestHandler.Mode.sync)
@@ -336,18 +346,22 @@ public class FakeUser implements StanzaListener
             public IQ handleIQRequest(IQ iq)
             {
                 NewJingleIQ jiq = (NewJingleIQ)iq;
-                System.out.println("iq request handler got jingle iq: " + jiq.toXML());
+                traceStanza("received jingle iq (request handler)", jiq);
                 IQ result = IQ.createResultIQ(iq);
                 switch (jiq.getAction())
                 {
                     case SESSION_INITIATE:
                         logger.info("Received session-initiate");
+                        eventTrace.record(traceId,
+                            EventTrace.Event.SESSION_INITIATE_RECEIVED);
                         sessionInitiate = jiq;
                         acceptJingleSession();
                 }
                 return result;
             }
         });
+        dtlsControl.setSrtpListener(new DtlsStartupListener());
+
         /*
          * Creation in advance of the MediaStream that will be used later
          * so the HammerStats can register their MediaStreamStats now.
@@ -393,8 +407,18 @@ public class FakeUser implements StanzaListener
         logger.info(this.nickname + " : Login anonymously to the XMPP server.");
         try
         {
+            long stageStart = System.nanoTime();
+            eventTrace.record(traceId, EventTrace.Event.START, stageStart);
             connection.connect();
+            long now = System.nanoTime();
+            startupStats.record(StartupStats.Stage.CONNECT, now - stageStart);
+            eventTrace.record(traceId, EventTrace.Event.CONNECTED, now);
+
+            stageStart = now;
             connection.login();
+            now = System.nanoTime();
+            startupStats.record(StartupStats.Stage.LOGIN, now - stageStart);
+            eventTrace.record(traceId, EventTrace.Event.LOGGED_IN, now);
         }
         catch (InterruptedException e)
         {
@@ -475,6 +499,7 @@ public class FakeUser implements StanzaListener
         {
             this.connection.sendStanza(conferenceInitiationIQ);
             this.hammer.setFocusInvited(true);
+            eventTrace.record(traceId, EventTrace.Event.FOCUS_INVITED);
             logger.info("Conference initiation IQ is sent to the focus user");
         }
         catch (SmackException.NotConnectedException e) {
@@ -508,11 +533,17 @@ public class FakeUser implements StanzaListener
         String roomURL = serverInfo.getRoomURL();
         logger.info(this.nickname + " : Trying to connect to MUC " + roomURL);
         muc = mucManager.getMultiUserChat(JidCreate.entityBareFrom(roomURL));
+        long joinStart = System.nanoTime();
         while(true)
         {
             try
             {
                 muc.join(Resourcepart.from(nickname));
+                mucJoinedNanos = System.nanoTime();
+                startupStats.record(
+                    StartupStats.Stage.MUC_JOIN, mucJoinedNanos - joinStart);
+                eventTrace.record(
+                    traceId, EventTrace.Event.MUC_JOINED, mucJoinedNanos);
 
                 muc.sendMessage("Goodbye cruel World!");
 
@@ -586,8 +617,19 @@ public class FakeUser implements StanzaListener
     {
         logger.info(this.nickname + " : stopping the streams, leaving the MUC"
             + " and disconnecting from the XMPP server");
+        // Abort the startup if it is still in progress.
+        CompletableFuture<IceProcessingState> ice = iceEstablished;
+        if(ice != null)
+            ice.cancel(false);
+        dtlsEstablished.cancel(false);
+        if(packetBlaster != null)
+            packetBlaster.stop();
+        if(rtpReceiver != null)
+            rtpReceiver.stop();
         if(agent != null)
             agent.free();
+        IceMediaStreamGenerator.getInstance().releasePort(componentPort);
+        componentPort = -1;
         for(MediaStream stream : mediaStreamMap.values())
         {
             stream.close();
@@ -620,29 +662,14 @@ public class FakeUser implements StanzaListener
 
 
     /**
-     * acceptJingleSession create a accept-session Jingle message and
-     * send it to the initiator of the session.
-     * The initiator is taken from the From attribute
-     * of the initiate-session message.
+     * Negotiate the session-initiate : select the <tt>MediaFormat</tt> and the
+     * RTP extensions of each content, and create the contents of the
+     * session-accept (without the transport and the sources).
+     *
+     * @return the <tt>SessionAcceptTemplate</tt> of the session-initiate.
      */
-    private void acceptJingleSession()
+    private SessionAcceptTemplate negotiateSessionInitiate()
     {
-        Map<String, NewContentPacketExtension> contentMap = new HashMap<>();
-        /*
-         * A Map mapping of media type (audio, video, data), to a <tt>MediaFormat</tt>
-         * representing the selected format for the stream handling this media type.
-         */
-        Map<String,MediaFormat> selectedFormats =
-                new HashMap<String, MediaFormat>();
-
-        /*
-         * A Map mapping a media type (audio, video, data), with a list of
-         * RTPExtension representing the selected RTP extensions for the format
-         * (and its corresponding <tt>MediaDevice</tt>)
-         */
-        Map<String,List<RTPExtension>> selectedRtpExtensions =
-                new HashMap<String,List<RTPExtension>>();
-
         /*
          * The registry containing the dynamic payload types learned in the
          * session-initiate (to use back in the session-accept)
@@ -657,15 +684,21 @@ public class FakeUser implements StanzaListener
         DynamicRTPExtensionsRegistry rtpExtRegistry =
                 new DynamicRTPExtensionsRegistry();
 
+        SessionAcceptTemplate template = new SessionAcceptTemplate();
+
         for (NewContentPacketExtension cpe : sessionInitiate.getContentList())
         {
-            NewContentPacketExtension localContent;
             //TODO(brian): do we still need this special treatment for data?
             if (cpe.getName().equalsIgnoreCase("data"))
             {
-                 localContent = HammerUtils.createDescriptionForDataContent(
-                         NewContentPacketExtension.CreatorEnum.responder,
-                         NewContentPacketExtension.SendersEnum.both);
+                template.addContent(
+                    HammerUtils.createDescriptionForDataContent(
+                        NewContentPacketExtension.CreatorEnum.responder,
+                        NewContentPacketExtension.SendersEnum.both),
+                    null,
+                    null,
+                    ptRegistry,
+                    rtpExtRegistry);
             }
             else
             {
@@ -678,25 +711,24 @@ public class FakeUser implements StanzaListener
                 List<MediaFormat> mediaFormats = HammerJingleUtils.extractFormats(description, ptRegistry);
                 List<RTPExtension> remoteRtpExtensions =
                         HammerJingleUtils.extractRTPExtensions(description, rtpExtRegistry);
-                List<RTPExtension> supportedRtpExtension = getExtensionsForType(MediaType.parseString(cpe.getName()));
+                Map<String, RTPExtension> supportedRtpExtension = getExtensionsForType(MediaType.parseString(cpe.getName()));
                 List<RTPExtension> rtpExtensionIntersection =
                         intersectRTPExtensions(remoteRtpExtensions, supportedRtpExtension);
 
-                selectedRtpExtensions.put(cpe.getName(), rtpExtensionIntersection);
-
-                selectedFormats.put(cpe.getName(), HammerUtils.selectFormat(cpe.getName(), mediaFormats));
-
-                localContent = HammerJingleUtils.createDescription(
+                template.addContent(
+                    HammerJingleUtils.createDescription(
                         NewContentPacketExtension.CreatorEnum.responder,
                         cpe.getName(),
                         NewContentPacketExtension.SendersEnum.both,
                         mediaFormats,
                         rtpExtensionIntersection,
                         ptRegistry,
-                        rtpExtRegistry);
+                        rtpExtRegistry),
+                    HammerUtils.selectFormat(cpe.getName(), mediaFormats),
+                    rtpExtensionIntersection,
+                    ptRegistry,
+                    rtpExtRegistry);
             }
-
-            contentMap.put(cpe.getName(), localContent);
         }
         /*
          * We remove the content for the data (because data is not handle
@@ -704,14 +736,63 @@ public class FakeUser implements StanzaListener
          * FIXME
          * TODO(brian): do we still need to do this?
          */
-        contentMap.remove("data");
+        template.removeContent("data");
+
+        return template;
+    }
+
+    /**
+     * acceptJingleSession create a accept-session Jingle message and
+     * send it to the initiator of the session.
+     * The initiator is taken from the From attribute
+     * of the initiate-session message.
+     */
+    private void acceptJingleSession()
+    {
+        /*
+         * The offer of the focus is the same for all the users : it is
+         * negotiated once, and the users share the result.
+         */
+        String offerFingerprint = SessionAcceptTemplate.getOfferFingerprint(
+            sessionInitiate.getContentList());
+        SessionAcceptTemplate template
+            = SessionAcceptTemplate.get(offerFingerprint);
+
+        if (template == null)
+        {
+            template = SessionAcceptTemplate.putIfAbsent(
+                offerFingerprint,
+                negotiateSessionInitiate());
+        }
+
+        /*
+         * A Map mapping of media type (audio, video, data), to a <tt>MediaFormat</tt>
+         * representing the selected format for the stream handling this media type.
+         */
+        Map<String,MediaFormat> selectedFormats =
+                template.getSelectedFormats();
+
+        /*
+         * A Map mapping a media type (audio, video, data), with a list of
+         * RTPExtension representing the selected RTP extensions for the format
+         * (and its corresponding <tt>MediaDevice</tt>)
+         */
+        Map<String,List<RTPExtension>> selectedRtpExtensions =
+                template.getSelectedRtpExtensions();
+
+        /*
+         * The contents of the session-accept of this user, to which its
+         * transport, SSRCs and fingerprint are added.
+         */
+        Map<String, NewContentPacketExtension> contentMap =
+                template.createContents();
 
 
         IceMediaStreamGenerator iceMediaStreamGenerator = IceMediaStreamGenerator.getInstance();
 
         try
         {
-            iceMediaStreamGenerator.generateIceMediaStream(
+            componentPort = iceMediaStreamGenerator.generateIceMediaStream(
                 agent,
                 contentMap.keySet(),
                 null,
@@ -743,8 +824,39 @@ public class FakeUser implements StanzaListener
             selectedFormats,
             selectedRtpExtensions,
             mediaDeviceChooser,
-            ptRegistry,
-            rtpExtRegistry);
+            template.getPayloadTypes(),
+            template.getRtpExtensionIds());
+
+        /*
+         * The first RTP packet sent is only watched (with an extra stage in
+         *  the transform chain of each packet) when the events are dumped.
+         */
+        if (hammer.isEventTraceDumped())
+        {
+            for (MediaStream stream : mediaStreamMap.values())
+                stream.setExternalTransformer(firstRtp);
+        }
+
+        /*
+         * In packet blaster mode, the streams having a rtpdump file do not
+         * capture anything : the packets of the file are injected in them.
+         */
+        if (hammer.isPacketBlasterEnabled())
+        {
+            packetBlaster = new PacketBlaster();
+            for(String key : contentMap.keySet())
+            {
+                RtpdumpPacketTable table = mediaDeviceChooser.getPacketTable(
+                    MediaType.parseString(key));
+                MediaStream stream = mediaStreamMap.get(key);
+
+                if (table != null && stream.getFormat() != null)
+                {
+                    stream.setDirection(MediaDirection.RECVONLY);
+                    packetBlaster.addStream(stream, table);
+                }
+            }
+        }
 
         /*
          * Now that the MediaStreams are configured, add their SSRCs to the
@@ -793,7 +905,7 @@ public class FakeUser implements StanzaListener
 
         try
         {
-            System.out.println("Sending presence packet with ssrc: " + presencePacketWithSSRC.toXML());
+            traceStanza("sending presence with ssrc", presencePacketWithSSRC);
             connection.sendStanza(presencePacketWithSSRC);
             // Create the session-accept
             sessionAccept = new NewJingleIQ();
@@ -817,9 +929,14 @@ public class FakeUser implements StanzaListener
                 sessionAccept.getContentList(),
                 sessionInitiate.getContentList());
 
-            System.out.println("Sending session accept: " + sessionAccept.toXML());
+            traceStanza("sending session-accept", sessionAccept);
             // Send the session-accept IQ
             connection.sendStanza(sessionAccept);
+            eventTrace.record(traceId, EventTrace.Event.SESSION_ACCEPT_SENT);
+            if (mucJoinedNanos != 0)
+                startupStats.record(
+                    StartupStats.Stage.JINGLE,
+                    System.nanoTime() - mucJoinedNanos);
             logger.info(
                     this.nickname + " : Jingle accept-session message sent");
         }
@@ -834,9 +951,71 @@ public class FakeUser implements StanzaListener
             System.exit(1);
         }
 
-        // A listener to wake us up when the Agent enters a final state.
-        final Object syncRoot = new Object();
-        PropertyChangeListener propertyChangeListener
+        /*
+         * The rest of the startup is asynchronous : the MediaStreams are
+         * started when ICE completes, and the startup is done when DTLS
+         * completes. No thread waits for it, and in particular not the one
+         * of the Smack IQ handler.
+         */
+        final Set<String> contentNames = contentMap.keySet();
+        establishIce()
+            .thenAcceptAsync(
+                new Consumer<IceProcessingState>()
+                {
+                    @Override
+                    public void accept(IceProcessingState iceState)
+                    {
+                        startMediaStreams(contentNames);
+                    }
+                },
+                StartupFutures.getExecutor())
+            .thenCompose(new Function<Void, CompletionStage<Void>>()
+            {
+                @Override
+                public CompletionStage<Void> apply(Void v)
+                {
+                    return StartupFutures.withTimeout(
+                        dtlsEstablished,
+                        hammer.getStageTimeoutMs(),
+                        "DTLS for user " + nickname);
+                }
+            })
+            .whenComplete(new BiConsumer<Void, Throwable>()
+            {
+                @Override
+                public void accept(Void v, Throwable error)
+                {
+                    if (error == null)
+                    {
+                        logger.info(nickname + " : media established");
+                        return;
+                    }
+
+                    Throwable cause = (error instanceof CompletionException)
+                        ? error.getCause() : error;
+                    if (!(cause instanceof CancellationException))
+                        logger.fatal(nickname + " : startup failed: " + cause);
+                }
+            });
+    }
+
+    /**
+     * Start the ICE connectivity establishment of the <tt>Agent</tt> of this
+     * <tt>FakeUser</tt>.
+     *
+     * @return a <tt>CompletableFuture</tt> completed with the final state of
+     * the <tt>Agent</tt> if ICE succeeds, or completed exceptionally if it
+     * fails or does not complete before the stage timeout of the
+     * <tt>Hammer</tt>.
+     */
+    private CompletableFuture<IceProcessingState> establishIce()
+    {
+        final long iceStart = System.nanoTime();
+        final CompletableFuture<IceProcessingState> iceDone
+            = new CompletableFuture<>();
+
+        // A listener completing iceDone when the Agent enters a final state.
+        final PropertyChangeListener propertyChangeListener
                 = new PropertyChangeListener()
         {
             @Override
@@ -848,66 +1027,56 @@ public class FakeUser implements StanzaListener
                         || IceProcessingState.FAILED.equals(newValue)
                         || IceProcessingState.TERMINATED.equals(newValue))
                 {
-                    Agent iceAgent = (Agent) ev.getSource();
-
-                    iceAgent.removeStateChangeListener(this);
-                    if (iceAgent == FakeUser.this.agent)
-                    {
-                        synchronized (syncRoot)
-                        {
-                            syncRoot.notify();
-                        }
-                    }
+                    iceDone.complete((IceProcessingState) newValue);
                 }
             }
         };
 
+        iceEstablished = iceDone;
         agent.addStateChangeListener(propertyChangeListener);
+        StartupFutures.withTimeout(
+            iceDone, hammer.getStageTimeoutMs(), "ICE for user " + nickname);
+        iceDone.whenComplete(new BiConsumer<IceProcessingState, Throwable>()
+        {
+            @Override
+            public void accept(IceProcessingState iceState, Throwable error)
+            {
+                agent.removeStateChangeListener(propertyChangeListener);
+            }
+        });
         agent.startConnectivityEstablishment();
 
-        synchronized (syncRoot)
+        return iceDone.thenApply(
+            new Function<IceProcessingState, IceProcessingState>()
         {
-            long startWait = System.currentTimeMillis();
-            do
+            @Override
+            public IceProcessingState apply(IceProcessingState iceState)
             {
-                IceProcessingState iceState = agent.getState();
-                if (IceProcessingState.COMPLETED.equals(iceState)
-                        || IceProcessingState.TERMINATED.equals(iceState)
-                        || IceProcessingState.FAILED.equals(iceState))
-                    break;
-
-                if (System.currentTimeMillis() - startWait > ICE_TIMEOUT_MS)
-		{
-		    logger.error("ICE for user " + nickname + " is still in " +
-			iceState + " state after " + ICE_TIMEOUT_MS + " ms, " +
-                        "giving up");
-                    break;
-		}
-
-                try
-                {
-                    syncRoot.wait(1000);
-                }
-                catch (InterruptedException ie)
+                if (!IceProcessingState.COMPLETED.equals(iceState)
+                        && !IceProcessingState.TERMINATED.equals(iceState))
                 {
-                    logger.fatal("Interrupted: " + ie);
-                    break;
+                    throw new IllegalStateException("ICE failed for user "
+                        + nickname + ". Agent state: " + iceState);
                 }
+                long now = System.nanoTime();
+                startupStats.record(StartupStats.Stage.ICE, now - iceStart);
+                eventTrace.record(
+                    traceId, EventTrace.Event.ICE_COMPLETED, now);
+                return iceState;
             }
-            while (true);
-        }
-
-        agent.removeStateChangeListener(propertyChangeListener);
-
-        IceProcessingState iceState = agent.getState();
-        if (!IceProcessingState.COMPLETED.equals(iceState)
-                && !IceProcessingState.TERMINATED.equals(iceState))
-        {
-            logger.fatal("ICE failed for user " + nickname + ". Agent state: "
-                                 + iceState);
-            return;
-        }
+        });
+    }
 
+    /**
+     * Give the sockets selected by ICE to the <tt>MediaStream</tt>s of this
+     * <tt>FakeUser</tt>, then start their encryption and the streams
+     * themselves.
+     *
+     * @param contentNames the names of the contents (the media types) of the
+     * accepted Jingle session.
+     */
+    private void startMediaStreams(Set<String> contentNames)
+    {
         // Add socket created by ice4j to their associated MediaStreams
         // We drop incoming RTP packets when statistics are disabled in order
         // to improve performance.
@@ -915,9 +1084,16 @@ public class FakeUser implements StanzaListener
                                            mediaStreamMap,
                                            fakeUserStats == null);
 
+        // In the counting-only receive mode, the RTP packets are taken
+        // before they reach the MediaStreams, and only their headers are
+        // parsed.
+        if (hammer.isRtpCountingEnabled() && fakeUserStats != null)
+            startRtpCountingReceiver();
+
 
         //Start the encryption of the MediaStreams
-        for(String key : contentMap.keySet())
+        dtlsStartNanos = System.nanoTime();
+        for(String key : contentNames)
         {
             MediaStream stream = mediaStreamMap.get(key);
             SrtpControl control = stream.getSrtpControl();
@@ -926,7 +1102,7 @@ public class FakeUser implements StanzaListener
         }
 
         //Start the MediaStream
-        for(String key : contentMap.keySet())
+        for(String key : contentNames)
         {
             MediaStream stream = mediaStreamMap.get(key);
             logger.info("Starting media stream " + stream.getFormat().getMediaType() +
@@ -934,9 +1110,51 @@ public class FakeUser implements StanzaListener
                     stream.getSrtpControl());
             stream.start();
         }
+
+        if (packetBlaster != null)
+            packetBlaster.start();
     }
 
+    /**
+     * Start the <tt>RtpCountingReceiver</tt> of this <tt>FakeUser</tt> on
+     * the socket selected by ICE.
+     */
+    private void startRtpCountingReceiver()
+    {
+        DatagramSocket rtpSocket = HammerUtils.getRtpSocket(agent);
+        if (rtpSocket == null)
+            return;
+
+        RtpReceiveStats receiveStats = new RtpReceiveStats();
+        for (MediaStream stream : mediaStreamMap.values())
+        {
+            for (Map.Entry<Byte, MediaFormat> e
+                    : stream.getDynamicRTPPayloadTypes().entrySet())
+            {
+                receiveStats.setClockRate(
+                    e.getKey(), (int) e.getValue().getClockRate());
+            }
+        }
+        fakeUserStats.setReceiveStats(receiveStats);
+
+        rtpReceiver = new RtpCountingReceiver(rtpSocket, receiveStats);
+        rtpReceiver.setFirstRtpTransformEngine(firstRtp);
+        rtpReceiver.start(nickname + "-rtp");
+    }
 
+    /**
+     * Trace a stanza sent or received by this <tt>FakeUser</tt>, if its
+     * stanzas are traced. The stanza is serialized later, by the thread of
+     * the <tt>ProtocolTrace</tt>.
+     *
+     * @param label what this <tt>FakeUser</tt> is doing with the stanza.
+     * @param stanza the stanza.
+     */
+    private void traceStanza(String label, Stanza stanza)
+    {
+        if (protocolTrace.isTraced(traceId))
+            protocolTrace.trace(nickname, label, stanza);
+    }
 
     /**
      * Callback function used when a JingleIQ is received by the XMPP connector.
@@ -945,7 +1163,7 @@ public class FakeUser implements StanzaListener
     public void processStanza(Stanza packet)
     {
         NewJingleIQ jiq = (NewJingleIQ)packet;
-        System.out.println("Got jingle iq: " + jiq.toXML());
+        traceStanza("received jingle iq", jiq);
         ackJingleIQ(jiq);
         switch(jiq.getAction())
         {
@@ -953,6 +1171,8 @@ public class FakeUser implements StanzaListener
             logger.info(this.nickname + " : Jingle session-initiate received");
             if(sessionInitiate == null)
             {
+                eventTrace.record(
+                    traceId, EventTrace.Event.SESSION_INITIATE_RECEIVED);
                 sessionInitiate = jiq;
                 acceptJingleSession();
             }
@@ -1002,20 +1222,20 @@ public class FakeUser implements StanzaListener
     /**
      * Copy from CallPeerMediaHandler class of Jitsi
      *
-     * Returns a (possibly empty) <tt>List</tt> of <tt>RTPExtension</tt>s
+     * Returns a (possibly empty) <tt>Map</tt> of <tt>RTPExtension</tt>s
      * supported by the device that this <tt>FakeUser</tt> uses to
-     * handle media of the specified <tt>type</tt>.
+     * handle media of the specified <tt>type</tt>, by URI.
      *
      * @param type the <tt>MediaType</tt> of the device whose
      * <tt>RTPExtension</tt>s we are interested in.
      *
-     * @return a (possibly empty) <tt>List</tt> of <tt>RTPExtension</tt>s
+     * @return a (possibly empty) <tt>Map</tt> of <tt>RTPExtension</tt>s
      * supported by the device that this <tt>FakeUser</tt>
-     * uses to handle media of the specified <tt>type</tt>.
+     * uses to handle media of the specified <tt>type</tt>, by URI.
      */
-    protected List<RTPExtension> getExtensionsForType(MediaType type)
+    protected Map<String, RTPExtension> getExtensionsForType(MediaType type)
     {
-        return mediaDeviceChooser.getMediaDevice(type).getSupportedExtensions();
+        return mediaDeviceChooser.getSupportedExtensions(type);
     }
 
 
@@ -1037,8 +1257,8 @@ public class FakeUser implements StanzaListener
      *
      * @param remoteExtensions the <tt>List</tt> of <tt>RTPExtension</tt>s as
      * advertised by the remote party.
-     * @param supportedExtensions the <tt>List</tt> of <tt>RTPExtension</tt>s
-     * that a local <tt>MediaDevice</tt> returned as supported.
+     * @param supportedExtensions the <tt>RTPExtension</tt>s that a local
+     * <tt>MediaDevice</tt> returned as supported, by URI.
      *
      * @return the (possibly empty) intersection of both of the extensions lists
      * in a form that can be used for generating an SDP media description or
@@ -1046,7 +1266,7 @@ public class FakeUser implements StanzaListener
      */
     protected List<RTPExtension> intersectRTPExtensions(
         List<RTPExtension> remoteExtensions,
-        List<RTPExtension> supportedExtensions)
+        Map<String, RTPExtension> supportedExtensions)
         {
         if(remoteExtensions == null || supportedExtensions == null)
             return new ArrayList<RTPExtension>();
@@ -1057,8 +1277,8 @@ public class FakeUser implements StanzaListener
         //loop through the list that the remote party sent
         for(RTPExtension remoteExtension : remoteExtensions)
         {
-            RTPExtension localExtension = findExtension(
-                supportedExtensions, remoteExtension.getURI().toString());
+            RTPExtension localExtension = supportedExtensions.get(
+                remoteExtension.getURI().toString());
 
             if(localExtension == null)
                 continue;
@@ -1078,27 +1298,56 @@ public class FakeUser implements StanzaListener
         }
 
     /**
-     * Copy from CallPeerMediaHandler class of Jitsi
-     *
-     * Returns the first <tt>RTPExtension</tt> in <tt>extList</tt> that uses
-     * the specified <tt>extensionURN</tt> or <tt>null</tt> if <tt>extList</tt>
-     * did not contain such an extension.
-     *
-     * @param extList the <tt>List</tt> that we will be looking through.
-     * @param extensionURN the URN of the <tt>RTPExtension</tt> that we are
-     * looking for.
-     *
-     * @return the first <tt>RTPExtension</tt> in <tt>extList</tt> that uses
-     * the specified <tt>extensionURN</tt> or <tt>null</tt> if <tt>extList</tt>
-     * did not contain such an extension.
+     * The <tt>SrtpListener</tt> recording the duration of the DTLS handshake
+     * of this <tt>FakeUser</tt> in its <tt>StartupStats</tt>.
      */
-    private RTPExtension findExtension(List<RTPExtension> extList,
-        String extensionURN)
+    private class DtlsStartupListener
+        implements SrtpListener
     {
-        for(RTPExtension rtpExt : extList)
-            if (rtpExt.getURI().toASCIIString().equals(extensionURN))
-                return rtpExt;
-        return null;
+        @Override
+        public void securityTurnedOn(
+            MediaType mediaType,
+            String cipher,
+            SrtpControl sender)
+        {
+            long start = dtlsStartNanos;
+            if (dtlsEstablished.complete(null))
+            {
+                long now = System.nanoTime();
+                if (start != 0)
+                    startupStats.record(StartupStats.Stage.DTLS, now - start);
+                eventTrace.record(traceId, EventTrace.Event.DTLS_DONE, now);
+            }
+        }
+
+        @Override
+        public void securityTurnedOff(MediaType mediaType)
+        {
+        }
+
+        @Override
+        public void securityMessageReceived(
+            String message,
+            String i18nMessage,
+            int severity)
+        {
+            logger.warn(nickname + " : " + message);
+        }
+
+        @Override
+        public void securityTimeout(MediaType mediaType)
+        {
+            logger.error(nickname + " : DTLS timeout for " + mediaType);
+            dtlsEstablished.completeExceptionally(
+                new TimeoutException("DTLS timeout for " + mediaType));
+        }
+
+        @Override
+        public void securityNegotiationStarted(
+            MediaType mediaType,
+            SrtpControl sender)
+        {
+        }
     }
 
     /**
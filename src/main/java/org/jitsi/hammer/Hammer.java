@@ -15,6 +15,8 @@
  */
 package org.jitsi.hammer;
 
+import org.jitsi.hammer.arrival.*;
+import org.jitsi.hammer.media.*;
 import org.jitsi.hammer.stats.*;
 import org.jitsi.hammer.utils.Credential;
 import org.jitsi.hammer.utils.HostInfo;
@@ -22,7 +24,6 @@ import org.osgi.framework.*;
 import org.osgi.framework.launch.*;
 import org.osgi.framework.startlevel.*;
 import org.jivesoftware.smack.*;
-import org.jivesoftware.smack.provider.*;
 
 import org.jitsi.impl.osgi.framework.launch.*;
 import org.jitsi.impl.neomedia.*;
@@ -31,7 +32,7 @@ import org.jitsi.hammer.extension.*;
 import org.jitsi.hammer.utils.*;
 import org.jitsi.util.Logger;
 
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
 
 /**
@@ -140,6 +141,67 @@ public class Hammer
      */
     private HammerStats hammerStats;
 
+    /**
+     * The <tt>StartupStats</tt> keeping track of the time spent by the
+     * <tt>FakeUser</tt>s of this <tt>Hammer</tt> in each stage of their
+     * startup.
+     */
+    private final StartupStats startupStats = new StartupStats();
+
+    /**
+     * The <tt>EventTrace</tt> in which the <tt>FakeUser</tt>s of this
+     * <tt>Hammer</tt> record the events of their lifecycle.
+     */
+    private final EventTrace eventTrace = new EventTrace();
+
+    /**
+     * The file in which the <tt>EventTrace</tt> is dumped when this
+     * <tt>Hammer</tt> stops (null to not dump it).
+     */
+    private String traceFile;
+
+    /**
+     * The <tt>ProtocolTrace</tt> in which the <tt>FakeUser</tt>s of this
+     * <tt>Hammer</tt> trace the stanzas they exchange (disabled by default).
+     */
+    private final ProtocolTrace protocolTrace = new ProtocolTrace();
+
+    /**
+     * Whether the <tt>FakeUser</tt>s send the packets of the rtpdump files
+     * directly with a <tt>PacketBlaster</tt> instead of using the media
+     * pipeline of libjitsi.
+     */
+    private boolean packetBlasterEnabled = false;
+
+    /**
+     * Whether the <tt>FakeUser</tt>s only count the RTP packets they receive
+     * (parsing their headers) instead of handing them to libjitsi.
+     */
+    private boolean rtpCountingEnabled = false;
+
+    /**
+     * The time (in milliseconds) after which the <tt>FakeUser</tt>s give up
+     * waiting for an asynchronous stage of their startup (ICE or DTLS).
+     */
+    private long stageTimeoutMs = 30000;
+
+    /**
+     * Whether the <tt>HammerStats</tt> record all the stats in a binary
+     * columnar file.
+     */
+    private boolean binaryStatsEnabled = false;
+
+    /**
+     * The port on which the live metrics are exposed (0 if they are not).
+     */
+    private int metricsPort = 0;
+
+    /**
+     * The <tt>MetricsServer</tt> exposing the live metrics of this
+     * <tt>Hammer</tt> (null if they are not exposed).
+     */
+    private MetricsServer metricsServer;
+
     /**
      * The thread that run the <tt>HammerStats</tt> of this <tt>Hammer</tt>
      */
@@ -184,6 +246,7 @@ public class Hammer
         if (!disableStats)
             hammerStats = new HammerStats();
 
+        long creationStart = System.nanoTime();
         for(int i = 0; i<fakeUsers.length; i++)
         {
             fakeUsers[i] = new FakeUser(
@@ -192,8 +255,13 @@ public class Hammer
                 this.nickname+"_"+i,
                 (hammerStats != null));
         }
+        long creationNanos = System.nanoTime() - creationStart;
         logger.info(String.format("Hammer created : %d fake users were created"
-            + " with a base nickname %s", numberOfUser, nickname));
+            + " with a base nickname %s in %.3f ms (%.3f ms per user)",
+            numberOfUser,
+            nickname,
+            creationNanos / 1e6,
+            numberOfUser == 0 ? 0 : creationNanos / 1e6 / numberOfUser));
     }
 
 
@@ -229,7 +297,6 @@ public class Hammer
             if (System.getProperty(key) == null)
                 System.setProperty(key, e.getValue());
         }
-
         logger.info("Start OSGi framework with the bundles : " + BUNDLES);
         FrameworkFactory frameworkFactory = new FrameworkFactoryImpl();
         Map<String, String> configuration = new HashMap<String, String>();
@@ -280,19 +347,7 @@ public class Hammer
             Hammer.framework = framework;
         }
 
-        logger.info("Add extension provider for :");
-        logger.info("Element name : " + MediaProvider.ELEMENT_NAME
-            + ", Namespace : " + MediaProvider.NAMESPACE);
-        ProviderManager.addExtensionProvider(
-            MediaProvider.ELEMENT_NAME,
-            MediaProvider.NAMESPACE,
-            new MediaProvider());
-        logger.info("Element name : " + SsrcProvider.ELEMENT_NAME
-            + ", Namespace : " + SsrcProvider.NAMESPACE);
-        ProviderManager.addExtensionProvider(
-            SsrcProvider.ELEMENT_NAME,
-            SsrcProvider.NAMESPACE,
-            new SsrcProvider());
+        HammerProviders.register();
 //        logger.info("Element name : " + JingleIQ.ELEMENT_NAME
 //            + ", Namespace : " + JingleIQ.NAMESPACE);
 //        ProviderManager.addIQProvider(
@@ -306,8 +361,8 @@ public class Hammer
      * handles to the XMPP server(and then a MUC), using the <tt>Credential</tt>
      * given as arguments for the login.
      *
-     * @param wait the number of milliseconds the Hammer will wait during the
-     * start of two consecutive fake users.
+     * @param arrivalProfile the <tt>ArrivalProfile</tt> giving the time at
+     * which each fake user arrives.
      * @param credentials a list of <tt>Credentials</tt> used for the login
      * of the fake users.
      * @param overallStats enable or not the logging of the overall stats
@@ -319,31 +374,51 @@ public class Hammer
      * <tt>HammerStats</tt> during the run.
      * @param statsPollingTime the number of seconds between two polling of stats
      * by the <tt>HammerStats</tt> run method.
+     * @param maxInFlight the maximum number of fake users that can be starting
+     * at the same time.
      */
     public void start(
-        int wait,
+        ArrivalProfile arrivalProfile,
         List<Credential> credentials,
         boolean overallStats,
         boolean allStats,
         boolean summaryStats,
-        int statsPollingTime)
+        int statsPollingTime,
+        int maxInFlight)
     {
-        if(wait <= 0) wait = 1;
         if(started)
         {
             logger.warn("Hammer already started");
             return;
         }
-        
+
+        if (metricsPort > 0)
+            startMetrics();
+        protocolTrace.start();
+
+        // With the live metrics, the streams are polled during the ramp too,
+        // as the users are added to the HammerStats once started.
+        boolean statsStarted = false;
+        if (!disableStats && metricsServer != null)
+        {
+            startStats(overallStats, allStats, summaryStats, statsPollingTime);
+            statsStarted = true;
+        }
+
+        StartupExecutor startupExecutor
+            = new StartupExecutor(maxInFlight, arrivalProfile, startupStats);
 
         if (credentials != null)
-            startUsersWithCredentials(credentials, wait);
+            startUsersWithCredentials(credentials, startupExecutor);
         else
-            startUsersAnonymous(wait);
+            startUsersAnonymous(startupExecutor);
         this.started = true;
         logger.info("The Hammer has correctly been started");
+        logger.info("Startup timings : " + startupStats.getStatsJSON());
+        logger.info("ICE ports : "
+            + IceMediaStreamGenerator.getInstance().getPortStatsJSON());
 
-        if (!disableStats)
+        if (!disableStats && !statsStarted)
             startStats(overallStats, allStats, summaryStats, statsPollingTime);
     }
 
@@ -352,94 +427,118 @@ public class Hammer
      *
      * @param credentials a list of <tt>Credentials</tt> used for the login of
      * the fake users.
-     * @param wait the number of milliseconds the Hammer will wait during the
-     * start of two consecutive fake users.
+     * @param startupExecutor the <tt>StartupExecutor</tt> used to start the
+     * fake users.
      */
-    private void startUsersWithCredentials(List<Credential> credentials, int wait)
+    private void startUsersWithCredentials(
+        List<Credential> credentials,
+        StartupExecutor startupExecutor)
     {
         logger.info("Starting the Hammer : starting all FakeUsers "
                             + "with username/password login");
-        try
-        {
-            Iterator<FakeUser> userIt = Arrays.asList(fakeUsers).iterator();
-            Iterator<Credential> credIt = credentials.iterator();
-            FakeUser user = null;
-            FakeUserStats userStats;
-            Credential credential = null;
+        Iterator<FakeUser> userIt = Arrays.asList(fakeUsers).iterator();
+        Iterator<Credential> credIt = credentials.iterator();
+        List<Runnable> startTasks = new ArrayList<>();
 
-            while(credIt.hasNext() && userIt.hasNext())
-            {
-                user = userIt.next();
-                credential = credIt.next();
-
-                user.start(credential.getUsername(),credential.getPassword());
-                if (hammerStats != null
-                        && (userStats = user.getFakeUserStats()) != null)
-                    hammerStats.addFakeUsersStats(userStats);
-                Thread.sleep(wait);
-            }
-        }
-        catch (XMPPException e)
-        {
-            e.printStackTrace();
-            System.exit(1);
-        }
-        catch (IOException e)
+        while(credIt.hasNext() && userIt.hasNext())
         {
-            e.printStackTrace();
-        }
-        catch (InterruptedException e)
-        {
-            e.printStackTrace();
-        }
-        catch (SmackException e)
-        {
-            e.printStackTrace();
-            System.exit(1);
+            startTasks.add(
+                createStartTask(userIt.next(), credIt.next()));
         }
+        runStartTasks(startupExecutor, startTasks);
     }
 
     /**
      * Start all fake users with anonymous login.
-     * @param wait the number of milliseconds the Hammer will wait during the
-     * start of two consecutive fake users.
+     *
+     * @param startupExecutor the <tt>StartupExecutor</tt> used to start the
+     * fake users.
      */
-    private void startUsersAnonymous(int wait)
+    private void startUsersAnonymous(StartupExecutor startupExecutor)
     {
         logger.info("Starting the Hammer : starting all "
                             + "FakeUsers with anonymous login");
-        try
-        {
-            for(FakeUser user : fakeUsers)
-            {
-                FakeUserStats userStats;
-                user.start();
-                if (hammerStats != null
-                        && (userStats = user.getFakeUserStats()) != null)
-                    hammerStats.addFakeUsersStats(userStats);
-                Thread.sleep(wait);
-            }
-        }
-        catch (XMPPException e)
+        List<Runnable> startTasks = new ArrayList<>(fakeUsers.length);
+
+        for(FakeUser user : fakeUsers)
         {
-            e.printStackTrace();
-            System.exit(1);
+            startTasks.add(createStartTask(user, null));
         }
-        catch (IOException e)
+        runStartTasks(startupExecutor, startTasks);
+    }
+
+    /**
+     * Run the <tt>startTasks</tt> with <tt>startupExecutor</tt> and wait
+     * for all of them to be done.
+     *
+     * @param startupExecutor the <tt>StartupExecutor</tt> used to start the
+     * fake users.
+     * @param startTasks the tasks starting the fake users.
+     */
+    private void runStartTasks(
+        StartupExecutor startupExecutor,
+        List<Runnable> startTasks)
+    {
+        try
         {
-            e.printStackTrace();
+            startupExecutor.run(startTasks);
         }
         catch (InterruptedException e)
         {
             e.printStackTrace();
         }
-        catch (SmackException e)
-        {
-            e.printStackTrace();
-            System.exit(1);
-        }
+    }
 
+    /**
+     * Create the task that will start <tt>user</tt> and register its stats
+     * to the <tt>HammerStats</tt> of this <tt>Hammer</tt>.
+     *
+     * @param user the <tt>FakeUser</tt> to start.
+     * @param credential the <tt>Credential</tt> used for the login of
+     * <tt>user</tt>, or null for an anonymous login.
+     * @return the task that will start <tt>user</tt>.
+     */
+    private Runnable createStartTask(
+        final FakeUser user,
+        final Credential credential)
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    FakeUserStats userStats;
+
+                    if (credential != null)
+                        user.start(
+                            credential.getUsername(),
+                            credential.getPassword());
+                    else
+                        user.start();
+                    if (hammerStats != null
+                            && (userStats = user.getFakeUserStats()) != null)
+                        hammerStats.addFakeUsersStats(userStats);
+                }
+                catch (XMPPException e)
+                {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+                catch (SmackException e)
+                {
+                    e.printStackTrace();
+                    System.exit(1);
+                }
+            }
+        };
     }
+
     /**
      * Start the <tt>HammerStats</tt> used by this <tt>Hammer</tt> to keep track
      * of the streams stats.
@@ -467,12 +566,40 @@ public class Hammer
         hammerStats.setOverallStatsLogging(overallStats);
         hammerStats.setAllStatsLogging(allStats);
         hammerStats.setSummaryStatsLogging(summaryStats);
+        hammerStats.setBinaryStatsLogging(binaryStatsEnabled);
+        hammerStats.setStartupStats(startupStats);
+        hammerStats.setMetricsEnabled(metricsServer != null);
         hammerStats.setTimeBetweenUpdate(statsPollingTime);
         hammerStatsThread = new Thread(hammerStats);
         hammerStatsThread.start();
     }
 
 
+    /**
+     * Start the <tt>MetricsServer</tt> exposing the live metrics of this
+     * <tt>Hammer</tt> on <tt>metricsPort</tt>, before the users are started
+     * so that their startup can be watched.
+     */
+    private void startMetrics()
+    {
+        metricsServer = new MetricsServer(
+            metricsPort,
+            fakeUsers.length,
+            startupStats,
+            hammerStats,
+            IceMediaStreamGenerator.getInstance().getPortPool());
+        try
+        {
+            metricsServer.start();
+        }
+        catch (IOException e)
+        {
+            logger.error("Could not expose the metrics on port "
+                + metricsPort, e);
+            metricsServer = null;
+        }
+    }
+
     /**
      * Stop the streams of all the fake users created, and disconnect them
      * from the MUC and the XMPP server.
@@ -510,7 +637,40 @@ public class Hammer
             e.printStackTrace();
         }
 
+        if (metricsServer != null)
+            metricsServer.stop();
+        protocolTrace.stop();
+
         this.started = false;
+        logger.info("Startup timings : " + startupStats.getStatsJSON());
+        // The first received RTP packet is only seen by the
+        // RtpCountingReceiver, and the first sent one is only watched when
+        // the events are dumped.
+        Set<EventTrace.Event> summarized
+            = EnumSet.allOf(EventTrace.Event.class);
+        if (!rtpCountingEnabled)
+            summarized.remove(EventTrace.Event.FIRST_RTP_RECEIVED);
+        if (!isEventTraceDumped())
+            summarized.remove(EventTrace.Event.FIRST_RTP_SENT);
+        logger.info("Lifecycle events : "
+            + eventTrace.getSummaryJSON(summarized));
+        if (traceFile != null)
+        {
+            try
+            {
+                eventTrace.dump(new File(traceFile));
+            }
+            catch (IOException e)
+            {
+                logger.error("Could not write the event trace to "
+                    + traceFile, e);
+            }
+        }
+        logger.info("ICE ports : "
+            + IceMediaStreamGenerator.getInstance().getPortStatsJSON());
+        if (packetBlasterEnabled)
+            logger.info("Packet sender : "
+                + PacketSender.getInstance().getStatsJSON());
         logger.info("The Hammer has been correctly stopped");
     }
 
@@ -555,6 +715,175 @@ public class Hammer
         return this.serverInfo;
     }
 
+    /**
+     * Get the <tt>StartupStats</tt> in which the <tt>FakeUser</tt>s of this
+     * <tt>Hammer</tt> record the duration of each stage of their startup.
+     *
+     * @return the <tt>StartupStats</tt> of this <tt>Hammer</tt>.
+     */
+    public StartupStats getStartupStats()
+    {
+        return this.startupStats;
+    }
+
+    /**
+     * Get the <tt>EventTrace</tt> in which the <tt>FakeUser</tt>s of this
+     * <tt>Hammer</tt> record the events of their lifecycle.
+     *
+     * @return the <tt>EventTrace</tt> of this <tt>Hammer</tt>.
+     */
+    public EventTrace getEventTrace()
+    {
+        return this.eventTrace;
+    }
+
+    /**
+     * Get the <tt>ProtocolTrace</tt> in which the <tt>FakeUser</tt>s of this
+     * <tt>Hammer</tt> trace the stanzas they exchange.
+     *
+     * @return the <tt>ProtocolTrace</tt> of this <tt>Hammer</tt>.
+     */
+    public ProtocolTrace getProtocolTrace()
+    {
+        return this.protocolTrace;
+    }
+
+    /**
+     * Get whether the <tt>FakeUser</tt>s of this <tt>Hammer</tt> send the
+     * packets of the rtpdump files directly with a <tt>PacketBlaster</tt>.
+     *
+     * @return true if the packet blaster mode is enabled.
+     */
+    public boolean isPacketBlasterEnabled()
+    {
+        return this.packetBlasterEnabled;
+    }
+
+    /**
+     * Set whether the <tt>FakeUser</tt>s of this <tt>Hammer</tt> send the
+     * packets of the rtpdump files directly with a <tt>PacketBlaster</tt>
+     * (has to be called before {@link #start}).
+     *
+     * @param packetBlasterEnabled whether the packet blaster mode is enabled.
+     */
+    public void setPacketBlasterEnabled(boolean packetBlasterEnabled)
+    {
+        this.packetBlasterEnabled = packetBlasterEnabled;
+    }
+
+    /**
+     * Get whether the <tt>FakeUser</tt>s of this <tt>Hammer</tt> only count
+     * the RTP packets they receive.
+     *
+     * @return true if the counting-only receive mode is enabled.
+     */
+    public boolean isRtpCountingEnabled()
+    {
+        return this.rtpCountingEnabled;
+    }
+
+    /**
+     * Set whether the <tt>FakeUser</tt>s of this <tt>Hammer</tt> only count
+     * the RTP packets they receive (has to be called before {@link #start}).
+     *
+     * @param rtpCountingEnabled whether the counting-only receive mode is
+     * enabled.
+     */
+    public void setRtpCountingEnabled(boolean rtpCountingEnabled)
+    {
+        this.rtpCountingEnabled = rtpCountingEnabled;
+    }
+
+    /**
+     * Get the time (in milliseconds) after which the <tt>FakeUser</tt>s of
+     * this <tt>Hammer</tt> give up waiting for ICE or DTLS.
+     *
+     * @return the timeout of the ICE and DTLS stages in milliseconds.
+     */
+    public long getStageTimeoutMs()
+    {
+        return this.stageTimeoutMs;
+    }
+
+    /**
+     * Set the time (in milliseconds) after which the <tt>FakeUser</tt>s of
+     * this <tt>Hammer</tt> give up waiting for ICE or DTLS (has to be called
+     * before {@link #start}).
+     *
+     * @param stageTimeoutMs the timeout of the ICE and DTLS stages in
+     * milliseconds (no timeout if it is lower than 1).
+     */
+    public void setStageTimeoutMs(long stageTimeoutMs)
+    {
+        this.stageTimeoutMs = stageTimeoutMs;
+    }
+
+    /**
+     * Set the port on which the live metrics of this <tt>Hammer</tt> are
+     * exposed in the Prometheus format (has to be called before
+     * {@link #start}).
+     *
+     * @param metricsPort the port of the metrics, or 0 to not expose them.
+     */
+    public void setMetricsPort(int metricsPort)
+    {
+        this.metricsPort = metricsPort;
+    }
+
+    /**
+     * Set the file in which the lifecycle events of the <tt>FakeUser</tt>s
+     * are dumped when this <tt>Hammer</tt> stops.
+     *
+     * @param traceFile the path of the trace file, or null to not dump the
+     * events.
+     */
+    public void setTraceFile(String traceFile)
+    {
+        this.traceFile = traceFile;
+    }
+
+    /**
+     * Get whether the lifecycle events of the <tt>FakeUser</tt>s are dumped
+     * in a trace file when this <tt>Hammer</tt> stops.
+     *
+     * @return true if a trace file is set.
+     */
+    public boolean isEventTraceDumped()
+    {
+        return this.traceFile != null;
+    }
+
+    /**
+     * Set where and for which <tt>FakeUser</tt>s the stanzas are traced (has
+     * to be called before {@link #start}).
+     *
+     * @param output the file in which the stanzas are written,
+     * <tt>ProtocolTrace.STDOUT</tt> for the standard output, or null to not
+     * trace them.
+     * @param sampling one user out of <tt>sampling</tt> is traced.
+     * @param user the index of the only user traced, or -1 to trace a sample
+     * of the users.
+     */
+    public void setProtocolTrace(String output, int sampling, int user)
+    {
+        protocolTrace.setOutput(output);
+        protocolTrace.setSampling(sampling);
+        protocolTrace.setUser(user);
+    }
+
+    /**
+     * Set whether the <tt>HammerStats</tt> of this <tt>Hammer</tt> record all
+     * the stats in a binary columnar file (has to be called before
+     * {@link #start}).
+     *
+     * @param binaryStatsEnabled whether the binary stats recording is
+     * enabled.
+     */
+    public void setBinaryStatsEnabled(boolean binaryStatsEnabled)
+    {
+        this.binaryStatsEnabled = binaryStatsEnabled;
+    }
+
     /**
      * Get the conference information object associated
      * with this <tt>Hammer</tt>
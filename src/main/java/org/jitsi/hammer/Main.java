@@ -24,6 +24,7 @@ import java.util.List;
 import net.java.sip.communicator.impl.protocol.jabber.*;
 import net.java.sip.communicator.service.protocol.jabber.*;
 
+import org.jitsi.hammer.arrival.*;
 import org.jitsi.hammer.utils.*;
 import org.kohsuke.args4j.*;
 
@@ -233,6 +234,24 @@ public class Main
             parser.printUsage(System.out);
             System.exit(1);
         }
+        ArrivalProfile profile = null;
+        String profileError = "Unknown arrival profile";
+        try
+        {
+            profile = infoCLI.getArrivalProfile();
+        }
+        catch(IllegalArgumentException e)
+        {
+            profileError = "Invalid arrival profile : " + e.getMessage();
+        }
+        if(profile == null)
+        {
+            System.out.println(profileError + '\n');
+            System.out.println("Jitsi-Hammer options usage :");
+            parser.printUsage(System.out);
+            System.exit(1);
+        }
+        final ArrivalProfile arrivalProfile = profile;
 
         // Set Smack interoperation to support Smackv4
         AbstractSmackInteroperabilityLayer
@@ -240,6 +259,19 @@ public class Main
         
         //We call initialize the Hammer (registering OSGi bundle for example)
         Hammer.init();
+        if(infoCLI.getSinglePort() > 0)
+        {
+            try
+            {
+                IceMediaStreamGenerator.getInstance()
+                    .setSinglePort(infoCLI.getSinglePort());
+            }
+            catch (IOException e)
+            {
+                System.out.println(e.getMessage());
+                System.exit(1);
+            }
+        }
         try
         {
             HostInfo hostInfo = infoCLI.getHostInfoFromArguments();
@@ -259,6 +291,16 @@ public class Main
                 numberOfFakeUsers,
                     conferenceInfo,
                     infoCLI.getDisableStats());
+            hammer.setPacketBlasterEnabled(infoCLI.getPacketBlaster());
+            hammer.setRtpCountingEnabled(infoCLI.getRtpCounting());
+            hammer.setStageTimeoutMs(infoCLI.getStageTimeoutMs());
+            hammer.setBinaryStatsEnabled(infoCLI.getBinaryStats());
+            hammer.setMetricsPort(infoCLI.getMetricsPort());
+            hammer.setTraceFile(infoCLI.getTraceFile());
+            hammer.setProtocolTrace(
+                infoCLI.getXmlTrace(),
+                infoCLI.getXmlTraceSampling(),
+                infoCLI.getXmlTraceUser());
 
 
             //Cleanly stop the hammer when the program shutdown
@@ -279,12 +321,13 @@ public class Main
             //connect to the XMPP server and try to setup media stream
             // with it bridge
             hammer.start(
-                infoCLI.getInterval(),
+                arrivalProfile,
                 (credentials.size() > 0) ? credentials : null,
                 infoCLI.getOverallStats(),
                 infoCLI.getAllStats(),
                 infoCLI.getSummaryStats(),
-                infoCLI.getStatsPolling());
+                infoCLI.getStatsPolling(),
+                infoCLI.getMaxInFlight());
         }
         catch (URISyntaxException e)
         {
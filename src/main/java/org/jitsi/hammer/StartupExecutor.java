@@ -0,0 +1,184 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer;
+
+import org.jitsi.hammer.arrival.*;
+import org.jitsi.hammer.stats.*;
+import org.jitsi.util.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * The <tt>StartupExecutor</tt> starts the <tt>FakeUser</tt>s of a
+ * <tt>Hammer</tt> concurrently : the users arrive following an
+ * <tt>ArrivalProfile</tt>, and at most <tt>maxInFlight</tt> users are
+ * starting (connecting, logging in and joining the MUC) at the same time.
+ *
+ * The arrivals are open-loop : they are dispatched at the time given by the
+ * <tt>ArrivalProfile</tt> (with a <tt>System.nanoTime()</tt> deadline), no
+ * matter how long the previous users take to start. If more than
+ * <tt>maxInFlight</tt> users are starting, the new arrivals are queued and
+ * the time they spend in the queue is recorded in the <tt>StartupStats</tt>.
+ */
+public class StartupExecutor
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>StartupExecutor</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(StartupExecutor.class);
+
+    /**
+     * Under this number of nanoseconds before a deadline, we stop parking
+     * the dispatching thread and just yield, because the park granularity of
+     * the OS is coarser than that.
+     */
+    private static final long SPIN_THRESHOLD_NANOS = 50000;
+
+    /**
+     * The maximum number of users that can be starting at the same time.
+     */
+    private final int maxInFlight;
+
+    /**
+     * The <tt>ArrivalProfile</tt> giving the arrival time of each user.
+     */
+    private final ArrivalProfile arrivalProfile;
+
+    /**
+     * The <tt>StartupStats</tt> in which the queueing time of each user is
+     * recorded.
+     */
+    private final StartupStats startupStats;
+
+    /**
+     * Initializes a new <tt>StartupExecutor</tt>.
+     *
+     * @param maxInFlight the maximum number of users that can be starting at
+     * the same time (a value lower than 1 is considered to be 1).
+     * @param arrivalProfile the <tt>ArrivalProfile</tt> giving the arrival
+     * time of each user.
+     * @param startupStats the <tt>StartupStats</tt> in which the queueing time
+     * of each user is recorded.
+     */
+    public StartupExecutor(
+        int maxInFlight,
+        ArrivalProfile arrivalProfile,
+        StartupStats startupStats)
+    {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.arrivalProfile = arrivalProfile;
+        this.startupStats = startupStats;
+    }
+
+    /**
+     * Run all the <tt>startTasks</tt> (each of them starting a single user),
+     * and wait for all of them to be done.
+     *
+     * @param startTasks the tasks starting the users, in the order in which
+     * they should arrive.
+     * @throws InterruptedException if the current thread is interrupted while
+     * waiting for the tasks.
+     */
+    public void run(List<Runnable> startTasks)
+        throws InterruptedException
+    {
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(
+            maxInFlight,
+            new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable r)
+                {
+                    Thread thread = new Thread(
+                        r, "FakeUserStarter-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+        logger.info(String.format("Starting %d users with at most %d users"
+            + " in flight and the arrival profile %s",
+            startTasks.size(), maxInFlight, arrivalProfile));
+
+        long rampStart = System.nanoTime();
+        try
+        {
+            for (int i = 0; i < startTasks.size(); i++)
+            {
+                final Runnable task = startTasks.get(i);
+                final long arrival
+                    = rampStart + arrivalProfile.getArrivalOffsetNanos(i);
+
+                parkUntil(arrival);
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        startupStats.record(
+                            StartupStats.Stage.QUEUE,
+                            System.nanoTime() - arrival);
+                        task.run();
+                    }
+                });
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        logger.info(String.format("%d users arrived in %dms",
+            startTasks.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - rampStart)));
+
+        while (!executor.awaitTermination(1, TimeUnit.SECONDS));
+
+        logger.info(String.format("%d users started in %dms",
+            startTasks.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - rampStart)));
+    }
+
+    /**
+     * Park the current thread until <tt>System.nanoTime()</tt> reaches
+     * <tt>deadline</tt>.
+     *
+     * @param deadline the value of <tt>System.nanoTime()</tt> until which
+     * the current thread will be parked.
+     * @throws InterruptedException if the current thread is interrupted while
+     * parked.
+     */
+    private static void parkUntil(long deadline)
+        throws InterruptedException
+    {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0)
+        {
+            if (remaining > SPIN_THRESHOLD_NANOS)
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            else
+                Thread.yield();
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * The <tt>StartupFutures</tt> class gives the threads shared by all the
+ * <tt>FakeUser</tt>s to run the asynchronous stages of their startup (ICE,
+ * DTLS and the start of the <tt>MediaStream</tt>s), and to time them out.
+ *
+ * No thread is waiting for a particular <tt>FakeUser</tt> : a stage is a
+ * <tt>CompletableFuture</tt> completed by a callback (of ice4j or libjitsi)
+ * or by the timeout task, whichever comes first.
+ */
+public class StartupFutures
+{
+    /**
+     * The <tt>ScheduledExecutorService</tt> running the timeout tasks of the
+     * stages (a single thread is enough since these tasks only complete a
+     * future).
+     */
+    private static final ScheduledThreadPoolExecutor timeoutScheduler;
+
+    static
+    {
+        timeoutScheduler = new ScheduledThreadPoolExecutor(
+            1, newThreadFactory("StartupTimeouts"));
+        // Most of the stages complete before their timeout, we don't want
+        // the queue of the scheduler to be filled by cancelled tasks.
+        timeoutScheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * The <tt>ExecutorService</tt> running the work done at the end of a
+     * stage (one thread per processor, shared by all the users).
+     */
+    private static final ExecutorService executor
+        = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            newThreadFactory("FakeUserStartup"));
+
+    /**
+     * Get the <tt>Executor</tt> that should run the work done at the end of a
+     * stage, so that it does not run on a thread of ice4j or libjitsi.
+     *
+     * @return the <tt>Executor</tt> shared by all the <tt>FakeUser</tt>s to
+     * run the work done at the end of a stage.
+     */
+    public static Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * Make <tt>future</tt> complete exceptionally with a
+     * <tt>TimeoutException</tt> if it is not completed after
+     * <tt>timeoutMs</tt> milliseconds.
+     *
+     * @param future the <tt>CompletableFuture</tt> to time out.
+     * @param timeoutMs the timeout in milliseconds (no timeout if it is lower
+     * than 1).
+     * @param description the description of the stage, used in the message
+     * of the <tt>TimeoutException</tt>.
+     * @return <tt>future</tt>
+     */
+    public static <T> CompletableFuture<T> withTimeout(
+        final CompletableFuture<T> future,
+        final long timeoutMs,
+        final String description)
+    {
+        if (timeoutMs < 1 || future.isDone())
+            return future;
+
+        final ScheduledFuture<?> timeout = timeoutScheduler.schedule(
+            new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    future.completeExceptionally(new TimeoutException(
+                        description + " not done after " + timeoutMs + " ms"));
+                }
+            },
+            timeoutMs,
+            TimeUnit.MILLISECONDS);
+
+        future.whenComplete(new BiConsumer<T, Throwable>()
+        {
+            @Override
+            public void accept(T result, Throwable error)
+            {
+                timeout.cancel(false);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Create a <tt>ThreadFactory</tt> creating daemon threads named
+     * <tt>name</tt> followed by a number.
+     *
+     * @param name the prefix of the names of the threads.
+     * @return a <tt>ThreadFactory</tt> creating daemon threads.
+     */
+    private static ThreadFactory newThreadFactory(final String name)
+    {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread
+                    = new Thread(r, name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.arrival;
+
+/**
+ * An <tt>ArrivalProfile</tt> describes when the fake users of a
+ * <tt>Hammer</tt> arrive, independently of how long it takes for them to
+ * start (the profile is open-loop : a slow join does not delay the next
+ * arrivals).
+ */
+public interface ArrivalProfile
+{
+    /**
+     * Get the time, relative to the start of the ramp, at which the user
+     * with the index <tt>index</tt> should arrive.
+     *
+     * This method is called with consecutive indexes starting from 0, and the
+     * returned offsets are non-decreasing.
+     *
+     * @param index the index of the user (starting from 0).
+     * @return the time (in nanoseconds), relative to the start of the ramp,
+     * at which the user <tt>index</tt> should arrive.
+     */
+    long getArrivalOffsetNanos(int index);
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.arrival;
+
+import java.util.concurrent.*;
+
+/**
+ * An <tt>ArrivalProfile</tt> in which the users arrive at a constant rate.
+ */
+public class ConstantArrivalProfile
+    implements ArrivalProfile
+{
+    /**
+     * The number of users arriving per second.
+     */
+    private final double usersPerSecond;
+
+    /**
+     * Initializes a new <tt>ConstantArrivalProfile</tt>.
+     *
+     * @param usersPerSecond the number of users arriving per second.
+     */
+    public ConstantArrivalProfile(double usersPerSecond)
+    {
+        if (usersPerSecond <= 0)
+            throw new IllegalArgumentException(
+                "usersPerSecond must be strictly positive (got "
+                    + usersPerSecond + ")");
+        this.usersPerSecond = usersPerSecond;
+    }
+
+    @Override
+    public long getArrivalOffsetNanos(int index)
+    {
+        return (long) (index * TimeUnit.SECONDS.toNanos(1) / usersPerSecond);
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("constant(%.3f users/sec)", usersPerSecond);
+    }
+}
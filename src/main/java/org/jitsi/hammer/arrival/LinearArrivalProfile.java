@@ -0,0 +1,88 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.arrival;
+
+import java.util.concurrent.*;
+
+/**
+ * An <tt>ArrivalProfile</tt> in which the arrival rate grows linearly from 0
+ * to <tt>usersPerSecond</tt> during <tt>rampSeconds</tt>, and then stays at
+ * <tt>usersPerSecond</tt>.
+ */
+public class LinearArrivalProfile
+    implements ArrivalProfile
+{
+    /**
+     * The number of users arriving per second at the end of the ramp.
+     */
+    private final double usersPerSecond;
+
+    /**
+     * The duration (in seconds) of the ramp.
+     */
+    private final double rampSeconds;
+
+    /**
+     * The number of users that have arrived at the end of the ramp.
+     */
+    private final double rampUsers;
+
+    /**
+     * Initializes a new <tt>LinearArrivalProfile</tt>.
+     *
+     * @param usersPerSecond the number of users arriving per second at the
+     * end of the ramp.
+     * @param rampSeconds the duration (in seconds) of the ramp.
+     */
+    public LinearArrivalProfile(double usersPerSecond, double rampSeconds)
+    {
+        if (usersPerSecond <= 0)
+            throw new IllegalArgumentException(
+                "usersPerSecond must be strictly positive (got "
+                    + usersPerSecond + ")");
+        if (rampSeconds < 0)
+            throw new IllegalArgumentException(
+                "rampSeconds must be positive or zero (got "
+                    + rampSeconds + ")");
+        this.usersPerSecond = usersPerSecond;
+        this.rampSeconds = rampSeconds;
+        this.rampUsers = usersPerSecond * rampSeconds / 2;
+    }
+
+    @Override
+    public long getArrivalOffsetNanos(int index)
+    {
+        double seconds;
+
+        /*
+         * During the ramp, the number of users arrived at t is
+         * usersPerSecond * t^2 / (2 * rampSeconds).
+         */
+        if (index < rampUsers)
+            seconds = Math.sqrt(2 * index * rampSeconds / usersPerSecond);
+        else
+            seconds = rampSeconds + (index - rampUsers) / usersPerSecond;
+
+        return (long) (seconds * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("linear(0 to %.3f users/sec in %.3fsec)",
+            usersPerSecond, rampSeconds);
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.arrival;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * An <tt>ArrivalProfile</tt> in which the users arrive following a Poisson
+ * process of rate <tt>usersPerSecond</tt> (the inter-arrival times are
+ * exponentially distributed).
+ */
+public class PoissonArrivalProfile
+    implements ArrivalProfile
+{
+    /**
+     * The mean number of users arriving per second.
+     */
+    private final double usersPerSecond;
+
+    /**
+     * The <tt>Random</tt> used to draw the inter-arrival times.
+     */
+    private final Random random;
+
+    /**
+     * The index of the last user whose arrival offset has been computed.
+     */
+    private int lastIndex = 0;
+
+    /**
+     * The arrival offset (in seconds) of the user <tt>lastIndex</tt>.
+     */
+    private double lastOffsetSeconds = 0;
+
+    /**
+     * Initializes a new <tt>PoissonArrivalProfile</tt>.
+     *
+     * @param usersPerSecond the mean number of users arriving per second.
+     * @param random the <tt>Random</tt> used to draw the inter-arrival times.
+     */
+    public PoissonArrivalProfile(double usersPerSecond, Random random)
+    {
+        if (usersPerSecond <= 0)
+            throw new IllegalArgumentException(
+                "usersPerSecond must be strictly positive (got "
+                    + usersPerSecond + ")");
+        this.usersPerSecond = usersPerSecond;
+        this.random = random;
+    }
+
+    @Override
+    public synchronized long getArrivalOffsetNanos(int index)
+    {
+        if (index < lastIndex)
+            throw new IllegalArgumentException("index");
+
+        while (lastIndex < index)
+        {
+            lastOffsetSeconds
+                += -Math.log(1 - random.nextDouble()) / usersPerSecond;
+            lastIndex++;
+        }
+
+        return (long) (lastOffsetSeconds * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("poisson(%.3f users/sec)", usersPerSecond);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.arrival;
+
+import java.util.concurrent.*;
+
+/**
+ * An <tt>ArrivalProfile</tt> in which the users arrive at a constant base
+ * rate, except for a spike of <tt>spikeUsers</tt> users arriving all at once
+ * <tt>spikeSeconds</tt> after the start of the ramp.
+ */
+public class SpikeArrivalProfile
+    implements ArrivalProfile
+{
+    /**
+     * The number of users arriving per second outside of the spike.
+     */
+    private final double usersPerSecond;
+
+    /**
+     * The time (in seconds) of the spike, relative to the start of the ramp.
+     */
+    private final double spikeSeconds;
+
+    /**
+     * The number of users arriving during the spike.
+     */
+    private final int spikeUsers;
+
+    /**
+     * The number of users arriving before the spike.
+     */
+    private final long usersBeforeSpike;
+
+    /**
+     * Initializes a new <tt>SpikeArrivalProfile</tt>.
+     *
+     * @param usersPerSecond the number of users arriving per second outside
+     * of the spike.
+     * @param spikeSeconds the time (in seconds) of the spike, relative to the
+     * start of the ramp.
+     * @param spikeUsers the number of users arriving during the spike.
+     */
+    public SpikeArrivalProfile(
+        double usersPerSecond,
+        double spikeSeconds,
+        int spikeUsers)
+    {
+        if (usersPerSecond <= 0)
+            throw new IllegalArgumentException(
+                "usersPerSecond must be strictly positive (got "
+                    + usersPerSecond + ")");
+        if (spikeSeconds < 0)
+            throw new IllegalArgumentException(
+                "spikeSeconds must be positive or zero (got "
+                    + spikeSeconds + ")");
+        if (spikeUsers < 0)
+            throw new IllegalArgumentException(
+                "spikeUsers must be positive or zero (got "
+                    + spikeUsers + ")");
+        this.usersPerSecond = usersPerSecond;
+        this.spikeSeconds = spikeSeconds;
+        this.spikeUsers = spikeUsers;
+        this.usersBeforeSpike = (long) Math.ceil(spikeSeconds * usersPerSecond);
+    }
+
+    @Override
+    public long getArrivalOffsetNanos(int index)
+    {
+        double seconds;
+
+        if (index < usersBeforeSpike)
+            seconds = index / usersPerSecond;
+        else if (index < usersBeforeSpike + spikeUsers)
+            seconds = spikeSeconds;
+        else
+            seconds = (index - spikeUsers) / usersPerSecond;
+
+        return (long) (seconds * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("spike(%.3f users/sec, %d users at %.3fsec)",
+            usersPerSecond, spikeUsers, spikeSeconds);
+    }
+}
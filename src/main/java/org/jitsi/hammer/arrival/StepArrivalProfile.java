@@ -0,0 +1,71 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.arrival;
+
+import java.util.concurrent.*;
+
+/**
+ * An <tt>ArrivalProfile</tt> in which the users arrive by batches (a
+ * staircase) : <tt>stepUsers</tt> users arrive at once every
+ * <tt>stepSeconds</tt>.
+ */
+public class StepArrivalProfile
+    implements ArrivalProfile
+{
+    /**
+     * The number of users arriving at each step.
+     */
+    private final int stepUsers;
+
+    /**
+     * The duration (in seconds) between two steps.
+     */
+    private final double stepSeconds;
+
+    /**
+     * Initializes a new <tt>StepArrivalProfile</tt>.
+     *
+     * @param stepUsers the number of users arriving at each step.
+     * @param stepSeconds the duration (in seconds) between two steps.
+     */
+    public StepArrivalProfile(int stepUsers, double stepSeconds)
+    {
+        if (stepUsers <= 0)
+            throw new IllegalArgumentException(
+                "stepUsers must be strictly positive (got "
+                    + stepUsers + ")");
+        if (stepSeconds < 0)
+            throw new IllegalArgumentException(
+                "stepSeconds must be positive or zero (got "
+                    + stepSeconds + ")");
+        this.stepUsers = stepUsers;
+        this.stepSeconds = stepSeconds;
+    }
+
+    @Override
+    public long getArrivalOffsetNanos(int index)
+    {
+        return (long) ((index / stepUsers)
+            * stepSeconds * TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("step(%d users every %.3fsec)",
+            stepUsers, stepSeconds);
+    }
+}
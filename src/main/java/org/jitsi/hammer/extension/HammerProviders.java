@@ -0,0 +1,174 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.extension;
+
+import net.java.sip.communicator.impl.protocol.jabber.extensions.*;
+import net.java.sip.communicator.impl.protocol.jabber.extensions.jingle.*;
+import org.jitsi.util.Logger;
+import org.jivesoftware.smack.provider.*;
+
+/**
+ * Registers in the <tt>ProviderManager</tt> the providers of the stanzas
+ * and extensions parsed by the <tt>FakeUser</tt>s : the Jingle IQ and its
+ * elements, the conference IQ of the focus and the media/ssrc extensions.
+ *
+ * The <tt>ProviderManager</tt> is global to the process, so the providers
+ * are registered once, by {@link #register()} called from
+ * <tt>Hammer.init()</tt>, and shared by all the connections (they are
+ * immutable), instead of being registered again by every <tt>FakeUser</tt>.
+ */
+public final class HammerProviders
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>HammerProviders</tt> class for
+     * logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(HammerProviders.class);
+
+    /**
+     * The (element name, namespace) of the elements of the Jingle IQs sent by
+     * the focus, which must be parsed for a user to join a conference. The
+     * list is kept apart from <tt>JingleElementTable</tt> so that an element
+     * missing from the table is detected.
+     */
+    private static final String[][] REQUIRED_ELEMENTS = {
+        { NewContentPacketExtension.ELEMENT_NAME,
+            NewContentPacketExtension.NAMESPACE },
+        { NewRtpDescriptionPacketExtension.ELEMENT_NAME,
+            NewRtpDescriptionPacketExtension.NAMESPACE },
+        { NewPayloadTypePacketExtension.ELEMENT_NAME,
+            NewPayloadTypePacketExtension.NAMESPACE },
+        { NewParameterPacketExtension.ELEMENT_NAME,
+            NewParameterPacketExtension.NAMESPACE },
+        { NewParameterPacketExtension.ELEMENT_NAME,
+            NewSourcePacketExtension.NAMESPACE },
+        { NewRtcpFbPacketExtension.ELEMENT_NAME,
+            NewRtcpFbPacketExtension.NAMESPACE },
+        { NewRTPHdrExtPacketExtension.ELEMENT_NAME,
+            NewRTPHdrExtPacketExtension.NAMESPACE },
+        { NewSourcePacketExtension.ELEMENT_NAME,
+            NewSourcePacketExtension.NAMESPACE },
+        { NewSourceGroupPacketExtension.ELEMENT_NAME,
+            NewSourceGroupPacketExtension.NAMESPACE },
+        { NewIceUdpTransportPacketExtension.ELEMENT_NAME,
+            NewIceUdpTransportPacketExtension.NAMESPACE },
+        { NewCandidatePacketExtension.ELEMENT_NAME,
+            NewIceUdpTransportPacketExtension.NAMESPACE },
+        { NewDtlsFingerprintPacketExtension.ELEMENT_NAME,
+            NewDtlsFingerprintPacketExtension.NAMESPACE }
+    };
+
+    /**
+     * Whether the providers have been registered.
+     */
+    private static boolean registered = false;
+
+    /**
+     * Do not instantiate : the registration is global.
+     */
+    private HammerProviders()
+    {
+    }
+
+    /**
+     * Register the providers, if they have not been registered yet, and check
+     * that the whole Jingle element set can be parsed.
+     *
+     * @throws IllegalStateException if a provider of the Jingle element set
+     * is missing from the <tt>ProviderManager</tt> after the registration.
+     */
+    public static synchronized void register()
+    {
+        if (registered)
+            return;
+
+        long start = System.nanoTime();
+
+        ProviderManager.addIQProvider(
+            NewJingleIQ.ELEMENT_NAME,
+            NewJingleIQ.NAMESPACE,
+            new JingleProvider());
+        // The conference IQ is not needed, but Smack chokes on it if it is
+        // not parsed.
+        ProviderManager.addIQProvider(
+            ConferenceInitiationIQ.ELEMENT_NAME,
+            ConferenceInitiationIQ.NAMESPACE,
+            new ConferenceInitiationIQProvider());
+        for (int i = 0; i < JingleElementTable.size(); i++)
+        {
+            ProviderManager.addExtensionProvider(
+                JingleElementTable.getElementName(i),
+                JingleElementTable.getNamespace(i),
+                JingleElementTable.getProvider(i));
+        }
+
+        logger.info("Add extension provider for :");
+        logger.info("Element name : " + MediaProvider.ELEMENT_NAME
+            + ", Namespace : " + MediaProvider.NAMESPACE);
+        ProviderManager.addExtensionProvider(
+            MediaProvider.ELEMENT_NAME,
+            MediaProvider.NAMESPACE,
+            new MediaProvider());
+        logger.info("Element name : " + SsrcProvider.ELEMENT_NAME
+            + ", Namespace : " + SsrcProvider.NAMESPACE);
+        ProviderManager.addExtensionProvider(
+            SsrcProvider.ELEMENT_NAME,
+            SsrcProvider.NAMESPACE,
+            new SsrcProvider());
+
+        check();
+        registered = true;
+        logger.info(String.format(
+            "Registered the providers of %d Jingle elements in %.3f ms",
+            JingleElementTable.size(),
+            (System.nanoTime() - start) / 1e6));
+    }
+
+    /**
+     * Check that the <tt>ProviderManager</tt> has a provider for the Jingle
+     * IQ, and that the <tt>JingleElementTable</tt> and the
+     * <tt>ProviderManager</tt> have a provider for each of the
+     * <tt>REQUIRED_ELEMENTS</tt>.
+     *
+     * @throws IllegalStateException if a provider is missing.
+     */
+    private static void check()
+    {
+        if (ProviderManager.getIQProvider(
+                NewJingleIQ.ELEMENT_NAME, NewJingleIQ.NAMESPACE) == null)
+        {
+            throw new IllegalStateException(
+                "No provider registered for the Jingle IQ");
+        }
+
+        for (String[] element : REQUIRED_ELEMENTS)
+        {
+            String elementName = element[0];
+            String namespace = element[1];
+
+            if (JingleElementTable.getProvider(elementName, namespace) == null
+                || ProviderManager.getExtensionProvider(
+                        elementName, namespace) == null)
+            {
+                throw new IllegalStateException(
+                    "No provider registered for the Jingle element "
+                        + elementName + " in namespace " + namespace);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.media;
+
+import org.jitsi.hammer.stats.*;
+import org.jitsi.impl.neomedia.*;
+import org.jitsi.impl.neomedia.transform.*;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A <tt>FirstRtpTransformEngine</tt> records in an <tt>EventTrace</tt> when
+ * the first RTP packet is sent and received by a <tt>FakeUser</tt>.
+ *
+ * It is set as the external transformer of the <tt>MediaStream</tt>s of the
+ * user to see the packets they send (the packets injected by the
+ * <tt>PacketSender</tt> go through the whole transform chain, so they are
+ * seen too), only when the events are dumped with <tt>-tracefile</tt>. It
+ * does not modify the packets, and once the event is recorded it only costs
+ * a volatile read per batch of packets.
+ *
+ * The <tt>MediaStream</tt>s of the users never receive RTP : their sockets
+ * only let the DTLS packets through (see
+ * <tt>HammerUtils.addSocketToMediaStream</tt>). So the first received RTP
+ * packet is reported by the <tt>RtpCountingReceiver</tt> calling
+ * {@link #packetReceived()}, and is only recorded with
+ * <tt>-rtpcounting</tt>.
+ */
+public class FirstRtpTransformEngine
+    implements TransformEngine,
+               PacketTransformer
+{
+    /**
+     * The <tt>EventTrace</tt> in which the events are recorded.
+     */
+    private final EventTrace trace;
+
+    /**
+     * The index of the user in <tt>trace</tt>.
+     */
+    private final int user;
+
+    /**
+     * Whether the first RTP packet has been sent.
+     */
+    private final AtomicBoolean sent = new AtomicBoolean();
+
+    /**
+     * Whether the first RTP packet has been received.
+     */
+    private final AtomicBoolean received = new AtomicBoolean();
+
+    /**
+     * Initializes a new <tt>FirstRtpTransformEngine</tt>.
+     *
+     * @param trace the <tt>EventTrace</tt> in which the events are recorded.
+     * @param user the index of the user in <tt>trace</tt>.
+     */
+    public FirstRtpTransformEngine(EventTrace trace, int user)
+    {
+        this.trace = trace;
+        this.user = user;
+    }
+
+    /**
+     * Record that an RTP packet has been sent, if it is the first one.
+     */
+    public void packetSent()
+    {
+        if (!sent.get() && sent.compareAndSet(false, true))
+            trace.record(user, EventTrace.Event.FIRST_RTP_SENT);
+    }
+
+    /**
+     * Record that an RTP packet has been received, if it is the first one.
+     * Called by the <tt>RtpCountingReceiver</tt> of the user.
+     */
+    public void packetReceived()
+    {
+        if (!received.get() && received.compareAndSet(false, true))
+            trace.record(user, EventTrace.Event.FIRST_RTP_RECEIVED);
+    }
+
+    @Override
+    public PacketTransformer getRTPTransformer()
+    {
+        return this;
+    }
+
+    @Override
+    public PacketTransformer getRTCPTransformer()
+    {
+        return null;
+    }
+
+    @Override
+    public RawPacket[] transform(RawPacket[] pkts)
+    {
+        if (!sent.get() && containsPacket(pkts))
+            packetSent();
+        return pkts;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The received packets are not seen here (see the class
+     * documentation).
+     */
+    @Override
+    public RawPacket[] reverseTransform(RawPacket[] pkts)
+    {
+        return pkts;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+
+    /**
+     * Get whether <tt>pkts</tt> contains at least one packet.
+     *
+     * @param pkts the packets being transformed.
+     * @return true if <tt>pkts</tt> contains at least one packet.
+     */
+    private static boolean containsPacket(RawPacket[] pkts)
+    {
+        if (pkts != null)
+        {
+            for (RawPacket pkt : pkts)
+            {
+                if (pkt != null)
+                    return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.media;
+
+import org.jitsi.util.Logger;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * An <tt>IVFFrameIndex</tt> is an index of the VP8 frames of an IVF file,
+ * built once over a <tt>MappedByteBuffer</tt> of the file. The frames are
+ * never copied by the index : {@link #getFrame(int)} returns a read-only
+ * slice of the mapping.
+ *
+ * An <tt>IVFFrameIndex</tt> is immutable and is shared by all the streams
+ * reading the same file, so they do not need their own file handle or
+ * buffers.
+ *
+ * The IVF format is a 32 bytes file header ("DKIF", version, header size,
+ * fourcc, width, height, frame rate, time scale, number of frames), followed
+ * for each frame by a 12 bytes header (frame size and 64 bits timestamp) and
+ * the frame. All the integers are little-endian.
+ */
+public class IVFFrameIndex
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>IVFFrameIndex</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger = Logger.getLogger(IVFFrameIndex.class);
+
+    /**
+     * The size of the header of an IVF frame.
+     */
+    private static final int FRAME_HEADER_SIZE = 12;
+
+    /**
+     * The default duration of a frame, if the IVF header does not give a
+     * usable frame rate.
+     */
+    private static final long DEFAULT_FRAME_DURATION_NANOS
+        = TimeUnit.SECONDS.toNanos(1) / 30;
+
+    /**
+     * The <tt>IVFFrameIndex</tt>s already built, by path.
+     */
+    private static final Map<String, IVFFrameIndex> indexes
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The mapping of the IVF file.
+     */
+    private final MappedByteBuffer file;
+
+    /**
+     * The position in {@link #file} of each frame (without its header).
+     */
+    private final int[] offsets;
+
+    /**
+     * The size of each frame.
+     */
+    private final int[] sizes;
+
+    /**
+     * The width of the video.
+     */
+    private final int width;
+
+    /**
+     * The height of the video.
+     */
+    private final int height;
+
+    /**
+     * The duration of a frame, in nanoseconds.
+     */
+    private final long frameDurationNanos;
+
+    /**
+     * The size of the largest frame.
+     */
+    private final int maxFrameSize;
+
+    /**
+     * Get the <tt>IVFFrameIndex</tt> of the IVF file <tt>path</tt>,
+     * building it if it has not been built yet.
+     *
+     * @param path the path of the IVF file.
+     * @return the <tt>IVFFrameIndex</tt> of the file <tt>path</tt>.
+     * @throws IOException if the file can not be read or is not a valid
+     * IVF file.
+     */
+    public static IVFFrameIndex getInstance(String path)
+        throws IOException
+    {
+        IVFFrameIndex index = indexes.get(path);
+
+        if (index == null)
+        {
+            synchronized (indexes)
+            {
+                index = indexes.get(path);
+                if (index == null)
+                {
+                    index = new IVFFrameIndex(path);
+                    indexes.put(path, index);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Initializes a new <tt>IVFFrameIndex</tt> by mapping the IVF file
+     * <tt>path</tt> and indexing its frames.
+     *
+     * @param path the path of the IVF file.
+     * @throws IOException if the file can not be read or is not a valid
+     * IVF file.
+     */
+    private IVFFrameIndex(String path)
+        throws IOException
+    {
+        try (FileChannel channel
+                = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+        {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        file.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (file.remaining() < 32
+                || file.get(0) != 'D' || file.get(1) != 'K'
+                || file.get(2) != 'I' || file.get(3) != 'F')
+            throw new IOException(path + " is not an IVF file");
+
+        int headerSize = file.getShort(6) & 0xFFFF;
+        width = file.getShort(12) & 0xFFFF;
+        height = file.getShort(14) & 0xFFFF;
+        long rate = file.getInt(16) & 0xFFFFFFFFL;
+        long scale = file.getInt(20) & 0xFFFFFFFFL;
+        frameDurationNanos = (rate > 0 && scale > 0)
+            ? TimeUnit.SECONDS.toNanos(scale) / rate
+            : DEFAULT_FRAME_DURATION_NANOS;
+
+        List<Integer> offsetList = new ArrayList<>();
+        List<Integer> sizeList = new ArrayList<>();
+        int position = headerSize;
+        int max = 0;
+        while (position + FRAME_HEADER_SIZE <= file.limit())
+        {
+            int size = file.getInt(position);
+            int offset = position + FRAME_HEADER_SIZE;
+
+            if (size <= 0 || size > file.limit() - offset)
+                break;
+            offsetList.add(offset);
+            sizeList.add(size);
+            max = Math.max(max, size);
+            position = offset + size;
+        }
+
+        if (offsetList.isEmpty())
+            throw new IOException("No frame in " + path);
+
+        offsets = new int[offsetList.size()];
+        sizes = new int[sizeList.size()];
+        for (int i = 0; i < offsets.length; i++)
+        {
+            offsets[i] = offsetList.get(i);
+            sizes[i] = sizeList.get(i);
+        }
+        maxFrameSize = max;
+
+        logger.info(String.format("Indexed %d frames (%dx%d, %.3f fps) in %s",
+            offsets.length, width, height,
+            TimeUnit.SECONDS.toNanos(1) / (double) frameDurationNanos, path));
+    }
+
+    /**
+     * Get the number of frames of the file.
+     *
+     * @return the number of frames of the file.
+     */
+    public int size()
+    {
+        return offsets.length;
+    }
+
+    /**
+     * Get a read-only slice of the mapping containing the frame
+     * <tt>index</tt>, without copying it.
+     *
+     * @param index the index of the frame.
+     * @return a read-only <tt>ByteBuffer</tt> over the frame <tt>index</tt>.
+     */
+    public ByteBuffer getFrame(int index)
+    {
+        ByteBuffer frame = file.asReadOnlyBuffer();
+
+        frame.position(offsets[index]).limit(offsets[index] + sizes[index]);
+        return frame.slice();
+    }
+
+    /**
+     * Get the size of the frame <tt>index</tt>.
+     *
+     * @param index the index of the frame.
+     * @return the size of the frame <tt>index</tt>.
+     */
+    public int getFrameSize(int index)
+    {
+        return sizes[index];
+    }
+
+    /**
+     * Get the size of the largest frame of the file.
+     *
+     * @return the size of the largest frame of the file.
+     */
+    public int getMaxFrameSize()
+    {
+        return maxFrameSize;
+    }
+
+    /**
+     * Get the width of the video.
+     *
+     * @return the width of the video.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Get the height of the video.
+     *
+     * @return the height of the video.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Get the duration of a frame, in nanoseconds.
+     *
+     * @return the duration of a frame, in nanoseconds.
+     */
+    public long getFrameDurationNanos()
+    {
+        return frameDurationNanos;
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.media;
+
+import java.awt.*;
+import java.io.*;
+
+import javax.media.*;
+import javax.media.control.*;
+import javax.media.format.*;
+import javax.media.protocol.*;
+
+import org.jitsi.impl.neomedia.codec.*;
+import org.jitsi.impl.neomedia.jmfext.media.protocol.*;
+import org.jitsi.service.neomedia.codec.*;
+
+/**
+ * Implements a <tt>CaptureDevice</tt> which provides the VP8 frames of an
+ * IVF file from a shared <tt>IVFFrameIndex</tt>, looping around at the end of
+ * the file. The frames are pushed at the frame rate of the file, at the ticks
+ * of the <tt>MediaClock</tt>.
+ */
+public class IVFMappedCaptureDevice
+    extends AbstractPushBufferCaptureDevice
+{
+    /**
+     * The <tt>IVFFrameIndex</tt> read by this device.
+     */
+    private final IVFFrameIndex frameIndex;
+
+    /**
+     * The list of <tt>Format</tt>s supported by this device.
+     */
+    private final Format[] supportedFormats;
+
+    /**
+     * Initializes a new <tt>IVFMappedCaptureDevice</tt>.
+     *
+     * @param frameIndex the <tt>IVFFrameIndex</tt> read by the new device.
+     */
+    public IVFMappedCaptureDevice(IVFFrameIndex frameIndex)
+    {
+        this.frameIndex = frameIndex;
+        this.supportedFormats
+            = new Format[]
+                    {
+                        new VideoFormat(
+                                Constants.VP8,
+                                new Dimension(
+                                        frameIndex.getWidth(),
+                                        frameIndex.getHeight()),
+                                Format.NOT_SPECIFIED,
+                                Format.byteArray,
+                                1000000000f
+                                    / frameIndex.getFrameDurationNanos())
+                    };
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Implements
+     * {@link AbstractPushBufferCaptureDevice#createStream(int, FormatControl)}.
+     */
+    @Override
+    protected IVFMappedStream createStream(
+            int streamIndex,
+            FormatControl formatControl)
+    {
+        return new IVFMappedStream(this, formatControl);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Overrides the super implementation in order to return the format of
+     * the IVF file because this instance does not have a
+     * <tt>CaptureDeviceInfo</tt>.
+     */
+    @Override
+    protected Format[] getSupportedFormats(int streamIndex)
+    {
+        return supportedFormats.clone();
+    }
+
+    /**
+     * Implements a <tt>PushBufferStream</tt> which provides the frames of the
+     * IVF file.
+     */
+    private static class IVFMappedStream
+        extends AbstractPushBufferStream<IVFMappedCaptureDevice>
+        implements Runnable
+    {
+        /**
+         * The <tt>MediaClock.Registration</tt> which pushes the frames at
+         * each tick, or null if this instance is not started.
+         */
+        private MediaClock.Registration registration;
+
+        /**
+         * The index of the next frame to read.
+         */
+        private int nextFrame = 0;
+
+        /**
+         * Initializes a new <tt>IVFMappedStream</tt>.
+         *
+         * @param dataSource the <tt>IVFMappedCaptureDevice</tt> which is
+         * initializing the new instance and which is to expose it in its array
+         * of <tt>PushBufferStream</tt>s
+         * @param formatControl the <tt>FormatControl</tt> which is to abstract
+         * the <tt>Format</tt>-related information of the new instance
+         */
+        public IVFMappedStream(
+                IVFMappedCaptureDevice dataSource,
+                FormatControl formatControl)
+        {
+            super(dataSource, formatControl);
+        }
+
+        /**
+         * Reads the next frame of the file into a specific <tt>Buffer</tt>.
+         *
+         * The packetizer of FMJ needs a <tt>byte[]</tt>, so the frame is
+         * copied from the mapping of the file into the (reused) array of
+         * <tt>buffer</tt>.
+         *
+         * @param buffer the <tt>Buffer</tt> to write the frame into
+         * @throws IOException never
+         */
+        @Override
+        public void read(Buffer buffer)
+            throws IOException
+        {
+            IVFFrameIndex frameIndex = dataSource.frameIndex;
+            int index;
+
+            synchronized (this)
+            {
+                index = nextFrame;
+                nextFrame = (nextFrame + 1) % frameIndex.size();
+            }
+
+            int size = frameIndex.getFrameSize(index);
+            byte[] data
+                = AbstractCodec2.validateByteArraySize(
+                        buffer,
+                        frameIndex.getMaxFrameSize(),
+                        false);
+
+            frameIndex.getFrame(index).get(data, 0, size);
+
+            buffer.setFormat(getFormat());
+            buffer.setOffset(0);
+            buffer.setLength(size);
+            buffer.setTimeStamp(System.nanoTime());
+            buffer.setFlags(Buffer.FLAG_SYSTEM_TIME | Buffer.FLAG_LIVE_DATA);
+        }
+
+        /**
+         * Runs at each tick of the <tt>MediaClock</tt> and pushes the next
+         * frame out of this instance to its consumer i.e.
+         * <tt>BufferTransferHandler</tt>.
+         */
+        @Override
+        public void run()
+        {
+            BufferTransferHandler transferHandler = this.transferHandler;
+
+            if (transferHandler != null)
+                transferHandler.transferData(this);
+        }
+
+        /**
+         * Starts the transfer of the frames from this instance.
+         *
+         * @throws IOException never
+         */
+        @Override
+        public synchronized void start()
+            throws IOException
+        {
+            if (registration == null)
+            {
+                registration
+                    = MediaClock.getInstance().schedule(
+                            this,
+                            dataSource.frameIndex.getFrameDurationNanos());
+            }
+        }
+
+        /**
+         * Stops the transfer of the frames from this instance.
+         *
+         * @throws IOException never
+         */
+        @Override
+        public void stop()
+            throws IOException
+        {
+            MediaClock.Registration registration;
+
+            synchronized (this)
+            {
+                registration = this.registration;
+                this.registration = null;
+            }
+            /*
+             * Blocks until a transfer in progress (if any) is done, without
+             * holding the lock of this instance that read() needs.
+             */
+            if (registration != null)
+                registration.cancel();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.media;
+
+import java.io.*;
+
+import javax.media.protocol.*;
+
+import org.jitsi.impl.neomedia.jmfext.media.protocol.ivffile.*;
+
+/**
+ * An <tt>IVFMediaDevice</tt> whose <tt>CaptureDevice</tt>s read the frames
+ * of the IVF file from a shared <tt>IVFFrameIndex</tt> (and are paced by the
+ * <tt>MediaClock</tt>) instead of opening and reading the file for each
+ * stream.
+ */
+public class IVFMappedMediaDevice
+    extends IVFMediaDevice
+{
+    /**
+     * The <tt>IVFFrameIndex</tt> of the IVF file of this device.
+     */
+    private final IVFFrameIndex frameIndex;
+
+    /**
+     * Initializes a new <tt>IVFMappedMediaDevice</tt>.
+     *
+     * @param filename the path of the IVF file.
+     * @throws IOException if the IVF file can not be indexed.
+     */
+    public IVFMappedMediaDevice(String filename)
+        throws IOException
+    {
+        super(filename);
+        frameIndex = IVFFrameIndex.getInstance(filename);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Overrides the super implementation to initialize a <tt>CaptureDevice</tt>
+     * reading the shared <tt>IVFFrameIndex</tt> without asking FMJ to
+     * initialize one for a <tt>CaptureDeviceInfo</tt>.
+     */
+    @Override
+    protected CaptureDevice createCaptureDevice()
+    {
+        return new IVFMappedCaptureDevice(frameIndex);
+    }
+}
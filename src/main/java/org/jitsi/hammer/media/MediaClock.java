@@ -0,0 +1,409 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.media;
+
+import org.jitsi.util.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * The <tt>MediaClock</tt> is the single clock pacing the media of all the
+ * <tt>FakeUser</tt>s : instead of each media stream running its own thread
+ * with a sleep loop, the streams register a periodic task to the
+ * <tt>MediaClock</tt>, which runs them from a small set of threads (one per
+ * available processor).
+ *
+ * Each of these threads (the shards of the clock) runs a hashed timing wheel
+ * with a tick of 1ms : at each tick, all the tasks whose deadline is reached
+ * are run one after the other (as a batch), then rescheduled at their next
+ * deadline. The deadlines are computed in nanoseconds from the first deadline
+ * of the task, so the period of a task does not drift with the time spent to
+ * run it.
+ */
+public class MediaClock
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>MediaClock</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger = Logger.getLogger(MediaClock.class);
+
+    /**
+     * The duration of a tick of the wheels, in nanoseconds.
+     */
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The number of slots of a wheel (it has to be a power of 2).
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * The single instance of <tt>MediaClock</tt>.
+     */
+    private static MediaClock instance = null;
+
+    /**
+     * The shards of this <tt>MediaClock</tt>.
+     */
+    private final Shard[] shards;
+
+    /**
+     * The index of the shard on which the next task will be scheduled.
+     */
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    /**
+     * Get the single instance of <tt>MediaClock</tt> (creating it with one
+     * shard per available processor if needed).
+     *
+     * @return the single instance of <tt>MediaClock</tt>.
+     */
+    public static synchronized MediaClock getInstance()
+    {
+        if (instance == null)
+            instance = new MediaClock(
+                Runtime.getRuntime().availableProcessors());
+        return instance;
+    }
+
+    /**
+     * Initializes a new <tt>MediaClock</tt>.
+     *
+     * @param shardCount the number of threads running the tasks of the new
+     * <tt>MediaClock</tt>.
+     */
+    public MediaClock(int shardCount)
+    {
+        shards = new Shard[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++)
+        {
+            shards[i] = new Shard(i);
+        }
+    }
+
+    /**
+     * Schedule <tt>task</tt> to be run every <tt>periodNanos</tt>
+     * nanoseconds, starting one period from now.
+     *
+     * @param task the task to run periodically.
+     * @param periodNanos the period (in nanoseconds) of <tt>task</tt>.
+     * @return the <tt>Registration</tt> used to cancel <tt>task</tt>.
+     */
+    public Registration schedule(Runnable task, long periodNanos)
+    {
+        if (periodNanos <= 0)
+            throw new IllegalArgumentException("periodNanos");
+
+        Shard shard
+            = shards[(nextShard.getAndIncrement() & Integer.MAX_VALUE)
+                % shards.length];
+        Registration registration = new Registration(
+            shard, task, periodNanos, System.nanoTime() + periodNanos);
+
+        shard.add(registration);
+        return registration;
+    }
+
+    /**
+     * A periodic task scheduled on a <tt>MediaClock</tt>.
+     */
+    public static class Registration
+    {
+        /**
+         * The <tt>Shard</tt> running this task.
+         */
+        private final Shard shard;
+
+        /**
+         * The task run periodically.
+         */
+        private final Runnable task;
+
+        /**
+         * The period of the task, in nanoseconds.
+         */
+        private final long periodNanos;
+
+        /**
+         * The next deadline of the task (as a <tt>System.nanoTime()</tt>
+         * value). Only accessed by the thread of {@link #shard}.
+         */
+        private long deadline;
+
+        /**
+         * Whether the task has been cancelled.
+         */
+        private boolean cancelled = false;
+
+        /**
+         * Whether the task is being run by the thread of {@link #shard}.
+         */
+        private boolean running = false;
+
+        /**
+         * Initializes a new <tt>Registration</tt>.
+         *
+         * @param shard the <tt>Shard</tt> running the task.
+         * @param task the task run periodically.
+         * @param periodNanos the period of the task, in nanoseconds.
+         * @param deadline the first deadline of the task.
+         */
+        private Registration(
+            Shard shard,
+            Runnable task,
+            long periodNanos,
+            long deadline)
+        {
+            this.shard = shard;
+            this.task = task;
+            this.periodNanos = periodNanos;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Cancel the task. When this method returns, the task is not being
+         * run and it will never be run again (except if this method is
+         * called by the task itself, in which case the current run of the
+         * task obviously continues).
+         */
+        public synchronized void cancel()
+        {
+            cancelled = true;
+
+            boolean interrupted = false;
+
+            while (running && Thread.currentThread() != shard.thread)
+            {
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException ie)
+                {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        /**
+         * Mark the task as running, unless it has been cancelled.
+         *
+         * @return true if the task can be run, false if it has been cancelled.
+         */
+        private synchronized boolean enter()
+        {
+            if (cancelled)
+                return false;
+            running = true;
+            return true;
+        }
+
+        /**
+         * Mark the task as not running anymore and wake up the threads
+         * waiting in {@link #cancel()}.
+         */
+        private synchronized void exit()
+        {
+            running = false;
+            notifyAll();
+        }
+
+        /**
+         * Whether the task has been cancelled.
+         *
+         * @return true if the task has been cancelled.
+         */
+        private synchronized boolean isCancelled()
+        {
+            return cancelled;
+        }
+    }
+
+    /**
+     * A thread of a <tt>MediaClock</tt>, running a hashed timing wheel.
+     */
+    private static class Shard
+        implements Runnable
+    {
+        /**
+         * The slots of the wheel. The slot of a <tt>Registration</tt> is
+         * given by the tick of its deadline modulo <tt>WHEEL_SIZE</tt>. Only
+         * accessed by {@link #thread}.
+         */
+        private final List<Registration>[] wheel;
+
+        /**
+         * The <tt>Registration</tt>s added since the last tick, waiting to be
+         * put in the wheel by {@link #thread}.
+         */
+        private final Queue<Registration> added
+            = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The value of <tt>System.nanoTime()</tt> at tick 0.
+         */
+        private final long origin = System.nanoTime();
+
+        /**
+         * The <tt>Thread</tt> running this <tt>Shard</tt>.
+         */
+        private final Thread thread;
+
+        /**
+         * Initializes a new <tt>Shard</tt> and starts its thread.
+         *
+         * @param index the index of the <tt>Shard</tt> in its
+         * <tt>MediaClock</tt>.
+         */
+        @SuppressWarnings("unchecked")
+        private Shard(int index)
+        {
+            wheel = new List[WHEEL_SIZE];
+            for (int i = 0; i < WHEEL_SIZE; i++)
+            {
+                wheel[i] = new ArrayList<>();
+            }
+
+            thread = new Thread(this, "MediaClock-" + index);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            thread.start();
+        }
+
+        /**
+         * Add <tt>registration</tt> to the wheel of this <tt>Shard</tt>
+         * (at the next tick).
+         *
+         * @param registration the <tt>Registration</tt> to add.
+         */
+        private void add(Registration registration)
+        {
+            added.add(registration);
+        }
+
+        /**
+         * Get the tick at which a deadline happens (the first tick at or
+         * after the deadline).
+         *
+         * @param deadline the deadline, as a <tt>System.nanoTime()</tt>
+         * value.
+         * @return the tick at which <tt>deadline</tt> happens.
+         */
+        private long tickOf(long deadline)
+        {
+            return (deadline - origin + TICK_NANOS - 1) / TICK_NANOS;
+        }
+
+        /**
+         * Put <tt>registration</tt> in the slot of the tick of its deadline
+         * (or in the slot of <tt>nextTick</tt> if this deadline is already
+         * passed).
+         *
+         * @param registration the <tt>Registration</tt> to put in the wheel.
+         * @param nextTick the next tick that will be processed.
+         */
+        private void insert(Registration registration, long nextTick)
+        {
+            long tick = Math.max(tickOf(registration.deadline), nextTick);
+
+            wheel[(int) (tick & (WHEEL_SIZE - 1))].add(registration);
+        }
+
+        /**
+         * Runs the ticks of the wheel of this <tt>Shard</tt>.
+         */
+        @Override
+        public void run()
+        {
+            List<Registration> due = new ArrayList<>();
+            long tick = 0;
+
+            while (true)
+            {
+                Registration registration;
+                while ((registration = added.poll()) != null)
+                {
+                    insert(registration, tick);
+                }
+
+                /*
+                 * Process all the ticks up to now (more than one if we are
+                 * late), collecting the tasks whose deadline is reached.
+                 */
+                long now = System.nanoTime();
+                long currentTick = (now - origin) / TICK_NANOS;
+                for (; tick <= currentTick; tick++)
+                {
+                    List<Registration> slot
+                        = wheel[(int) (tick & (WHEEL_SIZE - 1))];
+                    int kept = 0;
+
+                    for (int i = 0; i < slot.size(); i++)
+                    {
+                        Registration r = slot.get(i);
+
+                        if (r.isCancelled())
+                            continue;
+                        if (tickOf(r.deadline) <= tick)
+                            due.add(r);
+                        else
+                            slot.set(kept++, r);
+                    }
+                    slot.subList(kept, slot.size()).clear();
+                }
+
+                for (int i = 0; i < due.size(); i++)
+                {
+                    Registration r = due.get(i);
+
+                    if (!r.enter())
+                        continue;
+                    try
+                    {
+                        r.task.run();
+                    }
+                    catch (Throwable t)
+                    {
+                        if (t instanceof ThreadDeath)
+                            throw (ThreadDeath) t;
+                        logger.error("Error in a MediaClock task", t);
+                    }
+                    finally
+                    {
+                        r.exit();
+                    }
+
+                    r.deadline += r.periodNanos;
+                    insert(r, tick);
+                }
+                due.clear();
+
+                long nextTickTime = origin + tick * TICK_NANOS;
+                long sleep;
+                while ((sleep = nextTickTime - System.nanoTime()) > 0)
+                {
+                    LockSupport.parkNanos(sleep);
+                }
+            }
+        }
+    }
+}
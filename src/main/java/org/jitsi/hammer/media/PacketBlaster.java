@@ -0,0 +1,279 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.media;
+
+import org.jitsi.service.neomedia.*;
+import org.jitsi.service.neomedia.format.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A <tt>PacketBlaster</tt> sends the pre-built RTP packets of
+ * <tt>RtpdumpPacketTable</tt>s on the <tt>MediaStream</tt>s of a
+ * <tt>FakeUser</tt>, bypassing the capture/encoding/packetization graph of
+ * libjitsi : the packets are copied from the table, their SSRC, sequence
+ * number, timestamp and payload type are rewritten by a
+ * <tt>RtpdumpPacketCursor</tt>, and they are injected in the
+ * <tt>MediaStream</tt> before its transformers, so that they are still
+ * encrypted with the SRTP keys negotiated by its <tt>DtlsControl</tt>.
+ *
+ * The packets are built at the time they were captured in the rtpdump file,
+ * at the ticks of the <tt>MediaClock</tt>, and handed to the
+ * <tt>PacketSender</tt> which sends them from its own threads.
+ */
+public class PacketBlaster
+    implements Runnable
+{
+    /**
+     * The period (in nanoseconds) at which the <tt>PacketBlaster</tt>s send
+     * the packets which are due.
+     */
+    private static final long TICK_PERIOD_NANOS
+        = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * The maximum number of packets sent for a stream at a single tick, so
+     * that a stream which is late (after a long GC pause for example) does
+     * not flood the bridge to catch up.
+     */
+    private static final int MAX_PACKETS_PER_TICK = 64;
+
+    /**
+     * The streams fed by this <tt>PacketBlaster</tt>.
+     */
+    private final List<Source> sources = new ArrayList<>();
+
+    /**
+     * The <tt>SendQueue</tt> in which this <tt>PacketBlaster</tt> puts the
+     * packets to send.
+     */
+    private final PacketSender.SendQueue sendQueue
+        = PacketSender.getInstance().createQueue();
+
+    /**
+     * The pool of the buffers of the packets.
+     */
+    private final PacketBufferPool bufferPool
+        = PacketSender.getInstance().getBufferPool();
+
+    /**
+     * The number of packets sent by this <tt>PacketBlaster</tt>.
+     */
+    private final AtomicLong packetsSent = new AtomicLong();
+
+    /**
+     * The number of bytes (before SRTP) sent by this <tt>PacketBlaster</tt>.
+     */
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /**
+     * The number of packets that could not be sent (because the
+     * <tt>PacketSender</tt> was late).
+     */
+    private final AtomicLong sendFailures = new AtomicLong();
+
+    /**
+     * The value of <tt>System.nanoTime()</tt> when this <tt>PacketBlaster</tt>
+     * was started.
+     */
+    private long startNanos;
+
+    /**
+     * The <tt>MediaClock.Registration</tt> running this
+     * <tt>PacketBlaster</tt>, or null if it is not started.
+     */
+    private MediaClock.Registration registration;
+
+    /**
+     * Add a stream fed by this <tt>PacketBlaster</tt> with the packets of
+     * <tt>table</tt>. Has to be called before {@link #start()}.
+     *
+     * @param stream the <tt>MediaStream</tt> (configured with its format and
+     * dynamic payload types) on which the packets are sent.
+     * @param table the <tt>RtpdumpPacketTable</tt> of the packets sent.
+     */
+    public synchronized void addStream(
+        MediaStream stream,
+        RtpdumpPacketTable table)
+    {
+        Random random = new Random();
+
+        sources.add(new Source(
+            stream,
+            new RtpdumpPacketCursor(
+                table,
+                stream.getLocalSourceID(),
+                getPayloadType(stream),
+                random.nextInt(0x10000),
+                random.nextInt() & 0xFFFFFFFFL)));
+    }
+
+    /**
+     * Get the dynamic payload type of the format of <tt>stream</tt>.
+     *
+     * @param stream the <tt>MediaStream</tt>.
+     * @return the payload type of the format of <tt>stream</tt>, or -1 if it
+     * is unknown (the payload type of the rtpdump file is kept).
+     */
+    private static int getPayloadType(MediaStream stream)
+    {
+        MediaFormat format = stream.getFormat();
+
+        if (format == null)
+            return -1;
+        if (format.getRTPPayloadType()
+                != MediaFormat.RTP_PAYLOAD_TYPE_UNKNOWN)
+            return format.getRTPPayloadType();
+        for (Map.Entry<Byte, MediaFormat> e
+                : stream.getDynamicRTPPayloadTypes().entrySet())
+        {
+            if (format.equals(e.getValue()))
+                return e.getKey();
+        }
+        return -1;
+    }
+
+    /**
+     * Start sending the packets.
+     */
+    public synchronized void start()
+    {
+        if (registration == null && !sources.isEmpty())
+        {
+            startNanos = System.nanoTime();
+            registration
+                = MediaClock.getInstance().schedule(this, TICK_PERIOD_NANOS);
+        }
+    }
+
+    /**
+     * Stop sending the packets. When this method returns, no packet is being
+     * built by this <tt>PacketBlaster</tt> and the packets not sent yet are
+     * dropped.
+     */
+    public void stop()
+    {
+        MediaClock.Registration registration;
+
+        synchronized (this)
+        {
+            registration = this.registration;
+            this.registration = null;
+        }
+        if (registration != null)
+            registration.cancel();
+        sendQueue.close();
+    }
+
+    /**
+     * Runs at each tick of the <tt>MediaClock</tt> and queues the packets
+     * which are due.
+     */
+    @Override
+    public void run()
+    {
+        long elapsedMs
+            = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        for (int i = 0; i < sources.size(); i++)
+        {
+            Source source = sources.get(i);
+            RtpdumpPacketCursor cursor = source.cursor;
+
+            for (int n = 0;
+                    n < MAX_PACKETS_PER_TICK
+                        && cursor.getNextTimeMs() <= elapsedMs;
+                    n++)
+            {
+                byte[] buffer = bufferPool.acquire(cursor.getNextLength());
+                int length = cursor.next(buffer, 0);
+
+                if (sendQueue.offer(source.stream, buffer, length))
+                {
+                    packetsSent.incrementAndGet();
+                    bytesSent.addAndGet(length);
+                }
+                else
+                {
+                    sendFailures.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the number of packets sent by this <tt>PacketBlaster</tt>.
+     *
+     * @return the number of packets sent by this <tt>PacketBlaster</tt>.
+     */
+    public long getPacketsSent()
+    {
+        return packetsSent.get();
+    }
+
+    /**
+     * Get the number of bytes (before SRTP) sent by this
+     * <tt>PacketBlaster</tt>.
+     *
+     * @return the number of bytes sent by this <tt>PacketBlaster</tt>.
+     */
+    public long getBytesSent()
+    {
+        return bytesSent.get();
+    }
+
+    /**
+     * Get the number of packets that could not be sent.
+     *
+     * @return the number of packets that could not be sent.
+     */
+    public long getSendFailures()
+    {
+        return sendFailures.get();
+    }
+
+    /**
+     * A stream fed by a <tt>PacketBlaster</tt>.
+     */
+    private static class Source
+    {
+        /**
+         * The <tt>MediaStream</tt> on which the packets are sent.
+         */
+        private final MediaStream stream;
+
+        /**
+         * The <tt>RtpdumpPacketCursor</tt> building the packets sent.
+         */
+        private final RtpdumpPacketCursor cursor;
+
+        /**
+         * Initializes a new <tt>Source</tt>.
+         *
+         * @param stream the <tt>MediaStream</tt> on which the packets are
+         * sent.
+         * @param cursor the <tt>RtpdumpPacketCursor</tt> building the packets
+         * sent.
+         */
+        private Source(MediaStream stream, RtpdumpPacketCursor cursor)
+        {
+            this.stream = stream;
+            this.cursor = cursor;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.media;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * A pool of <tt>byte[]</tt> of the size of a MTU, used for the packets sent
+ * by the <tt>PacketSender</tt> so that sending a packet does not allocate
+ * anything.
+ */
+public class PacketBufferPool
+{
+    /**
+     * The size of the buffers of the pool.
+     */
+    public static final int BUFFER_SIZE = 1500;
+
+    /**
+     * The maximum number of buffers kept in the pool.
+     */
+    private final int capacity;
+
+    /**
+     * The buffers available.
+     */
+    private final Queue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of buffers in {@link #buffers} (the size of a
+     * <tt>ConcurrentLinkedQueue</tt> is not a constant time operation).
+     */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Initializes a new <tt>PacketBufferPool</tt>.
+     *
+     * @param capacity the maximum number of buffers kept in the pool.
+     */
+    public PacketBufferPool(int capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get a buffer of at least <tt>length</tt> bytes, from the pool if
+     * possible.
+     *
+     * @param length the minimum length of the buffer.
+     * @return a buffer of at least <tt>length</tt> bytes.
+     */
+    public byte[] acquire(int length)
+    {
+        if (length <= BUFFER_SIZE)
+        {
+            byte[] buffer = buffers.poll();
+
+            if (buffer != null)
+            {
+                size.decrementAndGet();
+                return buffer;
+            }
+            return new byte[BUFFER_SIZE];
+        }
+        return new byte[length];
+    }
+
+    /**
+     * Give back a buffer acquired with {@link #acquire(int)} to the pool.
+     *
+     * @param buffer the buffer given back.
+     */
+    public void release(byte[] buffer)
+    {
+        if (buffer.length != BUFFER_SIZE)
+            return;
+        if (size.incrementAndGet() <= capacity)
+            buffers.offer(buffer);
+        else
+            size.decrementAndGet();
+    }
+}
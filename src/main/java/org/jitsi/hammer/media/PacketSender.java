@@ -0,0 +1,448 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.media;
+
+import org.jitsi.impl.neomedia.*;
+import org.jitsi.service.neomedia.*;
+import org.jitsi.util.Logger;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * The <tt>PacketSender</tt> is the send path of the <tt>PacketBlaster</tt>s :
+ * instead of sending their packets from the thread of the
+ * <tt>MediaClock</tt>, the <tt>PacketBlaster</tt>s put them in a
+ * <tt>SendQueue</tt> (one per user), and a small set of worker threads (one
+ * per available processor) drain these queues by batches.
+ *
+ * The packets are held in buffers of a shared <tt>PacketBufferPool</tt>, and
+ * given back to the pool once sent (the output stream of the
+ * <tt>MediaStream</tt> copies the packets it sends).
+ *
+ * The <tt>PacketSender</tt> keeps track of the number of packets queued and
+ * of the latency between the queueing and the sending of the packets.
+ */
+public class PacketSender
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>PacketSender</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger = Logger.getLogger(PacketSender.class);
+
+    /**
+     * The maximum number of packets sent from a queue before moving to the
+     * next queue of the worker.
+     */
+    private static final int BATCH_SIZE = 32;
+
+    /**
+     * The maximum number of packets in a queue. The packets offered to a full
+     * queue are dropped.
+     */
+    private static final int QUEUE_CAPACITY = 256;
+
+    /**
+     * The single instance of <tt>PacketSender</tt>.
+     */
+    private static PacketSender instance = null;
+
+    /**
+     * The worker threads of this <tt>PacketSender</tt>.
+     */
+    private final Worker[] workers;
+
+    /**
+     * The index of the worker of the next queue created.
+     */
+    private final AtomicInteger nextWorker = new AtomicInteger();
+
+    /**
+     * The pool of the buffers of the packets.
+     */
+    private final PacketBufferPool bufferPool = new PacketBufferPool(16384);
+
+    /**
+     * The number of packets currently queued in all the queues.
+     */
+    private final AtomicInteger queueDepth = new AtomicInteger();
+
+    /**
+     * The maximum number of packets that have been queued at the same time.
+     */
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /**
+     * The number of packets sent.
+     */
+    private final AtomicLong packetsSent = new AtomicLong();
+
+    /**
+     * The number of packets dropped because their queue was full.
+     */
+    private final AtomicLong packetsDropped = new AtomicLong();
+
+    /**
+     * The number of packets whose sending failed.
+     */
+    private final AtomicLong sendFailures = new AtomicLong();
+
+    /**
+     * The sum of the latencies (from queueing to sending) of the packets
+     * sent, in nanoseconds.
+     */
+    private final AtomicLong latencySumNanos = new AtomicLong();
+
+    /**
+     * The maximum latency (from queueing to sending) of a packet, in
+     * nanoseconds.
+     */
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * Get the single instance of <tt>PacketSender</tt> (creating it with one
+     * worker per available processor if needed).
+     *
+     * @return the single instance of <tt>PacketSender</tt>.
+     */
+    public static synchronized PacketSender getInstance()
+    {
+        if (instance == null)
+            instance = new PacketSender(
+                Runtime.getRuntime().availableProcessors());
+        return instance;
+    }
+
+    /**
+     * Initializes a new <tt>PacketSender</tt>.
+     *
+     * @param workerCount the number of worker threads of the new
+     * <tt>PacketSender</tt>.
+     */
+    public PacketSender(int workerCount)
+    {
+        workers = new Worker[Math.max(1, workerCount)];
+        for (int i = 0; i < workers.length; i++)
+        {
+            workers[i] = new Worker(i);
+        }
+    }
+
+    /**
+     * Create a new <tt>SendQueue</tt>, drained by one of the workers of this
+     * <tt>PacketSender</tt>.
+     *
+     * @return a new <tt>SendQueue</tt>.
+     */
+    public SendQueue createQueue()
+    {
+        Worker worker
+            = workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE)
+                % workers.length];
+        SendQueue queue = new SendQueue(worker);
+
+        worker.queues.add(queue);
+        return queue;
+    }
+
+    /**
+     * Get the pool of the buffers of the packets.
+     *
+     * @return the pool of the buffers of the packets.
+     */
+    public PacketBufferPool getBufferPool()
+    {
+        return bufferPool;
+    }
+
+    /**
+     * Get the number of packets currently queued.
+     *
+     * @return the number of packets currently queued.
+     */
+    public int getQueueDepth()
+    {
+        return queueDepth.get();
+    }
+
+    /**
+     * Get the stats of this <tt>PacketSender</tt> in JSON.
+     *
+     * @return the stats of this <tt>PacketSender</tt> in JSON.
+     */
+    public String getStatsJSON()
+    {
+        long sent = packetsSent.get();
+
+        return String.format("{ \"packetsSent\":%d , \"packetsDropped\":%d"
+            + " , \"sendFailures\":%d , \"queueDepth\":%d"
+            + " , \"maxQueueDepth\":%d , \"meanLatencyMs\":%.3f"
+            + " , \"maxLatencyMs\":%.3f }",
+            sent,
+            packetsDropped.get(),
+            sendFailures.get(),
+            queueDepth.get(),
+            maxQueueDepth.get(),
+            (sent == 0) ? 0 : latencySumNanos.get() / (sent * 1000000d),
+            maxLatencyNanos.get() / 1000000d);
+    }
+
+    /**
+     * A queue of the packets to send for a single user.
+     */
+    public class SendQueue
+    {
+        /**
+         * The worker draining this queue.
+         */
+        private final Worker worker;
+
+        /**
+         * The packets of this queue.
+         */
+        private final BlockingQueue<Pending> packets
+            = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        /**
+         * Whether this queue has been closed.
+         */
+        private volatile boolean closed = false;
+
+        /**
+         * Initializes a new <tt>SendQueue</tt>.
+         *
+         * @param worker the worker draining the new queue.
+         */
+        private SendQueue(Worker worker)
+        {
+            this.worker = worker;
+        }
+
+        /**
+         * Queue a packet to be sent on <tt>stream</tt>. The buffer of the
+         * packet has to come from the <tt>PacketBufferPool</tt> of the
+         * <tt>PacketSender</tt>, and is given back to it once the packet is
+         * sent (or dropped).
+         *
+         * @param stream the <tt>MediaStream</tt> on which the packet is sent.
+         * @param buffer the buffer of the packet.
+         * @param length the length of the packet.
+         * @return true if the packet has been queued, false if it has been
+         * dropped.
+         */
+        public boolean offer(MediaStream stream, byte[] buffer, int length)
+        {
+            if (closed
+                    || !packets.offer(
+                        new Pending(stream, buffer, length, System.nanoTime())))
+            {
+                bufferPool.release(buffer);
+                packetsDropped.incrementAndGet();
+                return false;
+            }
+
+            int depth = queueDepth.incrementAndGet();
+            int max;
+            while (depth > (max = maxQueueDepth.get())
+                    && !maxQueueDepth.compareAndSet(max, depth));
+
+            worker.wake();
+            return true;
+        }
+
+        /**
+         * Close this queue : the packets still queued are dropped, and the
+         * queue is removed from its worker.
+         */
+        public void close()
+        {
+            closed = true;
+            worker.queues.remove(this);
+
+            Pending pending;
+            while ((pending = packets.poll()) != null)
+            {
+                queueDepth.decrementAndGet();
+                bufferPool.release(pending.buffer);
+            }
+        }
+    }
+
+    /**
+     * A packet waiting in a <tt>SendQueue</tt>.
+     */
+    private static class Pending
+    {
+        /**
+         * The <tt>MediaStream</tt> on which the packet is sent.
+         */
+        private final MediaStream stream;
+
+        /**
+         * The buffer of the packet.
+         */
+        private final byte[] buffer;
+
+        /**
+         * The length of the packet.
+         */
+        private final int length;
+
+        /**
+         * The value of <tt>System.nanoTime()</tt> when the packet was queued.
+         */
+        private final long queuedNanos;
+
+        /**
+         * Initializes a new <tt>Pending</tt>.
+         *
+         * @param stream the <tt>MediaStream</tt> on which the packet is sent.
+         * @param buffer the buffer of the packet.
+         * @param length the length of the packet.
+         * @param queuedNanos the value of <tt>System.nanoTime()</tt> when the
+         * packet was queued.
+         */
+        private Pending(
+            MediaStream stream,
+            byte[] buffer,
+            int length,
+            long queuedNanos)
+        {
+            this.stream = stream;
+            this.buffer = buffer;
+            this.length = length;
+            this.queuedNanos = queuedNanos;
+        }
+    }
+
+    /**
+     * A worker thread of a <tt>PacketSender</tt>, draining its
+     * <tt>SendQueue</tt>s by batches.
+     */
+    private class Worker
+        implements Runnable
+    {
+        /**
+         * The queues drained by this worker.
+         */
+        private final List<SendQueue> queues = new CopyOnWriteArrayList<>();
+
+        /**
+         * Whether this worker has been woken up since it last looked at its
+         * queues.
+         */
+        private final AtomicBoolean signalled = new AtomicBoolean();
+
+        /**
+         * The thread of this worker.
+         */
+        private final Thread thread;
+
+        /**
+         * Initializes a new <tt>Worker</tt> and starts its thread.
+         *
+         * @param index the index of the worker in its <tt>PacketSender</tt>.
+         */
+        private Worker(int index)
+        {
+            thread = new Thread(this, "PacketSender-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Wake up this worker because a packet has been queued.
+         */
+        private void wake()
+        {
+            if (signalled.compareAndSet(false, true))
+                LockSupport.unpark(thread);
+        }
+
+        /**
+         * Drains the queues of this worker.
+         */
+        @Override
+        public void run()
+        {
+            while (true)
+            {
+                signalled.set(false);
+
+                boolean sent = false;
+                for (SendQueue queue : queues)
+                {
+                    Pending pending;
+                    for (int n = 0;
+                            n < BATCH_SIZE
+                                && (pending = queue.packets.poll()) != null;
+                            n++)
+                    {
+                        queueDepth.decrementAndGet();
+                        send(pending);
+                        sent = true;
+                    }
+                }
+
+                if (!sent)
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+            }
+        }
+
+        /**
+         * Send a packet and give its buffer back to the pool.
+         *
+         * @param pending the packet to send.
+         */
+        private void send(Pending pending)
+        {
+            try
+            {
+                pending.stream.injectPacket(
+                    new RawPacket(pending.buffer, 0, pending.length),
+                    true,
+                    null);
+
+                long latency = System.nanoTime() - pending.queuedNanos;
+                long max;
+
+                packetsSent.incrementAndGet();
+                latencySumNanos.addAndGet(latency);
+                while (latency > (max = maxLatencyNanos.get())
+                        && !maxLatencyNanos.compareAndSet(max, latency));
+            }
+            catch (TransmissionFailedException e)
+            {
+                if (sendFailures.getAndIncrement() == 0)
+                    logger.warn("Failed to send a packet", e);
+            }
+            catch (Throwable t)
+            {
+                if (t instanceof ThreadDeath)
+                    throw (ThreadDeath) t;
+                sendFailures.incrementAndGet();
+                logger.error("Error while sending a packet", t);
+            }
+            finally
+            {
+                bufferPool.release(pending.buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.media;
+
+import org.jitsi.hammer.stats.*;
+import org.jitsi.util.Logger;
+
+import java.io.*;
+import java.net.*;
+
+/**
+ * A <tt>RtpCountingReceiver</tt> receives the RTP packets of a
+ * <tt>FakeUser</tt> and only parses their (clear) RTP headers to record them
+ * in a <tt>RtpReceiveStats</tt> : the packets are not decrypted, not
+ * depacketized and not jitter-buffered, and their buffer is reused.
+ */
+public class RtpCountingReceiver
+    implements Runnable
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>RtpCountingReceiver</tt> class and
+     * its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(RtpCountingReceiver.class);
+
+    /**
+     * The stack size of the receiving threads : the receive loop does not
+     * need more.
+     */
+    private static final long THREAD_STACK_SIZE = 64 * 1024;
+
+    /**
+     * The minimum size of a RTP header.
+     */
+    private static final int RTP_HEADER_SIZE = 12;
+
+    /**
+     * The socket from which the RTP packets are received.
+     */
+    private final DatagramSocket socket;
+
+    /**
+     * The <tt>RtpReceiveStats</tt> in which the packets are recorded.
+     */
+    private final RtpReceiveStats stats;
+
+    /**
+     * The <tt>FirstRtpTransformEngine</tt> told about the first packet
+     * received, or null.
+     */
+    private volatile FirstRtpTransformEngine firstRtp;
+
+    /**
+     * The thread running the receive loop.
+     */
+    private Thread thread;
+
+    /**
+     * Initializes a new <tt>RtpCountingReceiver</tt>.
+     *
+     * @param socket the socket from which the RTP packets are received.
+     * @param stats the <tt>RtpReceiveStats</tt> in which the packets are
+     * recorded.
+     */
+    public RtpCountingReceiver(DatagramSocket socket, RtpReceiveStats stats)
+    {
+        this.socket = socket;
+        this.stats = stats;
+    }
+
+    /**
+     * Set the <tt>FirstRtpTransformEngine</tt> told about the first packet
+     * received (the packets received here do not go through the
+     * <tt>MediaStream</tt>s).
+     *
+     * @param firstRtp the <tt>FirstRtpTransformEngine</tt> of the user.
+     */
+    public void setFirstRtpTransformEngine(FirstRtpTransformEngine firstRtp)
+    {
+        this.firstRtp = firstRtp;
+    }
+
+    /**
+     * Start the receive loop.
+     *
+     * @param name the name of the thread of the receive loop.
+     */
+    public synchronized void start(String name)
+    {
+        if (thread == null)
+        {
+            thread = new Thread(null, this, name, THREAD_STACK_SIZE);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the receive loop (by closing its socket).
+     */
+    public void stop()
+    {
+        socket.close();
+    }
+
+    /**
+     * The receive loop.
+     */
+    @Override
+    public void run()
+    {
+        byte[] buffer = new byte[1500];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+
+        while (!socket.isClosed())
+        {
+            try
+            {
+                packet.setData(buffer, 0, buffer.length);
+                socket.receive(packet);
+            }
+            catch (IOException e)
+            {
+                if (!socket.isClosed())
+                    logger.warn("Error while receiving RTP", e);
+                break;
+            }
+
+            long arrival = System.nanoTime();
+            byte[] data = packet.getData();
+            int off = packet.getOffset();
+            int length = packet.getLength();
+
+            if (length < RTP_HEADER_SIZE || (data[off] & 0xC0) != 0x80)
+                continue;
+
+            FirstRtpTransformEngine firstRtp = this.firstRtp;
+            if (firstRtp != null)
+            {
+                firstRtp.packetReceived();
+                this.firstRtp = null;
+            }
+
+            stats.record(
+                readUnsignedInt(data, off + 8),
+                data[off + 1] & 0x7F,
+                ((data[off + 2] & 0xFF) << 8) | (data[off + 3] & 0xFF),
+                readUnsignedInt(data, off + 4),
+                length,
+                arrival);
+        }
+    }
+
+    /**
+     * Read a 32 bits unsigned integer in network order.
+     *
+     * @param data the array to read from.
+     * @param off the offset of the integer in <tt>data</tt>.
+     * @return the integer read.
+     */
+    private static long readUnsignedInt(byte[] data, int off)
+    {
+        return ((data[off] & 0xFFL) << 24)
+            | ((data[off + 1] & 0xFFL) << 16)
+            | ((data[off + 2] & 0xFFL) << 8)
+            | (data[off + 3] & 0xFFL);
+    }
+}
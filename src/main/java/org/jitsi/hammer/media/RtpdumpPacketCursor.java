@@ -0,0 +1,195 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.media;
+
+/**
+ * A <tt>RtpdumpPacketCursor</tt> replays the packets of a shared
+ * <tt>RtpdumpPacketTable</tt> for a single stream, rewriting their SSRC,
+ * sequence number, timestamp and payload type so that each stream looks like
+ * an independent source.
+ *
+ * When the end of the table is reached, the cursor loops around to its first
+ * packet, keeping the sequence numbers and the timestamps increasing.
+ *
+ * A <tt>RtpdumpPacketCursor</tt> is not thread-safe : it is meant to be used
+ * by the thread sending the packets of its stream.
+ */
+public class RtpdumpPacketCursor
+{
+    /**
+     * The table of the packets replayed.
+     */
+    private final RtpdumpPacketTable table;
+
+    /**
+     * The SSRC written in the packets.
+     */
+    private final long ssrc;
+
+    /**
+     * The payload type written in the packets, or -1 to keep the one of the
+     * file.
+     */
+    private final int payloadType;
+
+    /**
+     * The duration of a loop over the table, as a RTP timestamp increment.
+     */
+    private final long loopTimestampIncrement;
+
+    /**
+     * The duration of a loop over the table, in milliseconds.
+     */
+    private final long loopDurationMs;
+
+    /**
+     * The sequence number of the next packet.
+     */
+    private int sequenceNumber;
+
+    /**
+     * The RTP timestamp corresponding to the first packet of the current
+     * loop.
+     */
+    private long loopTimestamp;
+
+    /**
+     * The time (in milliseconds from the start of the replay) corresponding
+     * to the first packet of the current loop.
+     */
+    private long loopTimeMs = 0;
+
+    /**
+     * The index of the next packet in the table.
+     */
+    private int index = 0;
+
+    /**
+     * Initializes a new <tt>RtpdumpPacketCursor</tt>.
+     *
+     * @param table the table of the packets replayed.
+     * @param ssrc the SSRC written in the packets.
+     * @param payloadType the payload type written in the packets, or -1 to
+     * keep the one of the file.
+     * @param initialSequenceNumber the sequence number of the first packet.
+     * @param initialTimestamp the RTP timestamp of the first packet.
+     */
+    public RtpdumpPacketCursor(
+        RtpdumpPacketTable table,
+        long ssrc,
+        int payloadType,
+        int initialSequenceNumber,
+        long initialTimestamp)
+    {
+        this.table = table;
+        this.ssrc = ssrc;
+        this.payloadType = payloadType;
+        this.sequenceNumber = initialSequenceNumber & 0xFFFF;
+        this.loopTimestamp = initialTimestamp;
+
+        int last = table.size() - 1;
+        long tsSpan = (table.getRtpTimestamp(last) - table.getRtpTimestamp(0))
+            & 0xFFFFFFFFL;
+        long timeSpan
+            = table.getCaptureTimeMs(last) - table.getCaptureTimeMs(0);
+
+        /*
+         * The next loop starts one "frame" after the last packet of the
+         * current loop, the frame duration being estimated from the average
+         * spacing of the packets.
+         */
+        this.loopTimestampIncrement
+            = tsSpan + Math.max(1, tsSpan / Math.max(1, last));
+        this.loopDurationMs
+            = timeSpan + Math.max(1, timeSpan / Math.max(1, last));
+    }
+
+    /**
+     * Get the length of the next packet.
+     *
+     * @return the length of the next packet.
+     */
+    public int getNextLength()
+    {
+        return table.getLength(index);
+    }
+
+    /**
+     * Get the time at which the next packet should be sent, in milliseconds
+     * from the start of the replay.
+     *
+     * @return the time at which the next packet should be sent, in
+     * milliseconds from the start of the replay.
+     */
+    public long getNextTimeMs()
+    {
+        return loopTimeMs
+            + table.getCaptureTimeMs(index) - table.getCaptureTimeMs(0);
+    }
+
+    /**
+     * Copy the next packet in <tt>dst</tt> at <tt>offset</tt>, rewrite its
+     * header, and move to the following packet.
+     *
+     * @param dst the array in which the packet is copied (it has to have at
+     * least {@link #getNextLength()} bytes after <tt>offset</tt>).
+     * @param offset the offset in <tt>dst</tt> at which the packet is copied.
+     * @return the length of the packet.
+     */
+    public int next(byte[] dst, int offset)
+    {
+        int length = table.copyPacket(index, dst, offset);
+        long timestamp = (loopTimestamp
+                + table.getRtpTimestamp(index) - table.getRtpTimestamp(0))
+            & 0xFFFFFFFFL;
+
+        if (payloadType >= 0)
+        {
+            dst[offset + 1]
+                = (byte) ((dst[offset + 1] & 0x80) | (payloadType & 0x7F));
+        }
+        dst[offset + 2] = (byte) (sequenceNumber >> 8);
+        dst[offset + 3] = (byte) sequenceNumber;
+        writeInt(dst, offset + 4, timestamp);
+        writeInt(dst, offset + 8, ssrc);
+
+        sequenceNumber = (sequenceNumber + 1) & 0xFFFF;
+        if (++index == table.size())
+        {
+            index = 0;
+            loopTimestamp = (loopTimestamp + loopTimestampIncrement)
+                & 0xFFFFFFFFL;
+            loopTimeMs += loopDurationMs;
+        }
+        return length;
+    }
+
+    /**
+     * Write the 32 least significant bits of <tt>value</tt> in
+     * <tt>dst</tt> at <tt>offset</tt> in network order.
+     *
+     * @param dst the array to write in.
+     * @param offset the offset at which <tt>value</tt> is written.
+     * @param value the value to write.
+     */
+    private static void writeInt(byte[] dst, int offset, long value)
+    {
+        dst[offset] = (byte) (value >> 24);
+        dst[offset + 1] = (byte) (value >> 16);
+        dst[offset + 2] = (byte) (value >> 8);
+        dst[offset + 3] = (byte) value;
+    }
+}
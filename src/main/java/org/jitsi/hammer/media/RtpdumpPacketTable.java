@@ -0,0 +1,364 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.media;
+
+import org.jitsi.util.Logger;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A <tt>RtpdumpPacketTable</tt> holds all the RTP packets of a rtpdump file,
+ * parsed once and stored in a direct (off-heap) <tt>ByteBuffer</tt>, with an
+ * index giving the position, length, RTP timestamp and capture time of each
+ * packet.
+ *
+ * A <tt>RtpdumpPacketTable</tt> is immutable and is shared by all the
+ * <tt>FakeUser</tt>s replaying the same file : each of them replays it with
+ * its own <tt>RtpdumpPacketCursor</tt>, so the memory used by an additional
+ * user does not depend on the size of the file.
+ *
+ * The rtpdump format is the one of the rtptools : a text line
+ * "#!rtpplay1.0 address/port\n", a 16 bytes binary header, then for each
+ * packet a 8 bytes header (length of the record, length of the RTP packet
+ * (0 for RTCP), offset in milliseconds from the start of the recording)
+ * followed by the packet.
+ */
+public class RtpdumpPacketTable
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>RtpdumpPacketTable</tt> class and
+     * its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(RtpdumpPacketTable.class);
+
+    /**
+     * The first characters of a rtpdump file.
+     */
+    private static final String RTPDUMP_MAGIC = "#!rtpplay1.0 ";
+
+    /**
+     * The size of the binary header following the first line of a rtpdump
+     * file.
+     */
+    private static final int RTPDUMP_HEADER_SIZE = 16;
+
+    /**
+     * The size of the header preceding each packet of a rtpdump file.
+     */
+    private static final int RTPDUMP_PACKET_HEADER_SIZE = 8;
+
+    /**
+     * The minimum size of a RTP header.
+     */
+    private static final int RTP_HEADER_SIZE = 12;
+
+    /**
+     * The <tt>RtpdumpPacketTable</tt>s already loaded, by path.
+     */
+    private static final Map<String, RtpdumpPacketTable> tables
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The RTP packets of the file, one after the other.
+     */
+    private final ByteBuffer packets;
+
+    /**
+     * The position in {@link #packets} of each packet.
+     */
+    private final int[] offsets;
+
+    /**
+     * The length of each packet.
+     */
+    private final int[] lengths;
+
+    /**
+     * The RTP timestamp of each packet.
+     */
+    private final long[] rtpTimestamps;
+
+    /**
+     * The capture time of each packet, in milliseconds from the start of the
+     * recording.
+     */
+    private final long[] captureTimesMs;
+
+    /**
+     * The path of the rtpdump file.
+     */
+    private final String path;
+
+    /**
+     * Get the <tt>RtpdumpPacketTable</tt> of the rtpdump file
+     * <tt>path</tt>, parsing the file if it has not been parsed yet.
+     *
+     * @param path the path of the rtpdump file.
+     * @return the <tt>RtpdumpPacketTable</tt> of the file <tt>path</tt>.
+     * @throws IOException if the file can not be read or is not a valid
+     * rtpdump file.
+     */
+    public static RtpdumpPacketTable getInstance(String path)
+        throws IOException
+    {
+        RtpdumpPacketTable table = tables.get(path);
+
+        if (table == null)
+        {
+            synchronized (tables)
+            {
+                table = tables.get(path);
+                if (table == null)
+                {
+                    table = new RtpdumpPacketTable(path);
+                    tables.put(path, table);
+                }
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Initializes a new <tt>RtpdumpPacketTable</tt> by parsing the rtpdump
+     * file <tt>path</tt>.
+     *
+     * @param path the path of the rtpdump file.
+     * @throws IOException if the file can not be read or is not a valid
+     * rtpdump file.
+     */
+    private RtpdumpPacketTable(String path)
+        throws IOException
+    {
+        this.path = path;
+
+        ByteBuffer file;
+        try (FileChannel channel
+                = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+        {
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        skipFileHeader(file);
+
+        /*
+         * First pass : count the RTP packets and their total size, so that
+         * the table is allocated once with its exact size.
+         */
+        int count = 0;
+        int totalLength = 0;
+        int start = file.position();
+        while (file.remaining() >= RTPDUMP_PACKET_HEADER_SIZE)
+        {
+            int recordLength = file.getShort(file.position()) & 0xFFFF;
+            int packetLength = file.getShort(file.position() + 2) & 0xFFFF;
+
+            if (recordLength < RTPDUMP_PACKET_HEADER_SIZE
+                    || recordLength > file.remaining())
+                break;
+            if (isRtp(packetLength, recordLength))
+            {
+                count++;
+                totalLength += packetLength;
+            }
+            file.position(file.position() + recordLength);
+        }
+
+        if (count == 0)
+            throw new IOException("No RTP packet in " + path);
+
+        packets = ByteBuffer.allocateDirect(totalLength);
+        offsets = new int[count];
+        lengths = new int[count];
+        rtpTimestamps = new long[count];
+        captureTimesMs = new long[count];
+
+        /*
+         * Second pass : copy the RTP packets in the table.
+         */
+        file.position(start);
+        int i = 0;
+        while (i < count)
+        {
+            int recordStart = file.position();
+            int recordLength = file.getShort(recordStart) & 0xFFFF;
+            int packetLength = file.getShort(recordStart + 2) & 0xFFFF;
+
+            if (isRtp(packetLength, recordLength))
+            {
+                int packetStart = recordStart + RTPDUMP_PACKET_HEADER_SIZE;
+
+                offsets[i] = packets.position();
+                lengths[i] = packetLength;
+                captureTimesMs[i]
+                    = file.getInt(recordStart + 4) & 0xFFFFFFFFL;
+                rtpTimestamps[i]
+                    = file.getInt(packetStart + 4) & 0xFFFFFFFFL;
+
+                ByteBuffer packet = file.duplicate();
+                packet.position(packetStart).limit(packetStart + packetLength);
+                packets.put(packet);
+                i++;
+            }
+            file.position(recordStart + recordLength);
+        }
+
+        logger.info(String.format("Loaded %d RTP packets (%d bytes) from %s",
+            count, totalLength, path));
+    }
+
+    /**
+     * Skip the first line and the binary header of a rtpdump file.
+     *
+     * @param file the content of the rtpdump file.
+     * @throws IOException if <tt>file</tt> is not a valid rtpdump file.
+     */
+    private void skipFileHeader(ByteBuffer file)
+        throws IOException
+    {
+        for (int i = 0; i < RTPDUMP_MAGIC.length(); i++)
+        {
+            if (!file.hasRemaining() || file.get() != RTPDUMP_MAGIC.charAt(i))
+                throw new IOException(path + " is not a rtpdump file");
+        }
+        while (file.hasRemaining() && file.get() != '\n');
+
+        if (file.remaining() < RTPDUMP_HEADER_SIZE)
+            throw new IOException(path + " is not a rtpdump file");
+        file.position(file.position() + RTPDUMP_HEADER_SIZE);
+    }
+
+    /**
+     * Whether a record of a rtpdump file contains a RTP packet.
+     *
+     * @param packetLength the length of the packet of the record (0 for
+     * RTCP).
+     * @param recordLength the length of the record.
+     * @return true if the record contains a RTP packet.
+     */
+    private static boolean isRtp(int packetLength, int recordLength)
+    {
+        return packetLength >= RTP_HEADER_SIZE
+            && packetLength <= recordLength - RTPDUMP_PACKET_HEADER_SIZE;
+    }
+
+    /**
+     * Get the number of RTP packets in this table.
+     *
+     * @return the number of RTP packets in this table.
+     */
+    public int size()
+    {
+        return offsets.length;
+    }
+
+    /**
+     * Get the length of the packet <tt>index</tt>.
+     *
+     * @param index the index of the packet.
+     * @return the length of the packet <tt>index</tt>.
+     */
+    public int getLength(int index)
+    {
+        return lengths[index];
+    }
+
+    /**
+     * Get the RTP timestamp of the packet <tt>index</tt>, as written in the
+     * file.
+     *
+     * @param index the index of the packet.
+     * @return the RTP timestamp of the packet <tt>index</tt>.
+     */
+    public long getRtpTimestamp(int index)
+    {
+        return rtpTimestamps[index];
+    }
+
+    /**
+     * Get the capture time of the packet <tt>index</tt>, in milliseconds
+     * from the start of the recording.
+     *
+     * @param index the index of the packet.
+     * @return the capture time of the packet <tt>index</tt>.
+     */
+    public long getCaptureTimeMs(int index)
+    {
+        return captureTimesMs[index];
+    }
+
+    /**
+     * Get the length of the maximum packet of this table.
+     *
+     * @return the length of the maximum packet of this table.
+     */
+    public int getMaxLength()
+    {
+        int max = 0;
+        for (int length : lengths)
+        {
+            max = Math.max(max, length);
+        }
+        return max;
+    }
+
+    /**
+     * Copy the packet <tt>index</tt> in <tt>dst</tt> at <tt>offset</tt>.
+     *
+     * @param index the index of the packet.
+     * @param dst the array in which the packet is copied.
+     * @param offset the offset in <tt>dst</tt> at which the packet is copied.
+     * @return the length of the packet.
+     */
+    public int copyPacket(int index, byte[] dst, int offset)
+    {
+        ByteBuffer packet = packets.duplicate();
+
+        packet.position(offsets[index]);
+        packet.get(dst, offset, lengths[index]);
+        return lengths[index];
+    }
+
+    /**
+     * Get a read-only view of the packet <tt>index</tt> (without copying
+     * it).
+     *
+     * @param index the index of the packet.
+     * @return a read-only <tt>ByteBuffer</tt> over the packet <tt>index</tt>.
+     */
+    public ByteBuffer getPacket(int index)
+    {
+        ByteBuffer packet = packets.asReadOnlyBuffer();
+
+        packet.position(offsets[index]).limit(offsets[index] + lengths[index]);
+        return packet.slice();
+    }
+
+    /**
+     * Get the path of the rtpdump file of this table.
+     *
+     * @return the path of the rtpdump file of this table.
+     */
+    public String getPath()
+    {
+        return path;
+    }
+}
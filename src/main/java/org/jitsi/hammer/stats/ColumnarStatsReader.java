@@ -0,0 +1,437 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.stats;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * A <tt>ColumnarStatsReader</tt> reads a stats file written by a
+ * <tt>ColumnarStatsRecorder</tt>, and exports it to CSV or JSON.
+ *
+ * The file is memory-mapped chunk by chunk, and only one chunk is
+ * uncompressed at a time, so files of any size can be exported.
+ *
+ * Usage :
+ * <pre>
+ * java org.jitsi.hammer.stats.ColumnarStatsReader &lt;file&gt; [csv|json]
+ * </pre>
+ * The export is written to the standard output.
+ */
+public class ColumnarStatsReader
+    implements Closeable
+{
+    /**
+     * The channel of the stats file.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The names of the fields recorded in the file.
+     */
+    private final String[] fieldNames;
+
+    /**
+     * Whether each of the fields recorded in the file is an integer.
+     */
+    private final boolean[] fieldIntegral;
+
+    /**
+     * The usernames read so far, in the order of their first appearance.
+     */
+    private final List<String> usernames = new ArrayList<>();
+
+    /**
+     * The position in the file of the next chunk.
+     */
+    private long position;
+
+    /**
+     * The <tt>Inflater</tt> uncompressing the columns of the chunks.
+     */
+    private final Inflater inflater = new Inflater();
+
+    /**
+     * The timestamp of the current chunk.
+     */
+    private long timestamp;
+
+    /**
+     * The uncompressed columns of the current chunk.
+     */
+    private ByteBuffer columns;
+
+    /**
+     * The number of rows of the current chunk.
+     */
+    private int rows;
+
+    /**
+     * The position in <tt>columns</tt> of the column of user indexes of the
+     * current chunk.
+     */
+    private int usersOffset;
+
+    /**
+     * Initializes a new <tt>ColumnarStatsReader</tt> reading <tt>file</tt>.
+     *
+     * @param file the stats file written by a <tt>ColumnarStatsRecorder</tt>.
+     * @throws IOException if the file can not be read or is not a columnar
+     * stats file.
+     */
+    public ColumnarStatsReader(File file)
+        throws IOException
+    {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        ByteBuffer header = channel.map(
+            FileChannel.MapMode.READ_ONLY,
+            0,
+            Math.min(channel.size(), 64 * 1024));
+        if (header.remaining() < 12
+            || header.getInt() != ColumnarStatsRecorder.MAGIC)
+        {
+            throw new IOException(file + " is not a columnar stats file");
+        }
+        int version = header.getInt();
+        if (version != ColumnarStatsRecorder.VERSION)
+        {
+            throw new IOException("Unsupported version " + version);
+        }
+
+        int fieldCount = header.getInt();
+        fieldNames = new String[fieldCount];
+        fieldIntegral = new boolean[fieldCount];
+        for (int i = 0; i < fieldCount; i++)
+        {
+            fieldNames[i] = getString(header);
+            fieldIntegral[i] = header.get() != 0;
+        }
+        position = header.position();
+    }
+
+    /**
+     * Read the next chunk of the file.
+     *
+     * @return false if there is no more (complete) chunk in the file.
+     * @throws IOException if the file can not be read or is corrupted.
+     */
+    public boolean nextChunk()
+        throws IOException
+    {
+        long size = channel.size();
+        if (position + ColumnarStatsRecorder.CHUNK_HEADER_SIZE > size)
+            return false;
+
+        ByteBuffer header = channel.map(
+            FileChannel.MapMode.READ_ONLY,
+            position,
+            ColumnarStatsRecorder.CHUNK_HEADER_SIZE);
+        if (header.getInt() != ColumnarStatsRecorder.CHUNK_MAGIC)
+            throw new IOException("Corrupted chunk at " + position);
+        timestamp = header.getLong();
+        int rawLength = header.getInt();
+        int compressedLength = header.getInt();
+
+        long dataPosition = position + ColumnarStatsRecorder.CHUNK_HEADER_SIZE;
+        if (dataPosition + compressedLength > size)
+        {
+            // The last chunk was not completely written (the run was
+            // killed).
+            return false;
+        }
+        ByteBuffer data = channel.map(
+            FileChannel.MapMode.READ_ONLY, dataPosition, compressedLength);
+        byte[] compressed = new byte[compressedLength];
+        data.get(compressed);
+
+        if (columns == null || columns.capacity() < rawLength)
+            columns = ByteBuffer.allocate(rawLength);
+        inflater.reset();
+        inflater.setInput(compressed);
+        try
+        {
+            int inflated = 0;
+            while (inflated < rawLength && !inflater.finished())
+            {
+                inflated += inflater.inflate(
+                    columns.array(), inflated, rawLength - inflated);
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Corrupted chunk at " + position, e);
+        }
+        columns.clear();
+        columns.limit(rawLength);
+
+        int newNames = columns.getInt();
+        for (int i = 0; i < newNames; i++)
+            usernames.add(getString(columns));
+        rows = columns.getInt();
+        usersOffset = columns.position();
+
+        position = dataPosition + compressedLength;
+        return true;
+    }
+
+    /**
+     * Get the timestamp (in milliseconds) of the current chunk.
+     * @return the timestamp of the current chunk.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Get the number of rows (streams) of the current chunk.
+     * @return the number of rows of the current chunk.
+     */
+    public int getRowCount()
+    {
+        return rows;
+    }
+
+    /**
+     * Get the names of the fields recorded in the file.
+     * @return the names of the fields recorded in the file.
+     */
+    public String[] getFieldNames()
+    {
+        return fieldNames.clone();
+    }
+
+    /**
+     * Get the username of a row of the current chunk.
+     * @param row the index of the row.
+     * @return the username of the row.
+     */
+    public String getUsername(int row)
+    {
+        return usernames.get(columns.getInt(usersOffset + 4 * row));
+    }
+
+    /**
+     * Get the media type (audio or video) of a row of the current chunk.
+     * @param row the index of the row.
+     * @return the media type of the row.
+     */
+    public String getMediaType(int row)
+    {
+        int offset = usersOffset + 4 * rows + row;
+        return ColumnarStatsRecorder.MEDIA_TYPES[columns.get(offset)]
+            .toString();
+    }
+
+    /**
+     * Get the SSRC of a row of the current chunk.
+     * @param row the index of the row.
+     * @return the SSRC of the row.
+     */
+    public long getSSRC(int row)
+    {
+        return columns.getLong(usersOffset + 5 * rows + 8 * row);
+    }
+
+    /**
+     * Get whether a field is an integer.
+     * @param field the index of the field.
+     * @return true if the field is an integer.
+     */
+    public boolean isIntegral(int field)
+    {
+        return fieldIntegral[field];
+    }
+
+    /**
+     * Get the value of an integral field in a row of the current chunk.
+     * @param field the index of the field.
+     * @param row the index of the row.
+     * @return the value of the field.
+     */
+    public long getLong(int field, int row)
+    {
+        return columns.getLong(valueOffset(field, row));
+    }
+
+    /**
+     * Get the value of a decimal field in a row of the current chunk.
+     * @param field the index of the field.
+     * @param row the index of the row.
+     * @return the value of the field.
+     */
+    public double getDouble(int field, int row)
+    {
+        return columns.getDouble(valueOffset(field, row));
+    }
+
+    /**
+     * Close the stats file.
+     * @throws IOException if the file can not be closed.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        inflater.end();
+        channel.close();
+    }
+
+    /**
+     * Get the position in <tt>columns</tt> of the value of a field in a row.
+     * @param field the index of the field.
+     * @param row the index of the row.
+     * @return the position of the value.
+     */
+    private int valueOffset(int field, int row)
+    {
+        // After the user indexes, the media types and the SSRCs.
+        return usersOffset + 13 * rows + 8 * (field * rows + row);
+    }
+
+    /**
+     * Write the value of a field in a row of the current chunk to
+     * <tt>out</tt>.
+     * @param out the <tt>PrintWriter</tt> to write to.
+     * @param field the index of the field.
+     * @param row the index of the row.
+     */
+    private void printValue(PrintWriter out, int field, int row)
+    {
+        if (fieldIntegral[field])
+            out.print(getLong(field, row));
+        else
+            out.print(getDouble(field, row));
+    }
+
+    /**
+     * Export all the chunks of the file in CSV (one line per stream per
+     * chunk).
+     * @param out the <tt>PrintWriter</tt> to write to.
+     * @throws IOException if the file can not be read.
+     */
+    public void exportCSV(PrintWriter out)
+        throws IOException
+    {
+        out.print("timestamp,username,media,ssrc");
+        for (String name : fieldNames)
+            out.print(',' + name);
+        out.print('\n');
+
+        while (nextChunk())
+        {
+            for (int row = 0; row < rows; row++)
+            {
+                out.print(timestamp);
+                out.print(',');
+                out.print(getUsername(row));
+                out.print(',');
+                out.print(getMediaType(row));
+                out.print(',');
+                out.print(getSSRC(row));
+                for (int field = 0; field < fieldNames.length; field++)
+                {
+                    out.print(',');
+                    printValue(out, field, row);
+                }
+                out.print('\n');
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Export all the chunks of the file in JSON (an array with an object per
+     * chunk).
+     * @param out the <tt>PrintWriter</tt> to write to.
+     * @throws IOException if the file can not be read.
+     */
+    public void exportJSON(PrintWriter out)
+        throws IOException
+    {
+        String chunkDelim = "";
+        out.print("[");
+        while (nextChunk())
+        {
+            out.print(chunkDelim + "\n{\n");
+            chunkDelim = ",";
+            out.print("  \"timestamp\":" + timestamp + ",\n");
+            out.print("  \"streams\":\n  [\n");
+            for (int row = 0; row < rows; row++)
+            {
+                out.print("    { \"username\":\"" + getUsername(row) + "\"");
+                out.print(" , \"media\":\"" + getMediaType(row) + "\"");
+                out.print(" , \"ssrc\":" + getSSRC(row));
+                for (int field = 0; field < fieldNames.length; field++)
+                {
+                    out.print(" , \"" + fieldNames[field] + "\":");
+                    printValue(out, field, row);
+                }
+                out.print(row + 1 < rows ? " },\n" : " }\n");
+            }
+            out.print("  ]\n}");
+        }
+        out.print("\n]\n");
+        out.flush();
+    }
+
+    /**
+     * Get a string put by <tt>ColumnarStatsRecorder</tt> (its length in
+     * bytes followed by its UTF-8 bytes).
+     * @param buffer the buffer from which the string is read.
+     * @return the string.
+     */
+    private static String getString(ByteBuffer buffer)
+    {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Export a columnar stats file to CSV or JSON on the standard output.
+     * @param args the path of the file, and the format ("csv" by default, or
+     * "json").
+     * @throws IOException if the file can not be read.
+     */
+    public static void main(String[] args)
+        throws IOException
+    {
+        if (args.length < 1)
+        {
+            System.out.println("Usage : ColumnarStatsReader <file> [csv|json]");
+            System.exit(1);
+        }
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+            new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+        try (ColumnarStatsReader reader
+                 = new ColumnarStatsReader(new File(args[0])))
+        {
+            if (args.length > 1 && args[1].equalsIgnoreCase("json"))
+                reader.exportJSON(out);
+            else
+                reader.exportCSV(out);
+        }
+    }
+}
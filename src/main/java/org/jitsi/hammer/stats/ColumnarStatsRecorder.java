@@ -0,0 +1,308 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.stats;
+
+import org.jitsi.service.neomedia.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * A <tt>ColumnarStatsRecorder</tt> records the stats of all the streams of
+ * all the users, at each polling of the <tt>HammerStats</tt>, in a binary
+ * file where each stat is stored as a column of primitive values.
+ *
+ * The file starts with a header :
+ * <pre>
+ * int    MAGIC
+ * int    VERSION
+ * int    number of fields
+ * for each field : short length, UTF-8 name, byte integral (1) or decimal (0)
+ * </pre>
+ * followed by a chunk for each polling :
+ * <pre>
+ * int    CHUNK_MAGIC
+ * long   timestamp (ms)
+ * int    length of the uncompressed columns
+ * int    length of the compressed columns
+ * byte[] the columns, compressed with a <tt>Deflater</tt>
+ * </pre>
+ * The uncompressed columns are :
+ * <pre>
+ * int    number of users seen for the first time in this chunk
+ * for each of them : short length, UTF-8 username
+ * int    number of rows (one for each stream of each user)
+ * int[]  index of the user of each row (in the order of first appearance)
+ * byte[] media type of each row (0 audio, 1 video)
+ * long[] SSRC of each row
+ * for each field : long[] (integral) or double[] (decimal) values
+ * </pre>
+ * All the numbers are big-endian. The chunk headers are not compressed, so a
+ * reader can map the file and skip from one chunk to the next.
+ *
+ * The <tt>ColumnarStatsReader</tt> exports such a file to CSV or JSON.
+ */
+public class ColumnarStatsRecorder
+    implements Closeable
+{
+    /**
+     * The magic number at the start of the file ("HCOL").
+     */
+    public static final int MAGIC = 0x48434f4c;
+
+    /**
+     * The version of the format of the file.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The magic number at the start of each chunk ("CHNK").
+     */
+    public static final int CHUNK_MAGIC = 0x43484e4b;
+
+    /**
+     * The size in bytes of the header of a chunk.
+     */
+    public static final int CHUNK_HEADER_SIZE = 4 + 8 + 4 + 4;
+
+    /**
+     * The media types of the rows, indexed by their code in the file.
+     */
+    static final MediaType[] MEDIA_TYPES
+        = { MediaType.AUDIO, MediaType.VIDEO };
+
+    /**
+     * The channel of the file in which the stats are recorded.
+     */
+    private final FileChannel channel;
+
+    /**
+     * The index of each user in the file, in the order in which they were
+     * first recorded.
+     */
+    private final Map<FakeUserStats, Integer> userIndexes
+        = new IdentityHashMap<>();
+
+    /**
+     * The <tt>Deflater</tt> compressing the columns (reset for each chunk).
+     */
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    /**
+     * The buffer in which the columns of a chunk are written before being
+     * compressed (reused and grown when needed).
+     */
+    private ByteBuffer columns = ByteBuffer.allocate(64 * 1024);
+
+    /**
+     * The buffer receiving the compressed columns of a chunk, preceded by the
+     * header of the chunk (reused and grown when needed).
+     */
+    private byte[] compressed = new byte[64 * 1024];
+
+    /**
+     * Initializes a new <tt>ColumnarStatsRecorder</tt> recording the stats
+     * in <tt>file</tt> (overwritten if it exists).
+     *
+     * @param file the file in which the stats are recorded.
+     * @throws IOException if the file can not be created.
+     */
+    public ColumnarStatsRecorder(File file)
+        throws IOException
+    {
+        channel = FileChannel.open(
+            file.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE);
+
+        StatsField[] fields = StatsField.values();
+        ByteBuffer header = ByteBuffer.allocate(12 + fields.length * 64);
+        header.putInt(MAGIC).putInt(VERSION).putInt(fields.length);
+        for (StatsField field : fields)
+        {
+            putString(header, field.getJsonName());
+            header.put((byte) (field.isIntegral() ? 1 : 0));
+        }
+        header.flip();
+        writeFully(header);
+    }
+
+    /**
+     * Record a chunk with the stats of the audio and video streams of
+     * <tt>users</tt> (their stats must have been updated).
+     *
+     * @param timestamp the time of the polling, in milliseconds.
+     * @param users the <tt>FakeUserStats</tt> of the users.
+     * @throws IOException if the chunk can not be written.
+     */
+    public void record(long timestamp, FakeUserStats[] users)
+        throws IOException
+    {
+        StatsField[] fields = StatsField.values();
+        int rows = users.length * MEDIA_TYPES.length;
+
+        // The usernames seen for the first time.
+        List<String> newNames = new ArrayList<>();
+        int newNamesLength = 0;
+        for (FakeUserStats user : users)
+        {
+            if (!userIndexes.containsKey(user))
+            {
+                userIndexes.put(user, userIndexes.size());
+                newNames.add(user.getUsername());
+                newNamesLength += 2 + 4 * user.getUsername().length();
+            }
+        }
+
+        ensureColumnsCapacity(
+            8 + newNamesLength + rows * (4 + 1 + 8 + 8 * fields.length));
+        columns.clear();
+
+        columns.putInt(newNames.size());
+        for (String name : newNames)
+            putString(columns, name);
+
+        columns.putInt(rows);
+        for (FakeUserStats user : users)
+        {
+            int index = userIndexes.get(user);
+            for (int m = 0; m < MEDIA_TYPES.length; m++)
+                columns.putInt(index);
+        }
+        for (int u = 0; u < users.length; u++)
+        {
+            for (int m = 0; m < MEDIA_TYPES.length; m++)
+                columns.put((byte) m);
+        }
+        for (FakeUserStats user : users)
+        {
+            for (MediaType type : MEDIA_TYPES)
+                columns.putLong(user.getSSRC(type));
+        }
+        for (StatsField field : fields)
+        {
+            for (FakeUserStats user : users)
+            {
+                for (MediaType type : MEDIA_TYPES)
+                {
+                    double value = field.get(user.getMediaStreamStats(type));
+                    if (field.isIntegral())
+                        columns.putLong((long) value);
+                    else
+                        columns.putDouble(value);
+                }
+            }
+        }
+
+        int rawLength = columns.position();
+        int compressedLength = compress(columns.array(), rawLength);
+
+        ByteBuffer chunk = ByteBuffer.wrap(
+            compressed, 0, CHUNK_HEADER_SIZE + compressedLength);
+        chunk.putInt(CHUNK_MAGIC)
+            .putLong(timestamp)
+            .putInt(rawLength)
+            .putInt(compressedLength);
+        chunk.position(0);
+        writeFully(chunk);
+    }
+
+    /**
+     * Close the file in which the stats are recorded.
+     *
+     * @throws IOException if the file can not be closed.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        deflater.end();
+        channel.close();
+    }
+
+    /**
+     * Compress the <tt>length</tt> first bytes of <tt>raw</tt> into
+     * <tt>compressed</tt>, after the room left for the header of the chunk.
+     *
+     * @param raw the bytes to compress.
+     * @param length the number of bytes to compress.
+     * @return the length of the compressed bytes.
+     */
+    private int compress(byte[] raw, int length)
+    {
+        deflater.reset();
+        deflater.setInput(raw, 0, length);
+        deflater.finish();
+
+        int written = CHUNK_HEADER_SIZE;
+        while (!deflater.finished())
+        {
+            if (written == compressed.length)
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            written += deflater.deflate(
+                compressed, written, compressed.length - written);
+        }
+        return written - CHUNK_HEADER_SIZE;
+    }
+
+    /**
+     * Make sure <tt>columns</tt> can hold at least <tt>capacity</tt> bytes.
+     *
+     * @param capacity the number of bytes needed.
+     */
+    private void ensureColumnsCapacity(int capacity)
+    {
+        if (columns.capacity() < capacity)
+        {
+            columns = ByteBuffer.allocate(
+                Math.max(capacity, columns.capacity() * 2));
+        }
+    }
+
+    /**
+     * Write all the remaining bytes of <tt>buffer</tt> to the file.
+     *
+     * @param buffer the bytes to write.
+     * @throws IOException if the bytes can not be written.
+     */
+    private void writeFully(ByteBuffer buffer)
+        throws IOException
+    {
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+    }
+
+    /**
+     * Put <tt>s</tt> in <tt>buffer</tt> as its length in bytes (a short)
+     * followed by its UTF-8 bytes.
+     *
+     * @param buffer the buffer in which <tt>s</tt> is put.
+     * @param s the string to put.
+     */
+    private static void putString(ByteBuffer buffer, String s)
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.stats;
+
+import org.HdrHistogram.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Records the events of the lifecycle of the <tt>FakeUser</tt>s (connect,
+ * login, MUC join, ..., first RTP packet) with their
+ * <tt>System.nanoTime()</tt> timestamp, in a preallocated ring.
+ *
+ * Recording an event is lock-free and does not allocate : the writer claims
+ * a slot with an atomic increment and writes it as a seqlock (the tag of the
+ * slot is cleared, its timestamp written, then its tag), so that a reader
+ * can detect a slot being overwritten. When the ring is full, the oldest
+ * events are overwritten.
+ *
+ * The events can be dumped to a binary trace file :
+ * <pre>
+ * int    MAGIC
+ * int    VERSION
+ * long   System.nanoTime() at the creation of the trace
+ * long   System.currentTimeMillis() at the creation of the trace
+ * int    number of event types; for each : short length, UTF-8 name
+ * int    number of users; for each : short length, UTF-8 nickname
+ * long   number of events lost (overwritten)
+ * int    number of events
+ * for each event, oldest first :
+ *   long nanoseconds since the creation of the trace
+ *   int  index of the user
+ *   byte ordinal of the event type
+ * </pre>
+ * All the numbers are big-endian. The events can also be summarized as the
+ * distribution of the time each user spent reaching each event from its
+ * previous one.
+ */
+public class EventTrace
+{
+    /**
+     * The events of the lifecycle of a <tt>FakeUser</tt>, in the order in
+     * which they usually happen.
+     */
+    public enum Event
+    {
+        START("start"),
+        CONNECTED("connected"),
+        LOGGED_IN("loggedIn"),
+        MUC_JOINED("mucJoined"),
+        FOCUS_INVITED("focusInvited"),
+        SESSION_INITIATE_RECEIVED("sessionInitiateReceived"),
+        SESSION_ACCEPT_SENT("sessionAcceptSent"),
+        ICE_COMPLETED("iceCompleted"),
+        DTLS_DONE("dtlsDone"),
+        FIRST_RTP_SENT("firstRtpSent"),
+        FIRST_RTP_RECEIVED("firstRtpReceived");
+
+        /**
+         * The name of the event in the trace file and in the summary.
+         */
+        private final String name;
+
+        Event(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Get the name of the event in the trace file and in the summary.
+         * @return the name of the event.
+         */
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    /**
+     * The magic number at the start of a trace file ("HEVT").
+     */
+    public static final int MAGIC = 0x48455654;
+
+    /**
+     * The version of the format of the trace file.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The default number of events kept by the ring.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 18;
+
+    /**
+     * The mask giving the slot of a sequence number (the capacity is a
+     * power of two).
+     */
+    private final int mask;
+
+    /**
+     * The slots of the ring : the slot <tt>i</tt> is made of its timestamp
+     * (at <tt>2 * i</tt>) and of its tag (at <tt>2 * i + 1</tt>), which
+     * packs the ordinal of the event (8 bits), the index of the user (24
+     * bits) and the sequence number of the event (32 bits, plus one so that
+     * a written tag is never 0).
+     */
+    private final AtomicLongArray slots;
+
+    /**
+     * The sequence number of the next event.
+     */
+    private final AtomicLong cursor = new AtomicLong();
+
+    /**
+     * The nicknames of the users, indexed by the index returned by
+     * <tt>registerUser</tt>.
+     */
+    private final List<String> users = new ArrayList<>();
+
+    /**
+     * The value of <tt>System.nanoTime()</tt> when this trace was created.
+     */
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * The value of <tt>System.currentTimeMillis()</tt> when this trace was
+     * created.
+     */
+    private final long startMillis = System.currentTimeMillis();
+
+    /**
+     * Initializes a new <tt>EventTrace</tt> keeping the last
+     * <tt>DEFAULT_CAPACITY</tt> events.
+     */
+    public EventTrace()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Initializes a new <tt>EventTrace</tt>.
+     *
+     * @param capacity the number of events kept by the ring (rounded up to a
+     * power of two).
+     */
+    public EventTrace(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        slots = new AtomicLongArray(2 * size);
+    }
+
+    /**
+     * Register a user whose events will be recorded.
+     *
+     * @param nickname the nickname of the user.
+     * @return the index of the user, to give to <tt>record</tt>.
+     */
+    public synchronized int registerUser(String nickname)
+    {
+        users.add(nickname);
+        return users.size() - 1;
+    }
+
+    /**
+     * Record that an event happened now.
+     *
+     * @param user the index of the user returned by <tt>registerUser</tt>.
+     * @param event the <tt>Event</tt> that happened.
+     */
+    public void record(int user, Event event)
+    {
+        record(user, event, System.nanoTime());
+    }
+
+    /**
+     * Record that an event happened at <tt>nanos</tt>.
+     *
+     * @param user the index of the user returned by <tt>registerUser</tt>.
+     * @param event the <tt>Event</tt> that happened.
+     * @param nanos the value of <tt>System.nanoTime()</tt> when the event
+     * happened.
+     */
+    public void record(int user, Event event, long nanos)
+    {
+        long seq = cursor.getAndIncrement();
+        int slot = 2 * (int) (seq & mask);
+
+        slots.set(slot + 1, 0);
+        slots.set(slot, nanos);
+        slots.set(slot + 1, tag(seq, user, event));
+    }
+
+    /**
+     * Pack an event in the tag of a slot.
+     *
+     * @param seq the sequence number of the event.
+     * @param user the index of the user.
+     * @param event the <tt>Event</tt>.
+     * @return the tag of the slot.
+     */
+    private static long tag(long seq, int user, Event event)
+    {
+        return ((seq + 1) << 32)
+            | ((long) (user & 0xFFFFFF) << 8)
+            | event.ordinal();
+    }
+
+    /**
+     * Read the events currently in the ring, oldest first. The events being
+     * overwritten while they are read are skipped.
+     *
+     * @param timestamps receives the timestamp of each event.
+     * @param tags receives the tag of each event.
+     * @return the number of events read.
+     */
+    private int snapshot(long[] timestamps, long[] tags)
+    {
+        long end = cursor.get();
+        long start = Math.max(0, end - (mask + 1));
+        int count = 0;
+
+        for (long seq = start; seq < end; seq++)
+        {
+            int slot = 2 * (int) (seq & mask);
+            long tag = slots.get(slot + 1);
+            long nanos = slots.get(slot);
+
+            if (tag != 0
+                && tag == slots.get(slot + 1)
+                && (tag >>> 32) == ((seq + 1) & 0xFFFFFFFFL))
+            {
+                timestamps[count] = nanos;
+                tags[count] = tag;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of events that have been overwritten because the ring
+     * was full.
+     *
+     * @return the number of events lost.
+     */
+    public long getLostCount()
+    {
+        return Math.max(0, cursor.get() - (mask + 1));
+    }
+
+    /**
+     * Dump the events currently in the ring to a binary trace file.
+     *
+     * @param file the trace file (overwritten if it exists).
+     * @throws IOException if the file can not be written.
+     */
+    public void dump(File file)
+        throws IOException
+    {
+        long[] timestamps = new long[mask + 1];
+        long[] tags = new long[mask + 1];
+        int count = snapshot(timestamps, tags);
+        List<String> nicknames;
+        synchronized (this)
+        {
+            nicknames = new ArrayList<>(users);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(startNanos);
+            out.writeLong(startMillis);
+
+            Event[] events = Event.values();
+            out.writeInt(events.length);
+            for (Event event : events)
+                writeString(out, event.getName());
+            out.writeInt(nicknames.size());
+            for (String nickname : nicknames)
+                writeString(out, nickname);
+
+            out.writeLong(getLostCount());
+            out.writeInt(count);
+            for (int i = 0; i < count; i++)
+            {
+                out.writeLong(timestamps[i] - startNanos);
+                out.writeInt((int) ((tags[i] >>> 8) & 0xFFFFFF));
+                out.writeByte((int) (tags[i] & 0xFF));
+            }
+        }
+    }
+
+    /**
+     * Get the distribution (p50/p95/p99/max in milliseconds) of the time
+     * each user took to reach each event from its previous event, in JSON.
+     *
+     * @return the summary of the events currently in the ring in JSON.
+     */
+    public String getSummaryJSON()
+    {
+        return getSummaryJSON(EnumSet.allOf(Event.class));
+    }
+
+    /**
+     * Get the distribution (p50/p95/p99/max in milliseconds) of the time
+     * each user took to reach each event from its previous event, in JSON,
+     * for some of the events (the events which can not be recorded in this
+     * run are left out, rather than reported with a count of 0).
+     *
+     * @param summarized the events to summarize.
+     * @return the summary of the events currently in the ring in JSON.
+     */
+    public String getSummaryJSON(Set<Event> summarized)
+    {
+        final long[] timestamps = new long[mask + 1];
+        long[] tags = new long[mask + 1];
+        int count = snapshot(timestamps, tags);
+
+        // The events of a user may be recorded by different threads, so
+        // they are sorted by time rather than by sequence number.
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++)
+            order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                return Long.compare(timestamps[a], timestamps[b]);
+            }
+        });
+
+        Event[] events = Event.values();
+        Histogram[] histograms = new Histogram[events.length];
+        for (int i = 0; i < events.length; i++)
+            histograms[i] = new Histogram(3);
+
+        Map<Integer, Long> previous = new HashMap<>();
+        for (int i : order)
+        {
+            int user = (int) ((tags[i] >>> 8) & 0xFFFFFF);
+            int event = (int) (tags[i] & 0xFF);
+            Long last = previous.put(user, timestamps[i]);
+
+            if (last != null && event != Event.START.ordinal())
+                histograms[event].recordValue(
+                    Math.max(0, timestamps[i] - last));
+        }
+
+        StringBuilder bldr = new StringBuilder();
+        bldr.append("{ \"lost\":").append(getLostCount());
+        for (Event event : events)
+        {
+            if (event == Event.START || !summarized.contains(event))
+                continue;
+
+            Histogram histogram = histograms[event.ordinal()];
+            bldr.append(" , \"").append(event.getName()).append("\":");
+            bldr.append("{ \"count\":").append(histogram.getTotalCount());
+            bldr.append(" , \"p50Ms\":")
+                .append(histogram.getValueAtPercentile(50) / 1e6);
+            bldr.append(" , \"p95Ms\":")
+                .append(histogram.getValueAtPercentile(95) / 1e6);
+            bldr.append(" , \"p99Ms\":")
+                .append(histogram.getValueAtPercentile(99) / 1e6);
+            bldr.append(" , \"maxMs\":")
+                .append(histogram.getMaxValue() / 1e6);
+            bldr.append(" }");
+        }
+        bldr.append(" }");
+
+        return bldr.toString();
+    }
+
+    /**
+     * Write <tt>s</tt> as its length in bytes (a short) followed by its
+     * UTF-8 bytes.
+     *
+     * @param out the <tt>DataOutputStream</tt> to write to.
+     * @param s the string to write.
+     * @throws IOException if <tt>s</tt> can not be written.
+     */
+    private static void writeString(DataOutputStream out, String s)
+        throws IOException
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
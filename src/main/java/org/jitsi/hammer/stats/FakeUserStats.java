@@ -18,6 +18,8 @@ package org.jitsi.hammer.stats;
 
 import org.jitsi.service.neomedia.*;
 
+import java.io.*;
+
 /**
  * @author Thomas Kuntz
  *
@@ -100,6 +102,13 @@ public class FakeUserStats
      */
     private MediaStreamStats videoStats;
 
+    /**
+     * The counting-only stats of the RTP packets received by the
+     * <tt>FakeUser</tt> corresponding to this <tt>FakeUserStats</tt>, or null
+     * if they are not collected.
+     */
+    private RtpReceiveStats receiveStats;
+
     public FakeUserStats(String username)
     {
         this.username = username;
@@ -130,6 +139,46 @@ public class FakeUserStats
         //other MediaType are not tracked.
     }
 
+    /**
+     * Set the counting-only stats of the RTP packets received by the
+     * <tt>FakeUser</tt> corresponding to this <tt>FakeUserStats</tt>.
+     * @param receiveStats the <tt>RtpReceiveStats</tt> of the
+     * <tt>FakeUser</tt>.
+     */
+    public void setReceiveStats(RtpReceiveStats receiveStats)
+    {
+        this.receiveStats = receiveStats;
+    }
+
+    /**
+     * Get the username of the <tt>FakeUser</tt> corresponding to this
+     * <tt>FakeUserStats</tt>.
+     * @return the username of the <tt>FakeUser</tt>.
+     */
+    public String getUsername()
+    {
+        return this.username;
+    }
+
+    /**
+     * Get the SSRC of the audio or video <tt>MediaStream</tt> of the
+     * <tt>FakeUser</tt> corresponding to this <tt>FakeUserStats</tt>.
+     * @param type the <tt>MediaType</tt> of the <tt>MediaStream</tt>.
+     * @return the SSRC of the <tt>MediaStream</tt>, or -1 if it is unknown.
+     */
+    public long getSSRC(MediaType type)
+    {
+        switch(type)
+        {
+        case AUDIO:
+            return audioSSRC;
+        case VIDEO:
+            return videoSSRC;
+        default:
+            return -1;
+        }
+    }
+
     /**
      * Set the username of used by this <tt>FakeUserStats</tt>.
      * @param username the username that will be set.
@@ -186,65 +235,72 @@ public class FakeUserStats
      */
     public String getStatsJSON(int spaceIndent)
     {
-        String indent = new String(new char[spaceIndent]).replace("\0" ,  " ");
-        StringBuilder builder = new StringBuilder();
-        builder.append(indent + "{\n");
-        builder.append(indent + "  \"username\" : \""+ this.username +"\" , \n");
-        builder.append(indent + "  \"streams\" :\n");
-
-        String str = String.format(jsonTemplate,
-            audioSSRC ,
-            audioStats.getDownloadJitterMs() ,
-            audioStats.getDownloadPercentLoss() ,
-            audioStats.getDownloadRateKiloBitPerSec() ,
-            audioStats.getJitterBufferDelayMs() ,
-            audioStats.getJitterBufferDelayPackets() ,
-            audioStats.getNbDiscarded() ,
-            audioStats.getNbDiscardedFull() ,
-            audioStats.getNbDiscardedLate() ,
-            audioStats.getNbDiscardedReset() ,
-            audioStats.getNbDiscardedShrink() ,
-            audioStats.getNbFec() ,
-            audioStats.getNbPackets() ,
-            audioStats.getNbPacketsLost() ,
-            audioStats.getNbReceivedBytes() ,
-            audioStats.getNbSentBytes() ,
-            audioStats.getPacketQueueCountPackets() ,
-            audioStats.getPacketQueueSize() ,
-            audioStats.getPercentDiscarded() ,
-            audioStats.getRttMs() ,
-            audioStats.getUploadJitterMs(),
-            audioStats.getUploadPercentLoss() ,
-            audioStats.getUploadRateKiloBitPerSec() ,
-
-            videoSSRC ,
-            videoStats.getDownloadJitterMs() ,
-            videoStats.getDownloadPercentLoss() ,
-            videoStats.getDownloadRateKiloBitPerSec() ,
-            videoStats.getJitterBufferDelayMs() ,
-            videoStats.getJitterBufferDelayPackets() ,
-            videoStats.getNbDiscarded() ,
-            videoStats.getNbDiscardedFull() ,
-            videoStats.getNbDiscardedLate() ,
-            videoStats.getNbDiscardedReset() ,
-            videoStats.getNbDiscardedShrink() ,
-            videoStats.getNbFec() ,
-            videoStats.getNbPackets() ,
-            videoStats.getNbPacketsLost() ,
-            videoStats.getNbReceivedBytes() ,
-            videoStats.getNbSentBytes() ,
-            videoStats.getPacketQueueCountPackets() ,
-            videoStats.getPacketQueueSize() ,
-            videoStats.getPercentDiscarded() ,
-            videoStats.getRttMs() ,
-            videoStats.getUploadJitterMs(),
-            videoStats.getUploadPercentLoss() ,
-            videoStats.getUploadRateKiloBitPerSec());
-        str = indent + str.replaceAll("\n", "\n"+indent);
-        builder.append(str + '\n');
-
-        builder.append(indent + "}");
-
-        return builder.toString();
+        StringWriter out = new StringWriter();
+        try
+        {
+            writeStatsJSON(new JsonStatsWriter(out), spaceIndent);
+        }
+        catch (IOException e)
+        {
+            // A StringWriter does not throw.
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Write the stats of the audio and video stream from the corresponding
+     * <tt>MediaStreamStats</tt> in JSON (as returned by
+     * {@link #getStatsJSON(int)}) directly to <tt>writer</tt>.
+     * @param writer the <tt>JsonStatsWriter</tt> to write to.
+     * @param spaceIndent the number of space added to indent each line
+     * of the written JSON.
+     * @throws IOException if <tt>writer</tt> fails.
+     */
+    public void writeStatsJSON(JsonStatsWriter writer, int spaceIndent)
+        throws IOException
+    {
+        writer.setIndent(spaceIndent);
+        writer.writeIndent().write('{');
+        writer.newLine()
+            .write("  \"username\" : \"").write(username).write("\" , ");
+        writer.newLine().write("  \"streams\" :");
+        writer.newLine().write("  {");
+        writer.newLine().write("      \"audio\" : ");
+        writeMediaStreamStatsJSON(writer, audioSSRC, audioStats);
+        writer.write(',');
+        writer.newLine().write("      \"video\" : ");
+        writeMediaStreamStatsJSON(writer, videoSSRC, videoStats);
+        writer.newLine().write("  }");
+        if (receiveStats != null)
+        {
+            writer.write(" ,");
+            writer.newLine()
+                .write("  \"received\" : ").write(receiveStats.getStatsJSON());
+        }
+        writer.newLine().write('}');
+    }
+
+    /**
+     * Write the stats of a <tt>MediaStreamStats</tt> on a single line, in the
+     * format of <tt>jsonMediaStreamStatsTemplate</tt>.
+     * @param writer the <tt>JsonStatsWriter</tt> to write to.
+     * @param ssrc the SSRC of the <tt>MediaStream</tt>.
+     * @param stats the <tt>MediaStreamStats</tt> of the <tt>MediaStream</tt>.
+     * @throws IOException if <tt>writer</tt> fails.
+     */
+    private static void writeMediaStreamStatsJSON(
+        JsonStatsWriter writer,
+        long ssrc,
+        MediaStreamStats stats)
+        throws IOException
+    {
+        writer.write("{ \"ssrc\":").write(ssrc);
+        for (StatsField field : StatsField.values())
+        {
+            writer.write(" , \"").write(field.getJsonName()).write("\":");
+            writer.write(field.get(stats), field);
+        }
+        writer.write(" }");
     }
 }
@@ -18,12 +18,14 @@ package org.jitsi.hammer.stats;
 
 
 import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.text.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.apache.commons.math3.stat.descriptive.*;
 import org.jitsi.hammer.*;
-import org.jitsi.service.neomedia.MediaStreamStats;
 import org.jitsi.service.neomedia.MediaType;
 import org.jitsi.util.Logger;
 
@@ -47,7 +49,7 @@ public class HammerStats implements Runnable
     /**
      * A boolean used to stop the run method of this <tt>HammerStats</tt>.
      */
-    private boolean threadStop = false;
+    private volatile boolean threadStop = false;
 
     /**
      * The name (not the path or location) of the directory where
@@ -72,12 +74,29 @@ public class HammerStats implements Runnable
     private final File allStatsFile;
 
     /**
-     * An <tt>List</tt> of <tt>FakeUserStats</tt> that contains the
+     * The file that will contain all the stats recorded by run() in the
+     * binary columnar format of <tt>ColumnarStatsRecorder</tt>.
+     */
+    private final File binaryStatsFile;
+
+    /**
+     * A <tt>Queue</tt> of <tt>FakeUserStats</tt> that contains the
      * <tt>MediaStreamStats</tt>s of the <tt>FakeUser</tt>.
-     * It is used to keep track of the streams' stats.
+     * It is used to keep track of the streams' stats. It is concurrent, so
+     * that the users being added never wait for the polling.
      */
-    private final ArrayList<FakeUserStats> fakeUserStatsList =
-        new ArrayList<FakeUserStats>();
+    private final Queue<FakeUserStats> fakeUserStatsList =
+        new ConcurrentLinkedQueue<FakeUserStats>();
+
+    /**
+     * The number of users polled by each shard of the polling.
+     */
+    private static final int SHARD_SIZE = 64;
+
+    /**
+     * The <tt>ForkJoinPool</tt> in which the shards of the polling are run.
+     */
+    private final ForkJoinPool pollPool = new ForkJoinPool();
 
     /**
      * The time (in seconds) the HammerStats wait between two updates.
@@ -103,6 +122,49 @@ public class HammerStats implements Runnable
      * all the streams' stats collected is enable of not.
      */
     private boolean overallStatsLogging;
+
+    /**
+     * The boolean used to know if the recording of all the stats in the
+     * binary columnar file is enabled.
+     */
+    private boolean binaryStatsLogging = false;
+
+    /**
+     * The <tt>StartupStats</tt> of the users, written with the overall stats
+     * (null if they are not).
+     */
+    private StartupStats startupStats;
+
+    /**
+     * Whether the summary of the streams' stats of each polling is published
+     * for the <tt>MetricsServer</tt>.
+     */
+    private boolean metricsEnabled = false;
+
+    /**
+     * The summary of each stat (indexed by the ordinal of its
+     * <tt>StatsField</tt>) of the audio streams at the latest polling, or
+     * null before the first one.
+     */
+    private volatile StatisticalSummary[] latestAudioSummary;
+
+    /**
+     * The summary of each stat (indexed by the ordinal of its
+     * <tt>StatsField</tt>) of the video streams at the latest polling, or
+     * null before the first one.
+     */
+    private volatile StatisticalSummary[] latestVideoSummary;
+
+    /**
+     * The number of pollings done by this <tt>HammerStats</tt>.
+     */
+    private volatile long pollCount = 0;
+
+    /**
+     * The number of users whose stats were updated by the latest polling.
+     */
+    private volatile int polledUserCount = 0;
+
     /**
      * The HammerSummaryStats used to compute summary stats from the
      * audio streams' stats.
@@ -150,6 +212,10 @@ public class HammerStats implements Runnable
             this.statsDirectoryPath
             + File.separator
             + "AllAndSummaryStats.json");
+        this.binaryStatsFile = new File(
+            this.statsDirectoryPath
+            + File.separator
+            + "AllStats.hcol");
 
         logger.info("Stats directory : " + this.statsDirectoryPath);
     }
@@ -159,7 +225,7 @@ public class HammerStats implements Runnable
      * Add a <tt>FakeUserStats</tt> to the list this <tt>HammerStats</tt> is watching
      * @param fakeUserStats the <tt>FakeUserStats</tt> that will added.
      */
-    public synchronized void addFakeUsersStats(
+    public void addFakeUsersStats(
         FakeUserStats fakeUserStats)
     {
         if(fakeUserStats == null)
@@ -173,12 +239,20 @@ public class HammerStats implements Runnable
      * Keep track, collect and update the stats of all the
      * <tt>MediaStreamStats</tt> this <tt>HammerStats</tt> handles.
      *
-     * Also write the results in the stats files.
+     * Also write the results in the stats files. The stats of each user are
+     * written directly to the (buffered) file.
+     *
+     * The users are polled in shards of <tt>SHARD_SIZE</tt> users run in a
+     * <tt>ForkJoinPool</tt>, each of them computing the summary of its own
+     * users without any lock, and the summaries of the shards are merged
+     * once they are all done.
      */
     public void run()
     {
-        PrintWriter writer = null;
-        StringBuilder allBldr = new StringBuilder();
+        JsonStatsWriter writer = null;
+        ColumnarStatsRecorder recorder = null;
+        // The shards of the polling, reused from one poll to the next.
+        List<PollShard> pollShards = new ArrayList<PollShard>();
         String delim;
         String delim_ = "";
         synchronized(this)
@@ -189,135 +263,179 @@ public class HammerStats implements Runnable
         logger.info("Running the main loop");
         while (!threadStop)
         {
-            synchronized(this)
+            FakeUserStats[] users
+                = fakeUserStatsList.toArray(new FakeUserStats[0]);
+            boolean summarize
+                = summaryStatsLogging || overallStatsLogging || metricsEnabled;
+            long pollStart = System.nanoTime();
+
+            try
             {
-                if(overallStatsLogging || allStatsLogging || summaryStatsLogging)
+                if(overallStatsLogging || allStatsLogging || summaryStatsLogging
+                    || binaryStatsLogging || metricsEnabled)
                 {
                     if(allStatsLogging || summaryStatsLogging)
                     {
                         if(writer == null)
                         {
-                            try
-                            {
-                                writer = new PrintWriter(allStatsFile, "UTF-8");
-                                writer.print("[\n");
-                            }
-                            catch (FileNotFoundException e)
-                            {
-                                logger.fatal("HammerStats stopping due to FileNotFound",e);
-                                stop();
-                            }
-                            catch (UnsupportedEncodingException e)
-                            {
-                                logger.fatal("HammerStats stopping due to "
-                                    + "UnsupportedEncoding", e);
-                            }
+                            writer = new JsonStatsWriter(
+                                Files.newBufferedWriter(
+                                    allStatsFile.toPath(),
+                                    StandardCharsets.UTF_8));
+                            writer.write("[\n");
                         }
 
-                        //Clear the StringBuilder
-                        allBldr.setLength(0);
-
-                        writer.print(delim_ + '\n');
+                        writer.write(delim_).write('\n');
                         delim_ = ",";
-                        writer.print("{\n");
-                        writer.print("  \"timestamp\":" + System.currentTimeMillis()+",\n");
+                        writer.write("{\n");
+                        writer.write("  \"timestamp\":")
+                            .write(System.currentTimeMillis()).write(",\n");
                     }
 
                     delim = "";
                     logger.info("Updating the MediaStreamStats");
-                    for(FakeUserStats stats : fakeUserStatsList)
+                    //We update the stats before using/reading them.
+                    int shardCount = 0;
+                    for(int from = 0; from < users.length; from += SHARD_SIZE)
                     {
-                        //We update the stats before using/reading them.
-                        stats.updateStats();
+                        if(shardCount == pollShards.size())
+                            pollShards.add(new PollShard());
+                        pollShards.get(shardCount++).reset(
+                            users,
+                            from,
+                            Math.min(users.length, from + SHARD_SIZE),
+                            summarize);
+                    }
+                    List<PollShard> shards
+                        = pollShards.subList(0, shardCount);
+                    for(Future<Void> shard : pollPool.invokeAll(shards))
+                    {
+                        shard.get();
                     }
 
-                    for(FakeUserStats stats : fakeUserStatsList)
+                    if(summarize)
                     {
-                        if(allStatsLogging)
+                        logger.info("Merging the summary stats of the "
+                            + shards.size() + " shards");
+                        for(PollShard shard : shards)
                         {
-                            allBldr.append(delim + stats.getStatsJSON(2) + '\n');
-                            delim = ",";
+                            audioSummaryStats.add(shard.audio);
+                            videoSummaryStats.add(shard.video);
                         }
+                    }
+                    if(metricsEnabled)
+                    {
+                        latestAudioSummary = audioSummaryStats.getSummaries();
+                        latestVideoSummary = videoSummaryStats.getSummaries();
+                    }
+                    polledUserCount = users.length;
+                    pollCount++;
 
-                        if(summaryStatsLogging || overallStatsLogging)
+                    if(binaryStatsLogging)
+                    {
+                        if(recorder == null)
                         {
-                            logger.info("Adding stats values from the"
-                                + " MediaStreamStats to their"
-                                + " HammerSummaryStats objects");
-                            audioSummaryStats.add(
-                                stats.getMediaStreamStats(MediaType.AUDIO));
-                            videoSummaryStats.add(
-                                stats.getMediaStreamStats(MediaType.VIDEO));
+                            recorder
+                                = new ColumnarStatsRecorder(binaryStatsFile);
                         }
+                        logger.info("Recording all stats to the binary file");
+                        recorder.record(System.currentTimeMillis(), users);
                     }
 
                     if(allStatsLogging)
                     {
                         logger.info("Writing all stats to file");
-                        writer.print("  \"users\":\n");
-                        writer.print("  [\n");
-                        writer.print(allBldr.toString());
-                        writer.print("  ]");
-                        if(summaryStatsLogging) writer.print(',');
-                        writer.print('\n');
+                        writer.write("  \"users\":\n");
+                        writer.write("  [\n");
+                        for(FakeUserStats stats : users)
+                        {
+                            writer.write(delim);
+                            stats.writeStatsJSON(writer, 2);
+                            writer.write('\n');
+                            delim = ",";
+                        }
+                        writer.write("  ]");
+                        if(summaryStatsLogging) writer.write(',');
+                        writer.write('\n');
                     }
                     if(summaryStatsLogging)
                     {
                         logger.info("Writing summary stats to file");
-                        writer.print("  \"summary\":\n");
-                        writer.print("  {\n");
-
-
-                        writer.print("    \"max\":\n");
-                        writer.print("    {\n");
-                        writer.print("        \"audio\":");
-                        writer.print(audioSummaryStats.getMaxJSON() + ",\n");
-                        writer.print("        \"video\":");
-                        writer.print(videoSummaryStats.getMaxJSON() + '\n');
-                        writer.print("    },\n");
-
-                        writer.print("    \"mean\":\n");
-                        writer.print("    {\n");
-                        writer.print("       \"audio\":");
-                        writer.print(audioSummaryStats.getMeanJSON() + ",\n");
-                        writer.print("        \"video\":");
-                        writer.print(videoSummaryStats.getMeanJSON() + '\n');
-                        writer.print("    },\n");
-
-                        writer.print("    \"min\":\n");
-                        writer.print("    {\n");
-                        writer.print("        \"audio\":");
-                        writer.print(audioSummaryStats.getMinJSON() + ",\n");
-                        writer.print("        \"video\":");
-                        writer.print(videoSummaryStats.getMinJSON() + '\n');
-                        writer.print("    },\n");
-
-                        writer.print("    \"standard_deviation\":\n");
-                        writer.print("    {\n");
-                        writer.print("        \"audio\":");
-                        writer.print(audioSummaryStats.getStandardDeviationJSON() + ",\n");
-                        writer.print("        \"video\":");
-                        writer.print(videoSummaryStats.getStandardDeviationJSON() + '\n');
-                        writer.print("    }\n");
-
-
-                        writer.print("  }\n");
+                        writer.write("  \"summary\":\n");
+                        writer.write("  {\n");
+
+
+                        writer.write("    \"max\":\n");
+                        writer.write("    {\n");
+                        writer.write("        \"audio\":");
+                        writer.write(audioSummaryStats.getMaxJSON() + ",\n");
+                        writer.write("        \"video\":");
+                        writer.write(videoSummaryStats.getMaxJSON() + '\n');
+                        writer.write("    },\n");
+
+                        writer.write("    \"mean\":\n");
+                        writer.write("    {\n");
+                        writer.write("       \"audio\":");
+                        writer.write(audioSummaryStats.getMeanJSON() + ",\n");
+                        writer.write("        \"video\":");
+                        writer.write(videoSummaryStats.getMeanJSON() + '\n');
+                        writer.write("    },\n");
+
+                        writer.write("    \"min\":\n");
+                        writer.write("    {\n");
+                        writer.write("        \"audio\":");
+                        writer.write(audioSummaryStats.getMinJSON() + ",\n");
+                        writer.write("        \"video\":");
+                        writer.write(videoSummaryStats.getMinJSON() + '\n');
+                        writer.write("    },\n");
+
+                        writer.write("    \"standard_deviation\":\n");
+                        writer.write("    {\n");
+                        writer.write("        \"audio\":");
+                        writer.write(audioSummaryStats.getStandardDeviationJSON() + ",\n");
+                        writer.write("        \"video\":");
+                        writer.write(videoSummaryStats.getStandardDeviationJSON() + '\n');
+                        writer.write("    },\n");
+
+                        writer.write("    \"percentiles\":\n");
+                        writer.write("    {\n");
+                        writer.write("        \"audio\":");
+                        writer.write(audioSummaryStats.getPercentilesJSON() + ",\n");
+                        writer.write("        \"video\":");
+                        writer.write(videoSummaryStats.getPercentilesJSON() + '\n');
+                        writer.write("    }\n");
+
+
+                        writer.write("  }\n");
                     }
                     if(allStatsLogging || summaryStatsLogging)
                     {
-                        writer.append("}");
+                        writer.write("}");
                         writer.flush();
                     }
                 }
+            }
+            catch (IOException e)
+            {
+                logger.fatal("HammerStats stopping due to an I/O error", e);
+                stop();
+            }
+            catch (InterruptedException | ExecutionException e)
+            {
+                logger.fatal("HammerStats stopping due to a polling error", e);
+                stop();
+            }
 
-                if(summaryStatsLogging || overallStatsLogging)
-                {
-                    logger.info("Clearing the HammerSummaryStats by creating new"
-                        + " SummaryStats objects for each watched stats");
-                    audioSummaryStats.clear();
-                    videoSummaryStats.clear();
-                }
+            if(summarize)
+            {
+                logger.info("Clearing the HammerSummaryStats by creating new"
+                    + " SummaryStats objects for each watched stats");
+                audioSummaryStats.clear();
+                videoSummaryStats.clear();
             }
+            logger.info(String.format("Stats of %d users polled in %dms",
+                users.length,
+                (System.nanoTime() - pollStart) / 1000000));
 
             try
             {
@@ -330,11 +448,31 @@ public class HammerStats implements Runnable
             }
         }
         logger.info("Exiting the main loop");
+        pollPool.shutdown();
 
         if(writer != null)
         {
-            writer.print("]\n");
-            writer.close();
+            try
+            {
+                writer.write("]\n");
+                writer.close();
+            }
+            catch (IOException e)
+            {
+                logger.fatal("Error while closing the stats file", e);
+            }
+        }
+
+        if(recorder != null)
+        {
+            try
+            {
+                recorder.close();
+            }
+            catch (IOException e)
+            {
+                logger.fatal("Error while closing the binary stats file", e);
+            }
         }
 
         if(overallStatsLogging) writeOverallStats();
@@ -438,7 +576,22 @@ public class HammerStats implements Runnable
         bldr.append(audioSummaryStats.getAggregateSumJSON() + ",\n");
         bldr.append("      \"video\":");
         bldr.append(videoSummaryStats.getAggregateSumJSON() + '\n');
-        bldr.append("  }\n");
+        bldr.append("  },\n");
+
+        bldr.append("  \"percentiles\":\n");
+        bldr.append("  {\n");
+        bldr.append("      \"audio\":");
+        bldr.append(audioSummaryStats.getAggregatePercentilesJSON() + ",\n");
+        bldr.append("      \"video\":");
+        bldr.append(videoSummaryStats.getAggregatePercentilesJSON() + '\n');
+        bldr.append("  }");
+        if (startupStats != null)
+        {
+            bldr.append(",\n");
+            bldr.append("  \"startup\":");
+            bldr.append(startupStats.getStatsJSON());
+        }
+        bldr.append('\n');
 
 
         bldr.append("}\n");
@@ -485,6 +638,79 @@ public class HammerStats implements Runnable
         }
     }
 
+    /**
+     * Set the <tt>StartupStats</tt> of the users, whose durations and
+     * percentiles are written with the overall stats.
+     * @param startupStats the <tt>StartupStats</tt> of the users.
+     */
+    public void setStartupStats(StartupStats startupStats)
+    {
+        this.startupStats = startupStats;
+    }
+
+    /**
+     * Enable or disable the publication of the summary of the streams' stats
+     * of each polling for the <tt>MetricsServer</tt>.
+     * @param metricsEnabled the boolean that enable of disable the
+     * publication.
+     */
+    public void setMetricsEnabled(boolean metricsEnabled)
+    {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    /**
+     * Get the summary of each stat of the streams of <tt>type</tt> at the
+     * latest polling, without locking.
+     * @param type the <tt>MediaType</tt> of the streams.
+     * @return the summary of each stat (indexed by the ordinal of its
+     * <tt>StatsField</tt>), or null if no polling has been done yet.
+     */
+    public StatisticalSummary[] getLatestSummary(MediaType type)
+    {
+        return type == MediaType.AUDIO
+            ? latestAudioSummary : latestVideoSummary;
+    }
+
+    /**
+     * Get the number of pollings done by this <tt>HammerStats</tt>.
+     * @return the number of pollings done.
+     */
+    public long getPollCount()
+    {
+        return pollCount;
+    }
+
+    /**
+     * Get the number of users whose stats were updated by the latest polling.
+     * @return the number of users whose stats were updated by the latest
+     * polling.
+     */
+    public int getPolledUserCount()
+    {
+        return polledUserCount;
+    }
+
+    /**
+     * Enable or disable the recording of all the stats collected by this
+     * <tt>HammerStats</tt> in the binary columnar file.
+     * @param binaryStats the boolean that enable of disable the recording.
+     */
+    public void setBinaryStatsLogging(boolean binaryStats)
+    {
+        this.binaryStatsLogging = binaryStats;
+        if(binaryStats)
+        {
+            File saveDir = new File(this.statsDirectoryPath);
+            if (!saveDir.exists())
+            {
+                logger.info("Creating stats directory at : "
+                                    + this.statsDirectoryPath);
+                saveDir.mkdirs();
+            }
+        }
+    }
+
     /**
      * Enable or disable the logging of the summary stats computed with all
      * the stats collected by this <tt>HammerStats</tt>.
@@ -526,188 +752,230 @@ public class HammerStats implements Runnable
     }
 
 
+    /**
+     * A shard of the polling : it updates the stats of a range of the users
+     * and, if needed, computes their summary.
+     *
+     * The shards are reused from one poll to the next (with <tt>reset</tt>),
+     * so that their summaries and histograms are not allocated again at
+     * every poll.
+     */
+    private static class PollShard
+        implements Callable<Void>
+    {
+        /**
+         * The users being polled.
+         */
+        private FakeUserStats[] users;
+
+        /**
+         * The range (<tt>from</tt> inclusive, <tt>to</tt> exclusive) of the
+         * users polled by this shard.
+         */
+        private int from;
+        private int to;
+
+        /**
+         * Whether the summary of the users of this shard is computed.
+         */
+        private boolean summarize;
+
+        /**
+         * The summary of the audio and video streams of the users of this
+         * shard (null until a summary is needed).
+         */
+        PartialSummaryStats audio;
+        PartialSummaryStats video;
+
+        /**
+         * Prepare this <tt>PollShard</tt> for a poll.
+         * @param users the users being polled.
+         * @param from the index of the first user polled by this shard.
+         * @param to the index after the last user polled by this shard.
+         * @param summarize whether the summary of the users is computed.
+         */
+        void reset(
+            FakeUserStats[] users,
+            int from,
+            int to,
+            boolean summarize)
+        {
+            this.users = users;
+            this.from = from;
+            this.to = to;
+            this.summarize = summarize;
+            if (summarize)
+            {
+                if (audio == null)
+                {
+                    audio = new PartialSummaryStats();
+                    video = new PartialSummaryStats();
+                }
+                else
+                {
+                    audio.reset();
+                    video.reset();
+                }
+            }
+        }
+
+        /**
+         * Update the stats of the users of this shard, and add them to its
+         * summary.
+         * @return null
+         */
+        @Override
+        public Void call()
+        {
+            for (int i = from; i < to; i++)
+            {
+                FakeUserStats stats = users[i];
+                stats.updateStats();
+                if (summarize)
+                {
+                    audio.add(stats.getMediaStreamStats(MediaType.AUDIO));
+                    video.add(stats.getMediaStreamStats(MediaType.VIDEO));
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The statistics written by the <tt>HammerSummaryStats</tt>.
+     */
+    private enum Statistic
+    {
+        MAX, MEAN, MIN, STANDARD_DEVIATION, SUM, VARIANCE;
+
+        /**
+         * Get this statistic from <tt>summary</tt>.
+         * @param summary the summary of a stat.
+         * @return the value of this statistic in <tt>summary</tt>.
+         */
+        double get(StatisticalSummary summary)
+        {
+            switch (this)
+            {
+            case MAX:
+                return summary.getMax();
+            case MEAN:
+                return summary.getMean();
+            case MIN:
+                return summary.getMin();
+            case STANDARD_DEVIATION:
+                return summary.getStandardDeviation();
+            case SUM:
+                return summary.getSum();
+            default:
+                return summary.getVariance();
+            }
+        }
+    }
+
     /**
      * A private class used to keep track and compute the summary stats and the
      * aggregate summary stats from all the <tt>MediaStreamStats</tt>'s possible
      * stats.
      *
+     * The stats are not added one by one, but as the
+     * <tt>PartialSummaryStats</tt> computed by each shard of the polling,
+     * merged with add().
+     *
      * @author Thomas Kuntz
      *
      */
-    private class HammerSummaryStats
+    private static class HammerSummaryStats
     {
-        /*
-         * All the AggregateSummaryStatistics will be used to create new
-         * SummaryStatistics (for the option "-summarystats") that will
-         * be use to compute summary stats like max/min/std dev... ,
-         * and also be used to compute overall stats.
-         *
-         * At each iteration of the loop in run(), all stats are added to their
-         * corresponding SummaryStatistics, that will automatically add them
-         * to their related AggregateSummaryStatistics.
-         * After that, the SummaryStatistics are used to get the summary stats
-         * (in JSON), and are replace by newly created SummaryStatistics by
-         * the AggregateSummaryStatistics (for the next iteration).
+        /**
+         * The summary of each stat (indexed by the ordinal of its
+         * <tt>StatsField</tt>) for all the stats added with add() since the
+         * last call to clear().
+         */
+        private final StatisticalSummary[] interval
+            = new StatisticalSummary[StatsField.values().length];
+
+        /**
+         * The summary of each stat (indexed by the ordinal of its
+         * <tt>StatsField</tt>) for all the stats added with add() before the
+         * last call to clear() (for the option "-overallstats").
+         */
+        private final StatisticalSummary[] aggregate
+            = new StatisticalSummary[StatsField.values().length];
+
+        /**
+         * The distributions of the stats whose tail matters (RTT, jitter,
+         * loss), for the current interval and for the whole run.
          */
-        AggregateSummaryStatistics aggregateDownloadJitterMs
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateDownloadPercentLoss
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateDownloadRateKiloBitPerSec
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateJitterBufferDelayMs
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateJitterBufferDelayPackets
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateNbDiscarded
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateNbDiscardedFull
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateNbDiscardedLate
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateNbDiscardedReset
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateNbDiscardedShrink
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateNbFec
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateNbPackets
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateNbPacketsLost
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateNbReceivedBytes
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateNbSentBytes
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregatePacketQueueCountPackets
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregatePacketQueueSize
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregatePercentDiscarded
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateRttMs
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateUploadJitterMs
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateUploadPercentLoss
-                = new AggregateSummaryStatistics();
-        AggregateSummaryStatistics aggregateUploadRateKiloBitPerSec
-                = new AggregateSummaryStatistics();
-
-        SummaryStatistics downloadJitterMs;
-        SummaryStatistics downloadPercentLoss;
-        SummaryStatistics downloadRateKiloBitPerSec;
-        SummaryStatistics jitterBufferDelayMs;
-        SummaryStatistics jitterBufferDelayPackets;
-        SummaryStatistics nbDiscarded;
-        SummaryStatistics nbDiscardedFull;
-        SummaryStatistics nbDiscardedLate;
-        SummaryStatistics nbDiscardedReset;
-        SummaryStatistics nbDiscardedShrink;
-        SummaryStatistics nbFec;
-        SummaryStatistics nbPackets;
-        SummaryStatistics nbPacketsLost;
-        SummaryStatistics nbReceivedBytes;
-        SummaryStatistics nbSentBytes;
-        SummaryStatistics packetQueueCountPackets;
-        SummaryStatistics packetQueueSize;
-        SummaryStatistics percentDiscarded;
-        SummaryStatistics rttMs;
-        SummaryStatistics uploadJitterMs;
-        SummaryStatistics uploadPercentLoss;
-        SummaryStatistics uploadRateKiloBitPerSec;
+        private final PercentileStats percentiles = new PercentileStats();
 
         /**
          * Create a new HammerSummaryStats
          */
         public HammerSummaryStats()
         {
-            clear();
+            Arrays.fill(interval, PartialSummaryStats.EMPTY);
+            Arrays.fill(aggregate, PartialSummaryStats.EMPTY);
         }
 
         /**
-         * Add the stats contained by <tt>stats<tt> to their corresponding
-         * <tt>SummaryStats</tt> objects.
-         * @param stats the stats of a stream that will be added.
+         * Add the stats summarized by <tt>partial<tt> to the stats of the
+         * current interval.
+         * @param partial the summary of the stats of a shard of the users.
          */
-        public void add(MediaStreamStats stats)
+        public void add(PartialSummaryStats partial)
         {
-            downloadJitterMs.addValue(stats.getDownloadJitterMs());
-            downloadPercentLoss.addValue(stats.getDownloadPercentLoss());
-            downloadRateKiloBitPerSec.addValue(stats.getDownloadRateKiloBitPerSec());
-            jitterBufferDelayMs.addValue(stats.getJitterBufferDelayMs());
-            jitterBufferDelayPackets.addValue(stats.getJitterBufferDelayPackets());
-            nbDiscarded.addValue(stats.getNbDiscarded());
-            nbDiscardedFull.addValue(stats.getNbDiscardedFull());
-            nbDiscardedLate.addValue(stats.getNbDiscardedLate());
-            nbDiscardedReset.addValue(stats.getNbDiscardedReset());
-            nbDiscardedShrink.addValue(stats.getNbDiscardedShrink());
-            nbFec.addValue(stats.getNbFec());
-            nbPackets.addValue(stats.getNbPackets());
-            nbPacketsLost.addValue(stats.getNbPacketsLost());
-            nbReceivedBytes.addValue(stats.getNbReceivedBytes());
-            nbSentBytes.addValue(stats.getNbSentBytes());
-            packetQueueCountPackets.addValue(stats.getPacketQueueCountPackets());
-            packetQueueSize.addValue(stats.getPacketQueueSize());
-            percentDiscarded.addValue(stats.getPercentDiscarded());
-            rttMs.addValue(stats.getRttMs());
-            uploadJitterMs.addValue(stats.getUploadJitterMs());
-            uploadPercentLoss.addValue(stats.getUploadPercentLoss());
-            uploadRateKiloBitPerSec.addValue(stats.getUploadRateKiloBitPerSec());
+            for (StatsField field : StatsField.values())
+            {
+                int i = field.ordinal();
+                interval[i] = PartialSummaryStats.merge(
+                    interval[i], partial.getSummary(field));
+            }
+            percentiles.addInterval(partial.getPercentiles());
+        }
 
+        /**
+         * Get a copy of the summary of each stat for all the stats added with
+         * add() since the last call to clear().
+         * @return the summary of each stat (indexed by the ordinal of its
+         * <tt>StatsField</tt>).
+         */
+        public StatisticalSummary[] getSummaries()
+        {
+            return interval.clone();
         }
 
         /**
-         * Create new <tt>SummaryStatistics</tt> from the
-         * <tt>AggregateSummaryStatistics</tt> for all the stream's stats that
-         * are watched.
+         * Add the stats of the current interval to the aggregate stats, and
+         * start a new interval.
          */
         public void clear()
         {
-            downloadJitterMs =
-                aggregateDownloadJitterMs.createContributingStatistics();
-            downloadPercentLoss =
-                aggregateDownloadPercentLoss.createContributingStatistics();
-            downloadRateKiloBitPerSec =
-                aggregateDownloadRateKiloBitPerSec.createContributingStatistics();
-            jitterBufferDelayMs =
-                aggregateJitterBufferDelayMs.createContributingStatistics();
-            jitterBufferDelayPackets =
-                aggregateJitterBufferDelayPackets.createContributingStatistics();
-            nbDiscarded =
-                aggregateNbDiscarded.createContributingStatistics();
-            nbDiscardedFull =
-                aggregateNbDiscardedFull.createContributingStatistics();
-            nbDiscardedLate =
-                aggregateNbDiscardedLate.createContributingStatistics();
-            nbDiscardedReset =
-                aggregateNbDiscardedReset.createContributingStatistics();
-            nbDiscardedShrink =
-                aggregateNbDiscardedShrink.createContributingStatistics();
-            nbFec =
-                aggregateNbFec.createContributingStatistics();
-            nbPackets =
-                aggregateNbPackets.createContributingStatistics();
-            nbPacketsLost =
-                aggregateNbPacketsLost.createContributingStatistics();
-            nbReceivedBytes =
-                aggregateNbReceivedBytes.createContributingStatistics();
-            nbSentBytes =
-                aggregateNbSentBytes.createContributingStatistics();
-            packetQueueCountPackets =
-                aggregatePacketQueueCountPackets.createContributingStatistics();
-            packetQueueSize =
-                aggregatePacketQueueSize.createContributingStatistics();
-            percentDiscarded =
-                aggregatePercentDiscarded.createContributingStatistics();
-            rttMs =
-                aggregateRttMs.createContributingStatistics();
-            uploadJitterMs =
-                aggregateUploadJitterMs.createContributingStatistics();
-            uploadPercentLoss =
-                aggregateUploadPercentLoss.createContributingStatistics();
-            uploadRateKiloBitPerSec =
-                aggregateUploadRateKiloBitPerSec.createContributingStatistics();
+            for (int i = 0; i < interval.length; i++)
+            {
+                aggregate[i]
+                    = PartialSummaryStats.merge(aggregate[i], interval[i]);
+                interval[i] = PartialSummaryStats.EMPTY;
+            }
+            percentiles.nextInterval();
+        }
+
+        /**
+         * Format a statistic of each stat of <tt>summaries</tt> in JSON.
+         * @param summaries the summary of each stat.
+         * @param statistic the <tt>Statistic</tt> to format.
+         * @return the statistic of all the stats in JSON.
+         */
+        private static String getJSON(
+            StatisticalSummary[] summaries,
+            Statistic statistic)
+        {
+            Object[] values = new Object[summaries.length + 1];
+            values[0] = -1; //ssrc not needed here
+            for (int i = 0; i < summaries.length; i++)
+                values[i + 1] = statistic.get(summaries[i]);
+            return String.format(
+                FakeUserStats.jsonMediaStreamStatsTemplate, values);
         }
 
         /**
@@ -717,31 +985,7 @@ public class HammerStats implements Runnable
          */
         public String getMaxJSON()
         {
-            String str = String.format(FakeUserStats.jsonMediaStreamStatsTemplate,
-                -1, //ssrc not needed here
-                downloadJitterMs.getMax(),
-                downloadPercentLoss.getMax(),
-                downloadRateKiloBitPerSec.getMax(),
-                jitterBufferDelayMs.getMax(),
-                jitterBufferDelayPackets.getMax(),
-                nbDiscarded.getMax(),
-                nbDiscardedFull.getMax(),
-                nbDiscardedLate.getMax(),
-                nbDiscardedReset.getMax(),
-                nbDiscardedShrink.getMax(),
-                nbFec.getMax(),
-                nbPackets.getMax(),
-                nbPacketsLost.getMax(),
-                nbReceivedBytes.getMax(),
-                nbSentBytes.getMax(),
-                packetQueueCountPackets.getMax(),
-                packetQueueSize.getMax(),
-                percentDiscarded.getMax(),
-                rttMs.getMax(),
-                uploadJitterMs.getMax(),
-                uploadPercentLoss.getMax(),
-                uploadRateKiloBitPerSec.getMax());
-            return str;
+            return getJSON(interval, Statistic.MAX);
         }
 
         /**
@@ -751,31 +995,7 @@ public class HammerStats implements Runnable
          */
         public String getMeanJSON()
         {
-            String str = String.format(FakeUserStats.jsonMediaStreamStatsTemplate,
-                -1, //ssrc not needed here
-                downloadJitterMs.getMean(),
-                downloadPercentLoss.getMean(),
-                downloadRateKiloBitPerSec.getMean(),
-                jitterBufferDelayMs.getMean(),
-                jitterBufferDelayPackets.getMean(),
-                nbDiscarded.getMean(),
-                nbDiscardedFull.getMean(),
-                nbDiscardedLate.getMean(),
-                nbDiscardedReset.getMean(),
-                nbDiscardedShrink.getMean(),
-                nbFec.getMean(),
-                nbPackets.getMean(),
-                nbPacketsLost.getMean(),
-                nbReceivedBytes.getMean(),
-                nbSentBytes.getMean(),
-                packetQueueCountPackets.getMean(),
-                packetQueueSize.getMean(),
-                percentDiscarded.getMean(),
-                rttMs.getMean(),
-                uploadJitterMs.getMean(),
-                uploadPercentLoss.getMean(),
-                uploadRateKiloBitPerSec.getMean());
-            return str;
+            return getJSON(interval, Statistic.MEAN);
         }
 
         /**
@@ -785,31 +1005,7 @@ public class HammerStats implements Runnable
          */
         public String getMinJSON()
         {
-            String str = String.format(FakeUserStats.jsonMediaStreamStatsTemplate,
-                -1, //ssrc not needed here
-                downloadJitterMs.getMin(),
-                downloadPercentLoss.getMin(),
-                downloadRateKiloBitPerSec.getMin(),
-                jitterBufferDelayMs.getMin(),
-                jitterBufferDelayPackets.getMin(),
-                nbDiscarded.getMin(),
-                nbDiscardedFull.getMin(),
-                nbDiscardedLate.getMin(),
-                nbDiscardedReset.getMin(),
-                nbDiscardedShrink.getMin(),
-                nbFec.getMin(),
-                nbPackets.getMin(),
-                nbPacketsLost.getMin(),
-                nbReceivedBytes.getMin(),
-                nbSentBytes.getMin(),
-                packetQueueCountPackets.getMin(),
-                packetQueueSize.getMin(),
-                percentDiscarded.getMin(),
-                rttMs.getMin(),
-                uploadJitterMs.getMin(),
-                uploadPercentLoss.getMin(),
-                uploadRateKiloBitPerSec.getMin());
-            return str;
+            return getJSON(interval, Statistic.MIN);
         }
 
         /**
@@ -820,31 +1016,7 @@ public class HammerStats implements Runnable
          */
         public String getStandardDeviationJSON()
         {
-            String str = String.format(FakeUserStats.jsonMediaStreamStatsTemplate,
-                -1, //ssrc not needed here
-                downloadJitterMs.getStandardDeviation(),
-                downloadPercentLoss.getStandardDeviation(),
-                downloadRateKiloBitPerSec.getStandardDeviation(),
-                jitterBufferDelayMs.getStandardDeviation(),
-                jitterBufferDelayPackets.getStandardDeviation(),
-                nbDiscarded.getStandardDeviation(),
-                nbDiscardedFull.getStandardDeviation(),
-                nbDiscardedLate.getStandardDeviation(),
-                nbDiscardedReset.getStandardDeviation(),
-                nbDiscardedShrink.getStandardDeviation(),
-                nbFec.getStandardDeviation(),
-                nbPackets.getStandardDeviation(),
-                nbPacketsLost.getStandardDeviation(),
-                nbReceivedBytes.getStandardDeviation(),
-                nbSentBytes.getStandardDeviation(),
-                packetQueueCountPackets.getStandardDeviation(),
-                packetQueueSize.getStandardDeviation(),
-                percentDiscarded.getStandardDeviation(),
-                rttMs.getStandardDeviation(),
-                uploadJitterMs.getStandardDeviation(),
-                uploadPercentLoss.getStandardDeviation(),
-                uploadRateKiloBitPerSec.getStandardDeviation());
-            return str;
+            return getJSON(interval, Statistic.STANDARD_DEVIATION);
         }
 
         /**
@@ -854,31 +1026,7 @@ public class HammerStats implements Runnable
          */
         public String getSumJSON()
         {
-            String str = String.format(FakeUserStats.jsonMediaStreamStatsTemplate,
-                -1, //ssrc not needed here
-                downloadJitterMs.getSum(),
-                downloadPercentLoss.getSum(),
-                downloadRateKiloBitPerSec.getSum(),
-                jitterBufferDelayMs.getSum(),
-                jitterBufferDelayPackets.getSum(),
-                nbDiscarded.getSum(),
-                nbDiscardedFull.getSum(),
-                nbDiscardedLate.getSum(),
-                nbDiscardedReset.getSum(),
-                nbDiscardedShrink.getSum(),
-                nbFec.getSum(),
-                nbPackets.getSum(),
-                nbPacketsLost.getSum(),
-                nbReceivedBytes.getSum(),
-                nbSentBytes.getSum(),
-                packetQueueCountPackets.getSum(),
-                packetQueueSize.getSum(),
-                percentDiscarded.getSum(),
-                rttMs.getSum(),
-                uploadJitterMs.getSum(),
-                uploadPercentLoss.getSum(),
-                uploadRateKiloBitPerSec.getSum());
-            return str;
+            return getJSON(interval, Statistic.SUM);
         }
 
         /**
@@ -888,236 +1036,88 @@ public class HammerStats implements Runnable
          */
         public String getVarianceJSON()
         {
-            String str = String.format(FakeUserStats.jsonMediaStreamStatsTemplate,
-                -1, //ssrc not needed here
-                downloadJitterMs.getVariance(),
-                downloadPercentLoss.getVariance(),
-                downloadRateKiloBitPerSec.getVariance(),
-                jitterBufferDelayMs.getVariance(),
-                jitterBufferDelayPackets.getVariance(),
-                nbDiscarded.getVariance(),
-                nbDiscardedFull.getVariance(),
-                nbDiscardedLate.getVariance(),
-                nbDiscardedReset.getVariance(),
-                nbDiscardedShrink.getVariance(),
-                nbFec.getVariance(),
-                nbPackets.getVariance(),
-                nbPacketsLost.getVariance(),
-                nbReceivedBytes.getVariance(),
-                nbSentBytes.getVariance(),
-                packetQueueCountPackets.getVariance(),
-                packetQueueSize.getVariance(),
-                percentDiscarded.getVariance(),
-                rttMs.getVariance(),
-                uploadJitterMs.getVariance(),
-                uploadPercentLoss.getVariance(),
-                uploadRateKiloBitPerSec.getVariance());
-            return str;
+            return getJSON(interval, Statistic.VARIANCE);
+        }
+
+        /**
+         * Get the p50/p95/p99/p99.9 of the RTT, jitter and loss, for all the
+         * stats added with add() since the last call to clear() in JSON.
+         * @return The percentiles of the stats since last clear() in JSON.
+         */
+        public String getPercentilesJSON()
+        {
+            return percentiles.getIntervalJSON();
         }
 
         /**
          * Get the Max of all the stats that are watched, for all the stats
-         * added with add() since the creation of this <tt>HammerSummaryStats</tt>
+         * added with add() before the last call to clear()
          * @return The Max of all the stats in JSON.
          */
         public String getAggregateMaxJSON()
         {
-            String str = String.format(FakeUserStats.jsonMediaStreamStatsTemplate,
-                -1, //ssrc not needed here
-                aggregateDownloadJitterMs.getMax(),
-                aggregateDownloadPercentLoss.getMax(),
-                aggregateDownloadRateKiloBitPerSec.getMax(),
-                aggregateJitterBufferDelayMs.getMax(),
-                aggregateJitterBufferDelayPackets.getMax(),
-                aggregateNbDiscarded.getMax(),
-                aggregateNbDiscardedFull.getMax(),
-                aggregateNbDiscardedLate.getMax(),
-                aggregateNbDiscardedReset.getMax(),
-                aggregateNbDiscardedShrink.getMax(),
-                aggregateNbFec.getMax(),
-                aggregateNbPackets.getMax(),
-                aggregateNbPacketsLost.getMax(),
-                aggregateNbReceivedBytes.getMax(),
-                aggregateNbSentBytes.getMax(),
-                aggregatePacketQueueCountPackets.getMax(),
-                aggregatePacketQueueSize.getMax(),
-                aggregatePercentDiscarded.getMax(),
-                aggregateRttMs.getMax(),
-                aggregateUploadJitterMs.getMax(),
-                aggregateUploadPercentLoss.getMax(),
-                aggregateUploadRateKiloBitPerSec.getMax());
-            return str;
+            return getJSON(aggregate, Statistic.MAX);
         }
 
         /**
          * Get the Mean of all the stats that are watched, for all the stats
-         * added with add() since the creation of this <tt>HammerSummaryStats</tt>
+         * added with add() before the last call to clear()
          * @return The Mean of all the stats in JSON.
          */
         public String getAggregateMeanJSON()
         {
-            String str = String.format(FakeUserStats.jsonMediaStreamStatsTemplate,
-                -1, //ssrc not needed here
-                aggregateDownloadJitterMs.getMean(),
-                aggregateDownloadPercentLoss.getMean(),
-                aggregateDownloadRateKiloBitPerSec.getMean(),
-                aggregateJitterBufferDelayMs.getMean(),
-                aggregateJitterBufferDelayPackets.getMean(),
-                aggregateNbDiscarded.getMean(),
-                aggregateNbDiscardedFull.getMean(),
-                aggregateNbDiscardedLate.getMean(),
-                aggregateNbDiscardedReset.getMean(),
-                aggregateNbDiscardedShrink.getMean(),
-                aggregateNbFec.getMean(),
-                aggregateNbPackets.getMean(),
-                aggregateNbPacketsLost.getMean(),
-                aggregateNbReceivedBytes.getMean(),
-                aggregateNbSentBytes.getMean(),
-                aggregatePacketQueueCountPackets.getMean(),
-                aggregatePacketQueueSize.getMean(),
-                aggregatePercentDiscarded.getMean(),
-                aggregateRttMs.getMean(),
-                aggregateUploadJitterMs.getMean(),
-                aggregateUploadPercentLoss.getMean(),
-                aggregateUploadRateKiloBitPerSec.getMean());
-            return str;
+            return getJSON(aggregate, Statistic.MEAN);
         }
 
         /**
          * Get the Min of all the stats that are watched, for all the stats
-         * added with add() since the creation of this <tt>HammerSummaryStats</tt>
+         * added with add() before the last call to clear()
          * @return The Min of all the stats in JSON.
          */
         public String getAggregateMinJSON()
         {
-            String str = String.format(FakeUserStats.jsonMediaStreamStatsTemplate,
-                -1, //ssrc not needed here
-                aggregateDownloadJitterMs.getMin(),
-                aggregateDownloadPercentLoss.getMin(),
-                aggregateDownloadRateKiloBitPerSec.getMin(),
-                aggregateJitterBufferDelayMs.getMin(),
-                aggregateJitterBufferDelayPackets.getMin(),
-                aggregateNbDiscarded.getMin(),
-                aggregateNbDiscardedFull.getMin(),
-                aggregateNbDiscardedLate.getMin(),
-                aggregateNbDiscardedReset.getMin(),
-                aggregateNbDiscardedShrink.getMin(),
-                aggregateNbFec.getMin(),
-                aggregateNbPackets.getMin(),
-                aggregateNbPacketsLost.getMin(),
-                aggregateNbReceivedBytes.getMin(),
-                aggregateNbSentBytes.getMin(),
-                aggregatePacketQueueCountPackets.getMin(),
-                aggregatePacketQueueSize.getMin(),
-                aggregatePercentDiscarded.getMin(),
-                aggregateRttMs.getMin(),
-                aggregateUploadJitterMs.getMin(),
-                aggregateUploadPercentLoss.getMin(),
-                aggregateUploadRateKiloBitPerSec.getMin());
-            return str;
+            return getJSON(aggregate, Statistic.MIN);
         }
 
         /**
          * Get the Standard Deviation of all the stats that are watched, for
-         * all the stats added with add() since the creation of this
-         *  <tt>HammerSummaryStats</tt>
-         * @return The Variance of all the stats in JSON.
+         * all the stats added with add() before the last call to clear()
+         * @return The Standard Deviation of all the stats in JSON.
          */
         public String getAggregateStandardDeviationJSON()
         {
-            String str = String.format(FakeUserStats.jsonMediaStreamStatsTemplate,
-                -1, //ssrc not needed here
-                aggregateDownloadJitterMs.getStandardDeviation(),
-                aggregateDownloadPercentLoss.getStandardDeviation(),
-                aggregateDownloadRateKiloBitPerSec.getStandardDeviation(),
-                aggregateJitterBufferDelayMs.getStandardDeviation(),
-                aggregateJitterBufferDelayPackets.getStandardDeviation(),
-                aggregateNbDiscarded.getStandardDeviation(),
-                aggregateNbDiscardedFull.getStandardDeviation(),
-                aggregateNbDiscardedLate.getStandardDeviation(),
-                aggregateNbDiscardedReset.getStandardDeviation(),
-                aggregateNbDiscardedShrink.getStandardDeviation(),
-                aggregateNbFec.getStandardDeviation(),
-                aggregateNbPackets.getStandardDeviation(),
-                aggregateNbPacketsLost.getStandardDeviation(),
-                aggregateNbReceivedBytes.getStandardDeviation(),
-                aggregateNbSentBytes.getStandardDeviation(),
-                aggregatePacketQueueCountPackets.getStandardDeviation(),
-                aggregatePacketQueueSize.getStandardDeviation(),
-                aggregatePercentDiscarded.getStandardDeviation(),
-                aggregateRttMs.getStandardDeviation(),
-                aggregateUploadJitterMs.getStandardDeviation(),
-                aggregateUploadPercentLoss.getStandardDeviation(),
-                aggregateUploadRateKiloBitPerSec.getStandardDeviation());
-            return str;
+            return getJSON(aggregate, Statistic.STANDARD_DEVIATION);
         }
 
         /**
          * Get the Sum of all the stats that are watched, for all the stats
-         * added with add() since the creation of this <tt>HammerSummaryStats</tt>
+         * added with add() before the last call to clear()
          * @return The Sum of all the stats in JSON.
          */
         public String getAggregateSumJSON()
         {
-            String str = String.format(FakeUserStats.jsonMediaStreamStatsTemplate,
-                -1, //ssrc not needed here
-                aggregateDownloadJitterMs.getSum(),
-                aggregateDownloadPercentLoss.getSum(),
-                aggregateDownloadRateKiloBitPerSec.getSum(),
-                aggregateJitterBufferDelayMs.getSum(),
-                aggregateJitterBufferDelayPackets.getSum(),
-                aggregateNbDiscarded.getSum(),
-                aggregateNbDiscardedFull.getSum(),
-                aggregateNbDiscardedLate.getSum(),
-                aggregateNbDiscardedReset.getSum(),
-                aggregateNbDiscardedShrink.getSum(),
-                aggregateNbFec.getSum(),
-                aggregateNbPackets.getSum(),
-                aggregateNbPacketsLost.getSum(),
-                aggregateNbReceivedBytes.getSum(),
-                aggregateNbSentBytes.getSum(),
-                aggregatePacketQueueCountPackets.getSum(),
-                aggregatePacketQueueSize.getSum(),
-                aggregatePercentDiscarded.getSum(),
-                aggregateRttMs.getSum(),
-                aggregateUploadJitterMs.getSum(),
-                aggregateUploadPercentLoss.getSum(),
-                aggregateUploadRateKiloBitPerSec.getSum());
-            return str;
+            return getJSON(aggregate, Statistic.SUM);
         }
 
         /**
          * Get the Variance of all the stats that are watched, for all the stats
-         * added with add() since the creation of this <tt>HammerSummaryStats</tt>
+         * added with add() before the last call to clear()
          * @return The Variance of all the stats JSON.
          */
         public String getAggregateVarianceJSON()
         {
-            String str = String.format(FakeUserStats.jsonMediaStreamStatsTemplate,
-                -1, //ssrc not needed here
-                aggregateDownloadJitterMs.getVariance(),
-                aggregateDownloadPercentLoss.getVariance(),
-                aggregateDownloadRateKiloBitPerSec.getVariance(),
-                aggregateJitterBufferDelayMs.getVariance(),
-                aggregateJitterBufferDelayPackets.getVariance(),
-                aggregateNbDiscarded.getVariance(),
-                aggregateNbDiscardedFull.getVariance(),
-                aggregateNbDiscardedLate.getVariance(),
-                aggregateNbDiscardedReset.getVariance(),
-                aggregateNbDiscardedShrink.getVariance(),
-                aggregateNbFec.getVariance(),
-                aggregateNbPackets.getVariance(),
-                aggregateNbPacketsLost.getVariance(),
-                aggregateNbReceivedBytes.getVariance(),
-                aggregateNbSentBytes.getVariance(),
-                aggregatePacketQueueCountPackets.getVariance(),
-                aggregatePacketQueueSize.getVariance(),
-                aggregatePercentDiscarded.getVariance(),
-                aggregateRttMs.getVariance(),
-                aggregateUploadJitterMs.getVariance(),
-                aggregateUploadPercentLoss.getVariance(),
-                aggregateUploadRateKiloBitPerSec.getVariance());
-            return str;
+            return getJSON(aggregate, Statistic.VARIANCE);
+        }
+
+        /**
+         * Get the p50/p95/p99/p99.9 of the RTT, jitter and loss, for all the
+         * stats added with add() before the last call to clear() in JSON.
+         * @return The percentiles of all the stats before the last clear()
+         * in JSON.
+         */
+        public String getAggregatePercentilesJSON()
+        {
+            return percentiles.getOverallJSON();
         }
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.stats;
+
+import java.io.*;
+
+/**
+ * A <tt>JsonStatsWriter</tt> writes the JSON stats directly to a
+ * <tt>Writer</tt> (usually buffered), without building them in memory first.
+ *
+ * The integers are written digit by digit from a reused buffer, so that
+ * writing the stats of a user does not allocate anything but the text of its
+ * decimal values.
+ */
+public class JsonStatsWriter
+    implements Closeable, Flushable
+{
+    /**
+     * The <tt>Writer</tt> to which the stats are written.
+     */
+    private final Writer out;
+
+    /**
+     * The buffer in which the digits of the integers are written (big enough
+     * for <tt>Long.MIN_VALUE</tt>).
+     */
+    private final char[] digits = new char[20];
+
+    /**
+     * The indentation prefix currently written at the start of each line.
+     */
+    private String indent = "";
+
+    /**
+     * Initializes a new <tt>JsonStatsWriter</tt> writing to <tt>out</tt>.
+     *
+     * @param out the <tt>Writer</tt> to which the stats are written.
+     */
+    public JsonStatsWriter(Writer out)
+    {
+        this.out = out;
+    }
+
+    /**
+     * Set the number of spaces written by {@link #newLine()} at the start of
+     * each line.
+     *
+     * @param spaceIndent the number of spaces written at the start of each
+     * line.
+     */
+    public void setIndent(int spaceIndent)
+    {
+        if (spaceIndent != indent.length())
+        {
+            indent
+                = new String(new char[spaceIndent]).replace('\0', ' ');
+        }
+    }
+
+    /**
+     * Write the current indentation.
+     *
+     * @return this <tt>JsonStatsWriter</tt>.
+     * @throws IOException if the <tt>Writer</tt> fails.
+     */
+    public JsonStatsWriter writeIndent()
+        throws IOException
+    {
+        out.write(indent);
+        return this;
+    }
+
+    /**
+     * Write a line break followed by the current indentation.
+     *
+     * @return this <tt>JsonStatsWriter</tt>.
+     * @throws IOException if the <tt>Writer</tt> fails.
+     */
+    public JsonStatsWriter newLine()
+        throws IOException
+    {
+        out.write('\n');
+        out.write(indent);
+        return this;
+    }
+
+    /**
+     * Write raw text (punctuation, keys...).
+     *
+     * @param s the text to write.
+     * @return this <tt>JsonStatsWriter</tt>.
+     * @throws IOException if the <tt>Writer</tt> fails.
+     */
+    public JsonStatsWriter write(String s)
+        throws IOException
+    {
+        out.write(s);
+        return this;
+    }
+
+    /**
+     * Write a single character.
+     *
+     * @param c the character to write.
+     * @return this <tt>JsonStatsWriter</tt>.
+     * @throws IOException if the <tt>Writer</tt> fails.
+     */
+    public JsonStatsWriter write(char c)
+        throws IOException
+    {
+        out.write(c);
+        return this;
+    }
+
+    /**
+     * Write an integer value.
+     *
+     * @param value the value to write.
+     * @return this <tt>JsonStatsWriter</tt>.
+     * @throws IOException if the <tt>Writer</tt> fails.
+     */
+    public JsonStatsWriter write(long value)
+        throws IOException
+    {
+        if (value == Long.MIN_VALUE)
+        {
+            out.write(Long.toString(value));
+            return this;
+        }
+
+        boolean negative = value < 0;
+        if (negative)
+            value = -value;
+
+        int pos = digits.length;
+        do
+        {
+            digits[--pos] = (char) ('0' + (value % 10));
+            value /= 10;
+        }
+        while (value != 0);
+
+        if (negative)
+            digits[--pos] = '-';
+
+        out.write(digits, pos, digits.length - pos);
+        return this;
+    }
+
+    /**
+     * Write a decimal value, as <tt>String.valueOf(double)</tt> does.
+     *
+     * @param value the value to write.
+     * @return this <tt>JsonStatsWriter</tt>.
+     * @throws IOException if the <tt>Writer</tt> fails.
+     */
+    public JsonStatsWriter write(double value)
+        throws IOException
+    {
+        out.write(Double.toString(value));
+        return this;
+    }
+
+    /**
+     * Write a stat of a <tt>MediaStreamStats</tt> as an integer or as a
+     * decimal, depending on its type.
+     *
+     * @param value the value of the stat.
+     * @param field the <tt>StatsField</tt> of the stat.
+     * @return this <tt>JsonStatsWriter</tt>.
+     * @throws IOException if the <tt>Writer</tt> fails.
+     */
+    public JsonStatsWriter write(double value, StatsField field)
+        throws IOException
+    {
+        return field.isIntegral() ? write((long) value) : write(value);
+    }
+
+    /**
+     * Flush the underlying <tt>Writer</tt>.
+     *
+     * @throws IOException if the <tt>Writer</tt> fails.
+     */
+    @Override
+    public void flush()
+        throws IOException
+    {
+        out.flush();
+    }
+
+    /**
+     * Close the underlying <tt>Writer</tt>.
+     *
+     * @throws IOException if the <tt>Writer</tt> fails.
+     */
+    @Override
+    public void close()
+        throws IOException
+    {
+        out.close();
+    }
+}
@@ -0,0 +1,579 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.stats;
+
+import com.sun.net.httpserver.*;
+import org.apache.commons.math3.stat.descriptive.*;
+import org.jitsi.hammer.utils.*;
+import org.jitsi.service.neomedia.*;
+import org.jitsi.util.Logger;
+
+import java.io.*;
+import java.lang.management.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+
+/**
+ * A <tt>MetricsServer</tt> exposes live metrics of the hammer on
+ * <tt>http://&lt;host&gt;:&lt;port&gt;/metrics</tt>, in the Prometheus text
+ * format, so that dashboards can watch a bridge while the hammer drives it.
+ *
+ * The metrics are only computed when they are scraped, from the counters of
+ * the <tt>StartupStats</tt> and the <tt>PortPool</tt> and from the summary
+ * published by the <tt>HammerStats</tt> at each polling, all of which are
+ * read without locking : a scrape never delays the users or the polling.
+ */
+public class MetricsServer
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>MetricsServer</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(MetricsServer.class);
+
+    /**
+     * The path on which the metrics are exposed.
+     */
+    public static final String PATH = "/metrics";
+
+    /**
+     * The content type of the Prometheus text format.
+     */
+    private static final String CONTENT_TYPE
+        = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * The media types of the streams whose stats are exposed.
+     */
+    private static final MediaType[] MEDIA_TYPES
+        = { MediaType.AUDIO, MediaType.VIDEO };
+
+    /**
+     * The summary of each stat of the streams before the first polling : no
+     * stream.
+     */
+    private static final StatisticalSummary[] EMPTY_SUMMARY
+        = new StatisticalSummary[StatsField.values().length];
+
+    static
+    {
+        Arrays.fill(EMPTY_SUMMARY, new SummaryStatistics().getSummary());
+    }
+
+    /**
+     * The port on which the metrics are exposed.
+     */
+    private final int port;
+
+    /**
+     * The number of fake users created by the hammer.
+     */
+    private final int userCount;
+
+    /**
+     * The <tt>StartupStats</tt> of the fake users.
+     */
+    private final StartupStats startupStats;
+
+    /**
+     * The <tt>HammerStats</tt> polling the stats of the streams (null if the
+     * stats are disabled).
+     */
+    private final HammerStats hammerStats;
+
+    /**
+     * The <tt>PortPool</tt> from which the ICE ports are reserved.
+     */
+    private final PortPool portPool;
+
+    /**
+     * The <tt>HttpServer</tt> serving the metrics (null when stopped).
+     */
+    private HttpServer server;
+
+    /**
+     * Initializes a new <tt>MetricsServer</tt>.
+     *
+     * @param port the port on which the metrics are exposed.
+     * @param userCount the number of fake users created by the hammer.
+     * @param startupStats the <tt>StartupStats</tt> of the fake users.
+     * @param hammerStats the <tt>HammerStats</tt> polling the stats of the
+     * streams, or null if the stats are disabled.
+     * @param portPool the <tt>PortPool</tt> from which the ICE ports are
+     * reserved.
+     */
+    public MetricsServer(
+        int port,
+        int userCount,
+        StartupStats startupStats,
+        HammerStats hammerStats,
+        PortPool portPool)
+    {
+        this.port = port;
+        this.userCount = userCount;
+        this.startupStats = startupStats;
+        this.hammerStats = hammerStats;
+        this.portPool = portPool;
+    }
+
+    /**
+     * Start serving the metrics.
+     *
+     * @throws IOException if the port can not be bound.
+     */
+    public synchronized void start()
+        throws IOException
+    {
+        if (server != null)
+            return;
+
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(PATH, new HttpHandler()
+        {
+            @Override
+            public void handle(HttpExchange exchange)
+                throws IOException
+            {
+                handleScrape(exchange);
+            }
+        });
+        server.start();
+        logger.info("Metrics exposed on http://0.0.0.0:" + port + PATH);
+    }
+
+    /**
+     * Stop serving the metrics.
+     */
+    public synchronized void stop()
+    {
+        if (server != null)
+        {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * Answer a scrape of the metrics.
+     *
+     * @param exchange the <tt>HttpExchange</tt> of the scrape.
+     * @throws IOException if the response can not be sent.
+     */
+    private void handleScrape(HttpExchange exchange)
+        throws IOException
+    {
+        try
+        {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method))
+            {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = getMetrics().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(method))
+            {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Get all the metrics in the Prometheus text format.
+     *
+     * @return all the metrics in the Prometheus text format.
+     */
+    public String getMetrics()
+    {
+        StringBuilder bldr = new StringBuilder(8 * 1024);
+
+        appendUserMetrics(bldr);
+        appendStartupMetrics(bldr);
+        if (hammerStats != null)
+            appendMediaMetrics(bldr);
+        appendHostMetrics(bldr);
+
+        return bldr.toString();
+    }
+
+    /**
+     * Append the number of users and the number of users in each stage of
+     * their lifecycle.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to.
+     */
+    private void appendUserMetrics(StringBuilder bldr)
+    {
+        StartupStats.Stage[] stages = StartupStats.Stage.values();
+        long[] completed = new long[stages.length];
+        for (StartupStats.Stage stage : stages)
+            completed[stage.ordinal()] = getCompletedCount(stage);
+
+        appendHeader(bldr, "hammer_users", "gauge",
+            "Number of fake users created by the hammer.");
+        appendSample(bldr, "hammer_users", null, userCount);
+
+        appendHeader(bldr, "hammer_users_active", "gauge",
+            "Number of fake users whose media is established (DTLS done).");
+        appendSample(bldr, "hammer_users_active", null,
+            completed[stages.length - 1]);
+
+        // A user is in a stage when it has completed the previous one, but
+        // not this one yet (the users that failed stay in their stage).
+        appendHeader(bldr, "hammer_users_in_stage", "gauge",
+            "Number of fake users currently in each stage of their startup.");
+        for (StartupStats.Stage stage : stages)
+        {
+            int i = stage.ordinal();
+            long previous = (i == 0) ? userCount : completed[i - 1];
+            appendSample(bldr, "hammer_users_in_stage",
+                "stage=\"" + stage.getName() + "\"",
+                Math.max(0, previous - completed[i]));
+        }
+    }
+
+    /**
+     * Append the latency histogram of each stage of the startup of the
+     * users.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to.
+     */
+    private void appendStartupMetrics(StringBuilder bldr)
+    {
+        String name = "hammer_startup_stage_duration_seconds";
+        int buckets = StartupStats.getHistogramBucketCount();
+
+        appendHeader(bldr, name, "histogram",
+            "Time spent by the fake users in each stage of their startup.");
+        for (StartupStats.Stage stage : StartupStats.Stage.values())
+        {
+            String stageLabel = "stage=\"" + stage.getName() + "\"";
+            long cumulative = 0;
+            for (int i = 0; i < buckets; i++)
+            {
+                cumulative += startupStats.getHistogramCount(stage, i);
+                long boundMs = StartupStats.getHistogramBucketBoundMs(i);
+                String le = (boundMs == Long.MAX_VALUE)
+                    ? "+Inf" : Double.toString(boundMs / 1000d);
+                appendSample(bldr, name + "_bucket",
+                    stageLabel + ",le=\"" + le + "\"", cumulative);
+            }
+            appendSample(bldr, name + "_sum", stageLabel,
+                startupStats.getTotalNanos(stage) / 1e9);
+            appendSample(bldr, name + "_count", stageLabel, cumulative);
+        }
+    }
+
+    /**
+     * Append the aggregated stats of the audio and video streams at the
+     * latest polling of the <tt>HammerStats</tt>.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to.
+     */
+    private void appendMediaMetrics(StringBuilder bldr)
+    {
+        appendHeader(bldr, "hammer_stats_polls_total", "counter",
+            "Number of pollings of the streams' stats.");
+        appendSample(bldr, "hammer_stats_polls_total", null,
+            hammerStats.getPollCount());
+        appendHeader(bldr, "hammer_stats_polled_users", "gauge",
+            "Number of fake users whose stats were updated by the latest"
+                + " polling.");
+        appendSample(bldr, "hammer_stats_polled_users", null,
+            hammerStats.getPolledUserCount());
+
+        // Before the first polling, the streams are exposed as empty, so
+        // that the series exist from the start of the ramp.
+        StatisticalSummary[][] summaries
+            = new StatisticalSummary[MEDIA_TYPES.length][];
+        for (int m = 0; m < MEDIA_TYPES.length; m++)
+        {
+            summaries[m] = hammerStats.getLatestSummary(MEDIA_TYPES[m]);
+            if (summaries[m] == null)
+                summaries[m] = EMPTY_SUMMARY;
+        }
+
+        appendMediaMetric(bldr, summaries, "hammer_media_streams", "gauge",
+            "Number of streams in the latest polling.",
+            StatsField.NB_PACKETS, Statistic.COUNT);
+        appendMediaMetric(bldr, summaries,
+            "hammer_media_download_bitrate_kbps", "gauge",
+            "Total download bitrate of the streams.",
+            StatsField.DOWNLOAD_RATE_KBPS, Statistic.SUM);
+        appendMediaMetric(bldr, summaries,
+            "hammer_media_upload_bitrate_kbps", "gauge",
+            "Total upload bitrate of the streams.",
+            StatsField.UPLOAD_RATE_KBPS, Statistic.SUM);
+        appendMediaMetric(bldr, summaries,
+            "hammer_media_download_loss_percent", "gauge",
+            "Mean download loss of the streams.",
+            StatsField.DOWNLOAD_PERCENT_LOSS, Statistic.MEAN);
+        appendMediaMetric(bldr, summaries,
+            "hammer_media_upload_loss_percent", "gauge",
+            "Mean upload loss of the streams.",
+            StatsField.UPLOAD_PERCENT_LOSS, Statistic.MEAN);
+        appendMediaMetric(bldr, summaries, "hammer_media_rtt_ms", "gauge",
+            "Mean RTT of the streams.",
+            StatsField.RTT_MS, Statistic.MEAN);
+        appendMediaMetric(bldr, summaries, "hammer_media_rtt_max_ms", "gauge",
+            "Max RTT of the streams.",
+            StatsField.RTT_MS, Statistic.MAX);
+        appendMediaMetric(bldr, summaries,
+            "hammer_media_download_jitter_ms", "gauge",
+            "Mean download jitter of the streams.",
+            StatsField.DOWNLOAD_JITTER_MS, Statistic.MEAN);
+        appendMediaMetric(bldr, summaries,
+            "hammer_media_upload_jitter_ms", "gauge",
+            "Mean upload jitter of the streams.",
+            StatsField.UPLOAD_JITTER_MS, Statistic.MEAN);
+        appendMediaMetric(bldr, summaries,
+            "hammer_media_received_bytes", "gauge",
+            "Bytes received by the streams of the latest polling (it drops"
+                + " when users leave, so it is not a counter).",
+            StatsField.NB_RECEIVED_BYTES, Statistic.SUM);
+        appendMediaMetric(bldr, summaries,
+            "hammer_media_sent_bytes", "gauge",
+            "Bytes sent by the streams of the latest polling (it drops"
+                + " when users leave, so it is not a counter).",
+            StatsField.NB_SENT_BYTES, Statistic.SUM);
+        appendMediaMetric(bldr, summaries,
+            "hammer_media_packets_lost", "gauge",
+            "Packets lost by the streams of the latest polling (it drops"
+                + " when users leave, so it is not a counter).",
+            StatsField.NB_PACKETS_LOST, Statistic.SUM);
+    }
+
+    /**
+     * Append the ICE ports, threads and file descriptors used by the hammer
+     * on this host.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to.
+     */
+    private void appendHostMetrics(StringBuilder bldr)
+    {
+        if (portPool != null)
+        {
+            appendHeader(bldr, "hammer_ice_ports", "gauge",
+                "Number of ICE ports of the pool.");
+            appendSample(bldr, "hammer_ice_ports", null, portPool.getSize());
+            appendHeader(bldr, "hammer_ice_ports_in_use", "gauge",
+                "Number of ICE ports reserved by the fake users.");
+            appendSample(bldr, "hammer_ice_ports_in_use", null,
+                portPool.getInUse());
+            appendHeader(bldr, "hammer_ice_port_bind_failures_total",
+                "counter", "Number of ICE ports that could not be bound.");
+            appendSample(bldr, "hammer_ice_port_bind_failures_total", null,
+                portPool.getBindFailures());
+            appendHeader(bldr, "hammer_ice_port_exhausted_total", "counter",
+                "Number of ICE port reservations that found no free port.");
+            appendSample(bldr, "hammer_ice_port_exhausted_total", null,
+                portPool.getExhausted());
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        appendHeader(bldr, "jvm_threads", "gauge",
+            "Number of live threads of the hammer.");
+        appendSample(bldr, "jvm_threads", null, threads.getThreadCount());
+        appendHeader(bldr, "jvm_threads_peak", "gauge",
+            "Peak number of live threads of the hammer.");
+        appendSample(bldr, "jvm_threads_peak", null,
+            threads.getPeakThreadCount());
+
+        // The open file descriptors include all the sockets of the users.
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean)
+        {
+            com.sun.management.UnixOperatingSystemMXBean unix
+                = (com.sun.management.UnixOperatingSystemMXBean) os;
+            appendHeader(bldr, "process_open_fds", "gauge",
+                "Number of open file descriptors (sockets included).");
+            appendSample(bldr, "process_open_fds", null,
+                unix.getOpenFileDescriptorCount());
+            appendHeader(bldr, "process_max_fds", "gauge",
+                "Maximum number of open file descriptors.");
+            appendSample(bldr, "process_max_fds", null,
+                unix.getMaxFileDescriptorCount());
+        }
+    }
+
+    /**
+     * Get the number of users that have completed <tt>stage</tt>, from its
+     * latency histogram (without locking).
+     *
+     * @param stage the <tt>Stage</tt> we are interested in.
+     * @return the number of users that have completed <tt>stage</tt>.
+     */
+    private long getCompletedCount(StartupStats.Stage stage)
+    {
+        long count = 0;
+        for (int i = 0; i < StartupStats.getHistogramBucketCount(); i++)
+            count += startupStats.getHistogramCount(stage, i);
+        return count;
+    }
+
+    /**
+     * The statistics of the summary of a stat exposed as metrics.
+     */
+    private enum Statistic
+    {
+        COUNT, SUM, MEAN, MAX;
+
+        /**
+         * Get this statistic from <tt>summary</tt>.
+         * @param summary the summary of a stat.
+         * @return the value of this statistic in <tt>summary</tt>.
+         */
+        double get(StatisticalSummary summary)
+        {
+            switch (this)
+            {
+            case COUNT:
+                return summary.getN();
+            case SUM:
+                return summary.getSum();
+            case MEAN:
+                return summary.getMean();
+            default:
+                return summary.getMax();
+            }
+        }
+    }
+
+    /**
+     * Append a metric of the audio and video streams, labelled by media
+     * type.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to.
+     * @param summaries the summaries of the audio and video streams, indexed
+     * like <tt>MEDIA_TYPES</tt>.
+     * @param name the name of the metric.
+     * @param type the Prometheus type of the metric.
+     * @param help the description of the metric.
+     * @param field the stat exposed.
+     * @param statistic the statistic of the stat exposed.
+     */
+    private static void appendMediaMetric(
+        StringBuilder bldr,
+        StatisticalSummary[][] summaries,
+        String name,
+        String type,
+        String help,
+        StatsField field,
+        Statistic statistic)
+    {
+        appendHeader(bldr, name, type, help);
+        for (int m = 0; m < MEDIA_TYPES.length; m++)
+        {
+            appendSample(bldr, name,
+                "media=\"" + MEDIA_TYPES[m].toString() + "\"",
+                statistic.get(summaries[m][field.ordinal()]));
+        }
+    }
+
+    /**
+     * Append the HELP and TYPE lines of a metric.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to.
+     * @param name the name of the metric.
+     * @param type the Prometheus type of the metric.
+     * @param help the description of the metric.
+     */
+    private static void appendHeader(
+        StringBuilder bldr,
+        String name,
+        String type,
+        String help)
+    {
+        bldr.append("# HELP ").append(name).append(' ').append(help)
+            .append('\n');
+        bldr.append("# TYPE ").append(name).append(' ').append(type)
+            .append('\n');
+    }
+
+    /**
+     * Append an integral sample of a metric.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to.
+     * @param name the name of the metric.
+     * @param labels the labels of the sample, or null.
+     * @param value the value of the sample.
+     */
+    private static void appendSample(
+        StringBuilder bldr,
+        String name,
+        String labels,
+        long value)
+    {
+        appendName(bldr, name, labels);
+        bldr.append(value).append('\n');
+    }
+
+    /**
+     * Append a decimal sample of a metric.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to.
+     * @param name the name of the metric.
+     * @param labels the labels of the sample, or null.
+     * @param value the value of the sample.
+     */
+    private static void appendSample(
+        StringBuilder bldr,
+        String name,
+        String labels,
+        double value)
+    {
+        appendName(bldr, name, labels);
+        if (Double.isNaN(value))
+            bldr.append("NaN");
+        else if (Double.isInfinite(value))
+            bldr.append(value > 0 ? "+Inf" : "-Inf");
+        else
+            bldr.append(value);
+        bldr.append('\n');
+    }
+
+    /**
+     * Append the name and the labels of a sample.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to.
+     * @param name the name of the metric.
+     * @param labels the labels of the sample, or null.
+     */
+    private static void appendName(
+        StringBuilder bldr,
+        String name,
+        String labels)
+    {
+        bldr.append(name);
+        if (labels != null)
+            bldr.append('{').append(labels).append('}');
+        bldr.append(' ');
+    }
+}
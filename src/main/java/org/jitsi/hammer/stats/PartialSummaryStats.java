@@ -0,0 +1,145 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.stats;
+
+import org.apache.commons.math3.stat.descriptive.*;
+import org.jitsi.service.neomedia.*;
+
+/**
+ * The summary (min/max/mean/variance/sum and percentiles) of the stats of the
+ * <tt>MediaStreamStats</tt> of a subset of the users, computed by one shard
+ * of the polling of the <tt>HammerStats</tt> without any lock, and merged
+ * with the other shards afterwards.
+ *
+ * It is not thread-safe : each instance is used by a single shard, and is
+ * reused (after a <tt>reset</tt>) by the next polls.
+ */
+public class PartialSummaryStats
+{
+    /**
+     * An empty summary (all its statistics are NaN, except its sum and its
+     * count that are 0).
+     */
+    static final StatisticalSummary EMPTY
+        = new StatisticalSummaryValues(Double.NaN, Double.NaN, 0,
+            Double.NaN, Double.NaN, 0);
+
+    /**
+     * The summary of each stat, indexed by the ordinal of its
+     * <tt>StatsField</tt>.
+     */
+    private final SummaryStatistics[] summaries
+        = new SummaryStatistics[StatsField.values().length];
+
+    /**
+     * The distributions of the stats whose tail matters (only for the
+     * current poll : the distributions of the whole run are kept by the
+     * <tt>PercentileStats</tt> in which the shards are merged).
+     */
+    private final PercentileStats percentiles = new PercentileStats(false);
+
+    /**
+     * Initializes a new, empty, <tt>PartialSummaryStats</tt>.
+     */
+    public PartialSummaryStats()
+    {
+        for (int i = 0; i < summaries.length; i++)
+            summaries[i] = new SummaryStatistics();
+    }
+
+    /**
+     * Add the stats of <tt>stats</tt> to this summary.
+     *
+     * @param stats the <tt>MediaStreamStats</tt> of a stream.
+     */
+    public void add(MediaStreamStats stats)
+    {
+        for (StatsField field : StatsField.values())
+            summaries[field.ordinal()].addValue(field.get(stats));
+        percentiles.add(stats);
+    }
+
+    /**
+     * Clear this summary, to reuse it for the next poll.
+     */
+    public void reset()
+    {
+        for (SummaryStatistics summary : summaries)
+            summary.clear();
+        percentiles.nextInterval();
+    }
+
+    /**
+     * Get the summary of a stat.
+     *
+     * @param field the <tt>StatsField</tt> of the stat.
+     * @return a (immutable) copy of the summary of the stat, which is not
+     * affected by a <tt>reset</tt> of this summary.
+     */
+    public StatisticalSummary getSummary(StatsField field)
+    {
+        return summaries[field.ordinal()].getSummary();
+    }
+
+    /**
+     * Get the distributions of the stats whose tail matters.
+     *
+     * @return the <tt>PercentileStats</tt> of this summary.
+     */
+    public PercentileStats getPercentiles()
+    {
+        return percentiles;
+    }
+
+    /**
+     * Merge two summaries of the same stat computed on disjoint sets of
+     * values, as if all the values had been added to a single summary.
+     *
+     * Unlike <tt>AggregateSummaryStatistics.aggregate</tt>, an empty summary
+     * does not turn the mean and the variance of the result into NaN.
+     *
+     * @param a the first summary.
+     * @param b the second summary.
+     * @return the summary of the values of <tt>a</tt> and <tt>b</tt>.
+     */
+    public static StatisticalSummary merge(
+        StatisticalSummary a,
+        StatisticalSummary b)
+    {
+        if (b.getN() == 0)
+            return a;
+        if (a.getN() == 0)
+            return b;
+
+        double nA = a.getN();
+        double nB = b.getN();
+        double n = nA + nB;
+        double delta = b.getMean() - a.getMean();
+        double mean = a.getMean() + delta * nB / n;
+        double m2 = a.getVariance() * (nA - 1)
+            + b.getVariance() * (nB - 1)
+            + delta * delta * nA * nB / n;
+
+        return new StatisticalSummaryValues(
+            mean,
+            m2 / (n - 1),
+            a.getN() + b.getN(),
+            Math.max(a.getMax(), b.getMax()),
+            Math.min(a.getMin(), b.getMin()),
+            a.getSum() + b.getSum());
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.stats;
+
+import org.HdrHistogram.*;
+import org.jitsi.service.neomedia.*;
+
+/**
+ * Keeps the distribution (in <tt>DoubleHistogram</tt>s) of the stats of the
+ * <tt>MediaStreamStats</tt> for which the tail matters (RTT, jitter and
+ * loss), for the current polling interval and for the whole run.
+ *
+ * The min/max/mean/standard deviation of the <tt>HammerSummaryStats</tt> do
+ * not show a regression of the tail latency, the p95/p99/p99.9 do.
+ *
+ * It is not thread-safe : it is used by the thread polling the stats.
+ */
+public class PercentileStats
+{
+    /**
+     * The stats whose distribution is kept.
+     */
+    private static final StatsField[] FIELDS = {
+        StatsField.RTT_MS,
+        StatsField.DOWNLOAD_JITTER_MS,
+        StatsField.UPLOAD_JITTER_MS,
+        StatsField.DOWNLOAD_PERCENT_LOSS,
+        StatsField.UPLOAD_PERCENT_LOSS
+    };
+
+    /**
+     * The percentiles written in the JSON, and their names.
+     */
+    private static final double[] PERCENTILES = { 50, 95, 99, 99.9 };
+    private static final String[] PERCENTILE_NAMES
+        = { "p50", "p95", "p99", "p99.9" };
+
+    /**
+     * The number of significant decimal digits kept by the histograms.
+     */
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    /**
+     * The histograms of the current interval, indexed like <tt>FIELDS</tt>.
+     */
+    private final DoubleHistogram[] interval
+        = new DoubleHistogram[FIELDS.length];
+
+    /**
+     * The histograms of all the previous intervals, indexed like
+     * <tt>FIELDS</tt>, or null if only the current interval is kept.
+     */
+    private final DoubleHistogram[] overall;
+
+    /**
+     * Initializes a new, empty, <tt>PercentileStats</tt> keeping the
+     * distributions of the current interval and of the whole run.
+     */
+    public PercentileStats()
+    {
+        this(true);
+    }
+
+    /**
+     * Initializes a new, empty, <tt>PercentileStats</tt>.
+     *
+     * @param keepOverall whether the distributions of the whole run are kept
+     * too, or only the ones of the current interval (for instance by a shard
+     * of the polling, whose interval is added to another
+     * <tt>PercentileStats</tt>).
+     */
+    public PercentileStats(boolean keepOverall)
+    {
+        overall = keepOverall ? new DoubleHistogram[FIELDS.length] : null;
+        for (int i = 0; i < FIELDS.length; i++)
+        {
+            interval[i] = new DoubleHistogram(SIGNIFICANT_DIGITS);
+            if (overall != null)
+                overall[i] = new DoubleHistogram(SIGNIFICANT_DIGITS);
+        }
+    }
+
+    /**
+     * Record the stats of <tt>stats</tt> in the histograms of the current
+     * interval. The negative values (stats that are not known yet, like the
+     * RTT before the first RTCP report) are ignored.
+     *
+     * @param stats the <tt>MediaStreamStats</tt> of a stream.
+     */
+    public void add(MediaStreamStats stats)
+    {
+        for (int i = 0; i < FIELDS.length; i++)
+        {
+            double value = FIELDS[i].get(stats);
+            if (value >= 0 && !Double.isNaN(value) && !Double.isInfinite(value))
+                interval[i].recordValue(value);
+        }
+    }
+
+    /**
+     * Add the histograms of <tt>other</tt> (for instance the ones computed by
+     * another thread) to the histograms of the current interval.
+     *
+     * @param other the <tt>PercentileStats</tt> whose current interval is
+     * added to this one.
+     */
+    public void addInterval(PercentileStats other)
+    {
+        for (int i = 0; i < FIELDS.length; i++)
+            interval[i].add(other.interval[i]);
+    }
+
+    /**
+     * End the current interval : its histograms are merged in the overall
+     * ones (if they are kept), and cleared for the next interval.
+     */
+    public void nextInterval()
+    {
+        for (int i = 0; i < FIELDS.length; i++)
+        {
+            if (overall != null)
+                overall[i].add(interval[i]);
+            interval[i].reset();
+        }
+    }
+
+    /**
+     * Get the percentiles of the stats of the current interval in JSON.
+     *
+     * @return the percentiles of the current interval in JSON.
+     */
+    public String getIntervalJSON()
+    {
+        return getJSON(interval);
+    }
+
+    /**
+     * Get the percentiles of the stats of the whole run (without the current
+     * interval) in JSON.
+     *
+     * @return the percentiles of the whole run in JSON.
+     * @throws IllegalStateException if the distributions of the whole run
+     * are not kept.
+     */
+    public String getOverallJSON()
+    {
+        if (overall == null)
+        {
+            throw new IllegalStateException(
+                "The distributions of the whole run are not kept");
+        }
+        return getJSON(overall);
+    }
+
+    /**
+     * Get the percentiles of <tt>histograms</tt> in JSON.
+     *
+     * @param histograms the histograms, indexed like <tt>FIELDS</tt>.
+     * @return the percentiles of <tt>histograms</tt> in JSON.
+     */
+    private static String getJSON(DoubleHistogram[] histograms)
+    {
+        StringBuilder bldr = new StringBuilder();
+        String delim = "";
+
+        bldr.append("{");
+        for (int i = 0; i < FIELDS.length; i++)
+        {
+            DoubleHistogram histogram = histograms[i];
+            long count = histogram.getTotalCount();
+
+            bldr.append(delim);
+            bldr.append(" \"").append(FIELDS[i].getJsonName()).append("\":");
+            bldr.append("{ \"count\":").append(count);
+            for (int p = 0; p < PERCENTILES.length; p++)
+            {
+                bldr.append(" , \"").append(PERCENTILE_NAMES[p]).append("\":");
+                bldr.append(count == 0
+                    ? 0 : histogram.getValueAtPercentile(PERCENTILES[p]));
+            }
+            bldr.append(" }");
+            delim = " ,";
+        }
+        bldr.append(" }");
+
+        return bldr.toString();
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.stats;
+
+import java.util.*;
+
+/**
+ * Counting-only statistics of the RTP packets received by a
+ * <tt>FakeUser</tt>, computed from the (clear) RTP headers only : for each
+ * remote SSRC, the number of packets and bytes received, the number of
+ * packets lost, reordered and duplicated, and the interarrival jitter as
+ * defined in RFC 3550.
+ *
+ * The packets are recorded by a single receiving thread, and the stats can be
+ * read concurrently by the <tt>HammerStats</tt>.
+ */
+public class RtpReceiveStats
+{
+    /**
+     * The clock rate used for the payload types whose clock rate is unknown.
+     */
+    private static final int DEFAULT_CLOCK_RATE = 90000;
+
+    /**
+     * The clock rates of the static payload types (RFC 3551 section 6),
+     * indexed by payload type (0 for the unassigned ones).
+     */
+    private static final int[] STATIC_CLOCK_RATES = new int[35];
+
+    static
+    {
+        // PCMU, (reserved), (reserved), GSM, G723, DVI4, DVI4, LPC, PCMA,
+        // G722 (whose RTP clock rate is 8000), L16, L16, QCELP, CN, MPA,
+        // G728, DVI4, DVI4, G729
+        int[] audio = {
+            8000, 0, 0, 8000, 8000, 8000, 16000, 8000, 8000, 8000, 44100,
+            44100, 8000, 8000, 90000, 8000, 11025, 22050, 8000 };
+        System.arraycopy(audio, 0, STATIC_CLOCK_RATES, 0, audio.length);
+        // CelB, JPEG, nv, H261, MPV, MP2T, H263
+        for (int pt : new int[] { 25, 26, 28, 31, 32, 33, 34 })
+            STATIC_CLOCK_RATES[pt] = 90000;
+    }
+
+    /**
+     * The initial number of remote SSRCs for which there is room in
+     * <tt>ssrcs</tt> and <tt>ssrcStats</tt> (a user receives the audio and
+     * video of a few other participants).
+     */
+    private static final int INITIAL_SSRC_CAPACITY = 8;
+
+    /**
+     * The clock rates of the payload types, indexed by payload type.
+     */
+    private final int[] clockRates = new int[128];
+
+    /**
+     * The remote SSRCs, in the order in which they were first received (only
+     * the first <tt>ssrcCount</tt> are used). They are searched linearly,
+     * which is faster than hashing (and does not box the SSRC) for the few
+     * SSRCs a user receives.
+     */
+    private long[] ssrcs = new long[INITIAL_SSRC_CAPACITY];
+
+    /**
+     * The stats of the remote SSRCs, at the same index as their SSRC in
+     * <tt>ssrcs</tt>.
+     */
+    private SsrcStats[] ssrcStats = new SsrcStats[INITIAL_SSRC_CAPACITY];
+
+    /**
+     * The number of remote SSRCs received.
+     */
+    private int ssrcCount = 0;
+
+    /**
+     * The index of the SSRC of the last packet recorded, checked first since
+     * the packets of a stream usually come in bursts.
+     */
+    private int lastIndex = 0;
+
+    /**
+     * Initializes a new, empty, <tt>RtpReceiveStats</tt>.
+     */
+    public RtpReceiveStats()
+    {
+        Arrays.fill(clockRates, DEFAULT_CLOCK_RATE);
+        for (int pt = 0; pt < STATIC_CLOCK_RATES.length; pt++)
+        {
+            if (STATIC_CLOCK_RATES[pt] != 0)
+                clockRates[pt] = STATIC_CLOCK_RATES[pt];
+        }
+    }
+
+    /**
+     * Set the clock rate of a payload type (used to compute the jitter).
+     *
+     * @param payloadType the payload type.
+     * @param clockRate the clock rate of <tt>payloadType</tt>.
+     */
+    public synchronized void setClockRate(int payloadType, int clockRate)
+    {
+        if (clockRate > 0)
+            clockRates[payloadType & 0x7F] = clockRate;
+    }
+
+    /**
+     * Record a received RTP packet.
+     *
+     * @param ssrc the SSRC of the packet.
+     * @param payloadType the payload type of the packet.
+     * @param sequenceNumber the sequence number of the packet.
+     * @param timestamp the RTP timestamp of the packet.
+     * @param length the length of the packet (in bytes).
+     * @param arrivalNanos the value of <tt>System.nanoTime()</tt> when the
+     * packet was received.
+     */
+    public synchronized void record(
+        long ssrc,
+        int payloadType,
+        int sequenceNumber,
+        long timestamp,
+        int length,
+        long arrivalNanos)
+    {
+        SsrcStats stats = getSsrcStats(ssrc);
+
+        if (stats == null)
+            stats = addSsrcStats(ssrc, sequenceNumber);
+        stats.record(
+            sequenceNumber,
+            timestamp,
+            length,
+            arrivalNanos,
+            clockRates[payloadType & 0x7F]);
+    }
+
+    /**
+     * Get the stats of a remote SSRC.
+     *
+     * @param ssrc the remote SSRC.
+     * @return the stats of <tt>ssrc</tt>, or null if no packet of
+     * <tt>ssrc</tt> has been recorded yet.
+     */
+    private SsrcStats getSsrcStats(long ssrc)
+    {
+        if (lastIndex < ssrcCount && ssrcs[lastIndex] == ssrc)
+            return ssrcStats[lastIndex];
+
+        for (int i = 0; i < ssrcCount; i++)
+        {
+            if (ssrcs[i] == ssrc)
+            {
+                lastIndex = i;
+                return ssrcStats[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Add the stats of a new remote SSRC.
+     *
+     * @param ssrc the remote SSRC.
+     * @param sequenceNumber the sequence number of its first packet.
+     * @return the stats of <tt>ssrc</tt>.
+     */
+    private SsrcStats addSsrcStats(long ssrc, int sequenceNumber)
+    {
+        if (ssrcCount == ssrcs.length)
+        {
+            ssrcs = Arrays.copyOf(ssrcs, 2 * ssrcCount);
+            ssrcStats = Arrays.copyOf(ssrcStats, 2 * ssrcCount);
+        }
+
+        SsrcStats stats = new SsrcStats(sequenceNumber);
+        ssrcs[ssrcCount] = ssrc;
+        ssrcStats[ssrcCount] = stats;
+        lastIndex = ssrcCount++;
+        return stats;
+    }
+
+    /**
+     * Get the stats of all the remote SSRCs in JSON.
+     *
+     * @return the stats of all the remote SSRCs in JSON.
+     */
+    public synchronized String getStatsJSON()
+    {
+        StringBuilder bldr = new StringBuilder();
+        String delim = "";
+
+        bldr.append("[");
+        for (int i = 0; i < ssrcCount; i++)
+        {
+            SsrcStats stats = ssrcStats[i];
+
+            bldr.append(delim);
+            bldr.append(" { \"ssrc\":").append(ssrcs[i]);
+            bldr.append(" , \"NbPackets\":").append(stats.received);
+            bldr.append(" , \"NbReceivedBytes\":").append(stats.bytes);
+            bldr.append(" , \"NbPacketsLost\":").append(stats.getLost());
+            bldr.append(" , \"NbReordered\":").append(stats.reordered);
+            bldr.append(" , \"NbDuplicated\":").append(stats.duplicated);
+            bldr.append(" , \"JitterMs\":").append(stats.getJitterMs());
+            bldr.append(" }");
+            delim = " ,";
+        }
+        bldr.append(" ]");
+
+        return bldr.toString();
+    }
+
+    /**
+     * The stats of a single remote SSRC.
+     */
+    private static class SsrcStats
+    {
+        /**
+         * The first sequence number received.
+         */
+        private final long baseSequenceNumber;
+
+        /**
+         * The highest extended sequence number received.
+         */
+        private long maxSequenceNumber;
+
+        /**
+         * The number of packets received.
+         */
+        private long received = 0;
+
+        /**
+         * The number of bytes received.
+         */
+        private long bytes = 0;
+
+        /**
+         * The number of packets received with a sequence number lower than
+         * the highest one received.
+         */
+        private long reordered = 0;
+
+        /**
+         * The number of packets received with the same sequence number as
+         * the highest one received (the duplicates of older packets can not
+         * be told from late packets, and are counted as reordered).
+         */
+        private long duplicated = 0;
+
+        /**
+         * The relative transit time of the last packet, in seconds.
+         */
+        private double lastTransit = Double.NaN;
+
+        /**
+         * The interarrival jitter (RFC 3550 section 6.4.1), in seconds.
+         */
+        private double jitter = 0;
+
+        /**
+         * Initializes a new <tt>SsrcStats</tt>.
+         *
+         * @param sequenceNumber the sequence number of the first packet.
+         */
+        private SsrcStats(int sequenceNumber)
+        {
+            baseSequenceNumber = sequenceNumber;
+            maxSequenceNumber = sequenceNumber - 1;
+        }
+
+        /**
+         * Record a received packet.
+         *
+         * @param sequenceNumber the sequence number of the packet.
+         * @param timestamp the RTP timestamp of the packet.
+         * @param length the length of the packet.
+         * @param arrivalNanos the arrival time of the packet.
+         * @param clockRate the clock rate of the payload type of the packet.
+         */
+        private void record(
+            int sequenceNumber,
+            long timestamp,
+            int length,
+            long arrivalNanos,
+            int clockRate)
+        {
+            received++;
+            bytes += length;
+
+            /*
+             * The 16 bits difference with the highest sequence number tells
+             * whether the packet is in order (and how many packets have been
+             * skipped) or late.
+             */
+            int delta = (short) (sequenceNumber - (int) maxSequenceNumber);
+            if (delta > 0)
+                maxSequenceNumber += delta;
+            else if (delta == 0)
+                duplicated++;
+            else
+                reordered++;
+
+            double transit
+                = arrivalNanos / 1e9 - (double) timestamp / clockRate;
+            if (!Double.isNaN(lastTransit))
+            {
+                double d = Math.abs(transit - lastTransit);
+
+                /*
+                 * A jump of the transit time bigger than a minute is a
+                 * timestamp wrap around or a reset of the source, not jitter.
+                 */
+                if (d < 60)
+                    jitter += (d - jitter) / 16;
+            }
+            lastTransit = transit;
+        }
+
+        /**
+         * Get the number of packets lost.
+         *
+         * @return the number of packets lost.
+         */
+        private long getLost()
+        {
+            long expected = maxSequenceNumber - baseSequenceNumber + 1;
+
+            return Math.max(0, expected - (received - duplicated));
+        }
+
+        /**
+         * Get the interarrival jitter, in milliseconds.
+         *
+         * @return the interarrival jitter, in milliseconds.
+         */
+        private double getJitterMs()
+        {
+            return jitter * 1000;
+        }
+    }
+}
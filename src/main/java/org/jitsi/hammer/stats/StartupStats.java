@@ -0,0 +1,307 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.stats;
+
+import org.HdrHistogram.*;
+import org.apache.commons.math3.stat.descriptive.*;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Keeps track of how long each <tt>FakeUser</tt> spends in the different
+ * stages of its startup (queueing, BOSH connect, login, MUC join, Jingle, ICE
+ * and DTLS).
+ *
+ * All the methods of this class can be called concurrently by the threads
+ * starting the fake users.
+ */
+public class StartupStats
+{
+    /**
+     * The stages of the startup of a <tt>FakeUser</tt>, in the order in
+     * which they happen.
+     */
+    public enum Stage
+    {
+        /**
+         * From the scheduled arrival of the user to the actual start of its
+         * startup (the lag added when too many users are in flight).
+         */
+        QUEUE("queue"),
+
+        /**
+         * The connection to the BOSH server.
+         */
+        CONNECT("connect"),
+
+        /**
+         * The (anonymous) login to the XMPP server.
+         */
+        LOGIN("login"),
+
+        /**
+         * The join of the MUC chatroom.
+         */
+        MUC_JOIN("join"),
+
+        /**
+         * From the MUC join to the sending of the session-accept.
+         */
+        JINGLE("jingle"),
+
+        /**
+         * The ICE connectivity establishment.
+         */
+        ICE("ice"),
+
+        /**
+         * From the start of the <tt>MediaStream</tt>s to the end of the
+         * DTLS handshake.
+         */
+        DTLS("dtls");
+
+        /**
+         * The name of the stage as written in the stats.
+         */
+        private final String name;
+
+        Stage(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * Get the name of the stage as written in the stats.
+         * @return the name of the stage as written in the stats.
+         */
+        public String getName()
+        {
+            return name;
+        }
+    }
+
+    /**
+     * The durations (in milliseconds) recorded for each <tt>Stage</tt>,
+     * indexed by the ordinal of the <tt>Stage</tt>.
+     */
+    private final SummaryStatistics[] durations
+        = new SummaryStatistics[Stage.values().length];
+
+    /**
+     * The number of buckets of the latency histogram of each <tt>Stage</tt> :
+     * the bucket <tt>i</tt> (for <tt>i &gt; 0</tt>) counts the durations in
+     * [2^(i-1), 2^i[ milliseconds, the bucket 0 the durations under 1ms and
+     * the last one all the durations above 2^(HISTOGRAM_BUCKETS-2)ms.
+     */
+    private static final int HISTOGRAM_BUCKETS = 19;
+
+    /**
+     * The latency histogram of each <tt>Stage</tt>, indexed by the ordinal of
+     * the <tt>Stage</tt>.
+     */
+    private final AtomicLongArray[] histograms
+        = new AtomicLongArray[Stage.values().length];
+
+    /**
+     * The total time (in nanoseconds) spent in each <tt>Stage</tt>, indexed
+     * by the ordinal of the <tt>Stage</tt>.
+     */
+    private final LongAdder[] totalNanos
+        = new LongAdder[Stage.values().length];
+
+    /**
+     * The durations (in microseconds) recorded for each <tt>Stage</tt>, from
+     * which their percentiles are computed, indexed by the ordinal of the
+     * <tt>Stage</tt>.
+     */
+    private final Histogram[] percentiles
+        = new Histogram[Stage.values().length];
+
+    /**
+     * The percentiles written in the JSON, and their names.
+     */
+    private static final double[] PERCENTILES = { 50, 95, 99, 99.9 };
+    private static final String[] PERCENTILE_NAMES
+        = { "p50Ms", "p95Ms", "p99Ms", "p99.9Ms" };
+
+    /**
+     * Initializes a new, empty, <tt>StartupStats</tt>.
+     */
+    public StartupStats()
+    {
+        for (int i = 0; i < durations.length; i++)
+        {
+            durations[i] = new SynchronizedSummaryStatistics();
+            histograms[i] = new AtomicLongArray(HISTOGRAM_BUCKETS);
+            percentiles[i] = new ConcurrentHistogram(3);
+            totalNanos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Record the duration a <tt>FakeUser</tt> spent in <tt>stage</tt>.
+     *
+     * @param stage the <tt>Stage</tt> that has been completed.
+     * @param durationNanos the time spent in <tt>stage</tt>, in nanoseconds.
+     */
+    public void record(Stage stage, long durationNanos)
+    {
+        durations[stage.ordinal()].addValue(durationNanos / 1000000d);
+
+        long ms = Math.max(0, durationNanos / 1000000);
+        int bucket = Math.min(
+            HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(ms));
+        histograms[stage.ordinal()].incrementAndGet(bucket);
+        totalNanos[stage.ordinal()].add(Math.max(0, durationNanos));
+        percentiles[stage.ordinal()].recordValue(
+            Math.max(0, durationNanos / 1000));
+    }
+
+    /**
+     * Get the number of <tt>FakeUser</tt>s that have completed
+     * <tt>stage</tt>.
+     *
+     * @param stage the <tt>Stage</tt> we are interested in.
+     * @return the number of <tt>FakeUser</tt>s that have completed
+     * <tt>stage</tt>.
+     */
+    public long getCount(Stage stage)
+    {
+        return durations[stage.ordinal()].getN();
+    }
+
+    /**
+     * Get the number of buckets of the latency histogram of each
+     * <tt>Stage</tt>.
+     *
+     * @return the number of buckets of the latency histograms.
+     */
+    public static int getHistogramBucketCount()
+    {
+        return HISTOGRAM_BUCKETS;
+    }
+
+    /**
+     * Get the (exclusive) upper bound in milliseconds of a bucket of the
+     * latency histograms.
+     *
+     * @param bucket the index of the bucket.
+     * @return the upper bound of the bucket, or
+     * <tt>Long.MAX_VALUE</tt> for the last bucket.
+     */
+    public static long getHistogramBucketBoundMs(int bucket)
+    {
+        return (bucket == HISTOGRAM_BUCKETS - 1)
+            ? Long.MAX_VALUE : (1L << bucket);
+    }
+
+    /**
+     * Get the number of durations recorded in a bucket of the latency
+     * histogram of <tt>stage</tt>, without locking.
+     *
+     * @param stage the <tt>Stage</tt> we are interested in.
+     * @param bucket the index of the bucket.
+     * @return the number of durations recorded in the bucket.
+     */
+    public long getHistogramCount(Stage stage, int bucket)
+    {
+        return histograms[stage.ordinal()].get(bucket);
+    }
+
+    /**
+     * Get the total time (in nanoseconds) spent by the <tt>FakeUser</tt>s in
+     * <tt>stage</tt>, without locking.
+     *
+     * @param stage the <tt>Stage</tt> we are interested in.
+     * @return the total time spent in <tt>stage</tt> in nanoseconds.
+     */
+    public long getTotalNanos(Stage stage)
+    {
+        return totalNanos[stage.ordinal()].sum();
+    }
+
+    /**
+     * Get the min/mean/max (in milliseconds) of the durations recorded
+     * for each <tt>Stage</tt>, their p50/p95/p99/p99.9 and their histogram,
+     * in JSON.
+     *
+     * The histogram only contains the non-empty buckets, each of them keyed
+     * by its (exclusive) upper bound in milliseconds.
+     *
+     * @return the summary of the durations recorded for each <tt>Stage</tt>
+     * in JSON.
+     */
+    public String getStatsJSON()
+    {
+        StringBuilder bldr = new StringBuilder();
+        String delim = "";
+
+        bldr.append("{");
+        for (Stage stage : Stage.values())
+        {
+            StatisticalSummary summary
+                = durations[stage.ordinal()].getSummary();
+
+            bldr.append(delim);
+            bldr.append(" \"").append(stage.getName()).append("\":");
+            bldr.append("{ \"count\":").append(summary.getN());
+            bldr.append(" , \"minMs\":").append(summary.getMin());
+            bldr.append(" , \"meanMs\":").append(summary.getMean());
+            bldr.append(" , \"maxMs\":").append(summary.getMax());
+            Histogram histogram = percentiles[stage.ordinal()];
+            for (int p = 0; p < PERCENTILES.length; p++)
+            {
+                bldr.append(" , \"").append(PERCENTILE_NAMES[p]).append("\":");
+                bldr.append(
+                    histogram.getValueAtPercentile(PERCENTILES[p]) / 1000d);
+            }
+            bldr.append(" , \"histogramMs\":{");
+            appendHistogramJSON(bldr, histograms[stage.ordinal()]);
+            bldr.append(" } }");
+            delim = " ,";
+        }
+        bldr.append(" }");
+
+        return bldr.toString();
+    }
+
+    /**
+     * Append the non-empty buckets of <tt>histogram</tt> to <tt>bldr</tt>, as
+     * the members of a JSON object.
+     *
+     * @param bldr the <tt>StringBuilder</tt> to append to.
+     * @param histogram the latency histogram of a <tt>Stage</tt>.
+     */
+    private static void appendHistogramJSON(
+        StringBuilder bldr,
+        AtomicLongArray histogram)
+    {
+        String delim = "";
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++)
+        {
+            long count = histogram.get(i);
+            if (count == 0)
+                continue;
+
+            String bound = (i == HISTOGRAM_BUCKETS - 1)
+                ? "inf" : Long.toString(1L << i);
+            bldr.append(delim);
+            bldr.append(" \"").append(bound).append("\":").append(count);
+            delim = " ,";
+        }
+    }
+}
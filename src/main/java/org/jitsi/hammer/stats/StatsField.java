@@ -0,0 +1,245 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.stats;
+
+import org.jitsi.service.neomedia.*;
+
+/**
+ * The stats of a <tt>MediaStreamStats</tt> written by the
+ * <tt>HammerStats</tt>, in the order of
+ * <tt>FakeUserStats.jsonMediaStreamStatsTemplate</tt>.
+ */
+public enum StatsField
+{
+    DOWNLOAD_JITTER_MS("DownloadJitterMs", false)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getDownloadJitterMs();
+        }
+    },
+    DOWNLOAD_PERCENT_LOSS("DownloadPercentLoss", false)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getDownloadPercentLoss();
+        }
+    },
+    DOWNLOAD_RATE_KBPS("DownloadRateKiloBitPerSec", false)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getDownloadRateKiloBitPerSec();
+        }
+    },
+    JITTER_BUFFER_DELAY_MS("JitterBufferDelayMs", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getJitterBufferDelayMs();
+        }
+    },
+    JITTER_BUFFER_DELAY_PACKETS("JitterBufferDelayPackets", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getJitterBufferDelayPackets();
+        }
+    },
+    NB_DISCARDED("NbDiscarded", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getNbDiscarded();
+        }
+    },
+    NB_DISCARDED_FULL("NbDiscardedFull", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getNbDiscardedFull();
+        }
+    },
+    NB_DISCARDED_LATE("NbDiscardedLate", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getNbDiscardedLate();
+        }
+    },
+    NB_DISCARDED_RESET("NbDiscardedReset", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getNbDiscardedReset();
+        }
+    },
+    NB_DISCARDED_SHRINK("NbDiscardedShrink", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getNbDiscardedShrink();
+        }
+    },
+    NB_FEC("NbFec", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getNbFec();
+        }
+    },
+    NB_PACKETS("NbPackets", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getNbPackets();
+        }
+    },
+    NB_PACKETS_LOST("NbPacketsLost", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getNbPacketsLost();
+        }
+    },
+    NB_RECEIVED_BYTES("NbReceivedBytes", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getNbReceivedBytes();
+        }
+    },
+    NB_SENT_BYTES("NbSentBytes", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getNbSentBytes();
+        }
+    },
+    PACKET_QUEUE_COUNT_PACKETS("PacketQueueCountPackets", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getPacketQueueCountPackets();
+        }
+    },
+    PACKET_QUEUE_SIZE("PacketQueueSize", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getPacketQueueSize();
+        }
+    },
+    PERCENT_DISCARDED("PercentDiscarded", false)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getPercentDiscarded();
+        }
+    },
+    RTT_MS("RttMs", true)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getRttMs();
+        }
+    },
+    UPLOAD_JITTER_MS("UploadJitterMs", false)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getUploadJitterMs();
+        }
+    },
+    UPLOAD_PERCENT_LOSS("UploadPercentLoss", false)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getUploadPercentLoss();
+        }
+    },
+    UPLOAD_RATE_KBPS("UploadRateKiloBitPerSec", false)
+    {
+        @Override
+        public double get(MediaStreamStats stats)
+        {
+            return stats.getUploadRateKiloBitPerSec();
+        }
+    };
+
+    /**
+     * The name of the stat in the JSON stats.
+     */
+    private final String jsonName;
+
+    /**
+     * Whether the stat is an integer (written without decimals).
+     */
+    private final boolean integral;
+
+    StatsField(String jsonName, boolean integral)
+    {
+        this.jsonName = jsonName;
+        this.integral = integral;
+    }
+
+    /**
+     * Get the name of the stat in the JSON stats.
+     * @return the name of the stat in the JSON stats.
+     */
+    public String getJsonName()
+    {
+        return jsonName;
+    }
+
+    /**
+     * Get whether the stat is an integer.
+     * @return true if the stat is an integer, false if it is a decimal.
+     */
+    public boolean isIntegral()
+    {
+        return integral;
+    }
+
+    /**
+     * Get the value of this stat in <tt>stats</tt>.
+     * @param stats the <tt>MediaStreamStats</tt> to read.
+     * @return the value of this stat in <tt>stats</tt>.
+     */
+    public abstract double get(MediaStreamStats stats);
+}
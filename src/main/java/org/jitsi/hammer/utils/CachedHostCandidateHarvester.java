@@ -0,0 +1,195 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.utils;
+
+import org.ice4j.*;
+import org.ice4j.ice.*;
+import org.ice4j.ice.harvest.*;
+import org.ice4j.socket.*;
+import org.ice4j.stack.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * A <tt>CachedHostCandidateHarvester</tt> gives the host candidates of a
+ * single <tt>Component</tt>, on a port bound beforehand on each local address
+ * allowed by ice4j.
+ *
+ * The allowed local addresses are discovered once per process, the first time
+ * a <tt>CachedHostCandidateHarvester</tt> is created, instead of enumerating
+ * the interfaces and addresses of the host for every <tt>Agent</tt> like
+ * ice4j's <tt>HostCandidateHarvester</tt> does. So the host harvest of a user
+ * only costs the binds of its port.
+ *
+ * It is used in place of the host harvester of the <tt>Agent</tt>
+ * (<tt>Agent.setUseHostHarvester(false)</tt>), and gives its candidates to
+ * the first <tt>Component</tt> it harvests.
+ */
+public class CachedHostCandidateHarvester
+    implements CandidateHarvester
+{
+    /**
+     * The local addresses allowed by ice4j, discovered once per process (null
+     * until then).
+     */
+    private static volatile List<InetAddress> hostAddresses;
+
+    /**
+     * The sockets bound on the port of this harvester, one per local address,
+     * until they are given to a <tt>Component</tt>.
+     */
+    private List<DatagramSocket> sockets;
+
+    /**
+     * The statistics of the harvests of this harvester (not updated, like the
+     * ones of ice4j's <tt>SinglePortUdpHarvester</tt>).
+     */
+    private final HarvestStatistics harvestStatistics
+        = new HarvestStatistics();
+
+    /**
+     * Initializes a new <tt>CachedHostCandidateHarvester</tt> giving the
+     * sockets <tt>sockets</tt> as host candidates.
+     *
+     * @param sockets the sockets bound on the port of the harvester.
+     */
+    private CachedHostCandidateHarvester(List<DatagramSocket> sockets)
+    {
+        this.sockets = sockets;
+    }
+
+    /**
+     * Get the local addresses allowed by ice4j, discovering them the first
+     * time.
+     *
+     * @return the (unmodifiable) local addresses allowed by ice4j.
+     */
+    public static List<InetAddress> getHostAddresses()
+    {
+        List<InetAddress> addresses = hostAddresses;
+        if (addresses == null)
+        {
+            // Two users may discover them at the same time, they then find
+            //  the same addresses.
+            addresses = Collections.unmodifiableList(new ArrayList<>(
+                HostCandidateHarvester.getAllAllowedAddresses()));
+            hostAddresses = addresses;
+        }
+        return addresses;
+    }
+
+    /**
+     * Bind a port on all the local addresses allowed by ice4j, and create the
+     * <tt>CachedHostCandidateHarvester</tt> giving them as host candidates.
+     *
+     * @param port the port to bind.
+     * @return the <tt>CachedHostCandidateHarvester</tt> of the port.
+     * @throws BindException if the port could not be bound on one of the
+     * addresses (none of them is then kept bound).
+     * @throws IOException if ice4j allows no local address.
+     */
+    public static CachedHostCandidateHarvester bind(int port)
+        throws IOException
+    {
+        List<InetAddress> addresses = getHostAddresses();
+        if (addresses.isEmpty())
+            throw new IOException("No local address is allowed by ice4j");
+
+        List<DatagramSocket> sockets = new ArrayList<>(addresses.size());
+        try
+        {
+            for (InetAddress address : addresses)
+                sockets.add(
+                    new DatagramSocket(new InetSocketAddress(address, port)));
+        }
+        catch (SocketException e)
+        {
+            for (DatagramSocket socket : sockets)
+                socket.close();
+
+            BindException bindException = new BindException(
+                "Could not bind port " + port + " : " + e.getMessage());
+            bindException.initCause(e);
+            throw bindException;
+        }
+        return new CachedHostCandidateHarvester(sockets);
+    }
+
+    /**
+     * Give the sockets of this harvester as host candidates of
+     * <tt>component</tt>, the same way ice4j's
+     * <tt>HostCandidateHarvester</tt> does.
+     *
+     * @param component the <tt>Component</tt> to harvest.
+     * @return the host candidates added to <tt>component</tt> (none if this
+     * harvester has already given its sockets to another <tt>Component</tt>).
+     */
+    @Override
+    public synchronized Collection<LocalCandidate> harvest(Component component)
+    {
+        if (sockets == null)
+            return Collections.emptyList();
+
+        List<LocalCandidate> candidates = new ArrayList<>(sockets.size());
+        for (DatagramSocket socket : sockets)
+        {
+            HostCandidate candidate = new HostCandidate(
+                new IceUdpSocketWrapper(
+                    new MultiplexingDatagramSocket(socket)),
+                component,
+                Transport.UDP);
+
+            if (!component.addLocalCandidate(candidate))
+            {
+                socket.close();
+                continue;
+            }
+            candidates.add(candidate);
+
+            StunStack stunStack = candidate.getStunStack();
+            stunStack.addSocket(candidate.getStunSocket(null));
+
+            ComponentSocket componentSocket = component.getComponentSocket();
+            if (componentSocket != null)
+                componentSocket.add(candidate.getCandidateIceSocketWrapper());
+        }
+        sockets = null;
+        return candidates;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HarvestStatistics getHarvestStatistics()
+    {
+        return harvestStatistics;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return true, the <tt>Agent</tt> has to harvest its host candidates
+     * from this harvester before running its other harvesters.
+     */
+    @Override
+    public boolean isHostHarvester()
+    {
+        return true;
+    }
+}
@@ -20,6 +20,7 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 
+import org.jitsi.hammer.arrival.*;
 import org.kohsuke.args4j.*;
 
 /**
@@ -170,12 +171,162 @@ public class CmdLineArguments
         + "the start of new users.")
     private int interval = 2000;
 
+    /**
+     * The default maximum number of users that can be starting at the same
+     * time : the starts mostly wait for the network, so a few of them per
+     * core are run concurrently.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT
+        = Math.max(16, 4 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The maximum number of users that can be starting at the same time.
+     */
+    @Option(name="-inflight", usage="The maximum number of users that can "
+        + "be starting (connecting, logging in, joining the MUC) at the same "
+        + "time (default : 16, or 4 per core if there are more than 4 "
+        + "cores).")
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    /**
+     * The number of users started per second (if not strictly positive,
+     * the rate is derived from <tt>interval</tt>).
+     */
+    @Option(name="-rate", usage="The number of users started per second "
+        + "(overrides -interval).")
+    private double usersPerSecond = 0;
+
+    /**
+     * The name of the arrival profile of the users.
+     */
+    @Option(name="-profile", usage="The arrival profile of the users : "
+        + "constant, linear, step, spike or poisson.")
+    private String arrivalProfile = "constant";
+
+    /**
+     * The duration (in seconds) of the ramp of the "linear" arrival profile.
+     */
+    @Option(name="-rampup", usage="The time (in seconds) for the \"linear\" "
+        + "profile to reach the arrival rate.")
+    private double rampUpTime = 60;
+
+    /**
+     * The number of users arriving at each step of the "step" arrival
+     * profile.
+     */
+    @Option(name="-stepusers", usage="The number of users arriving at each "
+        + "step of the \"step\" profile.")
+    private int stepUsers = 10;
+
+    /**
+     * The time (in seconds) between two steps of the "step" arrival profile.
+     */
+    @Option(name="-stepinterval", usage="The time (in seconds) between two "
+        + "steps of the \"step\" profile.")
+    private double stepInterval = 10;
+
+    /**
+     * The number of users arriving at once in the "spike" arrival profile.
+     */
+    @Option(name="-spikeusers", usage="The number of users arriving at once "
+        + "in the \"spike\" profile.")
+    private int spikeUsers = 10;
+
+    /**
+     * The time (in seconds) of the spike of the "spike" arrival profile.
+     */
+    @Option(name="-spikeat", usage="The time (in seconds) after the start "
+        + "at which the spike of the \"spike\" profile happens.")
+    private double spikeTime = 10;
+
     /**
      * Whether statistics should be disabled.
      */
     @Option(name="-nostats", usage="Whether to disable all statistics.")
     private boolean disableStats = false;
 
+    /**
+     * Whether the packets of the rtpdump files are sent directly, bypassing
+     * the media pipeline of libjitsi.
+     */
+    @Option(name="-blaster", usage="Send the packets of the rtpdump files "
+        + "directly, without the capture/encoding pipeline of libjitsi.")
+    private boolean packetBlaster = false;
+
+    /**
+     * Whether the received RTP packets are only counted (from their headers)
+     * instead of being decrypted and decoded.
+     */
+    @Option(name="-rtpcounting", usage="Only count the received RTP "
+        + "packets (loss, reordering, duplicates, jitter) from their "
+        + "headers, without decrypting them.")
+    private boolean rtpCounting = false;
+
+    /**
+     * The time in milliseconds after which a user gives up waiting for ICE
+     * or DTLS.
+     */
+    @Option(name="-stagetimeout", usage="The time in milliseconds after "
+        + "which a user gives up waiting for ICE or DTLS (0 to wait "
+        + "forever).")
+    private long stageTimeoutMs = 30000;
+
+    /**
+     * The UDP port shared by all the users for their ICE candidates (0 if
+     * each user binds its own port).
+     */
+    @Option(name="-singleport", usage="The UDP port shared by all the users "
+        + "for their ICE candidates (by default, each user binds its own "
+        + "port).")
+    private int singlePort = 0;
+
+    /**
+     * If this boolean is true, all the stats are recorded in a binary
+     * columnar file.
+     */
+    @Option(name="-binarystats", usage="Record all the streams' stats "
+        + "collected during the run in a compressed binary columnar file")
+    private boolean binaryStats = false;
+
+    /**
+     * The port on which the live metrics are exposed (0 to not expose them).
+     */
+    @Option(name="-metricsport", usage="The port on which live metrics are "
+        + "exposed in the Prometheus format on /metrics (disabled by "
+        + "default)")
+    private int metricsPort = 0;
+
+    /**
+     * The file in which the lifecycle events of the users are dumped.
+     */
+    @Option(name="-tracefile", usage="The file in which the lifecycle "
+        + "events of the users are dumped in binary when the hammer stops "
+        + "(not dumped by default)")
+    private String traceFile = null;
+
+    /**
+     * The file in which the stanzas of the users are traced.
+     */
+    @Option(name="-xmltrace", usage="The file in which the XML stanzas "
+        + "exchanged by the users are traced, \"-\" for the standard output "
+        + "(not traced by default)")
+    private String xmlTrace = null;
+
+    /**
+     * One user out of <tt>xmlTraceSampling</tt> has its stanzas traced.
+     */
+    @Option(name="-xmltracesampling", usage="Trace the stanzas of one user "
+        + "out of this number (default: 1, all the users)")
+    private int xmlTraceSampling = 1;
+
+    /**
+     * The index of the only user whose stanzas are traced.
+     */
+    @Option(name="-xmltraceuser", usage="The index of the only user whose "
+        + "stanzas are traced (default: the users given by "
+        + "-xmltracesampling)")
+    private int xmlTraceUser = -1;
+
     /**
      * The "channelLastN" conference property
      */
@@ -416,6 +567,57 @@ public class CmdLineArguments
         return interval;
     }
 
+    /**
+     * Gets the maximum number of users that can be starting at the same time.
+     * @return the maximum number of users that can be starting at the same
+     * time.
+     */
+    public int getMaxInFlight()
+    {
+        return maxInFlight;
+    }
+
+    /**
+     * Gets the number of users started per second.
+     * @return the number of users started per second (0 if the rate is
+     * derived from the interval).
+     */
+    public double getUsersPerSecond()
+    {
+        return usersPerSecond;
+    }
+
+    /**
+     * Create and return the <tt>ArrivalProfile</tt> of the users based on the
+     * options this <tt>CmdLineArguments</tt> has collected and parsed.
+     * @return the <tt>ArrivalProfile</tt> of the users, or null if the
+     * "-profile" option is unknown.
+     * @throws IllegalArgumentException if a parameter of the profile is out
+     * of range (for example a negative ramp time).
+     */
+    public ArrivalProfile getArrivalProfile()
+    {
+        double rate = usersPerSecond;
+        if (rate <= 0)
+            rate = 1000d / Math.max(1, interval);
+
+        switch (arrivalProfile.toLowerCase())
+        {
+        case "constant":
+            return new ConstantArrivalProfile(rate);
+        case "linear":
+            return new LinearArrivalProfile(rate, rampUpTime);
+        case "step":
+            return new StepArrivalProfile(stepUsers, stepInterval);
+        case "spike":
+            return new SpikeArrivalProfile(rate, spikeTime, spikeUsers);
+        case "poisson":
+            return new PoissonArrivalProfile(rate, new Random());
+        default:
+            return null;
+        }
+    }
+
     /**
      * Get the flag which indicates whether statistics should be disabled.
      * @return the flag which indicates whether statistics should be disabled.
@@ -425,6 +627,104 @@ public class CmdLineArguments
         return disableStats;
     }
 
+    /**
+     * Get the flag which indicates whether the packets of the rtpdump files
+     * are sent directly, bypassing the media pipeline of libjitsi.
+     * @return the flag which indicates whether the packet blaster mode is
+     * enabled.
+     */
+    public boolean getPacketBlaster()
+    {
+        return packetBlaster;
+    }
+
+    /**
+     * Get the flag which indicates whether the received RTP packets are only
+     * counted from their headers.
+     * @return the flag which indicates whether the counting-only receive mode
+     * is enabled.
+     */
+    public boolean getRtpCounting()
+    {
+        return rtpCounting;
+    }
+
+    /**
+     * Get the time in milliseconds after which a user gives up waiting for
+     * ICE or DTLS.
+     * @return the timeout of the ICE and DTLS stages in milliseconds.
+     */
+    public long getStageTimeoutMs()
+    {
+        return stageTimeoutMs;
+    }
+
+    /**
+     * Get the UDP port shared by all the users for their ICE candidates.
+     * @return the UDP port shared by all the users, or 0 if each user binds
+     * its own port.
+     */
+    public int getSinglePort()
+    {
+        return singlePort;
+    }
+
+    /**
+     * Get the boolean of the binaryStats option : if true, all the stats
+     * collected during the run will be recorded in a binary columnar file.
+     * @return the boolean of the binaryStats option
+     */
+    public boolean getBinaryStats()
+    {
+        return binaryStats;
+    }
+
+    /**
+     * Get the port on which the live metrics are exposed.
+     * @return the port of the metrics, or 0 if they are not exposed.
+     */
+    public int getMetricsPort()
+    {
+        return metricsPort;
+    }
+
+    /**
+     * Get the file in which the lifecycle events of the users are dumped.
+     * @return the path of the trace file, or null if it is not dumped.
+     */
+    public String getTraceFile()
+    {
+        return traceFile;
+    }
+
+    /**
+     * Get the file in which the stanzas of the users are traced.
+     * @return the path of the file, "-" for the standard output, or null if
+     * the stanzas are not traced.
+     */
+    public String getXmlTrace()
+    {
+        return xmlTrace;
+    }
+
+    /**
+     * Get the sampling of the users whose stanzas are traced.
+     * @return one user out of this number has its stanzas traced.
+     */
+    public int getXmlTraceSampling()
+    {
+        return xmlTraceSampling;
+    }
+
+    /**
+     * Get the index of the only user whose stanzas are traced.
+     * @return the index of the user, or -1 to trace a sample of the users.
+     */
+    public int getXmlTraceUser()
+    {
+        return xmlTraceUser;
+    }
+
     /**
      * Get the <tt>List</tt> of <tt>Credentials</tt> read from the file
      * given with the "-credentials" options
@@ -59,6 +59,31 @@ public class HammerUtils
         }
     };
 
+    /**
+     * A <tt>DatagramPacketFilter</tt> accepting the RTP packets (and not the
+     * RTCP, DTLS or STUN packets).
+     */
+    private static DatagramPacketFilter rtpFilter = new DatagramPacketFilter()
+    {
+        @Override
+        public boolean accept(DatagramPacket datagramPacket)
+        {
+            byte[] data = datagramPacket.getData();
+            int off = datagramPacket.getOffset();
+
+            if (datagramPacket.getLength() < 12
+                    || (data[off] & 0xC0) != 0x80)
+                return false;
+
+            /*
+             * With rtcp-mux, the payload types 64-95 are RTCP packet types
+             * (RFC 5761).
+             */
+            int pt = data[off + 1] & 0x7F;
+            return pt < 64 || pt > 95;
+        }
+    };
+
     /**
      * Select the favorite <tt>MediaFormat</tt> of a list of <tt>MediaFormat</tt>
      *
@@ -86,34 +111,31 @@ public class HammerUtils
          *
          * For now, this function prefer opus for the audio format, and
          * vp8 for the video format
+         *
+         * The formats are negotiated once per offer (see
+         * <tt>SessionAcceptTemplate</tt>), not once per user.
          */
+        String favoriteEncoding;
         switch(MediaType.parseString(mediaType))
         {
         case AUDIO:
-            for(MediaFormat fmt : mediaFormatList)
-            {
-                if(returnedFormat == null) returnedFormat = fmt;
-                if(fmt.getEncoding().equalsIgnoreCase("opus"))
-                {
-                    returnedFormat = fmt;
-                    break;
-                }
-            }
+            favoriteEncoding = "opus";
             break;
-
         case VIDEO:
-            for(MediaFormat fmt : mediaFormatList)
-            {
-                if(returnedFormat == null) returnedFormat = fmt;
-                if(fmt.getEncoding().equalsIgnoreCase("vp8"))
-                {
-                    returnedFormat = fmt;
-                    break;
-                }
-            }
+            favoriteEncoding = "vp8";
             break;
         default :
-            break;
+            return null;
+        }
+
+        for(MediaFormat fmt : mediaFormatList)
+        {
+            if(returnedFormat == null) returnedFormat = fmt;
+            if(fmt.getEncoding().equalsIgnoreCase(favoriteEncoding))
+            {
+                returnedFormat = fmt;
+                break;
+            }
         }
 
         return returnedFormat;
@@ -163,7 +185,9 @@ public class HammerUtils
                 setStreamInformation = true;
             }
 
-            candidates = transports.getChildExtensionsOfType(NewCandidatePacketExtension.class);
+            // The list of a frozen transport can not be sorted in place.
+            candidates = new ArrayList<>(
+                transports.getChildExtensionsOfType(NewCandidatePacketExtension.class));
             Collections.sort(candidates);
 
             for(NewCandidatePacketExtension candidate : candidates)
@@ -329,17 +353,17 @@ public class HammerUtils
      * the name/<tt>MediaType</tt> of the MediaStreams set with this
      * <tt>MediaFormat</tt>.
      * @param mediaDeviceChooser used to chose the MediaDevice for each stream
-     * @param ptRegistry the <tt>DynamicPayloadTypeRegistry</tt> containing
-     * the dynamic payload type of the <tt>MediaFormat</tt> (if necessary).
-     * @param rtpExtRegistry
+     * @param payloadTypes the dynamic payload type of each
+     * <tt>MediaFormat</tt> which has no static one.
+     * @param rtpExtensionIds the ID of each RTP extension.
      */
     public static void configureMediaStream(
         Map<String,MediaStream> mediaStreamMap,
         Map<String,MediaFormat> mediaFormatMap,
         Map<String,List<RTPExtension>> rtpExtensionMap,
         MediaDeviceChooser mediaDeviceChooser,
-        DynamicPayloadTypeRegistry ptRegistry,
-        DynamicRTPExtensionsRegistry rtpExtRegistry)
+        Map<MediaFormat,Byte> payloadTypes,
+        Map<RTPExtension,Byte> rtpExtensionIds)
     {
         MediaStream stream = null;
         MediaFormat format = null;
@@ -378,7 +402,7 @@ public class HammerUtils
                 ==  MediaFormat.RTP_PAYLOAD_TYPE_UNKNOWN)
             {
                 stream.addDynamicRTPPayloadType(
-                    ptRegistry.getPayloadType(format),
+                    payloadTypes.get(format),
                     format);
             }
 
@@ -388,8 +412,7 @@ public class HammerUtils
              */
             for(RTPExtension rtpExtension : rtpExtensionMap.get(mediaName))
             {
-                byte extensionID
-                = rtpExtRegistry.getExtensionMapping(rtpExtension);
+                byte extensionID = rtpExtensionIds.get(rtpExtension);
                 stream.addRTPExtension(extensionID , rtpExtension);
             }
 
@@ -474,6 +497,40 @@ public class HammerUtils
 
 
 
+    /**
+     * Get a <tt>DatagramSocket</tt> receiving the RTP packets of the
+     * <tt>IceMediaStream</tt> of an <tt>Agent</tt> (so after ICE was
+     * TERMINATED), without going through the <tt>MediaStream</tt>s.
+     *
+     * @param agent the <tt>Agent</tt> containing the <tt>IceMediaStream</tt>
+     * from which we will get the <tt>DatagramSocket</tt>
+     * @return a <tt>DatagramSocket</tt> receiving the RTP packets, or null if
+     * the socket of the <tt>IceMediaStream</tt> can not be filtered.
+     */
+    public static DatagramSocket getRtpSocket(Agent agent)
+    {
+        IceMediaStream iceMediaStream
+            = agent.getStream(IceMediaStreamGenerator.STREAM_NAME);
+        CandidatePair pair
+            = iceMediaStream.getComponent(Component.RTP).getSelectedPair();
+        DatagramSocket datagramSocket
+            = pair.getIceSocketWrapper().getUDPSocket();
+
+        if (datagramSocket instanceof MultiplexingDatagramSocket)
+        {
+            try
+            {
+                return ((MultiplexingDatagramSocket) datagramSocket)
+                    .getSocket(rtpFilter);
+            }
+            catch (SocketException e)
+            {
+                logger.error("Could not create the RTP socket", e);
+            }
+        }
+        return null;
+    }
+
     /**
      * Add the remote fingerprint & hash function contained in
      * <tt>remoteContentList</tt> to the <tt>DtlsControl</tt> of the
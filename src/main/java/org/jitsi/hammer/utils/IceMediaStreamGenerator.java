@@ -19,6 +19,9 @@ package org.jitsi.hammer.utils;
 import org.ice4j.ice.*;
 import org.ice4j.*;
 import org.ice4j.ice.harvest.*;
+import org.jitsi.util.Logger;
+
+import java.net.*;
 import java.util.*;
 import java.io.*;
 
@@ -35,6 +38,13 @@ import java.io.*;
  */
 public class IceMediaStreamGenerator
 {
+    /**
+     * The <tt>Logger</tt> used by the <tt>IceMediaStreamGenerator</tt> class
+     * and its instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(IceMediaStreamGenerator.class);
+
     public static String STREAM_NAME = "muxed_stream";
 
     /**
@@ -49,10 +59,24 @@ public class IceMediaStreamGenerator
     private static int MAX_COMPONENT_PORT = 9000;
 
     /**
-     * The current value that will be used as port when generating new
-     * <tt>IceMediaStream</tt>.
+     * The number of ports we try to bind for an <tt>IceMediaStream</tt>
+     * before giving up (each failure quarantines the port in the
+     * <tt>PortPool</tt>).
+     */
+    private static final int MAX_BIND_ATTEMPTS = 5;
+
+    /**
+     * The <tt>PortPool</tt> reserving a port of the range for each generated
+     * <tt>IceMediaStream</tt>, until it is released.
      */
-    private int currentComponentPort = MIN_COMPONENT_PORT;
+    private final PortPool portPool;
+
+    /**
+     * The <tt>SinglePortUdpHarvester</tt>s shared by all the <tt>Agent</tt>s
+     * (one per local address, all bound on the same port), or null if each
+     * <tt>Agent</tt> harvests its own host candidates.
+     */
+    private volatile List<SinglePortUdpHarvester> singlePortHarvesters;
 
     /**
      * The static instance of the IceMediaStreamGenerator.
@@ -64,7 +88,10 @@ public class IceMediaStreamGenerator
      * Initializes a new <tt>IceMediaStream</tt> instance with
      * default value for the minimum and maximum port value.
      */
-    public IceMediaStreamGenerator() {}
+    public IceMediaStreamGenerator()
+    {
+        portPool = new PortPool(MIN_COMPONENT_PORT, MAX_COMPONENT_PORT);
+    }
 
     /**
      * Initializes a new <tt>IceMediaStream</tt> instance with
@@ -77,8 +104,8 @@ public class IceMediaStreamGenerator
     public IceMediaStreamGenerator(int min_port, int max_port)
     {
         MIN_COMPONENT_PORT = min_port;
-        currentComponentPort = min_port;
         MAX_COMPONENT_PORT = max_port;
+        portPool = new PortPool(MIN_COMPONENT_PORT, MAX_COMPONENT_PORT);
     }
 
     /**
@@ -90,6 +117,35 @@ public class IceMediaStreamGenerator
         return generator;
     }
 
+    /**
+     * Make all the <tt>Agent</tt>s given to this
+     * <tt>IceMediaStreamGenerator</tt> share the same UDP port, instead of
+     * binding their own sockets.
+     *
+     * The <tt>SinglePortUdpHarvester</tt>s demultiplex the packets they
+     * receive by the ICE ufrag of the first STUN Binding request coming from
+     * a remote address, and then by remote address. So the number of users
+     * is not limited by the number of ports anymore, and the harvest does
+     * not bind any socket.
+     *
+     * @param port the UDP port shared by all the <tt>Agent</tt>s.
+     * @throws IOException if the port could not be bound on any local
+     * address.
+     */
+    public synchronized void setSinglePort(int port)
+        throws IOException
+    {
+        List<SinglePortUdpHarvester> harvesters
+            = SinglePortUdpHarvester.createHarvesters(port);
+        if (harvesters.isEmpty())
+        {
+            throw new IOException(
+                "Could not bind the single port " + port
+                    + " on any local address");
+        }
+        singlePortHarvesters = harvesters;
+    }
+
     /**
      * Generate an <tt>Agent</tt> having an <tt>IceMediaStream</tt>
      * for each media name in <tt>mediaNameSet</tt>.
@@ -105,13 +161,14 @@ public class IceMediaStreamGenerator
      * <tt>Agent</tt>.
      * @param turnAddresses An array of TURN server that could be used be the
      * <tt>Agent</tt>.
-     * @return An <tt>Agent</tt> having an <tt>IceMediaStream</tt>, with 2
-     * <tt>Component</tt> (RTP and RTCP), for each name in <tt>mediaNameSet</tt>.
+     * @return the port reserved for the <tt>IceMediaStream</tt>, that must be
+     * given back with {@link #releasePort(int)} when the <tt>Agent</tt> is
+     * freed, or -1 if no port was reserved (single port mode).
      *
      * @throws IOException if anything goes wrong when the <tt>Component<tt>
      * are created.
      */
-    public void generateIceMediaStream (
+    public int generateIceMediaStream (
             Agent agent,
             Set<String> mediaNameSet,
             TransportAddress stunAddresses[],
@@ -139,22 +196,113 @@ public class IceMediaStreamGenerator
                         new TurnCandidateHarvester(turnAddress));
             }
         }
-        // Instead of creating one component and stream per mline, create one
-        //  for everything
-        synchronized (this)
+        List<SinglePortUdpHarvester> harvesters = singlePortHarvesters;
+        if (harvesters != null)
         {
-            stream = agent.createMediaStream(IceMediaStreamGenerator.STREAM_NAME);
-            if( (currentComponentPort + 1) >= MAX_COMPONENT_PORT )
+            agent.setUseHostHarvester(false);
+            for (SinglePortUdpHarvester harvester : harvesters)
             {
-                currentComponentPort = MIN_COMPONENT_PORT;
+                agent.addCandidateHarvester(harvester);
             }
+
+            // Instead of creating one component and stream per mline, create
+            //  one for everything
+            stream = agent.createMediaStream(STREAM_NAME);
             agent.createComponent(
                     stream,
                     Transport.UDP,
-                    currentComponentPort,
-                    currentComponentPort,
-                    currentComponentPort + 50);
+                    MIN_COMPONENT_PORT,
+                    MIN_COMPONENT_PORT,
+                    MAX_COMPONENT_PORT);
+            return -1;
         }
+
+        // Each stream reserves its own port, bound on the host addresses
+        //  discovered once per process : if it is taken by another process,
+        //  the port is quarantined and we try with the next free one.
+        for (int attempt = 0; attempt < MAX_BIND_ATTEMPTS; attempt++)
+        {
+            int port = portPool.reserve();
+            if (port == -1)
+            {
+                throw new IOException("All the ports between "
+                    + MIN_COMPONENT_PORT + " and " + MAX_COMPONENT_PORT
+                    + " are in use");
+            }
+
+            CachedHostCandidateHarvester hostHarvester;
+            try
+            {
+                hostHarvester = CachedHostCandidateHarvester.bind(port);
+            }
+            catch (BindException e)
+            {
+                logger.warn(e.getMessage());
+                portPool.bindFailed(port);
+                continue;
+            }
+            catch (IOException e)
+            {
+                portPool.release(port);
+                throw e;
+            }
+
+            agent.setUseHostHarvester(false);
+            agent.addCandidateHarvester(hostHarvester);
+
+            stream = agent.createMediaStream(STREAM_NAME);
+            try
+            {
+                agent.createComponent(stream, Transport.UDP, port, port, port);
+            }
+            catch (IllegalArgumentException e)
+            {
+                // No host candidate could be added to the component.
+                agent.removeStream(stream);
+                portPool.release(port);
+                throw new IOException(
+                    "Could not create the component on port " + port, e);
+            }
+            return port;
+        }
+
+        throw new IOException("Could not bind a port after "
+            + MAX_BIND_ATTEMPTS + " attempts");
+    }
+
+    /**
+     * Release a port returned by {@link #generateIceMediaStream}, once the
+     * <tt>Agent</tt> using it has been freed.
+     *
+     * @param port the port to release (nothing is done if it is -1).
+     */
+    public void releasePort(int port)
+    {
+        if (port != -1)
+            portPool.release(port);
+    }
+
+    /**
+     * Get the metrics of the port allocation of this
+     * <tt>IceMediaStreamGenerator</tt> in JSON.
+     *
+     * @return the metrics of the <tt>PortPool</tt> of this
+     * <tt>IceMediaStreamGenerator</tt> in JSON.
+     */
+    public String getPortStatsJSON()
+    {
+        return portPool.getStatsJSON();
+    }
+
+    /**
+     * Get the <tt>PortPool</tt> from which the ports of the ICE components
+     * are reserved.
+     *
+     * @return the <tt>PortPool</tt> of this <tt>IceMediaStreamGenerator</tt>.
+     */
+    public PortPool getPortPool()
+    {
+        return portPool;
     }
 
 }
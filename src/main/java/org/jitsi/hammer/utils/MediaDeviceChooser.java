@@ -16,7 +16,7 @@
 
 package org.jitsi.hammer.utils;
 
-
+import org.jitsi.hammer.media.*;
 import org.jitsi.impl.neomedia.jmfext.media.protocol.greyfading.*;
 import org.jitsi.impl.neomedia.jmfext.media.protocol.ivffile.*;
 import org.jitsi.impl.neomedia.jmfext.media.protocol.rtpdumpfile.*;
@@ -31,6 +31,10 @@ import org.jitsi.videobridge.*;
 import javax.media.*;
 import javax.media.format.*;
 
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
 /**
  * This class is used to get the chosen MediaDevice for a given MediaType.
  *
@@ -58,6 +62,26 @@ public class MediaDeviceChooser
      */
     MediaDevice audioMediaDevice;
 
+    /**
+     * The <tt>RtpdumpPacketTable</tt> of the rtpdump file chosen for the video
+     * streams, or null if no rtpdump file is used for video.
+     */
+    RtpdumpPacketTable videoPacketTable;
+
+    /**
+     * The <tt>RtpdumpPacketTable</tt> of the rtpdump file chosen for the audio
+     * streams, or null if no rtpdump file is used for audio.
+     */
+    RtpdumpPacketTable audioPacketTable;
+
+    /**
+     * The RTP extensions supported by the chosen <tt>MediaDevice</tt> of each
+     * <tt>MediaType</tt>, by URI. They are computed the first time they are
+     * asked for, and read without locking afterwards.
+     */
+    private final Map<MediaType, Map<String, RTPExtension>>
+        supportedExtensions = new ConcurrentHashMap<>();
+
     /**
      * Initialize an empty <tt>MediaDeviceChooser<tt>. No video or audio
      * MediaDevice will be chosen (they'll need to be set later).
@@ -116,6 +140,8 @@ public class MediaDeviceChooser
                     = RtpdumpMediaDevice.createRtpdumpAudioMediaDevice(
                             cmdArg.getAudioRtpdumpFile(),
                             opusFormat);
+                audioPacketTable
+                    = loadPacketTable(cmdArg.getAudioRtpdumpFile());
 
             }
             else
@@ -139,12 +165,24 @@ public class MediaDeviceChooser
                             cmdArg.getVideoRtpdumpFile(),
                             Constants.VP8_RTP,
                             factory.createMediaFormat("vp8", 90000));
+                videoPacketTable
+                    = loadPacketTable(cmdArg.getVideoRtpdumpFile());
             }
             else if(cmdArg.getIVFFile() != null)
             {
                 str = str + "-with ivf file " + cmdArg.getIVFFile()
                     + " for the video stream\n";
-                videoMediaDevice = new IVFMediaDevice(cmdArg.getIVFFile());
+                try
+                {
+                    videoMediaDevice
+                        = new IVFMappedMediaDevice(cmdArg.getIVFFile());
+                }
+                catch (IOException e)
+                {
+                    logger.warn("Could not index " + cmdArg.getIVFFile()
+                        + ", falling back to IVFMediaDevice", e);
+                    videoMediaDevice = new IVFMediaDevice(cmdArg.getIVFFile());
+                }
             }
             else
             {
@@ -156,6 +194,46 @@ public class MediaDeviceChooser
         }
     }
 
+    /**
+     * Parse the rtpdump file <tt>path</tt> into a (shared)
+     * <tt>RtpdumpPacketTable</tt>.
+     *
+     * @param path the path of the rtpdump file.
+     * @return the <tt>RtpdumpPacketTable</tt> of the file, or null if it could
+     * not be parsed.
+     */
+    private static RtpdumpPacketTable loadPacketTable(String path)
+    {
+        try
+        {
+            return RtpdumpPacketTable.getInstance(path);
+        }
+        catch (IOException e)
+        {
+            logger.warn("Could not load the packets of " + path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Get the <tt>RtpdumpPacketTable</tt> of the rtpdump file chosen for a
+     * <tt>MediaType</tt>.
+     * @return the <tt>RtpdumpPacketTable</tt> of the rtpdump file chosen for
+     * <tt>type</tt>, or null if no rtpdump file is used for <tt>type</tt>.
+     */
+    public synchronized RtpdumpPacketTable getPacketTable(MediaType type)
+    {
+        switch(type)
+        {
+            case AUDIO:
+                return audioPacketTable;
+            case VIDEO:
+                return videoPacketTable;
+            default:
+                return null;
+        }
+    }
+
     /**
      * Get the chosen <tt>MediaDevice</tt> from a <tt>MediaType</tt>
      * @return the chosen <tt>MediaDevice</tt>
@@ -178,6 +256,34 @@ public class MediaDeviceChooser
         return returnedDevice;
     }
 
+    /**
+     * Get the RTP extensions supported by the chosen <tt>MediaDevice</tt> of a
+     * <tt>MediaType</tt>, indexed by their URI (in their original order).
+     *
+     * @param type the <tt>MediaType</tt> of the <tt>MediaDevice</tt>.
+     * @return the (unmodifiable) RTP extensions supported by the chosen
+     * <tt>MediaDevice</tt> of <tt>type</tt>, by URI (empty if no
+     * <tt>MediaDevice</tt> is chosen for <tt>type</tt>).
+     */
+    public Map<String, RTPExtension> getSupportedExtensions(MediaType type)
+    {
+        return supportedExtensions.computeIfAbsent(type, t ->
+        {
+            MediaDevice device = getMediaDevice(t);
+            if (device == null)
+                return Collections.emptyMap();
+
+            Map<String, RTPExtension> extensions = new LinkedHashMap<>();
+            for (RTPExtension extension : device.getSupportedExtensions())
+            {
+                extensions.putIfAbsent(
+                    extension.getURI().toASCIIString(),
+                    extension);
+            }
+            return Collections.unmodifiableMap(extensions);
+        });
+    }
+
     /**
      * Set a <tt>MediaDevice</tt> as the chosen audio or video <tt>MediaDevice<tt>
      * (depending of its <tt>MediaType</tt>)
@@ -189,6 +295,7 @@ public class MediaDeviceChooser
         {
             logger.info("Set " + dev + " as the MediaDevice for "
                     + dev.getMediaType() + " stream");
+            supportedExtensions.remove(dev.getMediaType());
             switch(dev.getMediaType())
             {
                 case VIDEO:
@@ -0,0 +1,236 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.utils;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * A <tt>PortPool</tt> hands out the ports of a range, each of them to a
+ * single user at a time, until it is released.
+ *
+ * The state of the ports is kept in a bitmap of <tt>AtomicLongArray</tt>
+ * (a bit set for each reserved port) updated with CAS, so no lock is taken.
+ * Each reservation starts its search at the port following the one where the
+ * previous reservation started, so that concurrent reservations look at
+ * different words of the bitmap, and the ports are assigned in order when
+ * nothing is released.
+ *
+ * A port that could not be bound (used by another process) is quarantined :
+ * it stays reserved and is never handed out again.
+ */
+public class PortPool
+{
+    /**
+     * The first port of the range.
+     */
+    private final int minPort;
+
+    /**
+     * The number of ports in the range.
+     */
+    private final int size;
+
+    /**
+     * The bitmap of the reserved ports (the bit <tt>i</tt> corresponds to the
+     * port <tt>minPort + i</tt>).
+     */
+    private final AtomicLongArray reserved;
+
+    /**
+     * The number of reservations done so far, used to find the port at which
+     * the next reservation starts its search.
+     */
+    private final AtomicInteger reservations = new AtomicInteger();
+
+    /**
+     * The number of ports currently reserved by users (without the
+     * quarantined ones).
+     */
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    /**
+     * The number of ports that could not be bound, and have been quarantined.
+     */
+    private final AtomicInteger bindFailures = new AtomicInteger();
+
+    /**
+     * The number of reservations that failed because all the ports were
+     * reserved.
+     */
+    private final AtomicInteger exhausted = new AtomicInteger();
+
+    /**
+     * Initializes a new <tt>PortPool</tt> handing out the ports from
+     * <tt>minPort</tt> to <tt>maxPort</tt> (both inclusive).
+     *
+     * @param minPort the first port of the range.
+     * @param maxPort the last port of the range.
+     */
+    public PortPool(int minPort, int maxPort)
+    {
+        if (maxPort < minPort)
+        {
+            throw new IllegalArgumentException(
+                "Empty port range [" + minPort + ", " + maxPort + "]");
+        }
+        this.minPort = minPort;
+        this.size = maxPort - minPort + 1;
+        this.reserved = new AtomicLongArray((size + 63) / 64);
+    }
+
+    /**
+     * Reserve a free port of this <tt>PortPool</tt>.
+     *
+     * @return the reserved port, or -1 if all the ports are reserved.
+     */
+    public int reserve()
+    {
+        int index = Math.floorMod(reservations.getAndIncrement(), size);
+
+        for (int scanned = 0; scanned < size;)
+        {
+            int word = index >>> 6;
+            long bit = 1L << (index & 63);
+            long bits = reserved.get(word);
+
+            if (bits == -1L)
+            {
+                // The whole word is reserved, go to the next one.
+                int skipped = 64 - (index & 63);
+                scanned += skipped;
+                index += skipped;
+            }
+            else if ((bits & bit) == 0)
+            {
+                if (reserved.compareAndSet(word, bits, bits | bit))
+                {
+                    inUse.incrementAndGet();
+                    return minPort + index;
+                }
+                // Another port of the word has changed, try again this one.
+                continue;
+            }
+            else
+            {
+                scanned++;
+                index++;
+            }
+
+            if (index >= size)
+                index = 0;
+        }
+
+        exhausted.incrementAndGet();
+        return -1;
+    }
+
+    /**
+     * Release a port reserved with {@link #reserve()}, so that it can be
+     * handed out again.
+     *
+     * @param port the port to release.
+     * @return false if <tt>port</tt> was not reserved.
+     */
+    public boolean release(int port)
+    {
+        int index = port - minPort;
+        if (index < 0 || index >= size)
+            return false;
+
+        int word = index >>> 6;
+        long bit = 1L << (index & 63);
+        long bits;
+        do
+        {
+            bits = reserved.get(word);
+            if ((bits & bit) == 0)
+                return false;
+        }
+        while (!reserved.compareAndSet(word, bits, bits & ~bit));
+
+        inUse.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Quarantine a port reserved with {@link #reserve()} that could not be
+     * bound : it is not released, so it will not be handed out again.
+     *
+     * @param port the port that could not be bound.
+     */
+    public void bindFailed(int port)
+    {
+        inUse.decrementAndGet();
+        bindFailures.incrementAndGet();
+    }
+
+    /**
+     * Get the number of ports currently reserved by users.
+     *
+     * @return the number of ports currently reserved by users.
+     */
+    public int getInUse()
+    {
+        return inUse.get();
+    }
+
+    /**
+     * Get the number of ports of this <tt>PortPool</tt>.
+     *
+     * @return the number of ports of this <tt>PortPool</tt>.
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Get the number of ports that could not be bound (and have been
+     * quarantined).
+     *
+     * @return the number of ports that could not be bound.
+     */
+    public int getBindFailures()
+    {
+        return bindFailures.get();
+    }
+
+    /**
+     * Get the number of reservations that failed because all the ports were
+     * in use.
+     *
+     * @return the number of reservations that failed.
+     */
+    public int getExhausted()
+    {
+        return exhausted.get();
+    }
+
+    /**
+     * Get the metrics of this <tt>PortPool</tt> in JSON.
+     *
+     * @return the metrics of this <tt>PortPool</tt> in JSON.
+     */
+    public String getStatsJSON()
+    {
+        return "{ \"ports\":" + size
+            + " , \"inUse\":" + inUse.get()
+            + " , \"reservations\":" + reservations.get()
+            + " , \"bindFailures\":" + bindFailures.get()
+            + " , \"exhausted\":" + exhausted.get()
+            + " }";
+    }
+}
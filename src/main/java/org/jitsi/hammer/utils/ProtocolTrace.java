@@ -0,0 +1,317 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.utils;
+
+import org.jitsi.util.Logger;
+import org.jivesoftware.smack.packet.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Traces the XML of the stanzas exchanged by the <tt>FakeUser</tt>s, for
+ * debugging the signalling.
+ *
+ * It is disabled by default, and then only costs a volatile read per
+ * stanza. When it is enabled, only the stanzas of a sample of the users (one
+ * user out of <tt>sampling</tt>, or a single user) are traced, and they are
+ * serialized and written by a background thread : the threads of Smack only
+ * queue them, and the stanzas that do not fit in the queue are dropped
+ * rather than slowing the users down. The stanzas given to <tt>trace</tt>
+ * must not be modified afterwards.
+ */
+public class ProtocolTrace
+{
+    /**
+     * The <tt>Logger</tt> used by the <tt>ProtocolTrace</tt> class and its
+     * instances for logging output.
+     */
+    private static final Logger logger
+        = Logger.getLogger(ProtocolTrace.class);
+
+    /**
+     * The output meaning the standard output.
+     */
+    public static final String STDOUT = "-";
+
+    /**
+     * The maximum number of stanzas waiting to be written.
+     */
+    private static final int QUEUE_CAPACITY = 4096;
+
+    /**
+     * The entry queued by <tt>stop</tt> to stop the writer thread.
+     */
+    private static final Entry STOP = new Entry(null, null, null);
+
+    /**
+     * The stanzas waiting to be written.
+     */
+    private final BlockingQueue<Entry> queue
+        = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * The number of stanzas dropped because the queue was full.
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * The file in which the stanzas are written (<tt>STDOUT</tt> for the
+     * standard output), or null if the trace is disabled.
+     */
+    private String output;
+
+    /**
+     * One user out of <tt>sampling</tt> is traced.
+     */
+    private volatile int sampling = 1;
+
+    /**
+     * The index of the only user traced, or -1 to trace a sample of the
+     * users.
+     */
+    private volatile int user = -1;
+
+    /**
+     * Whether the stanzas are traced (the writer thread is running).
+     */
+    private volatile boolean enabled = false;
+
+    /**
+     * The thread writing the stanzas.
+     */
+    private Thread writerThread;
+
+    /**
+     * Set the file in which the stanzas are written (has to be called before
+     * {@link #start}).
+     *
+     * @param output the path of the file, <tt>STDOUT</tt> for the standard
+     * output, or null to disable the trace.
+     */
+    public void setOutput(String output)
+    {
+        this.output = output;
+    }
+
+    /**
+     * Trace one user out of <tt>sampling</tt>.
+     *
+     * @param sampling the sampling of the users (1 to trace all of them).
+     */
+    public void setSampling(int sampling)
+    {
+        this.sampling = Math.max(1, sampling);
+    }
+
+    /**
+     * Only trace the user of index <tt>user</tt>.
+     *
+     * @param user the index of the user, or -1 to trace a sample of the
+     * users.
+     */
+    public void setUser(int user)
+    {
+        this.user = user;
+    }
+
+    /**
+     * Start writing the stanzas traced, if an output has been set.
+     */
+    public synchronized void start()
+    {
+        if (output == null || writerThread != null)
+            return;
+
+        final Writer out;
+        try
+        {
+            out = STDOUT.equals(output)
+                ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                : new OutputStreamWriter(
+                    new FileOutputStream(output), StandardCharsets.UTF_8);
+        }
+        catch (IOException e)
+        {
+            logger.error("Cannot open the protocol trace " + output, e);
+            return;
+        }
+
+        writerThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                write(new BufferedWriter(out));
+            }
+        }, "ProtocolTrace");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        enabled = true;
+    }
+
+    /**
+     * Stop tracing the stanzas, and wait for the ones already queued to be
+     * written.
+     */
+    public synchronized void stop()
+    {
+        if (writerThread == null)
+            return;
+
+        enabled = false;
+        try
+        {
+            // The writer thread is gone if it could not write.
+            if (writerThread.isAlive())
+            {
+                queue.put(STOP);
+                writerThread.join();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        writerThread = null;
+
+        if (dropped.get() != 0)
+            logger.warn("The protocol trace dropped " + dropped.get()
+                + " stanzas (the writer could not keep up)");
+    }
+
+    /**
+     * Get whether the stanzas of a user are traced.
+     *
+     * @param index the index of the user.
+     * @return true if the stanzas of the user are traced.
+     */
+    public boolean isTraced(int index)
+    {
+        if (!enabled)
+            return false;
+
+        int user = this.user;
+        return user >= 0 ? index == user : index % sampling == 0;
+    }
+
+    /**
+     * Queue a stanza to be written. The caller is expected to have checked
+     * <tt>isTraced</tt> first.
+     *
+     * @param nickname the nickname of the user sending or receiving the
+     * stanza.
+     * @param label what the user is doing with the stanza.
+     * @param stanza the stanza.
+     */
+    public void trace(String nickname, String label, Stanza stanza)
+    {
+        if (!queue.offer(new Entry(nickname, label, stanza)))
+            dropped.incrementAndGet();
+    }
+
+    /**
+     * The loop of the writer thread : write the stanzas queued until
+     * <tt>STOP</tt> is queued.
+     *
+     * @param out the <tt>Writer</tt> to write to.
+     */
+    private void write(Writer out)
+    {
+        DateFormat dateFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+        try
+        {
+            while (true)
+            {
+                Entry entry = queue.take();
+                if (entry == STOP)
+                    break;
+
+                out.write(dateFormat.format(new Date(entry.millis)));
+                out.write(' ');
+                out.write(entry.nickname);
+                out.write(" : ");
+                out.write(entry.label);
+                out.write(" : ");
+                out.write(entry.stanza.toXML().toString());
+                out.write('\n');
+                if (queue.isEmpty())
+                    out.flush();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e)
+        {
+            logger.error("Cannot write the protocol trace", e);
+            enabled = false;
+        }
+        finally
+        {
+            try
+            {
+                if (STDOUT.equals(output))
+                    out.flush();
+                else
+                    out.close();
+            }
+            catch (IOException e)
+            {
+                logger.error("Cannot close the protocol trace", e);
+            }
+        }
+    }
+
+    /**
+     * A stanza waiting to be written.
+     */
+    private static class Entry
+    {
+        /**
+         * The time at which the stanza was traced.
+         */
+        private final long millis = System.currentTimeMillis();
+
+        /**
+         * The nickname of the user sending or receiving the stanza.
+         */
+        private final String nickname;
+
+        /**
+         * What the user is doing with the stanza.
+         */
+        private final String label;
+
+        /**
+         * The stanza.
+         */
+        private final Stanza stanza;
+
+        Entry(String nickname, String label, Stanza stanza)
+        {
+            this.nickname = nickname;
+            this.label = label;
+            this.stanza = stanza;
+        }
+    }
+}
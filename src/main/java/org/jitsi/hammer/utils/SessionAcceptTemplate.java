@@ -0,0 +1,309 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jitsi.hammer.utils;
+
+import net.java.sip.communicator.impl.protocol.jabber.extensions.jingle.*;
+import net.java.sip.communicator.service.protocol.media.*;
+import org.jitsi.service.neomedia.*;
+import org.jitsi.service.neomedia.format.*;
+import org.jivesoftware.smack.packet.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The result of the negotiation of a session-initiate : the selected
+ * <tt>MediaFormat</tt> and RTP extensions of each content, the dynamic payload
+ * types and RTP extension IDs they are mapped to, and the (frozen) contents of
+ * the session-accept.
+ *
+ * The focus sends the same offer (payload types and RTP extensions) to every
+ * user, only the transport and the sources change. So the negotiation is
+ * done once per offer, keyed by its fingerprint, and each user copies the
+ * contents of the template, sharing their payload types and RTP header
+ * extensions (which cache their XML), before adding its own SSRCs, transport
+ * and DTLS fingerprint.
+ *
+ * A template is immutable once it has been published with
+ * {@link #putIfAbsent}, so it is shared by the threads of all the users.
+ */
+public class SessionAcceptTemplate
+{
+    /**
+     * The templates of the offers negotiated so far, by fingerprint.
+     */
+    private static final Map<String, SessionAcceptTemplate> templates
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The contents of the session-accept, by name.
+     */
+    private final Map<String, NewContentPacketExtension> contents
+        = new LinkedHashMap<>();
+
+    /**
+     * The selected <tt>MediaFormat</tt> of each content.
+     */
+    private final Map<String, MediaFormat> selectedFormats = new HashMap<>();
+
+    /**
+     * The selected RTP extensions of each content.
+     */
+    private final Map<String, List<RTPExtension>> selectedRtpExtensions
+        = new HashMap<>();
+
+    /**
+     * The dynamic payload types of the selected <tt>MediaFormat</tt>s which
+     * do not have a static one.
+     *
+     * They are resolved from the <tt>DynamicPayloadTypeRegistry</tt> of the
+     * negotiation when the contents are added, so that the users never touch
+     * the registry, which is not thread-safe.
+     */
+    private final Map<MediaFormat, Byte> payloadTypes = new HashMap<>();
+
+    /**
+     * The IDs of the selected RTP extensions, resolved from the
+     * <tt>DynamicRTPExtensionsRegistry</tt> of the negotiation when the
+     * contents are added.
+     */
+    private final Map<RTPExtension, Byte> rtpExtensionIds = new HashMap<>();
+
+    /**
+     * Get the fingerprint of an offer : the names of its contents, and the
+     * media, payload types and RTP header extensions of their descriptions.
+     * The transport and the sources, which change for every user, are not
+     * part of it.
+     *
+     * @param remoteContents the contents of the session-initiate.
+     * @return the fingerprint of the offer.
+     */
+    public static String getOfferFingerprint(
+        List<NewContentPacketExtension> remoteContents)
+    {
+        StringBuilder fingerprint = new StringBuilder();
+
+        for (NewContentPacketExtension content : remoteContents)
+        {
+            fingerprint.append(content.getName()).append('\n');
+
+            NewRtpDescriptionPacketExtension description
+                = content.getFirstChildOfType(
+                    NewRtpDescriptionPacketExtension.class);
+            if (description == null)
+                continue;
+
+            fingerprint.append(description.getMedia()).append('\n');
+            for (NewPayloadTypePacketExtension pt
+                    : description.getPayloadTypes())
+            {
+                fingerprint.append(pt.toXML());
+            }
+            for (NewRTPHdrExtPacketExtension ext
+                    : description.getExtmapList())
+            {
+                fingerprint.append(ext.toXML());
+            }
+            fingerprint.append('\n');
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Get the template of an offer, if it has already been negotiated.
+     *
+     * @param fingerprint the fingerprint of the offer.
+     * @return the template of the offer, or null.
+     */
+    public static SessionAcceptTemplate get(String fingerprint)
+    {
+        return templates.get(fingerprint);
+    }
+
+    /**
+     * Publish the template of an offer, unless another user published one
+     * first. The template can no longer be modified.
+     *
+     * @param fingerprint the fingerprint of the offer.
+     * @param template the template of the offer.
+     * @return the template to use : <tt>template</tt>, or the one already
+     * published.
+     */
+    public static SessionAcceptTemplate putIfAbsent(
+        String fingerprint,
+        SessionAcceptTemplate template)
+    {
+        for (NewContentPacketExtension content : template.contents.values())
+            content.freeze();
+
+        SessionAcceptTemplate previous
+            = templates.putIfAbsent(fingerprint, template);
+        return previous != null ? previous : template;
+    }
+
+    /**
+     * Add a negotiated content to this template, with the dynamic payload type
+     * of its <tt>MediaFormat</tt> and the IDs of its RTP extensions.
+     *
+     * @param content the content of the session-accept.
+     * @param format the selected <tt>MediaFormat</tt> of the content (null
+     * for the contents without media, like data).
+     * @param rtpExtensions the selected RTP extensions of the content.
+     * @param ptRegistry the registry of the dynamic payload types learned in
+     * the offer (only used if <tt>format</tt> has no static payload type).
+     * @param rtpExtRegistry the registry of the dynamic RTP extensions learned
+     * in the offer (only used if <tt>rtpExtensions</tt> is not null).
+     */
+    public void addContent(
+        NewContentPacketExtension content,
+        MediaFormat format,
+        List<RTPExtension> rtpExtensions,
+        DynamicPayloadTypeRegistry ptRegistry,
+        DynamicRTPExtensionsRegistry rtpExtRegistry)
+    {
+        String name = content.getName();
+
+        contents.put(name, content);
+        if (format != null)
+        {
+            selectedFormats.put(name, format);
+            if (format.getRTPPayloadType()
+                == MediaFormat.RTP_PAYLOAD_TYPE_UNKNOWN)
+            {
+                payloadTypes.put(format, ptRegistry.getPayloadType(format));
+            }
+        }
+        if (rtpExtensions != null)
+        {
+            selectedRtpExtensions.put(
+                name, Collections.unmodifiableList(rtpExtensions));
+            for (RTPExtension rtpExtension : rtpExtensions)
+            {
+                rtpExtensionIds.put(
+                    rtpExtension,
+                    rtpExtRegistry.getExtensionMapping(rtpExtension));
+            }
+        }
+    }
+
+    /**
+     * Remove a content from this template.
+     *
+     * @param name the name of the content.
+     */
+    public void removeContent(String name)
+    {
+        contents.remove(name);
+        selectedFormats.remove(name);
+        selectedRtpExtensions.remove(name);
+    }
+
+    /**
+     * Create the contents of the session-accept of a user : the contents and
+     * descriptions are copied, so that the user can add its transport and
+     * sources to them, but their payload types and RTP header extensions are
+     * shared.
+     *
+     * @return the contents of the session-accept, by name.
+     */
+    public Map<String, NewContentPacketExtension> createContents()
+    {
+        Map<String, NewContentPacketExtension> copies = new LinkedHashMap<>();
+
+        for (NewContentPacketExtension content : contents.values())
+        {
+            NewContentPacketExtension copy
+                = NewAbstractExtensionElement.clone(content);
+
+            for (Element child : content.getChildExtensions())
+            {
+                if (child instanceof NewRtpDescriptionPacketExtension)
+                {
+                    copy.addChildExtension(copyDescription(
+                        (NewRtpDescriptionPacketExtension) child));
+                }
+                else
+                {
+                    copy.addChildExtension(child);
+                }
+            }
+            copies.put(copy.getName(), copy);
+        }
+        return copies;
+    }
+
+    /**
+     * Copy a description of the template, sharing its payload types and RTP
+     * header extensions.
+     *
+     * @param description the description of the template.
+     * @return the copy of the description.
+     */
+    private static NewRtpDescriptionPacketExtension copyDescription(
+        NewRtpDescriptionPacketExtension description)
+    {
+        NewRtpDescriptionPacketExtension copy
+            = NewAbstractExtensionElement.clone(description);
+
+        for (Element child : description.getChildExtensions())
+            copy.addChildExtension(child);
+        return copy;
+    }
+
+    /**
+     * Get the dynamic payload types of the selected <tt>MediaFormat</tt>s.
+     *
+     * @return the (unmodifiable) dynamic payload type of each selected
+     * <tt>MediaFormat</tt> which has no static one.
+     */
+    public Map<MediaFormat, Byte> getPayloadTypes()
+    {
+        return Collections.unmodifiableMap(payloadTypes);
+    }
+
+    /**
+     * Get the IDs of the selected RTP extensions.
+     *
+     * @return the (unmodifiable) ID of each selected RTP extension.
+     */
+    public Map<RTPExtension, Byte> getRtpExtensionIds()
+    {
+        return Collections.unmodifiableMap(rtpExtensionIds);
+    }
+
+    /**
+     * Get the selected <tt>MediaFormat</tt> of each content.
+     *
+     * @return the (unmodifiable) selected <tt>MediaFormat</tt> of each
+     * content, by name.
+     */
+    public Map<String, MediaFormat> getSelectedFormats()
+    {
+        return Collections.unmodifiableMap(selectedFormats);
+    }
+
+    /**
+     * Get the selected RTP extensions of each content.
+     *
+     * @return the (unmodifiable) selected RTP extensions of each content, by
+     * name.
+     */
+    public Map<String, List<RTPExtension>> getSelectedRtpExtensions()
+    {
+        return Collections.unmodifiableMap(selectedRtpExtensions);
+    }
+}
@@ -17,15 +17,16 @@ package org.jitsi.videobridge;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import javax.media.*;
 import javax.media.control.*;
 import javax.media.format.*;
 import javax.media.protocol.*;
 
+import org.jitsi.hammer.media.*;
 import org.jitsi.impl.neomedia.codec.*;
 import org.jitsi.impl.neomedia.jmfext.media.protocol.*;
-import org.jitsi.impl.neomedia.jmfext.media.renderer.audio.*;
 
 /**
  * Implements a <tt>CaptureDevice</tt> which provides silence in the form of
@@ -51,7 +52,8 @@ public class AudioSilenceCaptureDevice
     /**
      * The interval of time in milliseconds between two consecutive ticks of the
      * clock used by <tt>AudioSilenceCaptureDevice</tt> and, more specifically,
-     * <tt>AudioSilenceStream</tt>.
+     * <tt>AudioSilenceStream</tt>. The ticks are driven by the shared
+     * <tt>MediaClock</tt> instead of a thread per stream.
      */
     private static final long CLOCK_TICK_INTERVAL = 20;
 
@@ -110,16 +112,12 @@ public class AudioSilenceCaptureDevice
         implements Runnable
     {
         /**
-         * The indicator which determines whether {@link #start()} has been
-         * invoked on this instance without an intervening {@link #stop()}.
+         * The <tt>MediaClock.Registration</tt> which pushes available media
+         * data out of this instance to its consumer i.e.
+         * <tt>BufferTransferHandler</tt> at each tick, or null if this
+         * instance is not started.
          */
-        private boolean started;
-
-        /**
-         * The <tt>Thread</tt> which pushes available media data out of this
-         * instance to its consumer i.e. <tt>BufferTransferHandler</tt>.
-         */
-        private Thread thread;
+        private MediaClock.Registration registration;
 
         /**
          * Initializes a new <tt>AudioSilenceStream</tt> which is to be exposed
@@ -180,118 +178,16 @@ public class AudioSilenceCaptureDevice
         }
 
         /**
-         * Runs in {@link #thread} and pushes available media data out of this
-         * instance to its consumer i.e. <tt>BufferTransferHandler</tt>.
+         * Runs at each tick of the <tt>MediaClock</tt> and pushes available
+         * media data out of this instance to its consumer i.e.
+         * <tt>BufferTransferHandler</tt>.
          */
         public void run()
         {
-            try
-            {
-                /*
-                 * Make sure that the current thread which implements the actual
-                 * ticking of the clock implemented by this instance uses a
-                 * thread priority considered appropriate for audio processing.
-                 */
-                AbstractAudioRenderer.useAudioThreadPriority();
+            BufferTransferHandler transferHandler = this.transferHandler;
 
-                /*
-                 * The method implements a clock which ticks at a certain and
-                 * regular interval of time which is not affected by the
-                 * duration of the execution of, for example, the invocation of
-                 * BufferTransferHandler.transferData(PushBufferStream).
-                 *
-                 * XXX The implementation utilizes System.currentTimeMillis()
-                 * and, consequently, may be broken by run-time adjustments to
-                 * the system time. 
-                 */
-                long tickTime = System.currentTimeMillis();
-
-                while (true)
-                {
-                    long sleepInterval = tickTime - System.currentTimeMillis();
-                    boolean tick = (sleepInterval <= 0);
-
-                    if (tick)
-                    {
-                        /*
-                         * The current thread has woken up just in time or too
-                         * late for the next scheduled clock tick and,
-                         * consequently, the clock should tick right now.
-                         */
-                        tickTime += CLOCK_TICK_INTERVAL;
-                    }
-                    else
-                    {
-                        /*
-                         * The current thread has woken up too early for the
-                         * next scheduled clock tick and, consequently, it
-                         * should sleep until the time of the next scheduled
-                         * clock tick comes.
-                         */
-                        try
-                        {
-                            Thread.sleep(sleepInterval);
-                        }
-                        catch (InterruptedException ie)
-                        {
-                        }
-                        /*
-                         * The clock will not tick and spurious wakeups will be
-                         * handled. However, the current thread will first check
-                         * whether it is still utilized by this
-                         * AudioSilenceStream in order to not delay stop
-                         * requests.
-                         */
-                    }
-
-                    synchronized (this)
-                    {
-                        /*
-                         * If the current Thread is no longer utilized by this
-                         * AudioSilenceStream, it no longer has the right to
-                         * touch it. If this AudioSilenceStream has been
-                         * stopped, the current Thread should stop as well. 
-                         */
-                        if ((thread != Thread.currentThread()) || !started)
-                            break;
-                    }
-
-                    if (tick)
-                    {
-                        BufferTransferHandler transferHandler
-                            = this.transferHandler;
-
-                        if (transferHandler != null)
-                        {
-                            try
-                            {
-                                transferHandler.transferData(this);
-                            }
-                            catch (Throwable t)
-                            {
-                                if (t instanceof ThreadDeath)
-                                    throw (ThreadDeath) t;
-                                else
-                                {
-                                    // TODO Auto-generated method stub
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            finally
-            {
-                synchronized (this)
-                {
-                    if (thread == Thread.currentThread())
-                    {
-                        thread = null;
-                        started = false;
-                        notifyAll();
-                    }
-                }
-            }
+            if (transferHandler != null)
+                transferHandler.transferData(this);
         }
 
         /**
@@ -304,31 +200,13 @@ public class AudioSilenceCaptureDevice
         public synchronized void start()
             throws IOException
         {
-            if (thread == null)
+            if (registration == null)
             {
-                String className = getClass().getName();
-
-                thread = new Thread(this, className);
-                thread.setDaemon(true);
-
-                boolean started = false;
-
-                try
-                {
-                    thread.start();
-                    started = true;
-                }
-                finally
-                {
-                    this.started = started;
-                    if (!started)
-                    {
-                        thread = null;
-                        notifyAll();
-
-                        throw new IOException("Failed to start " + className);
-                    }
-                }
+                registration
+                    = MediaClock.getInstance().schedule(
+                            this,
+                            TimeUnit.MILLISECONDS.toNanos(
+                                CLOCK_TICK_INTERVAL));
             }
         }
 
@@ -342,24 +220,15 @@ public class AudioSilenceCaptureDevice
         public synchronized void stop()
             throws IOException
         {
-            this.started = false;
-            notifyAll();
-
-            boolean interrupted = false;
-
-            while (thread != null)
+            if (registration != null)
             {
-                try
-                {
-                    wait();
-                }
-                catch (InterruptedException ie)
-                {
-                    interrupted = true;
-                }
+                /*
+                 * Blocks until a transfer in progress (if any) is done, so
+                 * that no media is pushed after stop() returns.
+                 */
+                registration.cancel();
+                registration = null;
             }
-            if (interrupted)
-                Thread.currentThread().interrupt();
         }
     }
 }
@@ -0,0 +1,131 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber.extensions.jingle;
+
+import org.jivesoftware.smack.packet.*;
+import org.jivesoftware.smack.util.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures the serialization of the contents of a session-accept : in a
+ * single pass with the payload types and RTP header extensions cached, after
+ * a modification of a payload type (whose cache is then rebuilt), and with
+ * the former <tt>toXML</tt> which serialized every element into its own
+ * builder and <tt>String</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ExtensionElementXmlBenchmark
+{
+    private List<NewContentPacketExtension> contents;
+
+    private NewParameterPacketExtension parameter;
+
+    private int modifications = 0;
+
+    @Setup
+    public void setup()
+    {
+        contents = JingleTestContents.createOffer();
+        parameter = contents.get(0)
+            .getFirstChildOfType(NewRtpDescriptionPacketExtension.class)
+            .getPayloadTypes().get(0)
+            .getParameters().get(0);
+    }
+
+    @Benchmark
+    public int appendXML()
+    {
+        XmlStringBuilder xml = new XmlStringBuilder();
+        for (NewContentPacketExtension content : contents)
+            content.appendXML(xml);
+        return xml.length();
+    }
+
+    @Benchmark
+    public int appendXMLModified()
+    {
+        parameter.setValue(Integer.toString(++modifications & 0xF));
+        return appendXML();
+    }
+
+    @Benchmark
+    public int formerToXML()
+    {
+        XmlStringBuilder xml = new XmlStringBuilder();
+        for (NewContentPacketExtension content : contents)
+            xml.append(formerToXML(content));
+        return xml.length();
+    }
+
+    /**
+     * The former implementation of
+     * <tt>NewAbstractExtensionElement.toXML</tt>.
+     */
+    private static CharSequence formerToXML(
+        NewAbstractExtensionElement element)
+    {
+        XmlStringBuilder xmlBuilder;
+        if (element.namespaceInherited)
+        {
+            xmlBuilder = new XmlStringBuilder((NamedElement) element);
+        }
+        else
+        {
+            xmlBuilder = new XmlStringBuilder(element);
+        }
+
+        for (String name : element.getAttributeNames())
+        {
+            xmlBuilder.attribute(
+                name, element.getAttribute(name).toString());
+        }
+
+        List<Element> childElements
+            = new ArrayList<>(element.getChildExtensions());
+        String text = element.getText();
+
+        if (childElements.isEmpty() && text == null)
+        {
+            xmlBuilder.closeEmptyElement();
+        }
+        else
+        {
+            xmlBuilder.rightAngleBracket();
+
+            for (Element e : childElements)
+            {
+                xmlBuilder.append(
+                    e instanceof NewAbstractExtensionElement
+                        ? formerToXML((NewAbstractExtensionElement) e)
+                        : e.toXML());
+            }
+
+            xmlBuilder.optAppend(element.getText());
+
+            xmlBuilder.closeElement(element);
+        }
+
+        return xmlBuilder.toString();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber.extensions.jingle;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Measures the lookup of the providers of the elements of a Jingle IQ in the
+ * perfect hash table of <tt>JingleElementTable</tt>, compared with the
+ * lookup of <tt>ProviderManager</tt> (a <tt>ConcurrentHashMap</tt> keyed by
+ * the concatenation of the element name and of the namespace, holding the
+ * hundred or so providers registered by Smack), and the creation of the
+ * elements with constructor references, compared with reflection.
+ *
+ * Each operation looks up (or creates) all the elements of the table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JingleElementTableBenchmark
+{
+    /**
+     * The number of providers registered in the <tt>ProviderManager</tt>
+     * besides the Jingle ones.
+     */
+    private static final int OTHER_PROVIDERS = 100;
+
+    private String[] elementNames;
+
+    private String[] namespaces;
+
+    private final Map<String, Object> providerManager
+        = new ConcurrentHashMap<>();
+
+    private final List<Supplier<NewAbstractExtensionElement>> factories
+        = new ArrayList<>();
+
+    private final List<Class<? extends NewAbstractExtensionElement>> classes
+        = new ArrayList<>();
+
+    @Setup
+    public void setup()
+    {
+        int size = JingleElementTable.size();
+        elementNames = new String[size];
+        namespaces = new String[size];
+        for (int i = 0; i < size; i++)
+        {
+            // Copies, as the strings of the parser are not interned.
+            elementNames[i] = new String(JingleElementTable.getElementName(i));
+            namespaces[i] = new String(JingleElementTable.getNamespace(i));
+            providerManager.put(
+                elementNames[i] + '#' + namespaces[i],
+                JingleElementTable.getProvider(i));
+        }
+        for (int i = 0; i < OTHER_PROVIDERS; i++)
+            providerManager.put("element" + i + "#urn:other:" + i, i);
+
+        addElement(NewContentPacketExtension.class,
+            NewContentPacketExtension::new);
+        addElement(NewRtpDescriptionPacketExtension.class,
+            NewRtpDescriptionPacketExtension::new);
+        addElement(NewPayloadTypePacketExtension.class,
+            NewPayloadTypePacketExtension::new);
+        addElement(NewParameterPacketExtension.class,
+            NewParameterPacketExtension::new);
+        addElement(NewRtcpFbPacketExtension.class,
+            NewRtcpFbPacketExtension::new);
+        addElement(NewRTPHdrExtPacketExtension.class,
+            NewRTPHdrExtPacketExtension::new);
+        addElement(NewSourcePacketExtension.class,
+            NewSourcePacketExtension::new);
+        addElement(NewSourceGroupPacketExtension.class,
+            NewSourceGroupPacketExtension::new);
+        addElement(NewIceUdpTransportPacketExtension.class,
+            NewIceUdpTransportPacketExtension::new);
+        addElement(NewCandidatePacketExtension.class,
+            NewCandidatePacketExtension::new);
+        addElement(NewDtlsFingerprintPacketExtension.class,
+            NewDtlsFingerprintPacketExtension::new);
+    }
+
+    private <C extends NewAbstractExtensionElement> void addElement(
+        Class<C> c,
+        Supplier<NewAbstractExtensionElement> factory)
+    {
+        classes.add(c);
+        factories.add(factory);
+    }
+
+    @Benchmark
+    public void tableLookup(Blackhole blackhole)
+    {
+        for (int i = 0; i < elementNames.length; i++)
+        {
+            blackhole.consume(
+                JingleElementTable.getProvider(elementNames[i], namespaces[i]));
+        }
+    }
+
+    @Benchmark
+    public void providerManagerLookup(Blackhole blackhole)
+    {
+        for (int i = 0; i < elementNames.length; i++)
+        {
+            blackhole.consume(
+                providerManager.get(elementNames[i] + '#' + namespaces[i]));
+        }
+    }
+
+    @Benchmark
+    public void createByConstructorReference(Blackhole blackhole)
+    {
+        for (Supplier<NewAbstractExtensionElement> factory : factories)
+            blackhole.consume(factory.get());
+    }
+
+    @Benchmark
+    public void createByReflection(Blackhole blackhole)
+        throws Exception
+    {
+        for (Class<? extends NewAbstractExtensionElement> c : classes)
+            blackhole.consume(c.newInstance());
+    }
+}
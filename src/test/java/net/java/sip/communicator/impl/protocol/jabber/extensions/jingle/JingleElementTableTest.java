@@ -0,0 +1,122 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber.extensions.jingle;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the lookups in the perfect hash table of <tt>JingleElementTable</tt>
+ * against a list of the elements of a Jingle IQ written independently of the
+ * table.
+ */
+public class JingleElementTableTest
+{
+    private static final String JINGLE = "urn:xmpp:jingle:1";
+
+    private static final String RTP = "urn:xmpp:jingle:apps:rtp:1";
+
+    private static final String SSMA = "urn:xmpp:jingle:apps:rtp:ssma:0";
+
+    private static final String ICE_UDP
+        = "urn:xmpp:jingle:transports:ice-udp:1";
+
+    private static final String RAW_UDP
+        = "urn:xmpp:jingle:transports:raw-udp:1";
+
+    /**
+     * The (element name, namespace) of the elements of a Jingle IQ.
+     */
+    private static final String[][] ELEMENTS = {
+        { "content", JINGLE },
+        { "description", RTP },
+        { "payload-type", RTP },
+        { "parameter", RTP },
+        { "parameter", SSMA },
+        { "rtcp-fb", "urn:xmpp:jingle:apps:rtp:rtcp-fb:0" },
+        { "rtp-hdrext", "urn:xmpp:jingle:apps:rtp:rtp-hdrext:0" },
+        { "source", SSMA },
+        { "ssrc-info", "http://jitsi.org/jitmeet" },
+        { "ssrc-group", SSMA },
+        { "transport", ICE_UDP },
+        { "candidate", ICE_UDP },
+        { "candidate", RAW_UDP },
+        { "fingerprint", "urn:xmpp:jingle:apps:dtls:0" }
+    };
+
+    @Test
+    public void findsEveryElement()
+    {
+        assertEquals(ELEMENTS.length, JingleElementTable.size());
+
+        for (String[] element : ELEMENTS)
+        {
+            assertNotNull(
+                element[0] + " " + element[1],
+                JingleElementTable.getProvider(element[0], element[1]));
+        }
+    }
+
+    @Test
+    public void lookupReturnsTheProviderOfTheEntry()
+    {
+        for (int i = 0; i < JingleElementTable.size(); i++)
+        {
+            assertSame(
+                JingleElementTable.getProvider(i),
+                JingleElementTable.getProvider(
+                    JingleElementTable.getElementName(i),
+                    JingleElementTable.getNamespace(i)));
+        }
+    }
+
+    @Test
+    public void elementsOfTheSameNameInTwoNamespacesAreDistinct()
+    {
+        assertNotSame(
+            JingleElementTable.getProvider("parameter", RTP),
+            JingleElementTable.getProvider("parameter", SSMA));
+        assertNotSame(
+            JingleElementTable.getProvider("candidate", ICE_UDP),
+            JingleElementTable.getProvider("candidate", RAW_UDP));
+    }
+
+    @Test
+    public void unknownElementsAreNotFound()
+    {
+        assertNull(JingleElementTable.getProvider("parameter", ICE_UDP));
+        assertNull(JingleElementTable.getProvider("candidate", RTP));
+        assertNull(JingleElementTable.getProvider("candidate", null));
+        assertNull(JingleElementTable.getProvider("candidate", ""));
+        assertNull(JingleElementTable.getProvider("remote-candidate", ICE_UDP));
+        assertNull(JingleElementTable.getProvider("transport", RAW_UDP));
+        assertNull(JingleElementTable.getProvider("jingle", JINGLE));
+        assertNull(JingleElementTable.getProvider(null, RTP));
+        assertNull(JingleElementTable.getProvider("Content", JINGLE));
+    }
+
+    @Test
+    public void everyEntryIsInItsOwnSlot()
+    {
+        Set<Object> providers = new HashSet<>();
+
+        for (int i = 0; i < JingleElementTable.size(); i++)
+            assertTrue(providers.add(JingleElementTable.getProvider(i)));
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.sip.communicator.impl.protocol.jabber.extensions.jingle;
+
+import java.net.*;
+import java.util.*;
+
+/**
+ * Builds Jingle contents like the ones of the offer of the focus (the audio
+ * and video payload types of Jitsi Meet, with their parameters, RTCP
+ * feedbacks and RTP header extensions), for the tests and the benchmarks.
+ */
+public class JingleTestContents
+{
+    /**
+     * Create the audio and video contents of an offer.
+     *
+     * @return the contents of the offer.
+     */
+    public static List<NewContentPacketExtension> createOffer()
+    {
+        List<NewContentPacketExtension> contents = new ArrayList<>();
+
+        NewRtpDescriptionPacketExtension audio = createDescription("audio");
+        NewPayloadTypePacketExtension opus
+            = createPayloadType(111, "opus", 48000, 2);
+        opus.addParameter(new NewParameterPacketExtension("minptime", "10"));
+        opus.addParameter(new NewParameterPacketExtension("useinbandfec", "1"));
+        audio.addPayloadType(opus);
+        audio.addPayloadType(createPayloadType(103, "ISAC", 16000, 0));
+        audio.addPayloadType(createPayloadType(104, "ISAC", 32000, 0));
+        audio.addPayloadType(createPayloadType(0, "PCMU", 8000, 0));
+        audio.addPayloadType(createPayloadType(8, "PCMA", 8000, 0));
+        audio.addPayloadType(
+            createPayloadType(126, "telephone-event", 8000, 0));
+        audio.addExtmap(createExtmap(
+            "1", "urn:ietf:params:rtp-hdrext:ssrc-audio-level"));
+        audio.addExtmap(createExtmap(
+            "3",
+            "http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time"));
+        contents.add(createContent("audio", audio));
+
+        NewRtpDescriptionPacketExtension video = createDescription("video");
+        NewPayloadTypePacketExtension vp8
+            = createPayloadType(100, "VP8", 90000, 0);
+        addRtcpFb(vp8, "ccm", "fir");
+        addRtcpFb(vp8, "nack", null);
+        addRtcpFb(vp8, "nack", "pli");
+        addRtcpFb(vp8, "goog-remb", null);
+        video.addPayloadType(vp8);
+        NewPayloadTypePacketExtension vp9
+            = createPayloadType(101, "VP9", 90000, 0);
+        addRtcpFb(vp9, "ccm", "fir");
+        addRtcpFb(vp9, "nack", null);
+        addRtcpFb(vp9, "nack", "pli");
+        addRtcpFb(vp9, "goog-remb", null);
+        video.addPayloadType(vp9);
+        NewPayloadTypePacketExtension rtx
+            = createPayloadType(96, "rtx", 90000, 0);
+        rtx.addParameter(new NewParameterPacketExtension("apt", "100"));
+        addRtcpFb(rtx, "ccm", "fir");
+        addRtcpFb(rtx, "nack", null);
+        addRtcpFb(rtx, "nack", "pli");
+        video.addPayloadType(rtx);
+        video.addExtmap(createExtmap(
+            "3",
+            "http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time"));
+        video.addExtmap(createExtmap("4", "urn:3gpp:video-orientation"));
+        contents.add(createContent("video", video));
+
+        return contents;
+    }
+
+    private static NewContentPacketExtension createContent(
+        String name,
+        NewRtpDescriptionPacketExtension description)
+    {
+        NewContentPacketExtension content = new NewContentPacketExtension(
+            NewContentPacketExtension.CreatorEnum.initiator,
+            null,
+            name,
+            NewContentPacketExtension.SendersEnum.both);
+
+        content.addChildExtension(description);
+        return content;
+    }
+
+    private static NewRtpDescriptionPacketExtension createDescription(
+        String media)
+    {
+        NewRtpDescriptionPacketExtension description
+            = new NewRtpDescriptionPacketExtension();
+
+        description.setMedia(media);
+        return description;
+    }
+
+    private static NewPayloadTypePacketExtension createPayloadType(
+        int id,
+        String name,
+        int clockrate,
+        int channels)
+    {
+        NewPayloadTypePacketExtension payloadType
+            = new NewPayloadTypePacketExtension();
+
+        payloadType.setId(id);
+        payloadType.setName(name);
+        payloadType.setClockrate(clockrate);
+        if (channels > 0)
+            payloadType.setChannels(channels);
+        return payloadType;
+    }
+
+    private static void addRtcpFb(
+        NewPayloadTypePacketExtension payloadType,
+        String type,
+        String subtype)
+    {
+        NewRtcpFbPacketExtension rtcpFb = new NewRtcpFbPacketExtension();
+
+        rtcpFb.setFeedbackType(type);
+        if (subtype != null)
+            rtcpFb.setFeedbackSubtype(subtype);
+        payloadType.addRtcpFeedbackType(rtcpFb);
+    }
+
+    private static NewRTPHdrExtPacketExtension createExtmap(
+        String id,
+        String uri)
+    {
+        NewRTPHdrExtPacketExtension extmap = new NewRTPHdrExtPacketExtension();
+
+        extmap.setID(id);
+        extmap.setURI(URI.create(uri));
+        return extmap;
+    }
+}
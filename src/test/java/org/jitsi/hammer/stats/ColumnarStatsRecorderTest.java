@@ -0,0 +1,233 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.stats;
+
+import org.jitsi.service.neomedia.*;
+import org.junit.*;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the stats recorded by a <tt>ColumnarStatsRecorder</tt> are read
+ * back unchanged by a <tt>ColumnarStatsReader</tt>.
+ */
+public class ColumnarStatsRecorderTest
+{
+    private File file;
+
+    @Before
+    public void createFile()
+        throws IOException
+    {
+        file = File.createTempFile("hammer-stats", ".bin");
+        file.deleteOnExit();
+    }
+
+    @After
+    public void deleteFile()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void chunksAreReadBackUnchanged()
+        throws IOException
+    {
+        Random random = new Random(7);
+        FakeUserStats alice = createUser("alice", random);
+        FakeUserStats bob = createUser("b\u00f6b-\u65e5\u672c", random);
+        FakeUserStats carol = createUser("carol", random);
+        FakeUserStats[][] polls = {
+            { alice, bob },
+            // A new user, and the users in another order.
+            { carol, alice, bob },
+            {}
+        };
+
+        try (ColumnarStatsRecorder recorder = new ColumnarStatsRecorder(file))
+        {
+            for (int i = 0; i < polls.length; i++)
+                recorder.record(1000L * i, polls[i]);
+        }
+
+        try (ColumnarStatsReader reader = new ColumnarStatsReader(file))
+        {
+            assertFieldNames(reader);
+            for (int i = 0; i < polls.length; i++)
+            {
+                assertTrue(reader.nextChunk());
+                assertEquals(1000L * i, reader.getTimestamp());
+                assertChunk(reader, polls[i]);
+            }
+            assertFalse(reader.nextChunk());
+        }
+    }
+
+    @Test
+    public void largeChunkIsReadBackUnchanged()
+        throws IOException
+    {
+        // More than the initial 64 KiB of the buffers of the recorder.
+        Random random = new Random(11);
+        FakeUserStats[] users = new FakeUserStats[2000];
+        for (int i = 0; i < users.length; i++)
+            users[i] = createUser("user-" + i, random);
+
+        try (ColumnarStatsRecorder recorder = new ColumnarStatsRecorder(file))
+        {
+            recorder.record(42, users);
+            recorder.record(43, users);
+        }
+
+        try (ColumnarStatsReader reader = new ColumnarStatsReader(file))
+        {
+            assertTrue(reader.nextChunk());
+            assertChunk(reader, users);
+            assertTrue(reader.nextChunk());
+            assertEquals(43, reader.getTimestamp());
+            assertChunk(reader, users);
+            assertFalse(reader.nextChunk());
+        }
+    }
+
+    @Test
+    public void truncatedLastChunkIsSkipped()
+        throws IOException
+    {
+        Random random = new Random(3);
+        FakeUserStats[] users = {
+            createUser("alice", random), createUser("bob", random)
+        };
+
+        try (ColumnarStatsRecorder recorder = new ColumnarStatsRecorder(file))
+        {
+            recorder.record(1, users);
+            recorder.record(2, users);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"))
+        {
+            raf.setLength(raf.length() - 1);
+        }
+
+        try (ColumnarStatsReader reader = new ColumnarStatsReader(file))
+        {
+            assertTrue(reader.nextChunk());
+            assertChunk(reader, users);
+            assertFalse(reader.nextChunk());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFileIsRejected()
+        throws IOException
+    {
+        try (FileOutputStream out = new FileOutputStream(file))
+        {
+            out.write("{ \"not\" : \"columnar\" }".getBytes("UTF-8"));
+        }
+        new ColumnarStatsReader(file).close();
+    }
+
+    private static void assertFieldNames(ColumnarStatsReader reader)
+    {
+        StatsField[] fields = StatsField.values();
+        String[] names = reader.getFieldNames();
+
+        assertEquals(fields.length, names.length);
+        for (int f = 0; f < fields.length; f++)
+        {
+            assertEquals(fields[f].getJsonName(), names[f]);
+            assertEquals(fields[f].isIntegral(), reader.isIntegral(f));
+        }
+    }
+
+    private static void assertChunk(
+        ColumnarStatsReader reader,
+        FakeUserStats[] users)
+    {
+        StatsField[] fields = StatsField.values();
+        MediaType[] types = ColumnarStatsRecorder.MEDIA_TYPES;
+
+        assertEquals(users.length * types.length, reader.getRowCount());
+        int row = 0;
+        for (FakeUserStats user : users)
+        {
+            for (MediaType type : types)
+            {
+                assertEquals(user.getUsername(), reader.getUsername(row));
+                assertEquals(type.toString(), reader.getMediaType(row));
+                assertEquals(user.getSSRC(type), reader.getSSRC(row));
+                for (int f = 0; f < fields.length; f++)
+                {
+                    double value
+                        = fields[f].get(user.getMediaStreamStats(type));
+                    if (fields[f].isIntegral())
+                        assertEquals((long) value, reader.getLong(f, row));
+                    else
+                        assertEquals(value, reader.getDouble(f, row), 0);
+                }
+                row++;
+            }
+        }
+    }
+
+    /**
+     * Create the <tt>FakeUserStats</tt> of a user with an audio and a video
+     * stream whose stats are random.
+     */
+    private static FakeUserStats createUser(String username, Random random)
+    {
+        return TestMediaStreams.createUser(
+            username,
+            createRandomStats(random),
+            random.nextInt() & 0xFFFFFFFFL,
+            createRandomStats(random),
+            random.nextInt() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Create the handler of the getters of a <tt>MediaStreamStats</tt>
+     * returning a random value for each of them (always the same).
+     */
+    private static InvocationHandler createRandomStats(Random random)
+    {
+        final Map<String, Object> values = new HashMap<>();
+
+        for (Method method : MediaStreamStats.class.getMethods())
+        {
+            Class<?> returnType = method.getReturnType();
+            if (returnType == double.class)
+                values.put(method.getName(), random.nextDouble() * 1000);
+            else if (returnType == long.class)
+                values.put(method.getName(), random.nextLong() >>> 16);
+            else if (returnType == int.class)
+                values.put(method.getName(), random.nextInt(100000));
+        }
+
+        return new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method m, Object[] a)
+            {
+                return values.get(m.getName());
+            }
+        };
+    }
+}
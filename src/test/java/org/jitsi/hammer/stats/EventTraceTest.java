@@ -0,0 +1,252 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.stats;
+
+import org.jitsi.hammer.stats.EventTrace.Event;
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the ring of an <tt>EventTrace</tt>, in particular when it wraps
+ * around, through the trace files it dumps.
+ */
+public class EventTraceTest
+{
+    private File file;
+
+    @Before
+    public void createFile()
+        throws IOException
+    {
+        file = File.createTempFile("hammer-events", ".bin");
+        file.deleteOnExit();
+    }
+
+    @After
+    public void deleteFile()
+    {
+        file.delete();
+    }
+
+    @Test
+    public void eventsAreDumpedInOrderUntilTheRingIsFull()
+        throws IOException
+    {
+        EventTrace trace = new EventTrace(8);
+        int alice = trace.registerUser("alice");
+        int bob = trace.registerUser("bob");
+        Event[] events = Event.values();
+
+        for (int i = 0; i < 8; i++)
+            trace.record(i % 2 == 0 ? alice : bob, events[i], 1000 + i);
+
+        Dump dump = dump(trace);
+        assertEquals(Arrays.asList("alice", "bob"), dump.users);
+        assertEquals(0, dump.lost);
+        assertEquals(8, dump.count);
+        for (int i = 0; i < 8; i++)
+        {
+            assertEquals(1000 + i, dump.nanos[i]);
+            assertEquals(i % 2 == 0 ? alice : bob, dump.user[i]);
+            assertEquals(i, dump.event[i]);
+        }
+    }
+
+    @Test
+    public void oldestEventsAreOverwrittenWhenTheRingWrapsAround()
+        throws IOException
+    {
+        // Rounded up to 8 slots.
+        EventTrace trace = new EventTrace(5);
+        int user = trace.registerUser("alice");
+        Event[] events = Event.values();
+
+        for (int i = 0; i < 21; i++)
+            trace.record(user, events[i % events.length], 1000 + i);
+
+        assertEquals(13, trace.getLostCount());
+        Dump dump = dump(trace);
+        assertEquals(13, dump.lost);
+        assertEquals(8, dump.count);
+        for (int i = 0; i < 8; i++)
+        {
+            assertEquals(1000 + 13 + i, dump.nanos[i]);
+            assertEquals((13 + i) % events.length, dump.event[i]);
+        }
+    }
+
+    @Test
+    public void summaryOnlyCountsTheEventsLeftInTheRing()
+    {
+        EventTrace trace = new EventTrace(16);
+        Event[] events = Event.values();
+
+        // 3 users going through all the events, one after the other : only
+        // the last 16 events are left, and the first of them has no
+        // previous event to be measured from.
+        for (int u = 0; u < 3; u++)
+        {
+            int user = trace.registerUser("user" + u);
+            for (int e = 0; e < events.length; e++)
+                trace.record(user, events[e], 1000000L * (u * 100 + e));
+        }
+
+        String summary = trace.getSummaryJSON();
+        int lost = 3 * events.length - 16;
+        assertTrue(summary, summary.startsWith("{ \"lost\":" + lost + " "));
+
+        // The last user's events are all in the ring (all but its START
+        // are measured), as well as the last 16 - events.length events of
+        // the previous user (all but the first are measured).
+        int previousUser = 16 - events.length;
+        for (int e = 1; e < events.length; e++)
+        {
+            int count = 1;
+            if (e > events.length - previousUser)
+                count++;
+            assertTrue(
+                summary,
+                summary.contains(
+                    "\"" + events[e].getName() + "\":{ \"count\":" + count
+                        + " "));
+        }
+    }
+
+    @Test
+    public void concurrentWritersWrappingAroundLeaveConsistentSlots()
+        throws Exception
+    {
+        final EventTrace trace = new EventTrace(1024);
+        final int perThread = 50000;
+        Thread[] threads = new Thread[4];
+
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int user = trace.registerUser("user" + t);
+            threads[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    Event[] events = Event.values();
+                    for (int i = 0; i < perThread; i++)
+                    {
+                        trace.record(
+                            user, events[i % events.length],
+                            ((long) user << 32) | i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        Dump dump = dump(trace);
+        assertEquals(threads.length * perThread - 1024, dump.lost);
+        assertEquals(1024, dump.count);
+
+        // Each slot holds the timestamp and the event written together by
+        // the same writer, and the events of a user are in the order in
+        // which it recorded them.
+        long[] last = new long[threads.length];
+        Arrays.fill(last, -1);
+        for (int i = 0; i < dump.count; i++)
+        {
+            long nanos = dump.nanos[i];
+            int user = dump.user[i];
+            int sent = (int) nanos;
+
+            assertEquals(user, (int) (nanos >>> 32));
+            assertEquals(sent % Event.values().length, dump.event[i]);
+            assertTrue(sent > last[user]);
+            last[user] = sent;
+        }
+    }
+
+    private Dump dump(EventTrace trace)
+        throws IOException
+    {
+        trace.dump(file);
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file))))
+        {
+            return new Dump(in);
+        }
+    }
+
+    /**
+     * The content of a trace file, with the timestamps of the events
+     * converted back to the <tt>nanos</tt> given to <tt>record</tt>.
+     */
+    private static class Dump
+    {
+        final List<String> users = new ArrayList<>();
+
+        final long lost;
+
+        final int count;
+
+        final long[] nanos;
+
+        final int[] user;
+
+        final int[] event;
+
+        Dump(DataInputStream in)
+            throws IOException
+        {
+            assertEquals(EventTrace.MAGIC, in.readInt());
+            assertEquals(EventTrace.VERSION, in.readInt());
+            long startNanos = in.readLong();
+            in.readLong();
+
+            int events = in.readInt();
+            assertEquals(Event.values().length, events);
+            for (int i = 0; i < events; i++)
+                assertEquals(Event.values()[i].getName(), readString(in));
+            int userCount = in.readInt();
+            for (int i = 0; i < userCount; i++)
+                users.add(readString(in));
+
+            lost = in.readLong();
+            count = in.readInt();
+            nanos = new long[count];
+            user = new int[count];
+            event = new int[count];
+            for (int i = 0; i < count; i++)
+            {
+                nanos[i] = in.readLong() + startNanos;
+                user[i] = in.readInt();
+                event[i] = in.readByte();
+            }
+            assertEquals(-1, in.read());
+        }
+
+        private static String readString(DataInputStream in)
+            throws IOException
+        {
+            byte[] bytes = new byte[in.readShort()];
+            in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+    }
+}
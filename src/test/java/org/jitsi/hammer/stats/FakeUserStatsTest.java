@@ -0,0 +1,200 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.stats;
+
+import org.jitsi.service.neomedia.*;
+import org.junit.*;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that <tt>FakeUserStats.writeStatsJSON</tt> writes, byte for byte, the
+ * JSON that was built with <tt>String.format</tt> and
+ * <tt>FakeUserStats.jsonTemplate</tt> before the stats were streamed.
+ */
+public class FakeUserStatsTest
+{
+    /**
+     * The values returned by the getters of the fake
+     * <tt>MediaStreamStats</tt>, in turn : zero, negative, large and tiny
+     * values, whose formatting by <tt>String.valueOf</tt> differs.
+     */
+    private static final double[] VALUES = {
+        0, 12.5, -1, 1.0E-5, 12345678.9, 3, 0.1 + 0.2, 1L << 40, 7, 99.999
+    };
+
+    @Test
+    public void writesTheFormerFormat()
+        throws IOException
+    {
+        FakeUserStats stats = createStats(0);
+
+        assertEquals(formatStatsJSON(stats, 4, null), write(stats, 4));
+    }
+
+    @Test
+    public void writesTheFormerFormatWithoutIndent()
+        throws IOException
+    {
+        FakeUserStats stats = createStats(5);
+
+        assertEquals(formatStatsJSON(stats, 0, null), write(stats, 0));
+        assertEquals(formatStatsJSON(stats, 0, null), stats.getStatsJSON(0));
+    }
+
+    @Test
+    public void writesTheFormerFormatWithTheReceivedStats()
+        throws IOException
+    {
+        FakeUserStats stats = createStats(3);
+        RtpReceiveStats receiveStats = new RtpReceiveStats();
+        stats.setReceiveStats(receiveStats);
+
+        assertEquals(
+            formatStatsJSON(stats, 2, receiveStats), write(stats, 2));
+    }
+
+    private static String write(FakeUserStats stats, int spaceIndent)
+        throws IOException
+    {
+        StringWriter out = new StringWriter();
+        JsonStatsWriter writer = new JsonStatsWriter(out);
+
+        stats.writeStatsJSON(writer, spaceIndent);
+        writer.flush();
+        return out.toString();
+    }
+
+    /**
+     * Create the <tt>FakeUserStats</tt> of a user with an audio and a video
+     * stream whose stats return <tt>VALUES</tt>, starting at
+     * <tt>offset</tt>.
+     */
+    static FakeUserStats createStats(int offset)
+    {
+        return TestMediaStreams.createUser(
+            "user-" + offset,
+            new StatsHandler(offset),
+            3735928559L,
+            new StatsHandler(offset + 1),
+            42);
+    }
+
+    /**
+     * Return a different value of <tt>VALUES</tt> for each getter of a
+     * <tt>MediaStreamStats</tt>, converted to its return type.
+     */
+    private static class StatsHandler
+        implements InvocationHandler
+    {
+        private final Map<String, Integer> indexes = new HashMap<>();
+
+        private final int offset;
+
+        StatsHandler(int offset)
+        {
+            this.offset = offset;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args)
+        {
+            Integer index = indexes.get(method.getName());
+            if (index == null)
+            {
+                index = offset + method.getName().length() + indexes.size();
+                indexes.put(method.getName(), index);
+            }
+
+            double value = VALUES[index % VALUES.length];
+            Class<?> type = method.getReturnType();
+            if (type == double.class)
+                return value;
+            if (type == long.class)
+                return (long) value;
+            if (type == int.class)
+                return (int) value;
+            return null;
+        }
+    }
+
+    /**
+     * The former implementation of <tt>FakeUserStats.getStatsJSON</tt>.
+     */
+    static String formatStatsJSON(
+        FakeUserStats stats,
+        int spaceIndent,
+        RtpReceiveStats receiveStats)
+    {
+        String indent
+            = new String(new char[spaceIndent]).replace("\0" ,  " ");
+        StringBuilder builder = new StringBuilder();
+        builder.append(indent + "{\n");
+        builder.append(
+            indent + "  \"username\" : \""+ stats.getUsername() +"\" , \n");
+        builder.append(indent + "  \"streams\" :\n");
+
+        List<Object> args = new ArrayList<>();
+        for (MediaType type
+                : new MediaType[] { MediaType.AUDIO, MediaType.VIDEO })
+        {
+            MediaStreamStats s = stats.getMediaStreamStats(type);
+
+            args.add(stats.getSSRC(type));
+            args.add(s.getDownloadJitterMs());
+            args.add(s.getDownloadPercentLoss());
+            args.add(s.getDownloadRateKiloBitPerSec());
+            args.add(s.getJitterBufferDelayMs());
+            args.add(s.getJitterBufferDelayPackets());
+            args.add(s.getNbDiscarded());
+            args.add(s.getNbDiscardedFull());
+            args.add(s.getNbDiscardedLate());
+            args.add(s.getNbDiscardedReset());
+            args.add(s.getNbDiscardedShrink());
+            args.add(s.getNbFec());
+            args.add(s.getNbPackets());
+            args.add(s.getNbPacketsLost());
+            args.add(s.getNbReceivedBytes());
+            args.add(s.getNbSentBytes());
+            args.add(s.getPacketQueueCountPackets());
+            args.add(s.getPacketQueueSize());
+            args.add(s.getPercentDiscarded());
+            args.add(s.getRttMs());
+            args.add(s.getUploadJitterMs());
+            args.add(s.getUploadPercentLoss());
+            args.add(s.getUploadRateKiloBitPerSec());
+        }
+
+        String str = String.format(FakeUserStats.jsonTemplate, args.toArray());
+        str = indent + str.replaceAll("\n", "\n"+indent);
+        builder.append(str);
+        if (receiveStats != null)
+        {
+            builder.append(" ,\n");
+            builder.append(indent + "  \"received\" : "
+                + receiveStats.getStatsJSON());
+        }
+        builder.append('\n');
+
+        builder.append(indent + "}");
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.stats;
+
+import org.apache.commons.math3.stat.descriptive.*;
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that merging the summaries of the shards with
+ * <tt>PartialSummaryStats.merge</tt> gives the same summary as adding all the
+ * values to a single <tt>SummaryStatistics</tt>.
+ */
+public class PartialSummaryStatsTest
+{
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void mergeOfShardsMatchesASingleSummary()
+    {
+        Random random = new Random(42);
+        SummaryStatistics all = new SummaryStatistics();
+        StatisticalSummary merged = PartialSummaryStats.EMPTY;
+
+        // Shards of different sizes, some of them empty or with a single
+        // value, and values far from 0 to catch a loss of precision.
+        int[] sizes = { 0, 1, 17, 0, 250, 3, 1, 1000 };
+        for (int size : sizes)
+        {
+            SummaryStatistics shard = new SummaryStatistics();
+            for (int i = 0; i < size; i++)
+            {
+                double value = 1e6 + random.nextGaussian() * 50;
+                shard.addValue(value);
+                all.addValue(value);
+            }
+            merged = PartialSummaryStats.merge(merged, shard.getSummary());
+        }
+
+        assertSummaryEquals(all, merged);
+    }
+
+    @Test
+    public void mergeWithAnEmptySummaryKeepsTheOther()
+    {
+        SummaryStatistics shard = new SummaryStatistics();
+        shard.addValue(3);
+        shard.addValue(5);
+        StatisticalSummary summary = shard.getSummary();
+
+        assertSame(
+            summary,
+            PartialSummaryStats.merge(summary, PartialSummaryStats.EMPTY));
+        assertSame(
+            summary,
+            PartialSummaryStats.merge(PartialSummaryStats.EMPTY, summary));
+    }
+
+    @Test
+    public void mergeOfEmptySummariesIsEmpty()
+    {
+        StatisticalSummary merged = PartialSummaryStats.merge(
+            PartialSummaryStats.EMPTY, PartialSummaryStats.EMPTY);
+
+        assertEquals(0, merged.getN());
+        assertEquals(0, merged.getSum(), 0);
+        assertTrue(Double.isNaN(merged.getMean()));
+    }
+
+    @Test
+    public void mergeOfTwoSingleValues()
+    {
+        SummaryStatistics a = new SummaryStatistics();
+        SummaryStatistics b = new SummaryStatistics();
+        SummaryStatistics all = new SummaryStatistics();
+        a.addValue(2);
+        b.addValue(8);
+        all.addValue(2);
+        all.addValue(8);
+
+        assertSummaryEquals(
+            all, PartialSummaryStats.merge(a.getSummary(), b.getSummary()));
+    }
+
+    private static void assertSummaryEquals(
+        StatisticalSummary expected,
+        StatisticalSummary actual)
+    {
+        assertEquals(expected.getN(), actual.getN());
+        assertEquals(expected.getMin(), actual.getMin(), 0);
+        assertEquals(expected.getMax(), actual.getMax(), 0);
+        assertEquals(
+            expected.getSum(), actual.getSum(),
+            Math.abs(expected.getSum()) * DELTA);
+        assertEquals(
+            expected.getMean(), actual.getMean(),
+            Math.abs(expected.getMean()) * DELTA);
+        assertEquals(
+            expected.getVariance(), actual.getVariance(),
+            Math.abs(expected.getVariance()) * 1e-6);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.stats;
+
+import org.junit.*;
+
+import java.util.*;
+import java.util.regex.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the loss, reordering and jitter computed by <tt>RtpReceiveStats</tt>
+ * from the RTP headers.
+ */
+public class RtpReceiveStatsTest
+{
+    /**
+     * The stats of a SSRC in <tt>RtpReceiveStats.getStatsJSON()</tt>.
+     */
+    private static final Pattern SSRC_STATS = Pattern.compile(
+        "\\{ \"ssrc\":(\\d+) , \"NbPackets\":(\\d+)"
+            + " , \"NbReceivedBytes\":(\\d+) , \"NbPacketsLost\":(\\d+)"
+            + " , \"NbReordered\":(\\d+) , \"NbDuplicated\":(\\d+)"
+            + " , \"JitterMs\":(\\S+) \\}");
+
+    private static final int PCMU = 0;
+
+    private static final int G722 = 9;
+
+    private static final int OPUS = 111;
+
+    private static final long MS = 1000000L;
+
+    private RtpReceiveStats stats;
+
+    @Before
+    public void createStats()
+    {
+        stats = new RtpReceiveStats();
+    }
+
+    @Test
+    public void streamInOrderHasNoLossAndNoJitter()
+    {
+        stats.setClockRate(OPUS, 48000);
+        for (int i = 0; i < 100; i++)
+            stats.record(1234, OPUS, 100 + i, 960L * i, 80, 20 * MS * i);
+
+        double[] s = getStats(1234);
+        assertEquals(100, (long) s[0]);
+        assertEquals(8000, (long) s[1]);
+        assertEquals(0, (long) s[2]);
+        assertEquals(0, (long) s[3]);
+        assertEquals(0, s[5], 1e-6);
+    }
+
+    @Test
+    public void skippedSequenceNumbersAreLost()
+    {
+        int[] sequenceNumbers = { 1, 2, 3, 6, 7, 10 };
+
+        for (int i = 0; i < sequenceNumbers.length; i++)
+            record(1, sequenceNumbers[i], 20 * MS * i);
+
+        double[] s = getStats(1);
+        assertEquals(6, (long) s[0]);
+        assertEquals(4, (long) s[2]);
+        assertEquals(0, (long) s[3]);
+    }
+
+    @Test
+    public void latePacketsAreReorderedNotLost()
+    {
+        int[] sequenceNumbers = { 1, 2, 4, 3, 5, 8, 6, 7 };
+
+        for (int i = 0; i < sequenceNumbers.length; i++)
+            record(1, sequenceNumbers[i], 20 * MS * i);
+
+        double[] s = getStats(1);
+        assertEquals(8, (long) s[0]);
+        assertEquals(0, (long) s[2]);
+        assertEquals(3, (long) s[3]);
+    }
+
+    @Test
+    public void duplicatesAreNeitherReorderedNorLost()
+    {
+        int[] sequenceNumbers = { 1, 2, 2, 3, 5, 5, 5 };
+
+        for (int i = 0; i < sequenceNumbers.length; i++)
+            record(1, sequenceNumbers[i], 20 * MS * i);
+
+        double[] s = getStats(1);
+        assertEquals(7, (long) s[0]);
+        assertEquals(1, (long) s[2]);
+        assertEquals(0, (long) s[3]);
+        assertEquals(3, (long) s[4]);
+    }
+
+    @Test
+    public void sequenceNumberWrapAroundIsNotLossNorReordering()
+    {
+        for (int i = 0; i < 20; i++)
+            record(1, (65530 + i) & 0xFFFF, 20 * MS * i);
+        // One lost after the wrap around.
+        record(1, (65530 + 21) & 0xFFFF, 20 * MS * 21);
+
+        double[] s = getStats(1);
+        assertEquals(21, (long) s[0]);
+        assertEquals(1, (long) s[2]);
+        assertEquals(0, (long) s[3]);
+    }
+
+    @Test
+    public void jitterConvergesToTheTransitTimeVariation()
+    {
+        // PCMU (static, 8000 Hz) packets of 20 ms arriving alternately on
+        // time and 4 ms late : the difference of transit time of two
+        // consecutive packets is always 4 ms.
+        for (int i = 0; i < 300; i++)
+        {
+            long arrival = 20 * MS * i + (i % 2 == 0 ? 0 : 4 * MS);
+            stats.record(1, PCMU, i, 160L * i, 172, arrival);
+        }
+
+        assertEquals(4, getStats(1)[5], 0.01);
+    }
+
+    @Test
+    public void g722UsesTheClockRateOf8000()
+    {
+        // G722 samples at 16 kHz, but its RTP clock rate is 8000 (RFC 3551).
+        for (int i = 0; i < 100; i++)
+            stats.record(1, G722, i, 160L * i, 172, 20 * MS * i);
+
+        assertEquals(0, getStats(1)[5], 1e-6);
+    }
+
+    @Test
+    public void manySsrcsAreCountedSeparately()
+    {
+        // More SSRCs than the initial capacity, interleaved.
+        for (int i = 0; i < 10; i++)
+        {
+            for (long ssrc = 1; ssrc <= 20; ssrc++)
+            {
+                if (i != (int) ssrc % 10)
+                    record(ssrc, i, 20 * MS * i);
+            }
+        }
+
+        for (long ssrc = 1; ssrc <= 20; ssrc++)
+        {
+            double[] s = getStats(ssrc);
+            long lost = ssrc % 10 == 0 || ssrc % 10 == 9 ? 0 : 1;
+            assertEquals(9, (long) s[0]);
+            assertEquals(lost, (long) s[2]);
+        }
+    }
+
+    @Test
+    public void ssrcsAreUnsigned()
+    {
+        record(0xFFFFFFFFL, 1, 0);
+
+        assertEquals(1, (long) getStats(0xFFFFFFFFL)[0]);
+    }
+
+    private void record(long ssrc, int sequenceNumber, long arrivalNanos)
+    {
+        stats.setClockRate(OPUS, 48000);
+        stats.record(
+            ssrc, OPUS, sequenceNumber, 960L * sequenceNumber, 100,
+            arrivalNanos);
+    }
+
+    /**
+     * Get the stats of a SSRC : the number of packets, bytes, lost,
+     * reordered and duplicated packets, and the jitter in milliseconds.
+     */
+    private double[] getStats(long ssrc)
+    {
+        Matcher matcher = SSRC_STATS.matcher(stats.getStatsJSON());
+
+        while (matcher.find())
+        {
+            if (Long.parseLong(matcher.group(1)) == ssrc)
+            {
+                double[] s = new double[6];
+                for (int i = 0; i < s.length; i++)
+                    s[i] = Double.parseDouble(matcher.group(i + 2));
+                return s;
+            }
+        }
+        fail("no stats for " + ssrc + " in " + stats.getStatsJSON());
+        return null;
+    }
+}
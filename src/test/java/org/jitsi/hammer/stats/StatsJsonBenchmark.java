@@ -0,0 +1,100 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.stats;
+
+import org.jitsi.service.neomedia.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures the time taken to write the stats of all the users at each poll
+ * of the <tt>HammerStats</tt> : streamed by
+ * <tt>FakeUserStats.writeStatsJSON</tt>, or built with the former
+ * <tt>String.format</tt> of <tt>FakeUserStats.jsonTemplate</tt>.
+ *
+ * The <tt>MediaStreamStats</tt> of the users are proxies, whose cost is
+ * measured alone by <tt>readStats</tt>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StatsJsonBenchmark
+{
+    @Param({ "100", "1000" })
+    public int users;
+
+    private FakeUserStats[] stats;
+
+    private final CharArrayWriter out = new CharArrayWriter(1 << 20);
+
+    @Setup
+    public void setup()
+    {
+        stats = new FakeUserStats[users];
+        for (int i = 0; i < users; i++)
+            stats[i] = FakeUserStatsTest.createStats(i);
+    }
+
+    @Benchmark
+    public double readStats()
+    {
+        double sum = 0;
+        for (FakeUserStats user : stats)
+        {
+            for (MediaType type : ColumnarStatsRecorder.MEDIA_TYPES)
+            {
+                MediaStreamStats streamStats = user.getMediaStreamStats(type);
+                for (StatsField field : StatsField.values())
+                    sum += field.get(streamStats);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int writeStatsJSON()
+        throws IOException
+    {
+        out.reset();
+        JsonStatsWriter writer = new JsonStatsWriter(out);
+        for (FakeUserStats user : stats)
+        {
+            user.writeStatsJSON(writer, 2);
+            writer.write(',').newLine();
+        }
+        writer.flush();
+        return out.size();
+    }
+
+    @Benchmark
+    public int formatStatsJSON()
+    {
+        out.reset();
+        StringBuilder builder = new StringBuilder();
+        for (FakeUserStats user : stats)
+        {
+            builder.append(FakeUserStatsTest.formatStatsJSON(user, 2, null));
+            builder.append(",\n");
+        }
+        out.append(builder);
+        return out.size();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.stats;
+
+import org.jitsi.service.neomedia.*;
+
+import java.lang.reflect.*;
+
+/**
+ * Builds fake <tt>MediaStream</tt>s, only giving their SSRC and their
+ * <tt>MediaStreamStats</tt>, and the <tt>FakeUserStats</tt> of users having
+ * them, for the tests and the benchmarks of the stats.
+ */
+public class TestMediaStreams
+{
+    /**
+     * Create the <tt>FakeUserStats</tt> of a user with an audio and a video
+     * stream.
+     *
+     * @param username the name of the user.
+     * @param audioStats the handler of the getters of the
+     * <tt>MediaStreamStats</tt> of the audio stream.
+     * @param audioSSRC the SSRC of the audio stream.
+     * @param videoStats the handler of the getters of the
+     * <tt>MediaStreamStats</tt> of the video stream.
+     * @param videoSSRC the SSRC of the video stream.
+     * @return the <tt>FakeUserStats</tt> of the user.
+     */
+    public static FakeUserStats createUser(
+        String username,
+        InvocationHandler audioStats,
+        long audioSSRC,
+        InvocationHandler videoStats,
+        long videoSSRC)
+    {
+        FakeUserStats user = new FakeUserStats(username);
+
+        user.setMediaStreamStats(
+            createStream(AudioMediaStream.class, audioSSRC, audioStats));
+        user.setMediaStreamStats(
+            createStream(VideoMediaStream.class, videoSSRC, videoStats));
+        return user;
+    }
+
+    /**
+     * Create a <tt>MediaStream</tt> whose only supported methods are
+     * <tt>getLocalSourceID</tt> and <tt>getMediaStreamStats</tt>.
+     *
+     * @param type the interface of the <tt>MediaStream</tt>.
+     * @param ssrc the SSRC of the <tt>MediaStream</tt>.
+     * @param statsHandler the handler of the getters of its
+     * <tt>MediaStreamStats</tt>.
+     * @return the <tt>MediaStream</tt>.
+     */
+    public static MediaStream createStream(
+        Class<? extends MediaStream> type,
+        final long ssrc,
+        InvocationHandler statsHandler)
+    {
+        final MediaStreamStats mediaStreamStats = (MediaStreamStats)
+            Proxy.newProxyInstance(
+                MediaStreamStats.class.getClassLoader(),
+                new Class<?>[] { MediaStreamStats.class },
+                statsHandler);
+
+        return (MediaStream) Proxy.newProxyInstance(
+            type.getClassLoader(),
+            new Class<?>[] { type },
+            new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] a)
+                {
+                    switch (method.getName())
+                    {
+                    case "getLocalSourceID":
+                        return ssrc;
+                    case "getMediaStreamStats":
+                        return mediaStreamStats;
+                    default:
+                        throw new UnsupportedOperationException(
+                            method.getName());
+                    }
+                }
+            });
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.utils;
+
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the reservation, release, wrap around and quarantine of the ports of
+ * a <tt>PortPool</tt>.
+ */
+public class PortPoolTest
+{
+    @Test
+    public void reservesThePortsInOrderUntilExhausted()
+    {
+        PortPool pool = new PortPool(6000, 6003);
+
+        for (int port = 6000; port < 6004; port++)
+            assertEquals(port, pool.reserve());
+        assertEquals(4, pool.getInUse());
+
+        assertEquals(-1, pool.reserve());
+        assertEquals(1, pool.getExhausted());
+    }
+
+    @Test
+    public void releasedPortIsHandedOutAgain()
+    {
+        PortPool pool = new PortPool(6000, 6003);
+
+        for (int i = 0; i < 4; i++)
+            pool.reserve();
+        assertTrue(pool.release(6002));
+        assertEquals(3, pool.getInUse());
+
+        // The search wraps around to the start of the range and finds the
+        // only free port.
+        assertEquals(6002, pool.reserve());
+        assertEquals(-1, pool.reserve());
+    }
+
+    @Test
+    public void releaseOfAPortNotReservedFails()
+    {
+        PortPool pool = new PortPool(6000, 6003);
+        int port = pool.reserve();
+
+        assertFalse(pool.release(6003));
+        assertFalse(pool.release(5999));
+        assertFalse(pool.release(6004));
+
+        assertTrue(pool.release(port));
+        assertFalse(pool.release(port));
+        assertEquals(0, pool.getInUse());
+    }
+
+    @Test
+    public void searchWrapsAroundAcrossWords()
+    {
+        // More than two words of the bitmap, the last one partially used.
+        PortPool pool = new PortPool(10000, 10129);
+        Set<Integer> ports = new HashSet<>();
+
+        for (int i = 0; i < 130; i++)
+        {
+            int port = pool.reserve();
+            assertTrue(port >= 10000 && port < 10130);
+            assertTrue("port handed out twice : " + port, ports.add(port));
+        }
+        assertEquals(-1, pool.reserve());
+
+        // The next search starts after the end of the range : it wraps
+        // around to the freed ports of the first and last words.
+        assertTrue(pool.release(10001));
+        assertTrue(pool.release(10129));
+        Set<Integer> again = new HashSet<>();
+        again.add(pool.reserve());
+        again.add(pool.reserve());
+        assertEquals(new HashSet<>(Arrays.asList(10001, 10129)), again);
+        assertEquals(-1, pool.reserve());
+    }
+
+    @Test
+    public void portThatCouldNotBeBoundIsQuarantined()
+    {
+        PortPool pool = new PortPool(6000, 6001);
+
+        int failed = pool.reserve();
+        pool.bindFailed(failed);
+        assertEquals(0, pool.getInUse());
+        assertEquals(1, pool.getBindFailures());
+
+        int port = pool.reserve();
+        assertTrue(port != failed);
+        assertTrue(pool.release(port));
+        assertEquals(port, pool.reserve());
+        assertEquals(-1, pool.reserve());
+    }
+
+    @Test
+    public void concurrentReservationsGetDistinctPorts()
+        throws Exception
+    {
+        final PortPool pool = new PortPool(20000, 20999);
+        final int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<List<Integer>>> results = new ArrayList<>();
+
+        try
+        {
+            for (int t = 0; t < threads; t++)
+            {
+                results.add(executor.submit(new Callable<List<Integer>>()
+                {
+                    @Override
+                    public List<Integer> call()
+                    {
+                        List<Integer> ports = new ArrayList<>();
+                        int port;
+                        while ((port = pool.reserve()) != -1)
+                            ports.add(port);
+                        return ports;
+                    }
+                }));
+            }
+
+            Set<Integer> all = new HashSet<>();
+            int count = 0;
+            for (Future<List<Integer>> result : results)
+            {
+                List<Integer> ports = result.get();
+                count += ports.size();
+                all.addAll(ports);
+            }
+            assertEquals(1000, count);
+            assertEquals(1000, all.size());
+            assertEquals(1000, pool.getInUse());
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void lastPortOfTheRangeIsHandedOut()
+    {
+        PortPool pool = new PortPool(6000, 6000);
+
+        assertEquals(1, pool.getSize());
+        assertEquals(6000, pool.reserve());
+        assertEquals(-1, pool.reserve());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyRangeIsRejected()
+    {
+        new PortPool(6000, 5999);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.utils;
+
+import net.java.sip.communicator.impl.protocol.jabber.extensions.jingle.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures what the signalling threads of the users pay to trace a stanza
+ * with the <tt>ProtocolTrace</tt>, disabled or sampling out the user,
+ * compared with the serialization of a session-accept that they did to
+ * print every stanza before.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ProtocolTraceBenchmark
+{
+    private final ProtocolTrace disabled = new ProtocolTrace();
+
+    private final ProtocolTrace sampled = new ProtocolTrace();
+
+    private NewJingleIQ sessionAccept;
+
+    private int user = 0;
+
+    @Setup
+    public void setup()
+        throws IOException
+    {
+        File file = File.createTempFile("hammer-trace", ".xml");
+        file.deleteOnExit();
+        sampled.setOutput(file.getPath());
+        sampled.setSampling(1 << 30);
+        sampled.start();
+
+        sessionAccept = new NewJingleIQ();
+        sessionAccept.setAction(NewJingleAction.SESSION_ACCEPT);
+        sessionAccept.setSID("benchmark");
+        for (NewContentPacketExtension content
+                : JingleTestContents.createOffer())
+        {
+            sessionAccept.addContent(content);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        sampled.stop();
+    }
+
+    @Benchmark
+    public boolean disabled()
+    {
+        boolean traced = disabled.isTraced(++user);
+        if (traced)
+            disabled.trace("user", "sent", sessionAccept);
+        return traced;
+    }
+
+    @Benchmark
+    public boolean sampledOut()
+    {
+        // Never 0 modulo the sampling.
+        int index = (++user & 0xFFFF) + 1;
+        boolean traced = sampled.isTraced(index);
+        if (traced)
+            sampled.trace("user", "sent", sessionAccept);
+        return traced;
+    }
+
+    @Benchmark
+    public String formerPrint()
+    {
+        return sessionAccept.toXML().toString();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.utils;
+
+import org.jitsi.service.neomedia.*;
+import org.jitsi.service.neomedia.device.*;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+import java.lang.reflect.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures the lookup of the RTP extensions of an offer among the ones
+ * supported by the chosen <tt>MediaDevice</tt> : in the map of
+ * <tt>MediaDeviceChooser.getSupportedExtensions</tt>, compared with the
+ * former scan of the list of the <tt>MediaDevice</tt>, which compared the
+ * URI of every local extension, as ASCII, with the one looked up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RtpExtensionsBenchmark
+{
+    /**
+     * The URIs of the RTP extensions supported by the device.
+     */
+    private static final String[] LOCAL_URIS = {
+        "urn:ietf:params:rtp-hdrext:csrc-audio-level",
+        "urn:ietf:params:rtp-hdrext:ssrc-audio-level",
+        "http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time",
+        "urn:ietf:params:rtp-hdrext:toffset",
+        "urn:3gpp:video-orientation"
+    };
+
+    /**
+     * The URIs of the RTP extensions of the offer.
+     */
+    private static final String[] REMOTE_URIS = {
+        "urn:ietf:params:rtp-hdrext:ssrc-audio-level",
+        "http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time",
+        "urn:3gpp:video-orientation",
+        "http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-"
+            + "extensions-01",
+        "urn:ietf:params:rtp-hdrext:sdes:mid"
+    };
+
+    private final MediaDeviceChooser chooser = new MediaDeviceChooser();
+
+    private final List<RTPExtension> remoteExtensions = new ArrayList<>();
+
+    @Setup
+    public void setup()
+    {
+        final List<RTPExtension> localExtensions = new ArrayList<>();
+        for (String uri : LOCAL_URIS)
+            localExtensions.add(new RTPExtension(URI.create(uri)));
+        for (String uri : REMOTE_URIS)
+            remoteExtensions.add(new RTPExtension(URI.create(uri)));
+
+        chooser.setMediaDevice((MediaDevice) Proxy.newProxyInstance(
+            MediaDevice.class.getClassLoader(),
+            new Class<?>[] { MediaDevice.class },
+            new InvocationHandler()
+            {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] a)
+                {
+                    switch (method.getName())
+                    {
+                    case "getMediaType":
+                        return MediaType.VIDEO;
+                    case "getSupportedExtensions":
+                        return localExtensions;
+                    case "toString":
+                        return "RtpExtensionsBenchmark device";
+                    default:
+                        throw new UnsupportedOperationException(
+                            method.getName());
+                    }
+                }
+            }));
+    }
+
+    @Benchmark
+    public void mapLookup(Blackhole blackhole)
+    {
+        Map<String, RTPExtension> supportedExtensions
+            = chooser.getSupportedExtensions(MediaType.VIDEO);
+
+        for (RTPExtension remoteExtension : remoteExtensions)
+        {
+            blackhole.consume(
+                supportedExtensions.get(remoteExtension.getURI().toString()));
+        }
+    }
+
+    @Benchmark
+    public void formerScan(Blackhole blackhole)
+    {
+        List<RTPExtension> supportedExtensions
+            = chooser.getMediaDevice(MediaType.VIDEO).getSupportedExtensions();
+
+        for (RTPExtension remoteExtension : remoteExtensions)
+        {
+            blackhole.consume(findExtension(
+                supportedExtensions, remoteExtension.getURI().toString()));
+        }
+    }
+
+    /**
+     * The former <tt>FakeUser.findExtension</tt>.
+     */
+    private static RTPExtension findExtension(
+        List<RTPExtension> extList,
+        String extensionURN)
+    {
+        for (RTPExtension rtpExt : extList)
+            if (rtpExt.getURI().toASCIIString().equals(extensionURN))
+                return rtpExt;
+        return null;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright @ 2017 Atlassian Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jitsi.hammer.utils;
+
+import net.java.sip.communicator.impl.protocol.jabber.extensions.jingle.*;
+import org.jivesoftware.smack.util.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures what each user pays to build and serialize the contents of its
+ * session-accept : copied from a shared <tt>SessionAcceptTemplate</tt>, or
+ * built from scratch as every user did before (the negotiation of the
+ * formats with libjitsi, which the template also saves, is left out).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SessionAcceptTemplateBenchmark
+{
+    private SessionAcceptTemplate template;
+
+    @Setup
+    public void setup()
+    {
+        List<NewContentPacketExtension> offer
+            = JingleTestContents.createOffer();
+        SessionAcceptTemplate template = new SessionAcceptTemplate();
+
+        for (NewContentPacketExtension content : offer)
+            template.addContent(content, null, null, null, null);
+        this.template = SessionAcceptTemplate.putIfAbsent(
+            SessionAcceptTemplate.getOfferFingerprint(offer), template);
+    }
+
+    @Benchmark
+    public Collection<NewContentPacketExtension> copyTemplate()
+    {
+        return template.createContents().values();
+    }
+
+    @Benchmark
+    public Collection<NewContentPacketExtension> buildContents()
+    {
+        return JingleTestContents.createOffer();
+    }
+
+    @Benchmark
+    public int copyTemplateToXML()
+    {
+        return toXML(copyTemplate());
+    }
+
+    @Benchmark
+    public int buildContentsToXML()
+    {
+        return toXML(buildContents());
+    }
+
+    private static int toXML(Collection<NewContentPacketExtension> contents)
+    {
+        XmlStringBuilder xml = new XmlStringBuilder();
+        for (NewContentPacketExtension content : contents)
+            content.appendXML(xml);
+        return xml.length();
+    }
+}